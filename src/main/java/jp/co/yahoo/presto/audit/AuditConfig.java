@@ -15,10 +15,25 @@ package jp.co.yahoo.presto.audit;
 
 import io.airlift.configuration.Config;
 import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.pulsar.MessageKey;
+import jp.co.yahoo.presto.audit.pulsar.RoutingMode;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
 
 import javax.annotation.Nullable;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public class AuditConfig
 {
     private String auditLogPath;
@@ -38,6 +53,89 @@ public class AuditConfig
     private String roleHeader;
     private AuditLogFileWriter auditLogFileWriter = AuditLogFileWriter.getInstance();
     private boolean useTLS = true;
+    private String outboxPath;
+    private DataSize outboxSegmentSize = new DataSize(64, MEGABYTE);
+    private DataSize outboxMaxSize = new DataSize(1, GIGABYTE);
+    private double outboxReplayRate = 100;
+    private int circuitBreakerFailureThreshold = 5;
+    private Duration circuitBreakerOpenDuration = new Duration(30, SECONDS);
+    private MessageKey messageKey = MessageKey.NONE;
+    private RoutingMode routingMode = RoutingMode.ROUND_ROBIN;
+    private int simpleTopicPartitions = 1;
+    private int fullTopicPartitions = 1;
+    private String coordinatorId;
+    private String auditSinks;
+    private int pulsarQueueSize = 10000;
+    private int pulsarBatchSize = 100;
+    private Duration pulsarLinger = new Duration(0, MILLISECONDS);
+    private String httpSimpleLogUrl;
+    private String httpFullLogUrl;
+    private int httpQueueSize = 10000;
+    private int httpBatchSize = 500;
+    private Duration httpLinger = new Duration(100, MILLISECONDS);
+    private int httpConcurrency = 2;
+    private int httpMaxRetries = 3;
+    private Duration httpRetryBackoff = new Duration(100, MILLISECONDS);
+    private Duration httpRequestTimeout = new Duration(10, SECONDS);
+    private String jdbcUrl;
+    private String jdbcUser;
+    private String jdbcPassword;
+    private String jdbcTable = "presto_audit";
+    private int jdbcQueueSize = 10000;
+    private int jdbcBatchSize = 1000;
+    private Duration jdbcFlushInterval = new Duration(1, SECONDS);
+    private int jdbcWriterThreads = 1;
+    private String binaryPath;
+    private DataSize binarySegmentSize = new DataSize(64, MEGABYTE);
+    private LogEncoding fullLogEncoding = LogEncoding.JSON;
+    private String auditCreatedLogName;
+    private String auditSummaryLogName;
+    private String auditStackTraceLogName;
+    private int inFlightMaxQueries = 10000;
+    private String inFlightSnapshotPath;
+    private Duration inFlightSnapshotInterval = new Duration(1, MINUTES);
+    private Duration longRunningThreshold = new Duration(10, MINUTES);
+    private Duration inFlightMaxAge = new Duration(1, DAYS);
+    private boolean splitStatisticsEnabled;
+    private boolean metricsEnabled;
+    private int metricsMaxKeys = 100;
+    private boolean heavyHittersEnabled;
+    private int heavyHittersCapacity = 1000;
+    private int heavyHittersTop = 20;
+    private Duration heavyHittersWindow = new Duration(5, MINUTES);
+    private String heavyHittersPath;
+    private boolean accessIndexEnabled;
+    private int accessIndexMaxEntries = 100000;
+    private String accessIndexPath;
+    private boolean slowQueryEnabled;
+    private Duration slowQueryWallTime;
+    private Duration slowQueryCpuTime;
+    private DataSize slowQueryPeakMemory;
+    private DataSize slowQueryInputBytes;
+    private String slowQueryThresholdsPath;
+    private String filterRulesPath;
+    private Duration configReloadInterval;
+    private int warmUpIterations = 1000;
+    private boolean sheddingEnabled;
+    private double sheddingFullLogWatermark = 0.5;
+    private double sheddingSampleWatermark = 0.8;
+    private double sheddingHysteresis = 0.2;
+    private double sheddingSampleRate = 0.1;
+    private boolean rateLimitEnabled;
+    private double rateLimitRate = 10;
+    private int rateLimitBurst = 100;
+    private int rateLimitMaxTenants = 10000;
+    private boolean failureCoalescingEnabled;
+    private Duration failureCoalescingWindow = new Duration(10, SECONDS);
+    private int failureCoalescingMaxKeys = 10000;
+    private boolean stackTraceDedupEnabled;
+    private int stackTraceDedupCacheSize = 10000;
+    private boolean heartbeatEnabled;
+    private boolean pulsarSimpleLogBinary;
+    private Duration heartbeatInterval = new Duration(10, SECONDS);
+    private Duration heartbeatAllowedDelay = new Duration(5, SECONDS);
+    private Duration rateLimitSummaryInterval = new Duration(1, MINUTES);
+    private Duration accessIndexFlushInterval = new Duration(1, MINUTES);
 
     @NotNull
     public AuditLogFileWriter getAuditLogFileWriter()
@@ -93,6 +191,48 @@ public class AuditConfig
         return this;
     }
 
+    @Nullable
+    public String getAuditCreatedLogName()
+    {
+        return auditCreatedLogName;
+    }
+
+    @Config("event-listener.audit-log-created-filename")
+    @ConfigDescription("file name of records written when queries are created")
+    public AuditConfig setAuditCreatedLogName(String auditCreatedLogName)
+    {
+        this.auditCreatedLogName = auditCreatedLogName;
+        return this;
+    }
+
+    @Nullable
+    public String getAuditSummaryLogName()
+    {
+        return auditSummaryLogName;
+    }
+
+    @Config("event-listener.audit-log-summary-filename")
+    @ConfigDescription("file name of summary records of queries beyond their rate limit")
+    public AuditConfig setAuditSummaryLogName(String auditSummaryLogName)
+    {
+        this.auditSummaryLogName = auditSummaryLogName;
+        return this;
+    }
+
+    @Nullable
+    public String getAuditStackTraceLogName()
+    {
+        return auditStackTraceLogName;
+    }
+
+    @Config("event-listener.audit-log-stack-trace-filename")
+    @ConfigDescription("file name of distinct failure stack traces")
+    public AuditConfig setAuditStackTraceLogName(String auditStackTraceLogName)
+    {
+        this.auditStackTraceLogName = auditStackTraceLogName;
+        return this;
+    }
+
     @Nullable
     public String getSimpleTopic()
     {
@@ -191,6 +331,20 @@ public class AuditConfig
         return this;
     }
 
+    @NotNull
+    public LogEncoding getFullLogEncoding()
+    {
+        return fullLogEncoding;
+    }
+
+    @Config("event-listener.audit-log-full-encoding")
+    @ConfigDescription("encoding of the full log: JSON, SMILE or CBOR")
+    public AuditConfig setFullLogEncoding(LogEncoding fullLogEncoding)
+    {
+        this.fullLogEncoding = fullLogEncoding;
+        return this;
+    }
+
     @Nullable
     public String getTenantDomain()
     {
@@ -274,4 +428,1103 @@ public class AuditConfig
         this.roleHeader = athenzRoleHeader;
         return this;
     }
+
+    @Nullable
+    public String getPulsarOutboxPath()
+    {
+        return outboxPath;
+    }
+
+    @Config("event-listener.pulsar.outbox-path")
+    @ConfigDescription("directory for messages not yet delivered to Pulsar broker")
+    public AuditConfig setPulsarOutboxPath(String outboxPath)
+    {
+        this.outboxPath = outboxPath;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getPulsarOutboxSegmentSize()
+    {
+        return outboxSegmentSize;
+    }
+
+    @Config("event-listener.pulsar.outbox-segment-size")
+    @ConfigDescription("size of one Pulsar outbox segment file")
+    public AuditConfig setPulsarOutboxSegmentSize(DataSize outboxSegmentSize)
+    {
+        this.outboxSegmentSize = outboxSegmentSize;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getPulsarOutboxMaxSize()
+    {
+        return outboxMaxSize;
+    }
+
+    @Config("event-listener.pulsar.outbox-max-size")
+    @ConfigDescription("maximum disk usage of Pulsar outbox per topic")
+    public AuditConfig setPulsarOutboxMaxSize(DataSize outboxMaxSize)
+    {
+        this.outboxMaxSize = outboxMaxSize;
+        return this;
+    }
+
+    @Min(1)
+    public double getPulsarOutboxReplayRate()
+    {
+        return outboxReplayRate;
+    }
+
+    @Config("event-listener.pulsar.outbox-replay-rate")
+    @ConfigDescription("maximum messages per second replayed from Pulsar outbox while the circuit breaker is not closed")
+    public AuditConfig setPulsarOutboxReplayRate(double outboxReplayRate)
+    {
+        this.outboxReplayRate = outboxReplayRate;
+        return this;
+    }
+
+    @Min(1)
+    public int getPulsarCircuitBreakerFailureThreshold()
+    {
+        return circuitBreakerFailureThreshold;
+    }
+
+    @Config("event-listener.pulsar.circuit-breaker-failure-threshold")
+    @ConfigDescription("consecutive send failures before sends to Pulsar broker are short-circuited")
+    public AuditConfig setPulsarCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold)
+    {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        return this;
+    }
+
+    @NotNull
+    public Duration getPulsarCircuitBreakerOpenDuration()
+    {
+        return circuitBreakerOpenDuration;
+    }
+
+    @Config("event-listener.pulsar.circuit-breaker-open-duration")
+    @ConfigDescription("time before a short-circuited Pulsar producer probes the broker again")
+    public AuditConfig setPulsarCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration)
+    {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        return this;
+    }
+
+    @NotNull
+    public MessageKey getPulsarMessageKey()
+    {
+        return messageKey;
+    }
+
+    @Config("event-listener.pulsar.message-key")
+    @ConfigDescription("key of Pulsar messages: NONE, QUERY_ID, USER, SOURCE or USER_SOURCE_HASH")
+    public AuditConfig setPulsarMessageKey(MessageKey messageKey)
+    {
+        this.messageKey = messageKey;
+        return this;
+    }
+
+    @NotNull
+    public RoutingMode getPulsarRoutingMode()
+    {
+        return routingMode;
+    }
+
+    @Config("event-listener.pulsar.routing-mode")
+    @ConfigDescription("partition routing of Pulsar messages without a key: ROUND_ROBIN or SINGLE_PARTITION")
+    public AuditConfig setPulsarRoutingMode(RoutingMode routingMode)
+    {
+        this.routingMode = routingMode;
+        return this;
+    }
+
+    @Min(1)
+    public int getSimpleTopicPartitions()
+    {
+        return simpleTopicPartitions;
+    }
+
+    @Config("event-listener.pulsar.simple-log-topic-partitions")
+    @ConfigDescription("partitions of the Pulsar simple log topic, so heartbeats can be sent to each of them")
+    public AuditConfig setSimpleTopicPartitions(int simpleTopicPartitions)
+    {
+        this.simpleTopicPartitions = simpleTopicPartitions;
+        return this;
+    }
+
+    @Min(1)
+    public int getFullTopicPartitions()
+    {
+        return fullTopicPartitions;
+    }
+
+    @Config("event-listener.pulsar.full-log-topic-partitions")
+    @ConfigDescription("partitions of the Pulsar full log topic, so heartbeats can be sent to each of them")
+    public AuditConfig setFullTopicPartitions(int fullTopicPartitions)
+    {
+        this.fullTopicPartitions = fullTopicPartitions;
+        return this;
+    }
+
+    @Nullable
+    public String getCoordinatorId()
+    {
+        return coordinatorId;
+    }
+
+    @Config("event-listener.coordinator-id")
+    @ConfigDescription("stable identity of this coordinator, defaults to the host name")
+    public AuditConfig setCoordinatorId(String coordinatorId)
+    {
+        this.coordinatorId = coordinatorId;
+        return this;
+    }
+
+    @Nullable
+    public String getAuditSinks()
+    {
+        return auditSinks;
+    }
+
+    @Config("event-listener.audit-sinks")
+    @ConfigDescription("comma separated audit sinks, defaults to file plus each sink with a topic or URL set")
+    public AuditConfig setAuditSinks(String auditSinks)
+    {
+        this.auditSinks = auditSinks;
+        return this;
+    }
+
+    @Min(1)
+    public int getPulsarQueueSize()
+    {
+        return pulsarQueueSize;
+    }
+
+    @Config("event-listener.pulsar.queue-size")
+    @ConfigDescription("maximum records waiting to be sent to Pulsar")
+    public AuditConfig setPulsarQueueSize(int pulsarQueueSize)
+    {
+        this.pulsarQueueSize = pulsarQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getPulsarBatchSize()
+    {
+        return pulsarBatchSize;
+    }
+
+    @Config("event-listener.pulsar.batch-size")
+    @ConfigDescription("maximum records taken from the Pulsar sink queue at once")
+    public AuditConfig setPulsarBatchSize(int pulsarBatchSize)
+    {
+        this.pulsarBatchSize = pulsarBatchSize;
+        return this;
+    }
+
+    @NotNull
+    public Duration getPulsarLinger()
+    {
+        return pulsarLinger;
+    }
+
+    @Config("event-listener.pulsar.linger")
+    @ConfigDescription("maximum time to wait for a Pulsar sink batch to fill")
+    public AuditConfig setPulsarLinger(Duration pulsarLinger)
+    {
+        this.pulsarLinger = pulsarLinger;
+        return this;
+    }
+
+    @Nullable
+    public String getHttpSimpleLogUrl()
+    {
+        return httpSimpleLogUrl;
+    }
+
+    @Config("event-listener.http.simple-log-url")
+    @ConfigDescription("collector URL for simple logs")
+    public AuditConfig setHttpSimpleLogUrl(String httpSimpleLogUrl)
+    {
+        this.httpSimpleLogUrl = httpSimpleLogUrl;
+        return this;
+    }
+
+    @Nullable
+    public String getHttpFullLogUrl()
+    {
+        return httpFullLogUrl;
+    }
+
+    @Config("event-listener.http.full-log-url")
+    @ConfigDescription("collector URL for full logs")
+    public AuditConfig setHttpFullLogUrl(String httpFullLogUrl)
+    {
+        this.httpFullLogUrl = httpFullLogUrl;
+        return this;
+    }
+
+    @Min(1)
+    public int getHttpQueueSize()
+    {
+        return httpQueueSize;
+    }
+
+    @Config("event-listener.http.queue-size")
+    @ConfigDescription("maximum records waiting to be posted")
+    public AuditConfig setHttpQueueSize(int httpQueueSize)
+    {
+        this.httpQueueSize = httpQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getHttpBatchSize()
+    {
+        return httpBatchSize;
+    }
+
+    @Config("event-listener.http.batch-size")
+    @ConfigDescription("maximum records in one HTTP request")
+    public AuditConfig setHttpBatchSize(int httpBatchSize)
+    {
+        this.httpBatchSize = httpBatchSize;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHttpLinger()
+    {
+        return httpLinger;
+    }
+
+    @Config("event-listener.http.linger")
+    @ConfigDescription("maximum time to wait for an HTTP batch to fill")
+    public AuditConfig setHttpLinger(Duration httpLinger)
+    {
+        this.httpLinger = httpLinger;
+        return this;
+    }
+
+    @Min(1)
+    public int getHttpConcurrency()
+    {
+        return httpConcurrency;
+    }
+
+    @Config("event-listener.http.concurrency")
+    @ConfigDescription("number of concurrent HTTP requests")
+    public AuditConfig setHttpConcurrency(int httpConcurrency)
+    {
+        this.httpConcurrency = httpConcurrency;
+        return this;
+    }
+
+    @Min(0)
+    public int getHttpMaxRetries()
+    {
+        return httpMaxRetries;
+    }
+
+    @Config("event-listener.http.max-retries")
+    @ConfigDescription("retries of a failed HTTP request")
+    public AuditConfig setHttpMaxRetries(int httpMaxRetries)
+    {
+        this.httpMaxRetries = httpMaxRetries;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHttpRetryBackoff()
+    {
+        return httpRetryBackoff;
+    }
+
+    @Config("event-listener.http.retry-backoff")
+    @ConfigDescription("delay before the first retry, doubled on each further retry")
+    public AuditConfig setHttpRetryBackoff(Duration httpRetryBackoff)
+    {
+        this.httpRetryBackoff = httpRetryBackoff;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHttpRequestTimeout()
+    {
+        return httpRequestTimeout;
+    }
+
+    @Config("event-listener.http.request-timeout")
+    @ConfigDescription("connect and read timeout of HTTP requests")
+    public AuditConfig setHttpRequestTimeout(Duration httpRequestTimeout)
+    {
+        this.httpRequestTimeout = httpRequestTimeout;
+        return this;
+    }
+
+    @Nullable
+    public String getJdbcUrl()
+    {
+        return jdbcUrl;
+    }
+
+    @Config("event-listener.jdbc.url")
+    @ConfigDescription("JDBC URL of the database for simple logs")
+    public AuditConfig setJdbcUrl(String jdbcUrl)
+    {
+        this.jdbcUrl = jdbcUrl;
+        return this;
+    }
+
+    @Nullable
+    public String getJdbcUser()
+    {
+        return jdbcUser;
+    }
+
+    @Config("event-listener.jdbc.user")
+    @ConfigDescription("JDBC user")
+    public AuditConfig setJdbcUser(String jdbcUser)
+    {
+        this.jdbcUser = jdbcUser;
+        return this;
+    }
+
+    @Nullable
+    public String getJdbcPassword()
+    {
+        return jdbcPassword;
+    }
+
+    @Config("event-listener.jdbc.password")
+    @ConfigDescription("JDBC password")
+    public AuditConfig setJdbcPassword(String jdbcPassword)
+    {
+        this.jdbcPassword = jdbcPassword;
+        return this;
+    }
+
+    @NotNull
+    public String getJdbcTable()
+    {
+        return jdbcTable;
+    }
+
+    @Config("event-listener.jdbc.table")
+    @ConfigDescription("table for simple logs")
+    public AuditConfig setJdbcTable(String jdbcTable)
+    {
+        this.jdbcTable = jdbcTable;
+        return this;
+    }
+
+    @Min(1)
+    public int getJdbcQueueSize()
+    {
+        return jdbcQueueSize;
+    }
+
+    @Config("event-listener.jdbc.queue-size")
+    @ConfigDescription("maximum records waiting to be inserted")
+    public AuditConfig setJdbcQueueSize(int jdbcQueueSize)
+    {
+        this.jdbcQueueSize = jdbcQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getJdbcBatchSize()
+    {
+        return jdbcBatchSize;
+    }
+
+    @Config("event-listener.jdbc.batch-size")
+    @ConfigDescription("maximum records in one batch insert")
+    public AuditConfig setJdbcBatchSize(int jdbcBatchSize)
+    {
+        this.jdbcBatchSize = jdbcBatchSize;
+        return this;
+    }
+
+    @NotNull
+    public Duration getJdbcFlushInterval()
+    {
+        return jdbcFlushInterval;
+    }
+
+    @Config("event-listener.jdbc.flush-interval")
+    @ConfigDescription("maximum time to wait for a JDBC batch to fill")
+    public AuditConfig setJdbcFlushInterval(Duration jdbcFlushInterval)
+    {
+        this.jdbcFlushInterval = jdbcFlushInterval;
+        return this;
+    }
+
+    @Min(1)
+    public int getJdbcWriterThreads()
+    {
+        return jdbcWriterThreads;
+    }
+
+    @Config("event-listener.jdbc.writer-threads")
+    @ConfigDescription("number of writer threads, each with its own connection")
+    public AuditConfig setJdbcWriterThreads(int jdbcWriterThreads)
+    {
+        this.jdbcWriterThreads = jdbcWriterThreads;
+        return this;
+    }
+
+    @Nullable
+    public String getBinaryPath()
+    {
+        return binaryPath;
+    }
+
+    @Config("event-listener.binary.path")
+    @ConfigDescription("directory for binary simple log segments")
+    public AuditConfig setBinaryPath(String binaryPath)
+    {
+        this.binaryPath = binaryPath;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getBinarySegmentSize()
+    {
+        return binarySegmentSize;
+    }
+
+    @Config("event-listener.binary.segment-size")
+    @ConfigDescription("size at which a new binary segment file is started")
+    public AuditConfig setBinarySegmentSize(DataSize binarySegmentSize)
+    {
+        this.binarySegmentSize = binarySegmentSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getInFlightMaxQueries()
+    {
+        return inFlightMaxQueries;
+    }
+
+    @Config("event-listener.in-flight.max-queries")
+    @ConfigDescription("maximum number of tracked in-flight queries")
+    public AuditConfig setInFlightMaxQueries(int inFlightMaxQueries)
+    {
+        this.inFlightMaxQueries = inFlightMaxQueries;
+        return this;
+    }
+
+    @Nullable
+    public String getInFlightSnapshotPath()
+    {
+        return inFlightSnapshotPath;
+    }
+
+    @Config("event-listener.in-flight.snapshot-path")
+    @ConfigDescription("file for periodic snapshots of long running queries")
+    public AuditConfig setInFlightSnapshotPath(String inFlightSnapshotPath)
+    {
+        this.inFlightSnapshotPath = inFlightSnapshotPath;
+        return this;
+    }
+
+    @NotNull
+    public Duration getInFlightSnapshotInterval()
+    {
+        return inFlightSnapshotInterval;
+    }
+
+    @Config("event-listener.in-flight.snapshot-interval")
+    @ConfigDescription("interval between snapshots of long running queries")
+    public AuditConfig setInFlightSnapshotInterval(Duration inFlightSnapshotInterval)
+    {
+        this.inFlightSnapshotInterval = inFlightSnapshotInterval;
+        return this;
+    }
+
+    @NotNull
+    public Duration getLongRunningThreshold()
+    {
+        return longRunningThreshold;
+    }
+
+    @Config("event-listener.in-flight.long-running-threshold")
+    @ConfigDescription("age after which an in-flight query is in the snapshot")
+    public AuditConfig setLongRunningThreshold(Duration longRunningThreshold)
+    {
+        this.longRunningThreshold = longRunningThreshold;
+        return this;
+    }
+
+    @NotNull
+    public Duration getInFlightMaxAge()
+    {
+        return inFlightMaxAge;
+    }
+
+    @Config("event-listener.in-flight.max-age")
+    @ConfigDescription("age after which an in-flight query whose completion was never reported is dropped")
+    public AuditConfig setInFlightMaxAge(Duration inFlightMaxAge)
+    {
+        this.inFlightMaxAge = inFlightMaxAge;
+        return this;
+    }
+
+    public boolean isSplitStatisticsEnabled()
+    {
+        return splitStatisticsEnabled;
+    }
+
+    @Config("event-listener.split-statistics.enabled")
+    @ConfigDescription("aggregate split statistics of in-flight queries into their simple log records")
+    public AuditConfig setSplitStatisticsEnabled(boolean splitStatisticsEnabled)
+    {
+        this.splitStatisticsEnabled = splitStatisticsEnabled;
+        return this;
+    }
+
+    public boolean isMetricsEnabled()
+    {
+        return metricsEnabled;
+    }
+
+    @Config("event-listener.metrics.enabled")
+    @ConfigDescription("export sliding window percentiles of completed queries via JMX")
+    public AuditConfig setMetricsEnabled(boolean metricsEnabled)
+    {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getMetricsMaxKeys()
+    {
+        return metricsMaxKeys;
+    }
+
+    @Config("event-listener.metrics.max-keys")
+    @ConfigDescription("maximum number of users, sources or states with their own query metrics")
+    public AuditConfig setMetricsMaxKeys(int metricsMaxKeys)
+    {
+        this.metricsMaxKeys = metricsMaxKeys;
+        return this;
+    }
+
+    public boolean isHeavyHittersEnabled()
+    {
+        return heavyHittersEnabled;
+    }
+
+    @Config("event-listener.heavy-hitters.enabled")
+    @ConfigDescription("rank users, sources and query fingerprints by resource usage")
+    public AuditConfig setHeavyHittersEnabled(boolean heavyHittersEnabled)
+    {
+        this.heavyHittersEnabled = heavyHittersEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getHeavyHittersCapacity()
+    {
+        return heavyHittersCapacity;
+    }
+
+    @Config("event-listener.heavy-hitters.capacity")
+    @ConfigDescription("number of counters per heavy hitter ranking")
+    public AuditConfig setHeavyHittersCapacity(int heavyHittersCapacity)
+    {
+        this.heavyHittersCapacity = heavyHittersCapacity;
+        return this;
+    }
+
+    @Min(1)
+    public int getHeavyHittersTop()
+    {
+        return heavyHittersTop;
+    }
+
+    @Config("event-listener.heavy-hitters.top")
+    @ConfigDescription("number of entries published per heavy hitter ranking")
+    public AuditConfig setHeavyHittersTop(int heavyHittersTop)
+    {
+        this.heavyHittersTop = heavyHittersTop;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHeavyHittersWindow()
+    {
+        return heavyHittersWindow;
+    }
+
+    @Config("event-listener.heavy-hitters.window")
+    @ConfigDescription("length of the heavy hitter ranking window")
+    public AuditConfig setHeavyHittersWindow(Duration heavyHittersWindow)
+    {
+        this.heavyHittersWindow = heavyHittersWindow;
+        return this;
+    }
+
+    @Nullable
+    public String getHeavyHittersPath()
+    {
+        return heavyHittersPath;
+    }
+
+    @Config("event-listener.heavy-hitters.path")
+    @ConfigDescription("file replaced with the ranking of each completed window")
+    public AuditConfig setHeavyHittersPath(String heavyHittersPath)
+    {
+        this.heavyHittersPath = heavyHittersPath;
+        return this;
+    }
+
+    public boolean isAccessIndexEnabled()
+    {
+        return accessIndexEnabled;
+    }
+
+    @Config("event-listener.access-index.enabled")
+    @ConfigDescription("aggregate table and column accesses of completed queries")
+    public AuditConfig setAccessIndexEnabled(boolean accessIndexEnabled)
+    {
+        this.accessIndexEnabled = accessIndexEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getAccessIndexMaxEntries()
+    {
+        return accessIndexMaxEntries;
+    }
+
+    @Config("event-listener.access-index.max-entries")
+    @ConfigDescription("maximum number of tables and columns in the access index")
+    public AuditConfig setAccessIndexMaxEntries(int accessIndexMaxEntries)
+    {
+        this.accessIndexMaxEntries = accessIndexMaxEntries;
+        return this;
+    }
+
+    @Nullable
+    public String getAccessIndexPath()
+    {
+        return accessIndexPath;
+    }
+
+    @Config("event-listener.access-index.path")
+    @ConfigDescription("snapshot file of the access index")
+    public AuditConfig setAccessIndexPath(String accessIndexPath)
+    {
+        this.accessIndexPath = accessIndexPath;
+        return this;
+    }
+
+    @NotNull
+    public Duration getAccessIndexFlushInterval()
+    {
+        return accessIndexFlushInterval;
+    }
+
+    @Config("event-listener.access-index.flush-interval")
+    @ConfigDescription("interval between writes of changed access index entries")
+    public AuditConfig setAccessIndexFlushInterval(Duration accessIndexFlushInterval)
+    {
+        this.accessIndexFlushInterval = accessIndexFlushInterval;
+        return this;
+    }
+
+    public boolean isSlowQueryEnabled()
+    {
+        return slowQueryEnabled;
+    }
+
+    @Config("event-listener.slow-query.enabled")
+    @ConfigDescription("write full logs only for failed queries and queries exceeding a threshold")
+    public AuditConfig setSlowQueryEnabled(boolean slowQueryEnabled)
+    {
+        this.slowQueryEnabled = slowQueryEnabled;
+        return this;
+    }
+
+    @Nullable
+    public Duration getSlowQueryWallTime()
+    {
+        return slowQueryWallTime;
+    }
+
+    @Config("event-listener.slow-query.wall-time")
+    @ConfigDescription("wall time above which a query gets a full log")
+    public AuditConfig setSlowQueryWallTime(Duration slowQueryWallTime)
+    {
+        this.slowQueryWallTime = slowQueryWallTime;
+        return this;
+    }
+
+    @Nullable
+    public Duration getSlowQueryCpuTime()
+    {
+        return slowQueryCpuTime;
+    }
+
+    @Config("event-listener.slow-query.cpu-time")
+    @ConfigDescription("CPU time above which a query gets a full log")
+    public AuditConfig setSlowQueryCpuTime(Duration slowQueryCpuTime)
+    {
+        this.slowQueryCpuTime = slowQueryCpuTime;
+        return this;
+    }
+
+    @Nullable
+    public DataSize getSlowQueryPeakMemory()
+    {
+        return slowQueryPeakMemory;
+    }
+
+    @Config("event-listener.slow-query.peak-memory")
+    @ConfigDescription("peak user memory above which a query gets a full log")
+    public AuditConfig setSlowQueryPeakMemory(DataSize slowQueryPeakMemory)
+    {
+        this.slowQueryPeakMemory = slowQueryPeakMemory;
+        return this;
+    }
+
+    @Nullable
+    public DataSize getSlowQueryInputBytes()
+    {
+        return slowQueryInputBytes;
+    }
+
+    @Config("event-listener.slow-query.input-bytes")
+    @ConfigDescription("input bytes above which a query gets a full log")
+    public AuditConfig setSlowQueryInputBytes(DataSize slowQueryInputBytes)
+    {
+        this.slowQueryInputBytes = slowQueryInputBytes;
+        return this;
+    }
+
+    @Nullable
+    public String getSlowQueryThresholdsPath()
+    {
+        return slowQueryThresholdsPath;
+    }
+
+    @Config("event-listener.slow-query.thresholds-path")
+    @ConfigDescription("JSON file with per source and per user slow query thresholds")
+    public AuditConfig setSlowQueryThresholdsPath(String slowQueryThresholdsPath)
+    {
+        this.slowQueryThresholdsPath = slowQueryThresholdsPath;
+        return this;
+    }
+
+    @Nullable
+    public String getFilterRulesPath()
+    {
+        return filterRulesPath;
+    }
+
+    @Config("event-listener.filter.rules-path")
+    @ConfigDescription("JSON file with rules to keep, drop or sample records per sink")
+    public AuditConfig setFilterRulesPath(String filterRulesPath)
+    {
+        this.filterRulesPath = filterRulesPath;
+        return this;
+    }
+
+    @Nullable
+    public Duration getConfigReloadInterval()
+    {
+        return configReloadInterval;
+    }
+
+    @Config("event-listener.config-reload-interval")
+    @ConfigDescription("interval to check the filter rules and slow query thresholds files for changes")
+    public AuditConfig setConfigReloadInterval(Duration configReloadInterval)
+    {
+        this.configReloadInterval = configReloadInterval;
+        return this;
+    }
+
+    @Min(0)
+    public int getWarmUpIterations()
+    {
+        return warmUpIterations;
+    }
+
+    @Config("event-listener.warm-up-iterations")
+    @ConfigDescription("number of synthetic events serialized at startup, 0 to disable")
+    public AuditConfig setWarmUpIterations(int warmUpIterations)
+    {
+        this.warmUpIterations = warmUpIterations;
+        return this;
+    }
+
+    public boolean isSheddingEnabled()
+    {
+        return sheddingEnabled;
+    }
+
+    @Config("event-listener.shedding.enabled")
+    @ConfigDescription("degrade records of successful queries when the sink queues fill up")
+    public AuditConfig setSheddingEnabled(boolean sheddingEnabled)
+    {
+        this.sheddingEnabled = sheddingEnabled;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getSheddingFullLogWatermark()
+    {
+        return sheddingFullLogWatermark;
+    }
+
+    @Config("event-listener.shedding.full-log-watermark")
+    @ConfigDescription("sink queue fill ratio above which successful queries get no full log")
+    public AuditConfig setSheddingFullLogWatermark(double sheddingFullLogWatermark)
+    {
+        this.sheddingFullLogWatermark = sheddingFullLogWatermark;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getSheddingSampleWatermark()
+    {
+        return sheddingSampleWatermark;
+    }
+
+    @Config("event-listener.shedding.sample-watermark")
+    @ConfigDescription("sink queue fill ratio above which simple logs of successful queries are sampled")
+    public AuditConfig setSheddingSampleWatermark(double sheddingSampleWatermark)
+    {
+        this.sheddingSampleWatermark = sheddingSampleWatermark;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getSheddingHysteresis()
+    {
+        return sheddingHysteresis;
+    }
+
+    @Config("event-listener.shedding.hysteresis")
+    @ConfigDescription("how far below a watermark the fill ratio must fall to leave its level")
+    public AuditConfig setSheddingHysteresis(double sheddingHysteresis)
+    {
+        this.sheddingHysteresis = sheddingHysteresis;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getSheddingSampleRate()
+    {
+        return sheddingSampleRate;
+    }
+
+    @Config("event-listener.shedding.sample-rate")
+    @ConfigDescription("fraction of successful queries which keep their simple log while sampling")
+    public AuditConfig setSheddingSampleRate(double sheddingSampleRate)
+    {
+        this.sheddingSampleRate = sheddingSampleRate;
+        return this;
+    }
+
+    public boolean isRateLimitEnabled()
+    {
+        return rateLimitEnabled;
+    }
+
+    @Config("event-listener.rate-limit.enabled")
+    @ConfigDescription("collapse records of users and sources beyond their rate into summary records")
+    public AuditConfig setRateLimitEnabled(boolean rateLimitEnabled)
+    {
+        this.rateLimitEnabled = rateLimitEnabled;
+        return this;
+    }
+
+    @DecimalMin(value = "0", inclusive = false)
+    public double getRateLimitRate()
+    {
+        return rateLimitRate;
+    }
+
+    @Config("event-listener.rate-limit.rate")
+    @ConfigDescription("records per second of each user and source")
+    public AuditConfig setRateLimitRate(double rateLimitRate)
+    {
+        this.rateLimitRate = rateLimitRate;
+        return this;
+    }
+
+    @Min(1)
+    public int getRateLimitBurst()
+    {
+        return rateLimitBurst;
+    }
+
+    @Config("event-listener.rate-limit.burst")
+    @ConfigDescription("records a user and source may write at once above the rate")
+    public AuditConfig setRateLimitBurst(int rateLimitBurst)
+    {
+        this.rateLimitBurst = rateLimitBurst;
+        return this;
+    }
+
+    @Min(1)
+    public int getRateLimitMaxTenants()
+    {
+        return rateLimitMaxTenants;
+    }
+
+    @Config("event-listener.rate-limit.max-tenants")
+    @ConfigDescription("maximum number of user and source pairs with a bucket of their own")
+    public AuditConfig setRateLimitMaxTenants(int rateLimitMaxTenants)
+    {
+        this.rateLimitMaxTenants = rateLimitMaxTenants;
+        return this;
+    }
+
+    @NotNull
+    public Duration getRateLimitSummaryInterval()
+    {
+        return rateLimitSummaryInterval;
+    }
+
+    @Config("event-listener.rate-limit.summary-interval")
+    @ConfigDescription("interval of summary records")
+    public AuditConfig setRateLimitSummaryInterval(Duration rateLimitSummaryInterval)
+    {
+        this.rateLimitSummaryInterval = rateLimitSummaryInterval;
+        return this;
+    }
+
+    public boolean isFailureCoalescingEnabled()
+    {
+        return failureCoalescingEnabled;
+    }
+
+    @Config("event-listener.failure-coalescing.enabled")
+    @ConfigDescription("coalesce repeated failures of the same query into summary records")
+    public AuditConfig setFailureCoalescingEnabled(boolean failureCoalescingEnabled)
+    {
+        this.failureCoalescingEnabled = failureCoalescingEnabled;
+        return this;
+    }
+
+    @NotNull
+    public Duration getFailureCoalescingWindow()
+    {
+        return failureCoalescingWindow;
+    }
+
+    @Config("event-listener.failure-coalescing.window")
+    @ConfigDescription("window in which repeated failures are coalesced")
+    public AuditConfig setFailureCoalescingWindow(Duration failureCoalescingWindow)
+    {
+        this.failureCoalescingWindow = failureCoalescingWindow;
+        return this;
+    }
+
+    @Min(1)
+    public int getFailureCoalescingMaxKeys()
+    {
+        return failureCoalescingMaxKeys;
+    }
+
+    @Config("event-listener.failure-coalescing.max-keys")
+    @ConfigDescription("maximum number of open coalescing windows")
+    public AuditConfig setFailureCoalescingMaxKeys(int failureCoalescingMaxKeys)
+    {
+        this.failureCoalescingMaxKeys = failureCoalescingMaxKeys;
+        return this;
+    }
+
+    public boolean isStackTraceDedupEnabled()
+    {
+        return stackTraceDedupEnabled;
+    }
+
+    @Config("event-listener.stack-trace-dedup.enabled")
+    @ConfigDescription("replace failure stack traces by a hash and write each distinct trace once")
+    public AuditConfig setStackTraceDedupEnabled(boolean stackTraceDedupEnabled)
+    {
+        this.stackTraceDedupEnabled = stackTraceDedupEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getStackTraceDedupCacheSize()
+    {
+        return stackTraceDedupCacheSize;
+    }
+
+    @Config("event-listener.stack-trace-dedup.cache-size")
+    @ConfigDescription("number of stack trace hashes remembered as stored")
+    public AuditConfig setStackTraceDedupCacheSize(int stackTraceDedupCacheSize)
+    {
+        this.stackTraceDedupCacheSize = stackTraceDedupCacheSize;
+        return this;
+    }
+
+    public boolean isHeartbeatEnabled()
+    {
+        return heartbeatEnabled;
+    }
+
+    @Config("event-listener.heartbeat.enabled")
+    @ConfigDescription("publish periodic heartbeat records with the watermark of the end times")
+    public AuditConfig setHeartbeatEnabled(boolean heartbeatEnabled)
+    {
+        this.heartbeatEnabled = heartbeatEnabled;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+    @Config("event-listener.heartbeat.interval")
+    @ConfigDescription("interval of heartbeat records")
+    public AuditConfig setHeartbeatInterval(Duration heartbeatInterval)
+    {
+        this.heartbeatInterval = heartbeatInterval;
+        return this;
+    }
+
+    @NotNull
+    public Duration getHeartbeatAllowedDelay()
+    {
+        return heartbeatAllowedDelay;
+    }
+
+    @Config("event-listener.heartbeat.allowed-delay")
+    @ConfigDescription("allowed delay between the end of a query and its completion event")
+    public AuditConfig setHeartbeatAllowedDelay(Duration heartbeatAllowedDelay)
+    {
+        this.heartbeatAllowedDelay = heartbeatAllowedDelay;
+        return this;
+    }
+
+    public boolean isPulsarSimpleLogBinary()
+    {
+        return pulsarSimpleLogBinary;
+    }
+
+    @Config("event-listener.pulsar.simple-log-binary")
+    @ConfigDescription("send simple logs in the compact binary record format instead of JSON")
+    public AuditConfig setPulsarSimpleLogBinary(boolean pulsarSimpleLogBinary)
+    {
+        this.pulsarSimpleLogBinary = pulsarSimpleLogBinary;
+        return this;
+    }
 }
@@ -19,16 +19,29 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import jp.co.yahoo.presto.audit.jmx.AuditMBeanExporter;
 import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.AbstractMap;
-import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Writes records to local files from a single thread.
+ * <p>
+ * Records are queued in two lanes. Records marked as priority, those of failed and slow queries,
+ * are written before any normal record, and have their own capacity, so a flood of normal
+ * records fills and drops only the normal lane.
+ */
 public class AuditLogFileWriter
         implements Runnable
 {
@@ -40,9 +53,22 @@ public class AuditLogFileWriter
     private final Thread t;
 
     private volatile boolean isTerminate = false;
-    private final BlockingQueue<Map.Entry<String, SerializedLog>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<QueuedRecord> priorityQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<QueuedRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Number of records in both lanes, so the writer thread waits on one of them
+    private final Semaphore queuedRecords = new Semaphore(0);
     private LoadingCache<String, FileWriter> fileWriters;
 
+    private final CounterStat writtenRecords = new CounterStat();
+    private final CounterStat droppedRecords = new CounterStat();
+    private final CounterStat failedRecords = new CounterStat();
+    private final CounterStat openedFiles = new CounterStat();
+    private final CounterStat closedFiles = new CounterStat();
+    private final TimeStat writeTime = new TimeStat();
+    private final CounterStat droppedPriorityRecords = new CounterStat();
+    private final TimeStat priorityQueueingTime = new TimeStat();
+    private final TimeStat normalQueueingTime = new TimeStat();
+
     @VisibleForTesting
     private AuditLogFileWriter(WriterFactory writerFactory, Logger logger)
     {
@@ -59,6 +85,7 @@ public class AuditLogFileWriter
             FileWriter h = removal.getValue();
             try {
                 log.debug("Close FileWriter: " + removal.getKey());
+                closedFiles.update(1);
                 h.close();
             }
             catch (Exception e) {
@@ -77,7 +104,9 @@ public class AuditLogFileWriter
                     {
                         try {
                             log.debug("Open new FileWriter: " + filename);
-                            return writerFactory.getFileWriter(filename);
+                            FileWriter fileWriter = writerFactory.getFileWriter(filename);
+                            openedFiles.update(1);
+                            return fileWriter;
                         }
                         catch (Exception e) {
                             log.error("Failed to open file: " + e.getMessage());
@@ -97,6 +126,7 @@ public class AuditLogFileWriter
         if (singleton == null) {
             singleton = new AuditLogFileWriter(new WriterFactory());
             singleton.start();
+            AuditMBeanExporter.export(AuditLogFileWriter.class, "presto-audit", singleton);
         }
         return singleton;
     }
@@ -120,32 +150,42 @@ public class AuditLogFileWriter
 
     /**
      * Write data to a particular file indicated by path
+     *
+     * @return whether the data was queued, false if it was dropped
      */
-    void write(String path, SerializedLog data)
+    public boolean write(String path, SerializedLog data)
     {
         try {
-            queue.add(new AbstractMap.SimpleEntry<>(path, data));
+            (data.isPriority() ? priorityQueue : queue).add(new QueuedRecord(path, data, System.nanoTime()));
+            queuedRecords.release();
+            return true;
         }
         catch (IllegalStateException e) {
+            droppedRecords.update(1);
+            if (data.isPriority()) {
+                droppedPriorityRecords.update(1);
+            }
             log.error("Error adding error log to queue. Queue full while capacity is " + QUEUE_CAPACITY + ". Error: " + e.getMessage());
             log.error("Dropped queryID: " + data.getQueryId());
         }
         catch (Exception e) {
+            droppedRecords.update(1);
             log.error("Unknown error adding error log to queue. ErrorMessage: " + e.getMessage());
             log.error("Dropped queryID: " + data.getQueryId());
         }
+        return false;
     }
 
     @Override
     public void run()
     {
         while (!isTerminate) {
-            Map.Entry<String, SerializedLog> record;
+            QueuedRecord record;
 
             // Poll record
             try {
                 // + 1 second before cleanUP to ensure files are marked timeout
-                record = queue.poll(FILE_TIMEOUT_SEC + 1, TimeUnit.SECONDS);
+                record = queuedRecords.tryAcquire(FILE_TIMEOUT_SEC + 1, TimeUnit.SECONDS) ? nextRecord() : null;
             }
             catch (InterruptedException e) {
                 log.error("Unknown interruptedException." + e);
@@ -157,20 +197,158 @@ public class AuditLogFileWriter
                 fileWriters.cleanUp();
             }
             else {
+                long start = System.nanoTime();
+                (record.getLog().isPriority() ? priorityQueueingTime : normalQueueingTime).add(start - record.getEnqueuedNanos(), NANOSECONDS);
                 try {
                     // New record for writing
-                    FileWriter fileWriter = fileWriters.get(record.getKey());
-                    fileWriter.write(record.getValue().getSerializedLog());
+                    FileWriter fileWriter = fileWriters.get(record.getPath());
+                    fileWriter.write(record.getLog().getSerializedLog());
                     fileWriter.write(System.lineSeparator());
+                    writeTime.add(System.nanoTime() - start, NANOSECONDS);
+                    writtenRecords.update(1);
                 }
                 catch (Exception e) {
+                    failedRecords.update(1);
                     log.error("Error writing event log to file in run()." + e);
-                    log.error("Dropped queryID: " + record.getValue().getQueryId());
+                    log.error("Dropped queryID: " + record.getLog().getQueryId());
                 }
             }
         }
     }
 
+    /**
+     * Take the next record after a permit was acquired. The priority lane is always drained first.
+     */
+    private QueuedRecord nextRecord()
+    {
+        QueuedRecord record = priorityQueue.poll();
+        return record != null ? record : queue.poll();
+    }
+
+    /**
+     * Fill ratio of the fuller lane
+     */
+    public double getBacklog()
+    {
+        return (double) Math.max(priorityQueue.size(), queue.size()) / QUEUE_CAPACITY;
+    }
+
+    @Managed
+    public int getQueueSize()
+    {
+        return priorityQueue.size() + queue.size();
+    }
+
+    @Managed
+    public int getPriorityQueueSize()
+    {
+        return priorityQueue.size();
+    }
+
+    @Managed
+    public int getQueueCapacity()
+    {
+        return 2 * QUEUE_CAPACITY;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getWrittenRecords()
+    {
+        return writtenRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDroppedRecords()
+    {
+        return droppedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFailedRecords()
+    {
+        return failedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getOpenedFiles()
+    {
+        return openedFiles;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getClosedFiles()
+    {
+        return closedFiles;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getWriteTime()
+    {
+        return writeTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDroppedPriorityRecords()
+    {
+        return droppedPriorityRecords;
+    }
+
+    /**
+     * Time records of failed and slow queries wait in the queue
+     */
+    @Managed
+    @Nested
+    public TimeStat getPriorityQueueingTime()
+    {
+        return priorityQueueingTime;
+    }
+
+    /**
+     * Time all other records wait in the queue
+     */
+    @Managed
+    @Nested
+    public TimeStat getNormalQueueingTime()
+    {
+        return normalQueueingTime;
+    }
+
+    private static class QueuedRecord
+    {
+        private final String path;
+        private final SerializedLog log;
+        private final long enqueuedNanos;
+
+        QueuedRecord(String path, SerializedLog log, long enqueuedNanos)
+        {
+            this.path = path;
+            this.log = log;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        String getPath()
+        {
+            return path;
+        }
+
+        SerializedLog getLog()
+        {
+            return log;
+        }
+
+        long getEnqueuedNanos()
+        {
+            return enqueuedNanos;
+        }
+    }
+
     static class WriterFactory
     {
         FileWriter getFileWriter(String filename)
@@ -16,116 +16,349 @@ package jp.co.yahoo.presto.audit;
 import com.facebook.presto.spi.eventlistener.EventListener;
 import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
 import com.facebook.presto.spi.eventlistener.QueryCreatedEvent;
+import com.facebook.presto.spi.eventlistener.SplitCompletedEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.airlift.log.Logger;
-import jp.co.yahoo.presto.audit.pulsar.PulsarProducer;
+import jp.co.yahoo.presto.audit.access.AccessIndex;
+import jp.co.yahoo.presto.audit.access.AccessIndexSnapshot;
+import jp.co.yahoo.presto.audit.filter.LoadShedder;
+import jp.co.yahoo.presto.audit.filter.RecordFilter;
+import jp.co.yahoo.presto.audit.jmx.AuditMBeanExporter;
+import jp.co.yahoo.presto.audit.metrics.HeavyHitterTracker;
+import jp.co.yahoo.presto.audit.metrics.QueryMetricsCollector;
+import jp.co.yahoo.presto.audit.ratelimit.FailureCoalescer;
+import jp.co.yahoo.presto.audit.ratelimit.TenantRateLimiter;
 import jp.co.yahoo.presto.audit.serializer.FullLogSerializer;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
 import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import jp.co.yahoo.presto.audit.serializer.SerializerWarmUp;
 import jp.co.yahoo.presto.audit.serializer.SimpleLogSerializer;
-import org.apache.pulsar.client.api.PulsarClientException;
+import jp.co.yahoo.presto.audit.serializer.SlowQueryPolicy;
+import jp.co.yahoo.presto.audit.serializer.SlowQueryThresholds;
+import jp.co.yahoo.presto.audit.serializer.SplitStatisticsSummary;
+import jp.co.yahoo.presto.audit.serializer.StackTraceStore;
+import jp.co.yahoo.presto.audit.sink.AuditSinkDispatcher;
+import jp.co.yahoo.presto.audit.sink.AuditSinkRegistry;
+import jp.co.yahoo.presto.audit.sink.HeartbeatEmitter;
+import jp.co.yahoo.presto.audit.sink.LogType;
+import jp.co.yahoo.presto.audit.tracker.InFlightQuery;
+import jp.co.yahoo.presto.audit.tracker.InFlightQueryTracker;
+import jp.co.yahoo.presto.audit.tracker.LongRunningQuerySnapshotWriter;
+import jp.co.yahoo.presto.audit.tracker.SplitStatisticsAccumulator;
 
 import javax.inject.Inject;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
 
-import static java.util.Objects.requireNonNull;
-
 public class AuditLogListener
         implements EventListener
 {
     private static final Logger log = Logger.get(AuditLogListener.class);
-    private final AuditLogFileWriter auditLogWriter;
-    private final String simpleLogFilePath;
-    private final Optional<String> fullLogFilePath;
     private final FullLogSerializer fullLogSerializer;
     private final SimpleLogSerializer simpleLogSerializer;
-    private PulsarProducer pulsarSimpleProducer = null;
-    private PulsarProducer pulsarFullProducer = null;
+    private final AuditSinkDispatcher dispatcher;
+    private final InFlightQueryTracker inFlightQueryTracker;
+    private final Optional<QueryMetricsCollector> queryMetricsCollector;
+    private final Optional<HeavyHitterTracker> heavyHitterTracker;
+    private final Optional<AccessIndex> accessIndex;
+    private final Optional<LoadShedder> loadShedder;
+    private final Optional<TenantRateLimiter> rateLimiter;
+    private final Optional<FailureCoalescer> failureCoalescer;
+    private final Optional<HeartbeatEmitter> heartbeatEmitter;
 
     @Inject
     public AuditLogListener(AuditConfig auditConfig)
-        throws PulsarClientException
     {
-        this.auditLogWriter = auditConfig.getAuditLogFileWriter();
-
-        // File logger setting
-        String auditLogPath = requireNonNull(auditConfig.getAuditLogPath(), "auditLogPath is null");
-        String simpleLogName = requireNonNull(auditConfig.getAuditSimpleLogName(), "simpleLogName is null");
-        Optional<String> fullLogName = Optional.ofNullable(auditConfig.getAuditFullLogName());
-        this.simpleLogFilePath = auditLogPath + File.separator + simpleLogName;
-        this.fullLogFilePath = fullLogName.map(s -> auditLogPath + File.separator + s);
+        this(auditConfig, new AuditSinkRegistry());
+    }
+
+    @VisibleForTesting
+    AuditLogListener(AuditConfig auditConfig, AuditSinkRegistry sinkRegistry)
+    {
+        dispatcher = new AuditSinkDispatcher(sinkRegistry.createSinks(auditConfig), createRecordFilter(auditConfig));
+        Optional<StackTraceStore> stackTraceStore = createStackTraceStore(auditConfig, dispatcher);
         Optional<String> auditLogFullFilter = Optional.ofNullable(auditConfig.getLogFilter());
-        fullLogSerializer = new FullLogSerializer(auditLogFullFilter);
-        simpleLogSerializer = new SimpleLogSerializer();
-
-        // Pulsar setting
-        Optional<String> simpleLogTopic = Optional.ofNullable(auditConfig.getSimpleTopic());
-        Optional<String> fullLogTopic = Optional.ofNullable(auditConfig.getFullTopic());
-        if (simpleLogTopic.isPresent() || fullLogTopic.isPresent()) {
-            Map<String, String> authParams = new HashMap<>();
-            authParams.put("tenantDomain", requireNonNull(auditConfig.getTenantDomain()));
-            authParams.put("tenantService", requireNonNull(auditConfig.getTenantService()));
-            authParams.put("providerDomain", requireNonNull(auditConfig.getProviderDomain()));
-            authParams.put("privateKey", requireNonNull(auditConfig.getPrivateKeyPath()));
-            authParams.put("athenzConfPath", requireNonNull(auditConfig.getAthenzConfPath()));
-            authParams.put("principalHeader", requireNonNull(auditConfig.getPrincipalHeader()));
-            authParams.put("roleHeader", requireNonNull(auditConfig.getRoleHeader()));
-
-            PulsarProducer.Builder builder = new PulsarProducer.Builder()
-                    .setURL(requireNonNull(auditConfig.getPulsarUrl()))
-                    .setTrustCerts(requireNonNull(auditConfig.getTrustCertsPath()))
-                    .setAuthParams(authParams)
-                    .setUseTLS(auditConfig.getUseTLS());
-
-            if (simpleLogTopic.isPresent()) {
-                pulsarSimpleProducer = builder.setTopic(simpleLogTopic.get()).build();
+        fullLogSerializer = new FullLogSerializer(auditLogFullFilter, auditConfig.getFullLogEncoding(), createSlowQueryPolicy(auditConfig), stackTraceStore);
+        simpleLogSerializer = new SimpleLogSerializer(stackTraceStore);
+        AuditMBeanExporter.export(FullLogSerializer.class, "presto-audit", fullLogSerializer);
+        AuditMBeanExporter.export(SimpleLogSerializer.class, "presto-audit", simpleLogSerializer);
+        if (auditConfig.getWarmUpIterations() > 0) {
+            new SerializerWarmUp(ImmutableList.of(simpleLogSerializer, fullLogSerializer), auditConfig.getWarmUpIterations()).start();
+        }
+        inFlightQueryTracker = new InFlightQueryTracker(auditConfig.getInFlightMaxQueries(), auditConfig.isSplitStatisticsEnabled(), auditConfig.getInFlightMaxAge());
+        AuditMBeanExporter.export(InFlightQueryTracker.class, "presto-audit", inFlightQueryTracker);
+        if (auditConfig.getInFlightSnapshotPath() != null) {
+            new LongRunningQuerySnapshotWriter(
+                    inFlightQueryTracker,
+                    new File(auditConfig.getInFlightSnapshotPath()),
+                    auditConfig.getLongRunningThreshold(),
+                    auditConfig.getInFlightSnapshotInterval()).start();
+        }
+        if (auditConfig.isMetricsEnabled()) {
+            queryMetricsCollector = Optional.of(new QueryMetricsCollector(auditConfig.getMetricsMaxKeys()));
+            queryMetricsCollector.get().start();
+        }
+        else {
+            queryMetricsCollector = Optional.empty();
+        }
+        if (auditConfig.isHeavyHittersEnabled()) {
+            HeavyHitterTracker tracker = new HeavyHitterTracker(
+                    auditConfig.getHeavyHittersCapacity(),
+                    auditConfig.getHeavyHittersTop(),
+                    auditConfig.getHeavyHittersWindow(),
+                    Optional.ofNullable(auditConfig.getHeavyHittersPath()).map(File::new));
+            AuditMBeanExporter.export(HeavyHitterTracker.class, "presto-audit", tracker);
+            tracker.start();
+            heavyHitterTracker = Optional.of(tracker);
+        }
+        else {
+            heavyHitterTracker = Optional.empty();
+        }
+        if (auditConfig.isAccessIndexEnabled()) {
+            AccessIndex index = new AccessIndex(auditConfig.getAccessIndexMaxEntries());
+            if (auditConfig.getAccessIndexPath() != null) {
+                AccessIndexSnapshot snapshot = new AccessIndexSnapshot(index, new File(auditConfig.getAccessIndexPath()), auditConfig.getAccessIndexFlushInterval());
+                try {
+                    snapshot.load();
+                }
+                catch (IOException e) {
+                    log.error("Failed to load access index snapshot. " + e);
+                }
+                snapshot.start();
             }
-
-            if (fullLogTopic.isPresent()) {
-                pulsarFullProducer = builder.setTopic(fullLogTopic.get()).build();
+            AuditMBeanExporter.export(AccessIndex.class, "presto-audit", index);
+            accessIndex = Optional.of(index);
+        }
+        else {
+            accessIndex = Optional.empty();
+        }
+        if (auditConfig.isSheddingEnabled()) {
+            LoadShedder shedder = new LoadShedder(
+                    auditConfig.getSheddingFullLogWatermark(),
+                    auditConfig.getSheddingSampleWatermark(),
+                    auditConfig.getSheddingHysteresis(),
+                    auditConfig.getSheddingSampleRate());
+            AuditMBeanExporter.export(LoadShedder.class, "presto-audit", shedder);
+            loadShedder = Optional.of(shedder);
+        }
+        else {
+            loadShedder = Optional.empty();
+        }
+        if (auditConfig.isRateLimitEnabled()) {
+            TenantRateLimiter limiter = new TenantRateLimiter(
+                    auditConfig.getRateLimitRate(),
+                    auditConfig.getRateLimitBurst(),
+                    auditConfig.getRateLimitMaxTenants(),
+                    auditConfig.getRateLimitSummaryInterval());
+            if (!dispatcher.accepts(LogType.SUMMARY)) {
+                log.warn("Rate limiting is enabled but no audit sink accepts summary records. Set event-listener.audit-log-summary-filename.");
             }
+            AuditMBeanExporter.export(TenantRateLimiter.class, "presto-audit", limiter);
+            limiter.start(summary -> dispatcher.publish(LogType.SUMMARY, summary));
+            rateLimiter = Optional.of(limiter);
+        }
+        else {
+            rateLimiter = Optional.empty();
+        }
+        if (auditConfig.isFailureCoalescingEnabled()) {
+            FailureCoalescer coalescer = new FailureCoalescer(auditConfig.getFailureCoalescingWindow(), auditConfig.getFailureCoalescingMaxKeys());
+            if (!dispatcher.accepts(LogType.SUMMARY)) {
+                log.warn("Failure coalescing is enabled but no audit sink accepts summary records. Set event-listener.audit-log-summary-filename.");
+            }
+            AuditMBeanExporter.export(FailureCoalescer.class, "presto-audit", coalescer);
+            coalescer.start(summary -> dispatcher.publish(LogType.SUMMARY, summary));
+            failureCoalescer = Optional.of(coalescer);
+        }
+        else {
+            failureCoalescer = Optional.empty();
+        }
+        if (auditConfig.isHeartbeatEnabled()) {
+            if (!dispatcher.accepts(LogType.HEARTBEAT)) {
+                log.warn("Heartbeats are enabled but no audit sink accepts them. Set a Pulsar topic.");
+            }
+            HeartbeatEmitter emitter = new HeartbeatEmitter(
+                    CoordinatorId.resolve(auditConfig),
+                    auditConfig.getHeartbeatInterval(),
+                    auditConfig.getHeartbeatAllowedDelay(),
+                    () -> dispatcher.getOldestPendingEventTime(LogType.HEARTBEAT));
+            AuditMBeanExporter.export(HeartbeatEmitter.class, "presto-audit", emitter);
+            emitter.start(heartbeat -> dispatcher.publish(LogType.HEARTBEAT, heartbeat));
+            heartbeatEmitter = Optional.of(emitter);
+        }
+        else {
+            heartbeatEmitter = Optional.empty();
+        }
+        if (auditConfig.getConfigReloadInterval() != null) {
+            ConfigFileWatcher watcher = new ConfigFileWatcher(auditConfig.getConfigReloadInterval());
+            if (auditConfig.getFilterRulesPath() != null) {
+                watcher.watch(new File(auditConfig.getFilterRulesPath()), file -> dispatcher.setFilter(RecordFilter.load(file)));
+            }
+            if (auditConfig.isSlowQueryEnabled() && auditConfig.getSlowQueryThresholdsPath() != null) {
+                SlowQueryThresholds defaultThresholds = createSlowQueryThresholds(auditConfig);
+                watcher.watch(new File(auditConfig.getSlowQueryThresholdsPath()),
+                        file -> fullLogSerializer.setSlowQueryPolicy(Optional.of(SlowQueryPolicy.load(file, defaultThresholds))));
+            }
+            watcher.start();
+        }
+    }
+
+    private static RecordFilter createRecordFilter(AuditConfig auditConfig)
+    {
+        if (auditConfig.getFilterRulesPath() == null) {
+            return RecordFilter.KEEP_ALL;
+        }
+        try {
+            return RecordFilter.load(new File(auditConfig.getFilterRulesPath()));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Optional<StackTraceStore> createStackTraceStore(AuditConfig auditConfig, AuditSinkDispatcher dispatcher)
+    {
+        if (!auditConfig.isStackTraceDedupEnabled()) {
+            return Optional.empty();
+        }
+        if (!dispatcher.accepts(LogType.STACK_TRACE)) {
+            // Without a side store the traces would be lost, keep them inline
+            log.warn("Stack trace deduplication is enabled but no audit sink accepts stack traces. Set event-listener.audit-log-stack-trace-filename.");
+            return Optional.empty();
+        }
+        StackTraceStore store = new StackTraceStore(auditConfig.getStackTraceDedupCacheSize(), trace -> dispatcher.publish(LogType.STACK_TRACE, trace));
+        AuditMBeanExporter.export(StackTraceStore.class, "presto-audit", store);
+        return Optional.of(store);
+    }
+
+    private static Optional<SlowQueryPolicy> createSlowQueryPolicy(AuditConfig auditConfig)
+    {
+        if (!auditConfig.isSlowQueryEnabled()) {
+            return Optional.empty();
+        }
+        SlowQueryThresholds defaultThresholds = createSlowQueryThresholds(auditConfig);
+        if (auditConfig.getSlowQueryThresholdsPath() == null) {
+            return Optional.of(new SlowQueryPolicy(defaultThresholds, ImmutableMap.of(), ImmutableMap.of()));
+        }
+        try {
+            return Optional.of(SlowQueryPolicy.load(new File(auditConfig.getSlowQueryThresholdsPath()), defaultThresholds));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
+    private static SlowQueryThresholds createSlowQueryThresholds(AuditConfig auditConfig)
+    {
+        return new SlowQueryThresholds(
+                Optional.ofNullable(auditConfig.getSlowQueryWallTime()),
+                Optional.ofNullable(auditConfig.getSlowQueryCpuTime()),
+                Optional.ofNullable(auditConfig.getSlowQueryPeakMemory()),
+                Optional.ofNullable(auditConfig.getSlowQueryInputBytes()));
+    }
+
+    @VisibleForTesting
+    InFlightQueryTracker getInFlightQueryTracker()
+    {
+        return inFlightQueryTracker;
+    }
+
+    @VisibleForTesting
+    Optional<QueryMetricsCollector> getQueryMetricsCollector()
+    {
+        return queryMetricsCollector;
+    }
+
     @Override
     public void queryCreated(QueryCreatedEvent queryCreatedEvent)
     {
         log.debug("QUERY SQL : [ %s ]", queryCreatedEvent.getMetadata().getQuery());
+        inFlightQueryTracker.created(queryCreatedEvent);
+        if (dispatcher.accepts(LogType.CREATED)) {
+            dispatcher.publish(LogType.CREATED, simpleLogSerializer.serialize(queryCreatedEvent));
+        }
     }
 
     @Override
     public void queryCompleted(QueryCompletedEvent queryCompletedEvent)
     {
-        simpleLog(queryCompletedEvent);
-        fullLog(queryCompletedEvent);
+        heartbeatEmitter.ifPresent(emitter -> emitter.begin(queryCompletedEvent));
+        try {
+            logCompleted(queryCompletedEvent);
+        }
+        finally {
+            heartbeatEmitter.ifPresent(emitter -> emitter.end(queryCompletedEvent));
+        }
+    }
+
+    @Override
+    public void splitCompleted(SplitCompletedEvent splitCompletedEvent)
+    {
+        inFlightQueryTracker.splitCompleted(splitCompletedEvent);
+    }
+
+    private void logCompleted(QueryCompletedEvent queryCompletedEvent)
+    {
+        Optional<SplitStatisticsSummary> splitStatistics = inFlightQueryTracker.completed(queryCompletedEvent.getMetadata().getQueryId())
+                .flatMap(InFlightQuery::getSplitStatistics)
+                .map(SplitStatisticsAccumulator::summarize);
+        queryMetricsCollector.ifPresent(collector -> collector.record(queryCompletedEvent));
+        heavyHitterTracker.ifPresent(tracker -> tracker.record(queryCompletedEvent));
+        accessIndex.ifPresent(index -> index.record(queryCompletedEvent));
+        if (rateLimiter.isPresent() && !rateLimiter.get().tryAcquire(queryCompletedEvent)) {
+            return;
+        }
+        if (failureCoalescer.isPresent() && failureCoalescer.get().coalesce(queryCompletedEvent)) {
+            return;
+        }
+        int sheddingLevel = loadShedder.map(shedder -> shedder.update(dispatcher.getBacklog())).orElse(LoadShedder.NONE);
+        boolean priority = fullLogSerializer.isFailedOrSlow(queryCompletedEvent);
+        simpleLog(queryCompletedEvent, splitStatistics, sheddingLevel, priority);
+        fullLog(queryCompletedEvent, sheddingLevel, priority);
     }
 
-    private void simpleLog(QueryCompletedEvent queryCompletedEvent)
+    private void simpleLog(QueryCompletedEvent queryCompletedEvent, Optional<SplitStatisticsSummary> splitStatistics, int sheddingLevel, boolean priority)
     {
-        SerializedLog simpleLog = simpleLogSerializer.serialize(queryCompletedEvent);
-        auditLogWriter.write(simpleLogFilePath, simpleLog);
-        if (pulsarSimpleProducer != null) {
-            pulsarSimpleProducer.send(simpleLog);
+        if (loadShedder.isPresent() && !loadShedder.get().keepSimpleLog(queryCompletedEvent, sheddingLevel, priority)) {
+            return;
+        }
+        if (dispatcher.accepts(LogType.SIMPLE, queryCompletedEvent)) {
+            // Binary sinks encode the record attached to the log themselves
+            dispatcher.publish(LogType.SIMPLE, queryCompletedEvent, (binary, referenceStackTraces) ->
+                    simpleLogSerializer.serialize(queryCompletedEvent, splitStatistics, sheddingLevel, referenceStackTraces).setPriority(priority));
         }
     }
 
-    private void fullLog(QueryCompletedEvent queryCompletedEvent)
+    private void fullLog(QueryCompletedEvent queryCompletedEvent, int sheddingLevel, boolean priority)
     {
-        if (fullLogFilePath.isPresent() && fullLogSerializer.shouldOutput(queryCompletedEvent)) {
+        if (loadShedder.isPresent() && !loadShedder.get().keepFullLog(sheddingLevel, priority)) {
+            return;
+        }
+        if (dispatcher.accepts(LogType.FULL, queryCompletedEvent) && fullLogSerializer.shouldOutput(queryCompletedEvent)) {
             try {
-                SerializedLog fullLog = fullLogSerializer.serialize(queryCompletedEvent);
-                auditLogWriter.write(fullLogFilePath.get(), fullLog);
-                if (pulsarFullProducer != null) {
-                    pulsarFullProducer.send(fullLog);
-                }
+                // Sinks which write text get JSON serialized from the event, not converted from the binary log
+                dispatcher.publish(LogType.FULL, queryCompletedEvent, (binary, referenceStackTraces) ->
+                        serializeFullLog(queryCompletedEvent, sheddingLevel, priority, binary ? fullLogSerializer.getEncoding() : LogEncoding.JSON, referenceStackTraces));
             }
-            catch (JsonProcessingException e) {
-                log.error("Error in serializing full audit log: " + e.getMessage());
+            catch (UncheckedIOException e) {
+                log.error("Error in serializing full audit log: " + e.getCause().getMessage());
                 log.error("Query failed: " + queryCompletedEvent.getMetadata().getQueryId());
             }
         }
     }
+
+    private SerializedLog serializeFullLog(QueryCompletedEvent queryCompletedEvent, int sheddingLevel, boolean priority, LogEncoding encoding, boolean referenceStackTraces)
+    {
+        try {
+            return fullLogSerializer.serialize(queryCompletedEvent, sheddingLevel, encoding, referenceStackTraces).setPriority(priority);
+        }
+        catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Polls configuration files and reloads the ones whose modification time or size changed.
+ * <p>
+ * A file is parsed completely before the new configuration replaces the old one, so records being
+ * processed see either the old or the new configuration. A file which cannot be parsed is
+ * logged and the previous configuration stays in effect.
+ */
+public class ConfigFileWatcher
+{
+    private static final Logger log = Logger.get(ConfigFileWatcher.class);
+
+    private final Duration interval;
+    private final List<WatchedFile> files = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogConfigWatcher").setDaemon(true).build());
+
+    public ConfigFileWatcher(Duration interval)
+    {
+        this.interval = requireNonNull(interval, "interval is null");
+    }
+
+    /**
+     * Call the loader whenever the file changes. The file is assumed to be loaded already.
+     */
+    public void watch(File file, Loader loader)
+    {
+        files.add(new WatchedFile(requireNonNull(file, "file is null"), requireNonNull(loader, "loader is null")));
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    @VisibleForTesting
+    void poll()
+    {
+        for (WatchedFile file : files) {
+            file.reloadIfChanged();
+        }
+    }
+
+    public interface Loader
+    {
+        void load(File file)
+                throws IOException;
+    }
+
+    private static class WatchedFile
+    {
+        private final File file;
+        private final Loader loader;
+        private long lastModified;
+        private long length;
+
+        WatchedFile(File file, Loader loader)
+        {
+            this.file = file;
+            this.loader = loader;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        void reloadIfChanged()
+        {
+            long modified = file.lastModified();
+            long size = file.length();
+            if (modified == lastModified && size == length) {
+                return;
+            }
+            if (modified == 0) {
+                // Deleted, or in the middle of being replaced
+                return;
+            }
+            lastModified = modified;
+            length = size;
+            try {
+                loader.load(file);
+                log.info("Reloaded configuration file " + file);
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Failed to reload configuration file " + file + ", keeping the previous configuration. " + e);
+            }
+        }
+    }
+}
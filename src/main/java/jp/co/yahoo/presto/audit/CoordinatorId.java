@@ -0,0 +1,40 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Stable identity of this coordinator in producer names and heartbeat records
+ */
+public final class CoordinatorId
+{
+    private CoordinatorId()
+    {
+    }
+
+    public static String resolve(AuditConfig config)
+    {
+        if (config.getCoordinatorId() != null) {
+            return config.getCoordinatorId();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            throw new IllegalStateException("Cannot resolve host name, set event-listener.coordinator-id", e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.access;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryInputMetadata;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.weakref.jmx.Managed;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Per table and per column access statistics of completed queries.
+ * <p>
+ * Tables are named {@code catalog.schema.table}. The Presto SPI does not report bytes per input,
+ * so every table and column read by a query is credited with the total bytes of the query.
+ * The index holds at most maxEntries tables and columns; further accesses of new entries are only counted.
+ */
+public class AccessIndex
+{
+    private static final HashFunction USER_HASH = Hashing.murmur3_128();
+
+    private final int maxEntries;
+    private final Map<String, AccessStatistics> tables = new ConcurrentHashMap<>();
+    private final Map<String, AccessStatistics> columns = new ConcurrentHashMap<>();
+    private final AtomicLong untrackedCount = new AtomicLong();
+
+    public AccessIndex(int maxEntries)
+    {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    public void record(QueryCompletedEvent event)
+    {
+        if (event.getIoMetadata().getInputs().isEmpty()) {
+            return;
+        }
+        long userHash = USER_HASH.hashString(event.getContext().getUser(), UTF_8).asLong();
+        long bytes = event.getStatistics().getTotalBytes();
+        long accessMillis = event.getEndTime().toEpochMilli();
+        for (QueryInputMetadata input : event.getIoMetadata().getInputs()) {
+            String table = input.getCatalogName() + "." + input.getSchema() + "." + input.getTable();
+            record(tables, table, bytes, accessMillis, userHash);
+            for (String column : input.getColumns()) {
+                record(columns, columnKey(table, column), bytes, accessMillis, userHash);
+            }
+        }
+    }
+
+    private void record(Map<String, AccessStatistics> entries, String key, long bytes, long accessMillis, long userHash)
+    {
+        AccessStatistics statistics = entries.get(key);
+        if (statistics == null) {
+            if (getTableCount() + getColumnCount() >= maxEntries) {
+                untrackedCount.incrementAndGet();
+                return;
+            }
+            statistics = entries.computeIfAbsent(key, ignored -> new AccessStatistics());
+        }
+        statistics.record(bytes, accessMillis, userHash);
+    }
+
+    public Optional<AccessStatistics> getTable(String table)
+    {
+        return Optional.ofNullable(tables.get(table));
+    }
+
+    public Optional<AccessStatistics> getColumn(String table, String column)
+    {
+        return Optional.ofNullable(columns.get(columnKey(table, column)));
+    }
+
+    void forEachTable(BiConsumer<String, AccessStatistics> consumer)
+    {
+        tables.forEach(consumer);
+    }
+
+    /**
+     * Iterate over the columns with the table name and the column name
+     */
+    void forEachColumn(ColumnConsumer consumer)
+    {
+        columns.forEach((key, statistics) -> {
+            int separator = key.indexOf('\0');
+            consumer.accept(key.substring(0, separator), key.substring(separator + 1), statistics);
+        });
+    }
+
+    void restoreTable(String table, AccessStatistics statistics)
+    {
+        tables.put(table, statistics);
+    }
+
+    void restoreColumn(String table, String column, AccessStatistics statistics)
+    {
+        columns.put(columnKey(table, column), statistics);
+    }
+
+    @Managed
+    public int getTableCount()
+    {
+        return tables.size();
+    }
+
+    @Managed
+    public int getColumnCount()
+    {
+        return columns.size();
+    }
+
+    @Managed
+    public long getUntrackedCount()
+    {
+        return untrackedCount.get();
+    }
+
+    private static String columnKey(String table, String column)
+    {
+        return table + '\0' + column;
+    }
+
+    interface ColumnConsumer
+    {
+        void accept(String table, String column, AccessStatistics statistics);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.access;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persists an {@link AccessIndex} to a file of JSON lines, one line per table or column.
+ * <p>
+ * Each flush appends only the entries which changed since the previous flush; a later line for
+ * the same entry replaces an earlier one. When the file holds more than twice as many lines as
+ * there are entries, it is rewritten with one line per entry and replaced atomically.
+ */
+public class AccessIndexSnapshot
+{
+    private static final Logger log = Logger.get(AccessIndexSnapshot.class);
+
+    private final AccessIndex index;
+    private final Path snapshotFile;
+    private final Duration interval;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogAccessIndex").setDaemon(true).build());
+    private long lineCount;
+
+    public AccessIndexSnapshot(AccessIndex index, File snapshotFile, Duration interval)
+    {
+        this.index = requireNonNull(index, "index is null");
+        this.snapshotFile = requireNonNull(snapshotFile, "snapshotFile is null").toPath();
+        this.interval = requireNonNull(interval, "interval is null");
+    }
+
+    /**
+     * Restore the index from the snapshot file, if it exists
+     */
+    public synchronized void load()
+            throws IOException
+    {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                try {
+                    SnapshotEntry entry = gson.fromJson(line, SnapshotEntry.class);
+                    AccessStatistics statistics = entry.toStatistics();
+                    if (entry.column == null) {
+                        index.restoreTable(entry.table, statistics);
+                    }
+                    else {
+                        index.restoreColumn(entry.table, entry.column, statistics);
+                    }
+                }
+                catch (JsonParseException | IllegalArgumentException | NullPointerException e) {
+                    // A line torn by a crash during the last flush
+                    log.error("Skipped invalid line in access index snapshot " + snapshotFile + ": " + e);
+                }
+            }
+        }
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Failed to write access index snapshot. " + e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    synchronized void flush()
+            throws IOException
+    {
+        long entryCount = index.getTableCount() + index.getColumnCount();
+        if (lineCount > 2 * entryCount) {
+            compact();
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(snapshotFile, StandardCharsets.UTF_8, CREATE, APPEND)) {
+            index.forEachTable((table, statistics) -> {
+                if (statistics.clearDirty()) {
+                    write(writer, new SnapshotEntry(table, null, statistics));
+                }
+            });
+            index.forEachColumn((table, column, statistics) -> {
+                if (statistics.clearDirty()) {
+                    write(writer, new SnapshotEntry(table, column, statistics));
+                }
+            });
+        }
+    }
+
+    private void compact()
+            throws IOException
+    {
+        Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        lineCount = 0;
+        try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            index.forEachTable((table, statistics) -> {
+                statistics.clearDirty();
+                write(writer, new SnapshotEntry(table, null, statistics));
+            });
+            index.forEachColumn((table, column, statistics) -> {
+                statistics.clearDirty();
+                write(writer, new SnapshotEntry(table, column, statistics));
+            });
+        }
+        Files.move(tmpFile, snapshotFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private void write(Writer writer, SnapshotEntry entry)
+    {
+        try {
+            writer.write(gson.toJson(entry));
+            writer.write(System.lineSeparator());
+            lineCount++;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Time units follow the simple log; distinctUsers is informational and restored from users
+    private static class SnapshotEntry
+    {
+        private String table;
+        private String column;
+        private long accessCount;
+        private long bytes;
+        private double lastAccessTimestamp;
+        private long distinctUsers;
+        private String users;
+
+        SnapshotEntry(String table, String column, AccessStatistics statistics)
+        {
+            this.table = table;
+            this.column = column;
+            this.accessCount = statistics.getAccessCount();
+            this.bytes = statistics.getBytes();
+            this.lastAccessTimestamp = statistics.getLastAccessMillis() / 1000.0;
+            this.distinctUsers = statistics.getDistinctUsers();
+            this.users = Base64.getEncoder().encodeToString(statistics.getUserRegisters());
+        }
+
+        AccessStatistics toStatistics()
+        {
+            requireNonNull(table, "table is null");
+            return new AccessStatistics(accessCount, bytes, Math.round(lastAccessTimestamp * 1000),
+                    DistinctCounter.fromBytes(Base64.getDecoder().decode(users)));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.access;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Access statistics of one table or column. Updates are lock-free except for the occasional
+ * growth of a distinct user register.
+ */
+public class AccessStatistics
+{
+    private final LongAdder accessCount = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAccumulator lastAccessMillis = new LongAccumulator(Long::max, 0);
+    private final DistinctCounter users;
+    private volatile boolean dirty;
+
+    AccessStatistics()
+    {
+        this.users = new DistinctCounter();
+    }
+
+    AccessStatistics(long accessCount, long bytes, long lastAccessMillis, DistinctCounter users)
+    {
+        this.accessCount.add(accessCount);
+        this.bytes.add(bytes);
+        this.lastAccessMillis.accumulate(lastAccessMillis);
+        this.users = users;
+    }
+
+    void record(long bytes, long accessMillis, long userHash)
+    {
+        accessCount.increment();
+        this.bytes.add(bytes);
+        lastAccessMillis.accumulate(accessMillis);
+        users.add(userHash);
+        dirty = true;
+    }
+
+    /**
+     * Clear the dirty flag and return whether the statistics changed since the last call
+     */
+    boolean clearDirty()
+    {
+        if (!dirty) {
+            return false;
+        }
+        dirty = false;
+        return true;
+    }
+
+    public long getAccessCount()
+    {
+        return accessCount.sum();
+    }
+
+    /**
+     * Total bytes read by the queries which accessed the table or column
+     */
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+
+    public long getLastAccessMillis()
+    {
+        return lastAccessMillis.get();
+    }
+
+    public long getDistinctUsers()
+    {
+        return users.estimate();
+    }
+
+    byte[] getUserRegisters()
+    {
+        return users.toBytes();
+    }
+}
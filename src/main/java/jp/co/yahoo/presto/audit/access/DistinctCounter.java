@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.access;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * HyperLogLog estimate of the number of distinct values, with 256 one-byte registers
+ * (about 6.5% standard error). Values are added as 64 bit hashes.
+ */
+class DistinctCounter
+{
+    static final int REGISTER_COUNT = 256;
+    private static final int INDEX_BITS = 8;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+
+    private final byte[] registers;
+
+    DistinctCounter()
+    {
+        this(new byte[REGISTER_COUNT]);
+    }
+
+    private DistinctCounter(byte[] registers)
+    {
+        this.registers = registers;
+    }
+
+    static DistinctCounter fromBytes(byte[] registers)
+    {
+        checkArgument(registers.length == REGISTER_COUNT, "expected %s registers, got %s", REGISTER_COUNT, registers.length);
+        return new DistinctCounter(registers.clone());
+    }
+
+    void add(long hash)
+    {
+        int index = (int) (hash >>> (Long.SIZE - INDEX_BITS));
+        byte rank = (byte) Math.min(Long.numberOfLeadingZeros(hash << INDEX_BITS) + 1, Long.SIZE - INDEX_BITS + 1);
+        // Registers only grow, so the unsynchronized read only skips writes which would not change anything
+        if (registers[index] < rank) {
+            synchronized (this) {
+                if (registers[index] < rank) {
+                    registers[index] = rank;
+                }
+            }
+        }
+    }
+
+    synchronized long estimate()
+    {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    synchronized byte[] toBytes()
+    {
+        return registers.clone();
+    }
+}
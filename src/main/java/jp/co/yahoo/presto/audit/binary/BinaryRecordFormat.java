@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.binary;
+
+/**
+ * Binary encoding of simple log records ({@link jp.co.yahoo.presto.audit.serializer.AuditRecord}).
+ * <p>
+ * A segment starts with the magic bytes {@code PAB}, a version byte and the varint dictionary capacity,
+ * followed by records framed as [varint length][payload][int crc32 of payload].
+ * <p>
+ * Payload fields, in {@link jp.co.yahoo.presto.audit.serializer.AuditRecord} order:
+ * <ul>
+ * <li>numbers are varints; durations and timestamps are milliseconds, nullable values are stored plus one with 0 for null,
+ * and signed values are zigzag encoded</li>
+ * <li>literal strings are [varint length plus one][UTF-8 bytes] with 0 for null</li>
+ * <li>low-cardinality strings (event type, state, uri host, errors, client fields) use the segment dictionary:
+ * 0 is null, 1 is a literal which is appended to the dictionary while it has room, n &gt; 1 refers to entry n - 2</li>
+ * </ul>
+ * Fields added by later versions follow at the end of the payload: version 2 adds the load shedding level
+ * as a nullable varint, version 3 the failures hash as a literal. Readers accept segments of all earlier versions.
+ * <p>
+ * The dictionary starts empty in every segment, so a segment can be decoded on its own.
+ */
+final class BinaryRecordFormat
+{
+    static final byte[] MAGIC = {'P', 'A', 'B'};
+    static final int VERSION = 3;
+    static final int FIRST_VERSION = 1;
+    static final int DEFAULT_DICTIONARY_CAPACITY = 4096;
+
+    static final long NULL = 0;
+    static final long LITERAL = 1;
+    static final long FIRST_REFERENCE = 2;
+
+    private BinaryRecordFormat()
+    {
+    }
+
+    /**
+     * Split a query URI into its scheme and authority, which repeats across records, and the rest
+     */
+    static int authorityEnd(String uri)
+    {
+        int schemeEnd = uri.indexOf("://");
+        if (schemeEnd < 0) {
+            return 0;
+        }
+        int pathStart = uri.indexOf('/', schemeEnd + 3);
+        return pathStart < 0 ? uri.length() : pathStart;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.binary;
+
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.FIRST_REFERENCE;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.LITERAL;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.NULL;
+import static jp.co.yahoo.presto.audit.binary.Varints.readVarLong;
+import static jp.co.yahoo.presto.audit.binary.Varints.unZigZag;
+
+/**
+ * Streaming decoder for one segment of binary records, see {@link BinaryRecordFormat}
+ */
+public class BinaryRecordReader
+        implements Closeable
+{
+    private final DataInputStream input;
+    private final int version;
+    private final int dictionaryCapacity;
+    private final List<String> dictionary = new ArrayList<>();
+    private final CRC32 crc32 = new CRC32();
+    private DataInputStream payload;
+
+    public BinaryRecordReader(InputStream input)
+            throws IOException
+    {
+        this.input = new DataInputStream(requireNonNull(input, "input is null"));
+        byte[] magic = new byte[BinaryRecordFormat.MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, BinaryRecordFormat.MAGIC)) {
+            throw new IOException("Not a binary audit log segment");
+        }
+        this.version = this.input.read();
+        if (version < BinaryRecordFormat.FIRST_VERSION || version > BinaryRecordFormat.VERSION) {
+            throw new IOException("Unsupported binary audit log version: " + version);
+        }
+        this.dictionaryCapacity = (int) readVarLong(this.input);
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return empty at the end of the segment
+     * @throws IOException if the segment is truncated or a record fails its checksum
+     */
+    public Optional<AuditRecord> next()
+            throws IOException
+    {
+        long length;
+        try {
+            length = readVarLong(input);
+        }
+        catch (EOFException e) {
+            return Optional.empty();
+        }
+        byte[] bytes = new byte[(int) length];
+        input.readFully(bytes);
+        int checksum = input.readInt();
+        crc32.reset();
+        crc32.update(bytes, 0, bytes.length);
+        if ((int) crc32.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in binary audit log record");
+        }
+        payload = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        AuditRecord record = new AuditRecord();
+        record.setEventType(readDictionary());
+        record.setQueryId(readLiteral());
+        record.setQuery(readLiteral());
+        record.setUri(readUri());
+        record.setState(readDictionary());
+
+        record.setCpuTime(readMillis());
+        record.setWallTime(readMillis());
+        record.setQueuedTime(readMillis());
+        record.setPeakUserMemoryBytes(readNullable());
+        record.setPeakTotalNonRevocableMemoryBytes(readNullable());
+        record.setTotalBytes(readNullable());
+        record.setTotalRows(readNullable());
+        record.setCompletedSplits((int) unZigZag(readVarLong(payload)));
+
+        record.setCreateTimestamp(readMillis());
+        record.setExecutionStartTimestamp(readMillis());
+        record.setEndTimestamp(readMillis());
+
+        record.setErrorCode((int) unZigZag(readVarLong(payload)));
+        record.setErrorName(readDictionary());
+        record.setFailureType(readDictionary());
+        record.setFailureMessage(readLiteral());
+        record.setFailuresJson(readLiteral());
+
+        record.setRemoteClientAddress(readDictionary());
+        record.setClientUser(readDictionary());
+        record.setUserAgent(readDictionary());
+        record.setSource(readDictionary());
+
+        if (version >= 2) {
+            Long sheddingLevel = readNullable();
+            record.setSheddingLevel(sheddingLevel == null ? null : sheddingLevel.intValue());
+        }
+        if (version >= 3) {
+            record.setFailuresHash(readLiteral());
+        }
+        return Optional.of(record);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        input.close();
+    }
+
+    private String readUri()
+            throws IOException
+    {
+        String authority = readDictionary();
+        String rest = readLiteral();
+        return authority == null ? null : authority + rest;
+    }
+
+    private String readDictionary()
+            throws IOException
+    {
+        long code = readVarLong(payload);
+        if (code == NULL) {
+            return null;
+        }
+        if (code == LITERAL) {
+            String value = readString((int) readVarLong(payload));
+            if (dictionary.size() < dictionaryCapacity) {
+                dictionary.add(value);
+            }
+            return value;
+        }
+        int index = (int) (code - FIRST_REFERENCE);
+        if (index >= dictionary.size()) {
+            throw new IOException("Invalid dictionary reference: " + index);
+        }
+        return dictionary.get(index);
+    }
+
+    private String readLiteral()
+            throws IOException
+    {
+        long code = readVarLong(payload);
+        return code == NULL ? null : readString((int) (code - 1));
+    }
+
+    private String readString(int length)
+            throws IOException
+    {
+        byte[] bytes = new byte[length];
+        payload.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Double readMillis()
+            throws IOException
+    {
+        long value = readVarLong(payload);
+        return value == NULL ? null : (value - 1) / 1000.0;
+    }
+
+    private Long readNullable()
+            throws IOException
+    {
+        long value = readVarLong(payload);
+        return value == NULL ? null : value - 1;
+    }
+}
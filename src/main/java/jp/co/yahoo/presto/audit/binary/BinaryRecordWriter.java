@@ -0,0 +1,232 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.binary;
+
+import com.google.common.annotations.VisibleForTesting;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.FIRST_REFERENCE;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.LITERAL;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.NULL;
+import static jp.co.yahoo.presto.audit.binary.BinaryRecordFormat.authorityEnd;
+import static jp.co.yahoo.presto.audit.binary.Varints.writeVarLong;
+import static jp.co.yahoo.presto.audit.binary.Varints.zigZag;
+
+/**
+ * Writes one segment of binary records, see {@link BinaryRecordFormat}. Not thread safe.
+ */
+public class BinaryRecordWriter
+        implements Closeable
+{
+    private final DataOutputStream output;
+    private final int version;
+    private final int dictionaryCapacity;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final CRC32 crc32 = new CRC32();
+    private long size;
+
+    public BinaryRecordWriter(OutputStream output)
+            throws IOException
+    {
+        this(output, BinaryRecordFormat.DEFAULT_DICTIONARY_CAPACITY);
+    }
+
+    public BinaryRecordWriter(OutputStream output, int dictionaryCapacity)
+            throws IOException
+    {
+        this(output, dictionaryCapacity, BinaryRecordFormat.VERSION);
+    }
+
+    /**
+     * @param version format version to write, leaving out the fields added by later versions
+     */
+    @VisibleForTesting
+    BinaryRecordWriter(OutputStream output, int dictionaryCapacity, int version)
+            throws IOException
+    {
+        checkArgument(version >= BinaryRecordFormat.FIRST_VERSION && version <= BinaryRecordFormat.VERSION, "Unsupported version: %s", version);
+        this.output = new DataOutputStream(requireNonNull(output, "output is null"));
+        this.version = version;
+        this.dictionaryCapacity = dictionaryCapacity;
+        this.output.write(BinaryRecordFormat.MAGIC);
+        this.output.write(version);
+        writeVarLong(this.output, dictionaryCapacity);
+        size = this.output.size();
+    }
+
+    /**
+     * Encode a record as a segment of its own, for transports which send records one by one
+     */
+    public static byte[] encode(AuditRecord record)
+    {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        // A dictionary would not be reused within a single record
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(segment, 0)) {
+            writer.write(record);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segment.toByteArray();
+    }
+
+    public void write(AuditRecord record)
+            throws IOException
+    {
+        payload.reset();
+        writeDictionary(record.getEventType());
+        writeLiteral(record.getQueryId());
+        writeLiteral(record.getQuery());
+        writeUri(record.getUri());
+        writeDictionary(record.getState());
+
+        writeMillis(record.getCpuTime());
+        writeMillis(record.getWallTime());
+        writeMillis(record.getQueuedTime());
+        writeNullable(record.getPeakUserMemoryBytes());
+        writeNullable(record.getPeakTotalNonRevocableMemoryBytes());
+        writeNullable(record.getTotalBytes());
+        writeNullable(record.getTotalRows());
+        writeVarLong(payload, zigZag(record.getCompletedSplits()));
+
+        writeMillis(record.getCreateTimestamp());
+        writeMillis(record.getExecutionStartTimestamp());
+        writeMillis(record.getEndTimestamp());
+
+        writeVarLong(payload, zigZag(record.getErrorCode()));
+        writeDictionary(record.getErrorName());
+        writeDictionary(record.getFailureType());
+        writeLiteral(record.getFailureMessage());
+        writeLiteral(record.getFailuresJson());
+
+        writeDictionary(record.getRemoteClientAddress());
+        writeDictionary(record.getClientUser());
+        writeDictionary(record.getUserAgent());
+        writeDictionary(record.getSource());
+
+        if (version >= 2) {
+            writeNullable(record.getSheddingLevel() == null ? null : record.getSheddingLevel().longValue());
+        }
+        if (version >= 3) {
+            writeLiteral(record.getFailuresHash());
+        }
+
+        byte[] bytes = payload.toByteArray();
+        crc32.reset();
+        crc32.update(bytes, 0, bytes.length);
+        int before = output.size();
+        writeVarLong(output, bytes.length);
+        output.write(bytes);
+        output.writeInt((int) crc32.getValue());
+        size += output.size() - before;
+    }
+
+    /**
+     * Bytes written to this segment so far
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    public void flush()
+            throws IOException
+    {
+        output.flush();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        output.close();
+    }
+
+    private void writeUri(String uri)
+            throws IOException
+    {
+        if (uri == null) {
+            writeDictionary(null);
+            writeLiteral(null);
+            return;
+        }
+        int authorityEnd = authorityEnd(uri);
+        writeDictionary(uri.substring(0, authorityEnd));
+        writeLiteral(uri.substring(authorityEnd));
+    }
+
+    private void writeDictionary(String value)
+            throws IOException
+    {
+        if (value == null) {
+            writeVarLong(payload, NULL);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            writeVarLong(payload, FIRST_REFERENCE + index);
+            return;
+        }
+        if (dictionary.size() < dictionaryCapacity) {
+            dictionary.put(value, dictionary.size());
+        }
+        writeVarLong(payload, LITERAL);
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeLiteral(String value)
+            throws IOException
+    {
+        if (value == null) {
+            writeVarLong(payload, NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(payload, bytes.length + 1);
+        payload.write(bytes);
+    }
+
+    private void writeBytes(byte[] bytes)
+            throws IOException
+    {
+        writeVarLong(payload, bytes.length);
+        payload.write(bytes);
+    }
+
+    private void writeMillis(Double seconds)
+            throws IOException
+    {
+        writeVarLong(payload, seconds == null ? NULL : Math.round(seconds * 1000) + 1);
+    }
+
+    private void writeNullable(Long value)
+            throws IOException
+    {
+        writeVarLong(payload, value == null ? NULL : value + 1);
+    }
+}
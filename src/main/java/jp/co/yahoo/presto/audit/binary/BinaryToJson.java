@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.binary;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Optional;
+
+/**
+ * Converts binary audit log segments to the JSON lines of the simple log.
+ * <p>
+ * Usage: java -cp presto-audit-plugin-all.jar jp.co.yahoo.presto.audit.binary.BinaryToJson segment...
+ */
+public final class BinaryToJson
+{
+    private BinaryToJson()
+    {
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryToJson <segment file>...");
+            System.exit(1);
+        }
+        for (String file : args) {
+            try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+                convert(input, System.out);
+            }
+        }
+        System.out.flush();
+    }
+
+    public static void convert(InputStream input, PrintStream output)
+            throws IOException
+    {
+        // Same Gson settings as SimpleLogSerializer
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        try (BinaryRecordReader reader = new BinaryRecordReader(input)) {
+            Optional<AuditRecord> record = reader.next();
+            while (record.isPresent()) {
+                output.println(gson.toJson(record.get()));
+                record = reader.next();
+            }
+        }
+    }
+}
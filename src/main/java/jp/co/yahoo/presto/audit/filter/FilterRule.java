@@ -0,0 +1,267 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryStatistics;
+import com.google.common.collect.ImmutableSet;
+import jp.co.yahoo.presto.audit.sink.LogType;
+
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compiled filter rule. All conditions of a rule must hold for the rule to match; unset conditions always hold.
+ * <p>
+ * Matching does not allocate: regular expressions use a matcher per thread which is reset for each value.
+ */
+public class FilterRule
+{
+    private final Optional<ThreadLocal<Matcher>> user;
+    private final Optional<ThreadLocal<Matcher>> source;
+    private final Optional<ThreadLocal<Matcher>> state;
+    private final Optional<ThreadLocal<Matcher>> catalog;
+    private final Optional<Boolean> failed;
+    private final Optional<int[]> errorCodes;
+    private final long minWallMillis;
+    private final long maxWallMillis;
+    private final long minCpuMillis;
+    private final long maxCpuMillis;
+    private final long minInputBytes;
+    private final long maxInputBytes;
+    private final Set<String> sinks;
+    private final Set<LogType> logTypes;
+    private final FilterAction action;
+    private final double rate;
+
+    private FilterRule(Builder builder)
+    {
+        this.user = builder.user.map(FilterRule::matcher);
+        this.source = builder.source.map(FilterRule::matcher);
+        this.state = builder.state.map(FilterRule::matcher);
+        this.catalog = builder.catalog.map(FilterRule::matcher);
+        this.failed = builder.failed;
+        this.errorCodes = builder.errorCodes;
+        this.minWallMillis = builder.minWallMillis;
+        this.maxWallMillis = builder.maxWallMillis;
+        this.minCpuMillis = builder.minCpuMillis;
+        this.maxCpuMillis = builder.maxCpuMillis;
+        this.minInputBytes = builder.minInputBytes;
+        this.maxInputBytes = builder.maxInputBytes;
+        this.sinks = ImmutableSet.copyOf(builder.sinks);
+        this.logTypes = builder.logTypes.isEmpty() ? EnumSet.allOf(LogType.class) : EnumSet.copyOf(builder.logTypes);
+        this.action = requireNonNull(builder.action, "action is null");
+        this.rate = builder.rate;
+    }
+
+    public static Builder builder(FilterAction action)
+    {
+        return new Builder(action);
+    }
+
+    boolean appliesTo(String sinkName)
+    {
+        return sinks.isEmpty() || sinks.contains(sinkName);
+    }
+
+    boolean appliesTo(LogType type)
+    {
+        return logTypes.contains(type);
+    }
+
+    boolean matches(QueryCompletedEvent event)
+    {
+        QueryStatistics statistics = event.getStatistics();
+        long wallMillis = statistics.getWallTime().toMillis();
+        long cpuMillis = statistics.getCpuTime().toMillis();
+        long inputBytes = statistics.getTotalBytes();
+        if (wallMillis < minWallMillis || wallMillis > maxWallMillis
+                || cpuMillis < minCpuMillis || cpuMillis > maxCpuMillis
+                || inputBytes < minInputBytes || inputBytes > maxInputBytes) {
+            return false;
+        }
+        if (failed.isPresent() && failed.get() != event.getFailureInfo().isPresent()) {
+            return false;
+        }
+        if (errorCodes.isPresent() && !containsErrorCode(event)) {
+            return false;
+        }
+        return find(user, event.getContext().getUser())
+                && find(source, event.getContext().getSource().orElse(""))
+                && find(state, event.getMetadata().getQueryState())
+                && find(catalog, event.getContext().getCatalog().orElse(""));
+    }
+
+    /**
+     * Whether the rule keeps the record of a matching query
+     */
+    boolean keeps(QueryCompletedEvent event)
+    {
+        switch (action) {
+            case KEEP:
+                return true;
+            case DROP:
+                return false;
+            default:
+                return Sampling.isSampled(event.getMetadata().getQueryId(), rate);
+        }
+    }
+
+    private boolean containsErrorCode(QueryCompletedEvent event)
+    {
+        if (!event.getFailureInfo().isPresent()) {
+            return false;
+        }
+        int code = event.getFailureInfo().get().getErrorCode().getCode();
+        for (int errorCode : errorCodes.get()) {
+            if (errorCode == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean find(Optional<ThreadLocal<Matcher>> matcher, String value)
+    {
+        return !matcher.isPresent() || matcher.get().get().reset(value).find();
+    }
+
+    private static ThreadLocal<Matcher> matcher(String regex)
+    {
+        Pattern pattern = Pattern.compile(regex);
+        return ThreadLocal.withInitial(() -> pattern.matcher(""));
+    }
+
+    public static class Builder
+    {
+        private final FilterAction action;
+        private Optional<String> user = Optional.empty();
+        private Optional<String> source = Optional.empty();
+        private Optional<String> state = Optional.empty();
+        private Optional<String> catalog = Optional.empty();
+        private Optional<Boolean> failed = Optional.empty();
+        private Optional<int[]> errorCodes = Optional.empty();
+        private long minWallMillis = Long.MIN_VALUE;
+        private long maxWallMillis = Long.MAX_VALUE;
+        private long minCpuMillis = Long.MIN_VALUE;
+        private long maxCpuMillis = Long.MAX_VALUE;
+        private long minInputBytes = Long.MIN_VALUE;
+        private long maxInputBytes = Long.MAX_VALUE;
+        private Set<String> sinks = ImmutableSet.of();
+        private Set<LogType> logTypes = ImmutableSet.of();
+        private double rate = 1.0;
+
+        private Builder(FilterAction action)
+        {
+            this.action = requireNonNull(action, "action is null");
+        }
+
+        /**
+         * Regular expressions are found anywhere in the value unless anchored
+         */
+        public Builder setUser(String regex)
+        {
+            this.user = Optional.of(regex);
+            return this;
+        }
+
+        public Builder setSource(String regex)
+        {
+            this.source = Optional.of(regex);
+            return this;
+        }
+
+        public Builder setState(String regex)
+        {
+            this.state = Optional.of(regex);
+            return this;
+        }
+
+        public Builder setCatalog(String regex)
+        {
+            this.catalog = Optional.of(regex);
+            return this;
+        }
+
+        public Builder setFailed(boolean failed)
+        {
+            this.failed = Optional.of(failed);
+            return this;
+        }
+
+        public Builder setErrorCodes(int... errorCodes)
+        {
+            this.errorCodes = Optional.of(errorCodes.clone());
+            return this;
+        }
+
+        public Builder setWallTime(long minMillis, long maxMillis)
+        {
+            this.minWallMillis = minMillis;
+            this.maxWallMillis = maxMillis;
+            return this;
+        }
+
+        public Builder setCpuTime(long minMillis, long maxMillis)
+        {
+            this.minCpuMillis = minMillis;
+            this.maxCpuMillis = maxMillis;
+            return this;
+        }
+
+        public Builder setInputBytes(long minBytes, long maxBytes)
+        {
+            this.minInputBytes = minBytes;
+            this.maxInputBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Names of the sinks the rule applies to, all sinks if empty
+         */
+        public Builder setSinks(Set<String> sinks)
+        {
+            this.sinks = requireNonNull(sinks, "sinks is null");
+            return this;
+        }
+
+        /**
+         * Record types the rule applies to, all types if empty
+         */
+        public Builder setLogTypes(Set<LogType> logTypes)
+        {
+            this.logTypes = requireNonNull(logTypes, "logTypes is null");
+            return this;
+        }
+
+        public Builder setRate(double rate)
+        {
+            checkArgument(rate >= 0 && rate <= 1, "rate must be between 0 and 1: %s", rate);
+            this.rate = rate;
+            return this;
+        }
+
+        public FilterRule build()
+        {
+            checkArgument(action == FilterAction.SAMPLE || rate == 1.0, "rate is only valid for SAMPLE rules");
+            return new FilterRule(this);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.stats.CounterStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Degrades records of successful queries when the sinks fall behind.
+ * <p>
+ * The backlog is the fill ratio of the fullest sink queue. At {@link #NO_FULL_LOGS} successful queries
+ * get no full log; at {@link #SAMPLED_SIMPLE_LOGS} their simple logs are also sampled by query id.
+ * Failed and slow queries are never shed. A level is entered when the backlog reaches its watermark and left
+ * only when the backlog falls below the watermark minus the hysteresis, so the level does not flap.
+ */
+public class LoadShedder
+{
+    public static final int NONE = 0;
+    public static final int NO_FULL_LOGS = 1;
+    public static final int SAMPLED_SIMPLE_LOGS = 2;
+
+    // Keeps the shedding sample independent of SAMPLE filter rules, so the effective rate is the product of both rates
+    @VisibleForTesting
+    static final long SAMPLING_SALT = 0x9e3779b97f4a7c15L;
+
+    private final double[] watermarks;
+    private final double hysteresis;
+    private final double sampleRate;
+    private final AtomicInteger level = new AtomicInteger(NONE);
+    private final CounterStat shedFullLogs = new CounterStat();
+    private final CounterStat shedSimpleLogs = new CounterStat();
+
+    public LoadShedder(double fullLogWatermark, double sampleWatermark, double hysteresis, double sampleRate)
+    {
+        checkArgument(fullLogWatermark > 0 && fullLogWatermark <= sampleWatermark && sampleWatermark <= 1,
+                "watermarks must satisfy 0 < full log watermark <= sample watermark <= 1");
+        checkArgument(hysteresis >= 0 && hysteresis < fullLogWatermark, "hysteresis must be between 0 and the full log watermark");
+        checkArgument(sampleRate >= 0 && sampleRate <= 1, "sampleRate must be between 0 and 1");
+        this.watermarks = new double[] {fullLogWatermark, sampleWatermark};
+        this.hysteresis = hysteresis;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Move to the level for the current backlog
+     *
+     * @return the new level
+     */
+    public int update(double backlog)
+    {
+        return level.updateAndGet(current -> nextLevel(current, backlog));
+    }
+
+    private int nextLevel(int current, double backlog)
+    {
+        int raised = 0;
+        int kept = 0;
+        for (double watermark : watermarks) {
+            if (backlog >= watermark) {
+                raised++;
+            }
+            if (backlog >= watermark - hysteresis) {
+                kept++;
+            }
+        }
+        return raised > current ? raised : Math.min(current, kept);
+    }
+
+    /**
+     * @param priority whether the query failed or is slow, which is never shed
+     */
+    public boolean keepFullLog(int level, boolean priority)
+    {
+        if (level < NO_FULL_LOGS || priority) {
+            return true;
+        }
+        shedFullLogs.update(1);
+        return false;
+    }
+
+    /**
+     * @param priority whether the query failed or is slow, which is never shed
+     */
+    public boolean keepSimpleLog(QueryCompletedEvent event, int level, boolean priority)
+    {
+        if (level < SAMPLED_SIMPLE_LOGS || priority
+                || Sampling.isSampled(event.getMetadata().getQueryId(), SAMPLING_SALT, sampleRate)) {
+            return true;
+        }
+        shedSimpleLogs.update(1);
+        return false;
+    }
+
+    @Managed
+    public int getLevel()
+    {
+        return level.get();
+    }
+
+    @Managed
+    public double getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getShedFullLogs()
+    {
+        return shedFullLogs;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getShedSimpleLogs()
+    {
+        return shedSimpleLogs;
+    }
+}
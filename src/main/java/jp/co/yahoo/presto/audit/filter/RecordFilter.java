@@ -0,0 +1,198 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.sink.LogType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Ordered list of {@link FilterRule}s deciding per sink whether to keep, drop or sample a record.
+ * <p>
+ * Rules are loaded from a JSON file:
+ * <pre>
+ * {"rules": [
+ *   {"source": "^health-check", "state": "FINISHED", "action": "SAMPLE", "rate": 0.01},
+ *   {"user": "^batch$", "sinks": ["pulsar"], "logTypes": ["FULL"], "action": "DROP"},
+ *   {"minWallTime": "10m", "action": "KEEP"}
+ * ]}
+ * </pre>
+ * Conditions: user, source, state and catalog (regular expressions), failed, errorCodes, min/maxWallTime,
+ * min/maxCpuTime and min/maxInputBytes.
+ */
+public class RecordFilter
+{
+    public static final RecordFilter KEEP_ALL = new RecordFilter(ImmutableList.of());
+
+    private final List<FilterRule> rules;
+
+    public RecordFilter(List<FilterRule> rules)
+    {
+        this.rules = ImmutableList.copyOf(requireNonNull(rules, "rules is null"));
+    }
+
+    /**
+     * Filter equivalent to the legacy full log filter: drop full logs of queries whose source matches the regex
+     */
+    public static RecordFilter dropFullLogOfSource(String regex)
+    {
+        return new RecordFilter(ImmutableList.of(FilterRule.builder(FilterAction.DROP)
+                .setSource(regex)
+                .setLogTypes(ImmutableSet.of(LogType.FULL))
+                .build()));
+    }
+
+    public SinkFilter forSink(String sinkName)
+    {
+        return new SinkFilter(sinkName, rules);
+    }
+
+    /**
+     * Filter of the rules which apply to all sinks
+     */
+    public SinkFilter forAllSinks()
+    {
+        return new SinkFilter(null, rules);
+    }
+
+    public List<FilterRule> getRules()
+    {
+        return rules;
+    }
+
+    public static RecordFilter load(File file)
+            throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return parse(reader, file.toString());
+        }
+    }
+
+    public static RecordFilter parse(String json)
+            throws IOException
+    {
+        return parse(new StringReader(json), "filter rules");
+    }
+
+    private static RecordFilter parse(Reader reader, String name)
+            throws IOException
+    {
+        try {
+            RulesJson rules = new Gson().fromJson(reader, RulesJson.class);
+            if (rules == null || rules.rules == null) {
+                return KEEP_ALL;
+            }
+            ImmutableList.Builder<FilterRule> compiled = ImmutableList.builder();
+            for (RuleJson rule : rules.rules) {
+                compiled.add(rule.compile());
+            }
+            return new RecordFilter(compiled.build());
+        }
+        catch (JsonParseException | IllegalArgumentException | NullPointerException e) {
+            throw new IOException("Invalid " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static class RulesJson
+    {
+        private List<RuleJson> rules;
+    }
+
+    private static class RuleJson
+    {
+        private String user;
+        private String source;
+        private String state;
+        private String catalog;
+        private Boolean failed;
+        private int[] errorCodes;
+        private String minWallTime;
+        private String maxWallTime;
+        private String minCpuTime;
+        private String maxCpuTime;
+        private String minInputBytes;
+        private String maxInputBytes;
+        private List<String> sinks;
+        private List<String> logTypes;
+        private String action;
+        private Double rate;
+
+        FilterRule compile()
+        {
+            requireNonNull(action, "action is null");
+            FilterRule.Builder builder = FilterRule.builder(FilterAction.valueOf(action.toUpperCase(Locale.ENGLISH)));
+            if (user != null) {
+                builder.setUser(user);
+            }
+            if (source != null) {
+                builder.setSource(source);
+            }
+            if (state != null) {
+                builder.setState(state);
+            }
+            if (catalog != null) {
+                builder.setCatalog(catalog);
+            }
+            if (failed != null) {
+                builder.setFailed(failed);
+            }
+            if (errorCodes != null) {
+                builder.setErrorCodes(errorCodes);
+            }
+            builder.setWallTime(millis(minWallTime, Long.MIN_VALUE), millis(maxWallTime, Long.MAX_VALUE));
+            builder.setCpuTime(millis(minCpuTime, Long.MIN_VALUE), millis(maxCpuTime, Long.MAX_VALUE));
+            builder.setInputBytes(bytes(minInputBytes, Long.MIN_VALUE), bytes(maxInputBytes, Long.MAX_VALUE));
+            if (sinks != null) {
+                builder.setSinks(ImmutableSet.copyOf(sinks));
+            }
+            if (logTypes != null) {
+                Set<LogType> types = logTypes.stream()
+                        .map(type -> LogType.valueOf(type.toUpperCase(Locale.ENGLISH)))
+                        .collect(toImmutableSet());
+                builder.setLogTypes(types);
+            }
+            if (rate != null) {
+                builder.setRate(rate);
+            }
+            return builder.build();
+        }
+
+        private static long millis(String duration, long defaultValue)
+        {
+            return duration == null ? defaultValue : Duration.valueOf(duration).toMillis();
+        }
+
+        private static long bytes(String size, long defaultValue)
+        {
+            return size == null ? defaultValue : DataSize.valueOf(size).toBytes();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+/**
+ * Deterministic sampling by query id. Every sink, and every coordinator, keeps the same queries for a given rate,
+ * and a query kept at some rate is also kept at any higher rate.
+ * Samples drawn with different salts are independent of each other.
+ */
+public final class Sampling
+{
+    private Sampling()
+    {
+    }
+
+    public static boolean isSampled(String queryId, double rate)
+    {
+        return isSampled(queryId, 0, rate);
+    }
+
+    public static boolean isSampled(String queryId, long salt, double rate)
+    {
+        return fraction(queryId, salt) < rate;
+    }
+
+    /**
+     * Uniform value in [0, 1) derived from the query id
+     */
+    static double fraction(String queryId, long salt)
+    {
+        // String.hashCode is specified and cached; the finalizer of MurmurHash3 spreads its bits
+        long hash = queryId.hashCode() ^ salt;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+}
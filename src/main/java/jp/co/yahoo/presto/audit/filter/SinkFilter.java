@@ -0,0 +1,51 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import jp.co.yahoo.presto.audit.sink.LogType;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rules of a {@link RecordFilter} which apply to one sink, grouped by record type
+ */
+public class SinkFilter
+{
+    private final Map<LogType, FilterRule[]> rulesByType = new EnumMap<>(LogType.class);
+
+    SinkFilter(String sinkName, List<FilterRule> rules)
+    {
+        for (LogType type : LogType.values()) {
+            rulesByType.put(type, rules.stream()
+                    .filter(rule -> rule.appliesTo(sinkName) && rule.appliesTo(type))
+                    .toArray(FilterRule[]::new));
+        }
+    }
+
+    /**
+     * The first matching rule decides; records which match no rule are kept
+     */
+    public boolean keep(LogType type, QueryCompletedEvent event)
+    {
+        for (FilterRule rule : rulesByType.get(type)) {
+            if (rule.matches(event)) {
+                return rule.keeps(event);
+            }
+        }
+        return true;
+    }
+}
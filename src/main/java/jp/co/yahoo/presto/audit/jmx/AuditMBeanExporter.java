@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.jmx;
+
+import io.airlift.log.Logger;
+import org.weakref.jmx.JmxException;
+import org.weakref.jmx.MBeanExporter;
+
+import java.lang.management.ManagementFactory;
+
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+
+/**
+ * Exports plugin MBeans to the platform MBean server.
+ * <p>
+ * Presto does not export MBeans of event listener plugins, so they are registered here.
+ * An existing MBean with the same name is replaced, because a listener can be created more than once.
+ */
+public final class AuditMBeanExporter
+{
+    private static final Logger log = Logger.get(AuditMBeanExporter.class);
+    private static final MBeanExporter exporter = new MBeanExporter(ManagementFactory.getPlatformMBeanServer());
+
+    private AuditMBeanExporter()
+    {
+    }
+
+    public static void export(Class<?> type, String name, Object object)
+    {
+        export(generatedNameOf(type, name), object);
+    }
+
+    public static synchronized void export(String objectName, Object object)
+    {
+        try {
+            if (exporter.getExportedObjects().containsKey(objectName)) {
+                exporter.unexport(objectName);
+            }
+            exporter.export(objectName, object);
+        }
+        catch (JmxException e) {
+            log.error("Failed to export MBean " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized void unexport(String objectName)
+    {
+        try {
+            if (exporter.getExportedObjects().containsKey(objectName)) {
+                exporter.unexport(objectName);
+            }
+        }
+        catch (JmxException e) {
+            log.error("Failed to unexport MBean " + objectName + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import javax.annotation.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * One entry of a heavy hitter ranking. The true total lies between {@code value - error} and {@code value}.
+ */
+public class HeavyHitter
+{
+    private final String key;
+    private final long value;
+    private final long error;
+    @Nullable
+    private final String sample;
+
+    public HeavyHitter(String key, long value, long error, @Nullable String sample)
+    {
+        this.key = requireNonNull(key, "key is null");
+        this.value = value;
+        this.error = error;
+        this.sample = sample;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public long getValue()
+    {
+        return value;
+    }
+
+    public long getError()
+    {
+        return error;
+    }
+
+    /**
+     * Normalized query of a fingerprint
+     */
+    @Nullable
+    public String getSample()
+    {
+        return sample;
+    }
+
+    @Override
+    public String toString()
+    {
+        return key + "=" + value;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import jp.co.yahoo.presto.audit.metrics.HeavyHitterTracker.Subject;
+import org.weakref.jmx.Managed;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top users, sources and fingerprints by one resource. JMX shows the ranking of the last completed window.
+ */
+public class HeavyHitterRanking
+{
+    private static final Subject[] SUBJECTS = Subject.values();
+
+    private final int capacity;
+    private final int top;
+    private volatile SpaceSaving[] current;
+    private volatile Map<Subject, List<HeavyHitter>> lastWindow = ImmutableMap.of();
+
+    HeavyHitterRanking(int capacity, int top)
+    {
+        this.capacity = capacity;
+        this.top = top;
+        this.current = newSketches();
+    }
+
+    void record(Subject subject, String key, long value, String sample)
+    {
+        current[subject.ordinal()].add(key, value, sample);
+    }
+
+    /**
+     * Start a new window. Values recorded concurrently with the rotation may be lost.
+     */
+    Map<Subject, List<HeavyHitter>> rotate()
+    {
+        SpaceSaving[] completed = current;
+        current = newSketches();
+        ImmutableMap.Builder<Subject, List<HeavyHitter>> ranking = ImmutableMap.builder();
+        for (Subject subject : SUBJECTS) {
+            ranking.put(subject, completed[subject.ordinal()].top(top));
+        }
+        lastWindow = ranking.build();
+        return lastWindow;
+    }
+
+    public List<HeavyHitter> getLastWindow(Subject subject)
+    {
+        return lastWindow.getOrDefault(subject, ImmutableList.of());
+    }
+
+    @Managed
+    public String getUsers()
+    {
+        return format(Subject.USER);
+    }
+
+    @Managed
+    public String getSources()
+    {
+        return format(Subject.SOURCE);
+    }
+
+    @Managed
+    public String getFingerprints()
+    {
+        return format(Subject.FINGERPRINT);
+    }
+
+    private String format(Subject subject)
+    {
+        return Joiner.on(", ").join(getLastWindow(subject));
+    }
+
+    private SpaceSaving[] newSketches()
+    {
+        SpaceSaving[] sketches = new SpaceSaving[SUBJECTS.length];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new SpaceSaving(capacity);
+        }
+        return sketches;
+    }
+}
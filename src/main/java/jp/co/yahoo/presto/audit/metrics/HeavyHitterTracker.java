@@ -0,0 +1,194 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.base.CaseFormat;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Ranks users, sources and query fingerprints by CPU time, input bytes and peak memory.
+ * <p>
+ * Each combination is tracked by a {@link SpaceSaving} sketch of bounded size over a tumbling window.
+ * At the end of each window the top entries are published via JMX and, if configured, written to
+ * a JSON file which is replaced atomically.
+ */
+public class HeavyHitterTracker
+{
+    private static final Logger log = Logger.get(HeavyHitterTracker.class);
+    private static final int SAMPLE_LENGTH = 200;
+
+    public enum Subject
+    {
+        USER, SOURCE, FINGERPRINT
+    }
+
+    public enum Resource
+    {
+        CPU_TIME {
+            @Override
+            long value(QueryCompletedEvent event)
+            {
+                return event.getStatistics().getCpuTime().toMillis();
+            }
+        },
+        INPUT_BYTES {
+            @Override
+            long value(QueryCompletedEvent event)
+            {
+                return event.getStatistics().getTotalBytes();
+            }
+        },
+        PEAK_MEMORY {
+            @Override
+            long value(QueryCompletedEvent event)
+            {
+                return event.getStatistics().getPeakUserMemoryBytes();
+            }
+        };
+
+        abstract long value(QueryCompletedEvent event);
+    }
+
+    private final Map<Resource, HeavyHitterRanking> rankings = new EnumMap<>(Resource.class);
+    private final Duration window;
+    private final Optional<Path> rankingFile;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogHeavyHitters").setDaemon(true).build());
+    private volatile long windowStartMillis = System.currentTimeMillis();
+
+    public HeavyHitterTracker(int capacity, int top, Duration window, Optional<File> rankingFile)
+    {
+        checkArgument(capacity >= top, "capacity must not be less than top");
+        this.window = requireNonNull(window, "window is null");
+        this.rankingFile = requireNonNull(rankingFile, "rankingFile is null").map(File::toPath);
+        for (Resource resource : Resource.values()) {
+            rankings.put(resource, new HeavyHitterRanking(capacity, top));
+        }
+    }
+
+    public void start()
+    {
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                rotate(System.currentTimeMillis());
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Failed to write heavy hitter ranking. " + e);
+            }
+        }, window.toMillis(), window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    public void record(QueryCompletedEvent event)
+    {
+        String user = event.getContext().getUser();
+        String source = event.getContext().getSource().orElse("");
+        String normalizedQuery = QueryFingerprint.normalize(event.getMetadata().getQuery());
+        String fingerprint = QueryFingerprint.fingerprintOf(normalizedQuery);
+        String sample = normalizedQuery.length() > SAMPLE_LENGTH ? normalizedQuery.substring(0, SAMPLE_LENGTH) : normalizedQuery;
+        for (Map.Entry<Resource, HeavyHitterRanking> entry : rankings.entrySet()) {
+            long value = entry.getKey().value(event);
+            HeavyHitterRanking ranking = entry.getValue();
+            ranking.record(Subject.USER, user, value, null);
+            ranking.record(Subject.SOURCE, source, value, null);
+            ranking.record(Subject.FINGERPRINT, fingerprint, value, sample);
+        }
+    }
+
+    void rotate(long now)
+            throws IOException
+    {
+        Map<String, Object> dump = new LinkedHashMap<>();
+        dump.put("windowStart", windowStartMillis / 1000.0);
+        dump.put("windowEnd", now / 1000.0);
+        windowStartMillis = now;
+        for (Map.Entry<Resource, HeavyHitterRanking> entry : rankings.entrySet()) {
+            Map<String, List<HeavyHitter>> ranking = new LinkedHashMap<>();
+            entry.getValue().rotate().forEach((subject, heavyHitters) -> ranking.put(jsonName(subject) + "s", heavyHitters));
+            dump.put(jsonName(entry.getKey()), ranking);
+        }
+
+        if (rankingFile.isPresent()) {
+            Path file = rankingFile.get();
+            Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                gson.toJson(dump, writer);
+            }
+            Files.move(tmpFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+    }
+
+    public HeavyHitterRanking getRanking(Resource resource)
+    {
+        return rankings.get(resource);
+    }
+
+    @Managed
+    @Nested
+    public HeavyHitterRanking getCpuTime()
+    {
+        return rankings.get(Resource.CPU_TIME);
+    }
+
+    @Managed
+    @Nested
+    public HeavyHitterRanking getInputBytes()
+    {
+        return rankings.get(Resource.INPUT_BYTES);
+    }
+
+    @Managed
+    @Nested
+    public HeavyHitterRanking getPeakMemory()
+    {
+        return rankings.get(Resource.PEAK_MEMORY);
+    }
+
+    private static String jsonName(Enum<?> value)
+    {
+        return CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, value.name());
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ENGLISH;
+
+/**
+ * Groups queries which differ only in literals, comments, whitespace or case.
+ * <p>
+ * String and numeric literals are replaced by {@code ?}, lists of literals collapse to a single
+ * {@code ?}, comments are removed and whitespace is collapsed. The fingerprint is a 64 bit hash of
+ * the normalized text.
+ */
+public final class QueryFingerprint
+{
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?: ?, ?\\?)+");
+
+    private QueryFingerprint()
+    {
+    }
+
+    public static String fingerprint(String query)
+    {
+        return fingerprintOf(normalize(query));
+    }
+
+    public static String fingerprintOf(String normalizedQuery)
+    {
+        return String.format("%016x", HASH.hashString(normalizedQuery, UTF_8).asLong());
+    }
+
+    public static String normalize(String query)
+    {
+        StringBuilder normalized = new StringBuilder(query.length());
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(query, i, '\'');
+                normalized.append('?');
+            }
+            else if (c == '"') {
+                int end = skipQuoted(query, i, '"');
+                normalized.append(query, i, end);
+                i = end;
+            }
+            else if (c == '-' && i + 1 < length && query.charAt(i + 1) == '-') {
+                while (i < length && query.charAt(i) != '\n') {
+                    i++;
+                }
+                appendSpace(normalized);
+            }
+            else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+                int end = query.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                appendSpace(normalized);
+            }
+            else if (Character.isWhitespace(c)) {
+                appendSpace(normalized);
+                i++;
+            }
+            else if (Character.isDigit(c) && !endsWithIdentifier(normalized)) {
+                while (i < length && (Character.isLetterOrDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+                    i++;
+                }
+                normalized.append('?');
+            }
+            else {
+                normalized.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        return PARAMETER_LIST.matcher(normalized.toString().trim()).replaceAll("?").toLowerCase(ENGLISH);
+    }
+
+    private static int skipQuoted(String query, int start, char quote)
+    {
+        int i = start + 1;
+        while (i < query.length()) {
+            if (query.charAt(i) == quote) {
+                // A doubled quote is an escaped quote
+                if (i + 1 < query.length() && query.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static void appendSpace(StringBuilder normalized)
+    {
+        if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') {
+            normalized.append(' ');
+        }
+    }
+
+    private static boolean endsWithIdentifier(StringBuilder normalized)
+    {
+        if (normalized.length() == 0) {
+            return false;
+        }
+        char last = normalized.charAt(normalized.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_';
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+
+/**
+ * Per-query values tracked by {@link QueryMetricsCollector}. Times are in milliseconds, memory in bytes.
+ */
+public enum QueryMetric
+{
+    WALL_TIME {
+        @Override
+        long value(QueryCompletedEvent event)
+        {
+            return event.getStatistics().getWallTime().toMillis();
+        }
+    },
+    QUEUED_TIME {
+        @Override
+        long value(QueryCompletedEvent event)
+        {
+            return event.getStatistics().getQueuedTime().toMillis();
+        }
+    },
+    CPU_TIME {
+        @Override
+        long value(QueryCompletedEvent event)
+        {
+            return event.getStatistics().getCpuTime().toMillis();
+        }
+    },
+    PEAK_MEMORY {
+        @Override
+        long value(QueryCompletedEvent event)
+        {
+            return event.getStatistics().getPeakUserMemoryBytes();
+        }
+    };
+
+    abstract long value(QueryCompletedEvent event);
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Rolling histograms of all {@link QueryMetric}s for one key of a {@link Dimension}
+ */
+public class QueryMetrics
+{
+    private static final QueryMetric[] METRICS = QueryMetric.values();
+
+    private final Map<QueryMetric, RollingHistogram> histograms = new EnumMap<>(QueryMetric.class);
+    private volatile boolean exported;
+
+    public QueryMetrics()
+    {
+        for (QueryMetric metric : METRICS) {
+            histograms.put(metric, new RollingHistogram());
+        }
+    }
+
+    void record(QueryCompletedEvent event)
+    {
+        for (QueryMetric metric : METRICS) {
+            histograms.get(metric).record(metric.value(event));
+        }
+    }
+
+    void tick()
+    {
+        for (RollingHistogram histogram : histograms.values()) {
+            histogram.tick();
+        }
+    }
+
+    boolean isIdle()
+    {
+        return histograms.values().stream().allMatch(RollingHistogram::isIdle);
+    }
+
+    boolean isExported()
+    {
+        return exported;
+    }
+
+    void setExported(boolean exported)
+    {
+        this.exported = exported;
+    }
+
+    public RollingHistogram getHistogram(QueryMetric metric)
+    {
+        return histograms.get(metric);
+    }
+
+    @Managed
+    @Nested
+    public RollingHistogram getWallTime()
+    {
+        return histograms.get(QueryMetric.WALL_TIME);
+    }
+
+    @Managed
+    @Nested
+    public RollingHistogram getQueuedTime()
+    {
+        return histograms.get(QueryMetric.QUEUED_TIME);
+    }
+
+    @Managed
+    @Nested
+    public RollingHistogram getCpuTime()
+    {
+        return histograms.get(QueryMetric.CPU_TIME);
+    }
+
+    @Managed
+    @Nested
+    public RollingHistogram getPeakMemory()
+    {
+        return histograms.get(QueryMetric.PEAK_MEMORY);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import jp.co.yahoo.presto.audit.jmx.AuditMBeanExporter;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Locale.ENGLISH;
+import static org.weakref.jmx.ObjectNames.builder;
+
+/**
+ * Sliding window percentiles of completed queries, grouped by user, source and state.
+ * <p>
+ * Recording only looks up the key in a concurrent map and records into wait-free HDR recorders.
+ * A background thread rolls the windows, exports MBeans for new keys and removes keys which were
+ * idle for an hour. Each dimension holds at most maxKeys keys; further keys share the key {@value #OTHER_KEY}.
+ */
+public class QueryMetricsCollector
+{
+    public static final String OTHER_KEY = "<other>";
+
+    private static final Logger log = Logger.get(QueryMetricsCollector.class);
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    private final int maxKeys;
+    private final Map<Dimension, ConcurrentHashMap<String, QueryMetrics>> metrics = new EnumMap<>(Dimension.class);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogMetrics").setDaemon(true).build());
+
+    public QueryMetricsCollector(int maxKeys)
+    {
+        checkArgument(maxKeys > 0, "maxKeys must be positive");
+        this.maxKeys = maxKeys;
+        for (Dimension dimension : DIMENSIONS) {
+            metrics.put(dimension, new ConcurrentHashMap<>());
+        }
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to roll query metrics. " + e);
+            }
+        }, RollingHistogram.TICK_MILLIS, RollingHistogram.TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    public void record(QueryCompletedEvent event)
+    {
+        for (Dimension dimension : DIMENSIONS) {
+            ConcurrentHashMap<String, QueryMetrics> keys = metrics.get(dimension);
+            String key = dimension.key(event);
+            QueryMetrics queryMetrics = keys.get(key);
+            if (queryMetrics == null) {
+                queryMetrics = keys.computeIfAbsent(keys.size() < maxKeys ? key : OTHER_KEY, ignored -> new QueryMetrics());
+            }
+            queryMetrics.record(event);
+        }
+    }
+
+    public Optional<QueryMetrics> getMetrics(Dimension dimension, String key)
+    {
+        return Optional.ofNullable(metrics.get(dimension).get(key));
+    }
+
+    @VisibleForTesting
+    void tick()
+    {
+        for (Dimension dimension : DIMENSIONS) {
+            Iterator<Map.Entry<String, QueryMetrics>> iterator = metrics.get(dimension).entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, QueryMetrics> entry = iterator.next();
+                QueryMetrics queryMetrics = entry.getValue();
+                queryMetrics.tick();
+                // A query recorded between the tick and the removal of an idle key is lost
+                if (queryMetrics.isIdle()) {
+                    iterator.remove();
+                    if (queryMetrics.isExported()) {
+                        AuditMBeanExporter.unexport(objectName(dimension, entry.getKey()));
+                    }
+                }
+                else if (!queryMetrics.isExported()) {
+                    AuditMBeanExporter.export(objectName(dimension, entry.getKey()), queryMetrics);
+                    queryMetrics.setExported(true);
+                }
+            }
+        }
+    }
+
+    private static String objectName(Dimension dimension, String key)
+    {
+        return builder(QueryMetrics.class)
+                .withProperty("dimension", dimension.name().toLowerCase(ENGLISH))
+                .withProperty("key", key.isEmpty() ? "<none>" : key)
+                .build();
+    }
+}
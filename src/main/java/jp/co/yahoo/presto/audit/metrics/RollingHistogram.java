@@ -0,0 +1,126 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+/**
+ * HDR histograms of a value over the last minute, five minutes and hour.
+ * <p>
+ * Values are recorded into a {@link Recorder}, which is wait-free for writers. On every tick the
+ * interval histogram is moved into three rings of slots: 4 x 15s, 5 x 1m and 6 x 10m.
+ * The newest slot of the five minute and hour windows is partially filled, so those windows cover
+ * between four and five minutes and between 50 and 60 minutes.
+ * Histograms keep one significant digit, which bounds the relative error to about 6% with a small footprint.
+ */
+public class RollingHistogram
+{
+    public static final long TICK_MILLIS = 15_000;
+    private static final int SIGNIFICANT_DIGITS = 1;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Window oneMinute = new Window(4, 1);
+    private final Window fiveMinutes = new Window(5, 4);
+    private final Window oneHour = new Window(6, 40);
+    private final Histogram merged = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+
+    public void record(long value)
+    {
+        recorder.recordValue(Math.max(value, 0));
+    }
+
+    /**
+     * Move recorded values into the windows and refresh the window statistics. Called by one thread.
+     */
+    synchronized void tick()
+    {
+        interval = recorder.getIntervalHistogram(interval);
+        oneMinute.tick(interval);
+        fiveMinutes.tick(interval);
+        oneHour.tick(interval);
+    }
+
+    /**
+     * Whether nothing was recorded during the last hour
+     */
+    boolean isIdle()
+    {
+        return oneHour.getStatistics().getCount() == 0;
+    }
+
+    @Managed
+    @Nested
+    public WindowStatistics getOneMinute()
+    {
+        return oneMinute.getStatistics();
+    }
+
+    @Managed
+    @Nested
+    public WindowStatistics getFiveMinutes()
+    {
+        return fiveMinutes.getStatistics();
+    }
+
+    @Managed
+    @Nested
+    public WindowStatistics getOneHour()
+    {
+        return oneHour.getStatistics();
+    }
+
+    private class Window
+    {
+        private final Histogram[] slots;
+        private final int ticksPerSlot;
+        private final WindowStatistics statistics = new WindowStatistics();
+        private int current;
+        private int ticks;
+
+        Window(int slotCount, int ticksPerSlot)
+        {
+            this.slots = new Histogram[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                slots[i] = new Histogram(SIGNIFICANT_DIGITS);
+            }
+            this.ticksPerSlot = ticksPerSlot;
+        }
+
+        void tick(Histogram interval)
+        {
+            slots[current].add(interval);
+            merged.reset();
+            for (Histogram slot : slots) {
+                merged.add(slot);
+            }
+            statistics.update(merged);
+
+            ticks++;
+            if (ticks == ticksPerSlot) {
+                ticks = 0;
+                current = (current + 1) % slots.length;
+                slots[current].reset();
+            }
+        }
+
+        WindowStatistics getStatistics()
+        {
+            return statistics;
+        }
+    }
+}
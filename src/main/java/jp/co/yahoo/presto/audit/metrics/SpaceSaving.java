@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Weighted Space-Saving sketch (Metwally et al.) keeping at most {@code capacity} counters.
+ * <p>
+ * When a new key arrives and the sketch is full, the counter with the smallest value is taken over
+ * and the new key inherits its value as error. Every key whose total exceeds 1/capacity of the
+ * overall total is guaranteed to be kept.
+ * <p>
+ * The counters also form a min-heap on their value, each knowing its position, so the smallest
+ * counter is found in constant time and an update costs O(log capacity).
+ */
+class SpaceSaving
+{
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    SpaceSaving(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+
+    synchronized void add(String key, long weight, String sample)
+    {
+        checkArgument(weight >= 0, "weight is negative");
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.value += weight;
+            siftDown(counter.index);
+            return;
+        }
+        if (size < heap.length) {
+            counter = new Counter(key, 0, sample);
+            counter.value += weight;
+            place(counter, size++);
+            siftUp(counter.index);
+        }
+        else {
+            // Take over the smallest counter at the root
+            Counter min = heap[0];
+            counters.remove(min.key);
+            counter = new Counter(key, min.value, sample);
+            counter.value += weight;
+            place(counter, 0);
+            siftDown(0);
+        }
+        counters.put(key, counter);
+    }
+
+    private void siftUp(int index)
+    {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent].value <= counter.value) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index)
+    {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].value < heap[child].value) {
+                child++;
+            }
+            if (counter.value <= heap[child].value) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index)
+    {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    synchronized List<HeavyHitter> top(int count)
+    {
+        return counters.values().stream()
+                .sorted(Comparator.comparingLong((Counter counter) -> counter.value).reversed())
+                .limit(count)
+                .map(counter -> new HeavyHitter(counter.key, counter.value, counter.error, counter.sample))
+                .collect(toList());
+    }
+
+    private static class Counter
+    {
+        private final String key;
+        private final long error;
+        private final String sample;
+        private long value;
+        private int index;
+
+        Counter(String key, long error, String sample)
+        {
+            this.key = key;
+            this.error = error;
+            this.value = error;
+            this.sample = sample;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.weakref.jmx.Managed;
+
+/**
+ * Percentiles of one window of a {@link RollingHistogram}, refreshed on every tick
+ */
+public class WindowStatistics
+{
+    private volatile long count;
+    private volatile long p50;
+    private volatile long p95;
+    private volatile long p99;
+    private volatile long max;
+
+    void update(Histogram histogram)
+    {
+        count = histogram.getTotalCount();
+        p50 = histogram.getValueAtPercentile(50);
+        p95 = histogram.getValueAtPercentile(95);
+        p99 = histogram.getValueAtPercentile(99);
+        max = histogram.getMaxValue();
+    }
+
+    @Managed
+    public long getCount()
+    {
+        return count;
+    }
+
+    @Managed
+    public long getP50()
+    {
+        return p50;
+    }
+
+    @Managed
+    public long getP95()
+    {
+        return p95;
+    }
+
+    @Managed
+    public long getP99()
+    {
+        return p99;
+    }
+
+    @Managed
+    public long getMax()
+    {
+        return max;
+    }
+}
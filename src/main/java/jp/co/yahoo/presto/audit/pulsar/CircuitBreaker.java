@@ -0,0 +1,166 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.base.Ticker;
+import io.airlift.log.Logger;
+import org.weakref.jmx.Managed;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Circuit breaker in front of the Pulsar producer.
+ * <p>
+ * After {@code failureThreshold} consecutive send failures the breaker opens and requests are
+ * short-circuited. Once {@code openDuration} has elapsed a single probe request is let through
+ * (half-open); its outcome closes or re-opens the breaker.
+ */
+public class CircuitBreaker
+{
+    private static final Logger log = Logger.get(CircuitBreaker.class);
+
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final Ticker ticker;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong halfOpenedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong shortCircuitedCount = new AtomicLong();
+
+    public CircuitBreaker(String name, int failureThreshold, long openDuration, TimeUnit unit)
+    {
+        this(name, failureThreshold, openDuration, unit, Ticker.systemTicker());
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openDuration, TimeUnit unit, Ticker ticker)
+    {
+        checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+        this.name = requireNonNull(name, "name is null");
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = unit.toNanos(openDuration);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    /**
+     * Return true if a request may be sent. A false result is counted as short-circuited.
+     */
+    public boolean allowRequest()
+    {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && ticker.read() - openedAt >= openDurationNanos && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            halfOpenedCount.incrementAndGet();
+            log.info("Circuit breaker %s half-open, probing broker", name);
+            return true;
+        }
+        shortCircuitedCount.incrementAndGet();
+        return false;
+    }
+
+    public void recordSuccess()
+    {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED) {
+            synchronized (this) {
+                if (state.get() != State.CLOSED) {
+                    state.set(State.CLOSED);
+                    closedCount.incrementAndGet();
+                    log.info("Circuit breaker %s closed", name);
+                }
+            }
+        }
+    }
+
+    public void recordFailure()
+    {
+        consecutiveFailures.incrementAndGet();
+        if (shouldOpen()) {
+            synchronized (this) {
+                if (shouldOpen()) {
+                    // openedAt must be visible before the state change
+                    openedAt = ticker.read();
+                    state.set(State.OPEN);
+                    openedCount.incrementAndGet();
+                    log.warn("Circuit breaker %s opened after %s consecutive failures", name, consecutiveFailures.get());
+                }
+            }
+        }
+    }
+
+    private boolean shouldOpen()
+    {
+        State current = state.get();
+        return current == State.HALF_OPEN || (current == State.CLOSED && consecutiveFailures.get() >= failureThreshold);
+    }
+
+    public State getState()
+    {
+        return state.get();
+    }
+
+    @Managed
+    public String getCurrentState()
+    {
+        return state.get().name();
+    }
+
+    @Managed
+    public int getConsecutiveFailures()
+    {
+        return consecutiveFailures.get();
+    }
+
+    @Managed
+    public long getOpenedCount()
+    {
+        return openedCount.get();
+    }
+
+    @Managed
+    public long getHalfOpenedCount()
+    {
+        return halfOpenedCount.get();
+    }
+
+    @Managed
+    public long getClosedCount()
+    {
+        return closedCount.get();
+    }
+
+    @Managed
+    public long getShortCircuitedCount()
+    {
+        return shortCircuitedCount.get();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.hash.Hashing;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Key attached to Pulsar messages. On partitioned topics, messages with a key are routed
+ * by key hash, so all records with the same key land on the same partition.
+ */
+public enum MessageKey
+{
+    NONE {
+        @Override
+        public Optional<String> extract(SerializedLog message)
+        {
+            return Optional.empty();
+        }
+    },
+    QUERY_ID {
+        @Override
+        public Optional<String> extract(SerializedLog message)
+        {
+            return Optional.ofNullable(message.getQueryId());
+        }
+    },
+    USER {
+        @Override
+        public Optional<String> extract(SerializedLog message)
+        {
+            return message.getUser();
+        }
+    },
+    SOURCE {
+        @Override
+        public Optional<String> extract(SerializedLog message)
+        {
+            return message.getSource();
+        }
+    },
+    USER_SOURCE_HASH {
+        @Override
+        public Optional<String> extract(SerializedLog message)
+        {
+            return Optional.of(Hashing.murmur3_32().newHasher()
+                    .putString(message.getUser().orElse(""), UTF_8)
+                    .putByte((byte) 0)
+                    .putString(message.getSource().orElse(""), UTF_8)
+                    .hash()
+                    .toString());
+        }
+    };
+
+    public abstract Optional<String> extract(SerializedLog message);
+}
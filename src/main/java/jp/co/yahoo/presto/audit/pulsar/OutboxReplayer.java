@@ -0,0 +1,117 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.airlift.log.Logger;
+import org.apache.pulsar.client.api.PulsarClientException;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Drains a {@link PulsarOutbox} into the broker.
+ * The oldest record doubles as the health probe: while it cannot be sent the
+ * replayer backs off exponentially, and it drains as soon as the broker accepts it again.
+ * Throughput is bounded only while the circuit breaker is not closed; once the broker is healthy
+ * the outbox drains at full speed, since new messages queue behind it to keep sequence ids in order.
+ */
+class OutboxReplayer
+        implements Runnable
+{
+    private static final Logger log = Logger.get(OutboxReplayer.class);
+    private static final long IDLE_WAIT_MILLIS = 1000;
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+    private final PulsarOutbox outbox;
+    private final PulsarProducer producer;
+    private final RateLimiter rateLimiter;
+    private final Thread t;
+    private volatile boolean isTerminate;
+
+    OutboxReplayer(PulsarOutbox outbox, PulsarProducer producer, double messagesPerSecond)
+    {
+        this.outbox = requireNonNull(outbox, "outbox is null");
+        this.producer = requireNonNull(producer, "producer is null");
+        this.rateLimiter = RateLimiter.create(messagesPerSecond);
+        this.t = new Thread(this, "AuditLogOutboxReplayer Thread");
+        t.setDaemon(true);
+    }
+
+    void start()
+    {
+        t.start();
+    }
+
+    void stop()
+    {
+        isTerminate = true;
+        t.interrupt();
+        try {
+            t.join(STOP_TIMEOUT_MILLIS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        while (!isTerminate) {
+            try {
+                Optional<SequencedMessage> record = outbox.peek();
+                if (!record.isPresent()) {
+                    TimeUnit.MILLISECONDS.sleep(IDLE_WAIT_MILLIS);
+                    continue;
+                }
+                if (!producer.isCircuitClosed()) {
+                    rateLimiter.acquire();
+                }
+                try {
+                    producer.sendDirect(record.get());
+                }
+                catch (PulsarClientException e) {
+                    log.debug("Outbox replay paused, broker still unavailable: " + e.getMessage());
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                    continue;
+                }
+                outbox.acknowledge();
+                backoffMillis = MIN_BACKOFF_MILLIS;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (IOException | RuntimeException e) {
+                // Never let the thread die, the outbox would not be drained again
+                log.error("Error reading Pulsar outbox. " + e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(MAX_BACKOFF_MILLIS);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageRouter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes messages carrying a partition property to that partition, and the others like the built-in
+ * routing modes: by key hash if they have a key, else following the routing mode.
+ * The client does not pass the partition count to custom routers, so it is configured.
+ */
+public class PartitionRouter
+        implements MessageRouter
+{
+    public static final String PARTITION_PROPERTY = "partition";
+
+    private final int partitions;
+    private final RoutingMode routingMode;
+    private final int singlePartition;
+    private final AtomicInteger nextPartition = new AtomicInteger();
+
+    public PartitionRouter(int partitions, RoutingMode routingMode)
+    {
+        checkArgument(partitions > 0, "partitions must be positive");
+        this.partitions = partitions;
+        this.routingMode = requireNonNull(routingMode, "routingMode is null");
+        this.singlePartition = ThreadLocalRandom.current().nextInt(partitions);
+    }
+
+    @Override
+    public int choosePartition(Message message)
+    {
+        if (message.hasProperty(PARTITION_PROPERTY)) {
+            return Math.floorMod(Integer.parseInt(message.getProperty(PARTITION_PROPERTY)), partitions);
+        }
+        if (message.hasKey()) {
+            return Math.floorMod(message.getKey().hashCode(), partitions);
+        }
+        if (routingMode == RoutingMode.SINGLE_PARTITION) {
+            return singlePartition;
+        }
+        return Math.floorMod(nextPartition.getAndIncrement(), partitions);
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.log.Logger;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Local write-ahead log for messages which could not be delivered to the Pulsar broker.
+ * <p>
+ * Records are appended to numbered segment files in a directory. A cursor file keeps the
+ * position of the first unacknowledged record, so the backlog survives a coordinator restart.
+ * Fully acknowledged segments are deleted.
+ * <p>
+ * Record layout: [int length][long crc32][long sequenceId][queryId (UTF)][int size][payload][user][source][eventTime][encoding][partition],
+ * where the routing metadata fields are each prefixed by a presence flag. Records written before the
+ * encoding byte was added are JSON, and records written before the partition was added have none.
+ */
+public class PulsarOutbox
+{
+    private static final Logger log = Logger.get(PulsarOutbox.class);
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final long maxTotalBytes;
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private long totalBytes;
+    private long writeSegment;
+    private FileOutputStream writeStream;
+    private long writePosition;
+
+    private long readSegment;
+    private long readPosition;
+    private RandomAccessFile readFile;
+    private int pendingRecordSize;
+
+    public PulsarOutbox(File directory, long maxSegmentBytes, long maxTotalBytes)
+            throws IOException
+    {
+        this.directory = requireNonNull(directory, "directory is null");
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create outbox directory: " + directory);
+        }
+        recover();
+    }
+
+    /**
+     * Append a message to the outbox.
+     *
+     * @return false if the outbox is full and the message was not stored
+     */
+    public synchronized boolean append(SequencedMessage message)
+            throws IOException
+    {
+        byte[] record = encode(message);
+        if (totalBytes + record.length > maxTotalBytes) {
+            return false;
+        }
+        if (writePosition > 0 && writePosition + record.length > maxSegmentBytes) {
+            openWriteSegment(writeSegment + 1);
+        }
+        writeStream.write(record);
+        writeStream.flush();
+        writePosition += record.length;
+        totalBytes += record.length;
+        return true;
+    }
+
+    /**
+     * Return the oldest unacknowledged message without removing it
+     */
+    public synchronized Optional<SequencedMessage> peek()
+            throws IOException
+    {
+        while (true) {
+            if (readFile == null) {
+                readFile = new RandomAccessFile(segmentFile(readSegment), "r");
+            }
+            if (readPosition + HEADER_SIZE <= readFile.length()) {
+                readFile.seek(readPosition);
+                int length = readFile.readInt();
+                long checksum = readFile.readLong();
+                if (length < 0) {
+                    skipCorruptedRecord();
+                }
+                else if (readPosition + HEADER_SIZE + length <= readFile.length()) {
+                    byte[] body = new byte[length];
+                    readFile.readFully(body);
+                    if (checksum(body) == checksum) {
+                        pendingRecordSize = HEADER_SIZE + length;
+                        return Optional.of(decode(body));
+                    }
+                    skipCorruptedRecord();
+                }
+                else if (readSegment == writeSegment) {
+                    return Optional.empty();
+                }
+            }
+            if (readSegment == writeSegment) {
+                return Optional.empty();
+            }
+            // Current read segment is exhausted
+            nextReadSegment();
+        }
+    }
+
+    /**
+     * Acknowledge the message returned by the last {@link #peek()} and advance the cursor
+     */
+    public synchronized void acknowledge()
+            throws IOException
+    {
+        if (pendingRecordSize == 0) {
+            throw new IllegalStateException("No record to acknowledge");
+        }
+        readPosition += pendingRecordSize;
+        totalBytes -= pendingRecordSize;
+        pendingRecordSize = 0;
+        writeCursor();
+    }
+
+    /**
+     * Event time of the oldest unacknowledged message, or empty if there is none.
+     * Messages are appended in about the order of their event times, so this is about the earliest one.
+     */
+    public synchronized Optional<Instant> getHeadEventTime()
+            throws IOException
+    {
+        if (isEmpty()) {
+            return Optional.empty();
+        }
+        return peek().flatMap(message -> message.getLog().getEventTime());
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return totalBytes == 0;
+    }
+
+    public synchronized long getSizeInBytes()
+    {
+        return totalBytes;
+    }
+
+    @VisibleForTesting
+    synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public synchronized void close()
+            throws IOException
+    {
+        if (readFile != null) {
+            readFile.close();
+            readFile = null;
+        }
+        writeStream.close();
+    }
+
+    private void recover()
+            throws IOException
+    {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+        }
+
+        readSegment = segments.isEmpty() ? 0 : segments.first();
+        readPosition = 0;
+        File cursor = new File(directory, CURSOR_FILE);
+        if (cursor.exists()) {
+            try (DataInputStream input = new DataInputStream(new FileInputStream(cursor))) {
+                long segment = input.readLong();
+                long position = input.readLong();
+                if (segments.contains(segment)) {
+                    readSegment = segment;
+                    readPosition = position;
+                }
+            }
+            catch (EOFException e) {
+                log.error("Truncated outbox cursor file: " + cursor);
+            }
+        }
+
+        // Drop segments which were fully acknowledged before the restart
+        for (Long segment : new TreeSet<>(segments.headSet(readSegment))) {
+            deleteSegment(segment);
+        }
+        for (Long segment : segments) {
+            totalBytes += segmentFile(segment).length();
+        }
+        totalBytes -= readPosition;
+
+        // Never append to a segment from a previous run, it may end with a torn record
+        openWriteSegment(segments.isEmpty() ? readSegment : segments.last() + 1);
+    }
+
+    private void openWriteSegment(long segment)
+            throws IOException
+    {
+        if (writeStream != null) {
+            writeStream.close();
+        }
+        writeSegment = segment;
+        writeStream = new FileOutputStream(segmentFile(segment), true);
+        writePosition = 0;
+        segments.add(segment);
+    }
+
+    private void skipCorruptedRecord()
+            throws IOException
+    {
+        log.error("Corrupted record in outbox segment %s at %s. Skipping rest of segment.", segmentFile(readSegment), readPosition);
+        totalBytes -= readFile.length() - readPosition;
+        readPosition = readFile.length();
+        writeCursor();
+    }
+
+    private void nextReadSegment()
+            throws IOException
+    {
+        // Account for a torn record at the end of a segment from a previous run
+        totalBytes -= readFile.length() - readPosition;
+        readFile.close();
+        readFile = null;
+        deleteSegment(readSegment);
+        readSegment = segments.ceiling(readSegment + 1);
+        readPosition = 0;
+        writeCursor();
+    }
+
+    private void deleteSegment(long segment)
+    {
+        File file = segmentFile(segment);
+        if (file.exists() && !file.delete()) {
+            log.error("Failed to delete outbox segment: " + file);
+        }
+        segments.remove(segment);
+    }
+
+    private void writeCursor()
+            throws IOException
+    {
+        try (RandomAccessFile cursor = new RandomAccessFile(new File(directory, CURSOR_FILE), "rw")) {
+            cursor.writeLong(readSegment);
+            cursor.writeLong(readPosition);
+        }
+    }
+
+    private File segmentFile(long segment)
+    {
+        return new File(directory, String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(SequencedMessage sequencedMessage)
+            throws IOException
+    {
+        SerializedLog message = sequencedMessage.getLog();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(body);
+        output.writeLong(sequencedMessage.getSequenceId());
+        byte[] payload = message.getContent();
+        output.writeUTF(message.getQueryId());
+        output.writeInt(payload.length);
+        output.write(payload);
+        writeOptionalString(output, message.getUser());
+        writeOptionalString(output, message.getSource());
+        output.writeBoolean(message.getEventTime().isPresent());
+        if (message.getEventTime().isPresent()) {
+            output.writeLong(message.getEventTime().get().toEpochMilli());
+        }
+        output.writeByte(message.getEncoding().ordinal());
+        output.writeBoolean(message.getPartition().isPresent());
+        if (message.getPartition().isPresent()) {
+            output.writeInt(message.getPartition().get());
+        }
+        output.flush();
+
+        byte[] bytes = body.toByteArray();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(HEADER_SIZE + bytes.length);
+        DataOutputStream header = new DataOutputStream(record);
+        header.writeInt(bytes.length);
+        header.writeLong(checksum(bytes));
+        header.write(bytes);
+        header.flush();
+        return record.toByteArray();
+    }
+
+    private static SequencedMessage decode(byte[] body)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        long sequenceId = input.readLong();
+        String queryId = input.readUTF();
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        Optional<String> user = readOptionalString(input);
+        Optional<String> source = readOptionalString(input);
+        Optional<Instant> eventTime = input.readBoolean() ? Optional.of(Instant.ofEpochMilli(input.readLong())) : Optional.empty();
+        LogEncoding encoding = input.available() > 0 ? LogEncoding.values()[input.readUnsignedByte()] : LogEncoding.JSON;
+        SerializedLog log = new SerializedLog(queryId, payload, encoding, user, source, eventTime);
+        if (input.available() > 0 && input.readBoolean()) {
+            log.setPartition(input.readInt());
+        }
+        return new SequencedMessage(sequenceId, log);
+    }
+
+    private static void writeOptionalString(DataOutputStream output, Optional<String> value)
+            throws IOException
+    {
+        output.writeBoolean(value.isPresent());
+        if (value.isPresent()) {
+            output.writeUTF(value.get());
+        }
+    }
+
+    private static Optional<String> readOptionalString(DataInputStream input)
+            throws IOException
+    {
+        return input.readBoolean() ? Optional.of(input.readUTF()) : Optional.empty();
+    }
+
+    private static long checksum(byte[] bytes)
+    {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
+    }
+}
@@ -14,40 +14,482 @@
 package jp.co.yahoo.presto.audit.pulsar;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import jp.co.yahoo.presto.audit.jmx.AuditMBeanExporter;
 import jp.co.yahoo.presto.audit.serializer.SerializedLog;
 import org.apache.pulsar.client.api.ClientConfiguration;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageBuilder;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.ProducerConfiguration;
+import org.apache.pulsar.client.api.ProducerConfiguration.MessageRoutingMode;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.impl.auth.AuthenticationAthenz;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Sends audit records to one topic. A producer built without a broker connection stores messages in its
+ * outbox, or drops them without one, until {@link #connect} succeeds.
+ */
 public class PulsarProducer
 {
     private static final Logger log = Logger.get(PulsarProducer.class);
+    private static final String SEQUENCE_ID_FILE = "sequence-id";
+    private static final long SEQUENCE_ID_BLOCK_SIZE = 1000;
+    private final Optional<Connector> connector;
+    private PulsarClient client;
     private Producer producer;
+    private boolean closed;
+    private final MessageKey messageKey;
+    private final int partitions;
+    private final Optional<PulsarOutbox> outbox;
+    private final Optional<CircuitBreaker> circuitBreaker;
+    private final Optional<SequenceIdGenerator> sequenceIdGenerator;
+    private Optional<OutboxReplayer> outboxReplayer = Optional.empty();
+    // Sequence ids sent to the broker and neither acknowledged nor failed yet
+    private final TreeSet<Long> inFlightIds = new TreeSet<>();
+    // Sequenced messages bound for the outbox, held until every lower id in flight is settled
+    private final TreeMap<Long, SequencedMessage> spilledMessages = new TreeMap<>();
+    private long highestSettledId = SequencedMessage.NO_SEQUENCE_ID;
+    private final TimeStat sendTime = new TimeStat();
+    private final CounterStat sendFailures = new CounterStat();
+    private final CounterStat outboxAppends = new CounterStat();
+    private final CounterStat droppedMessages = new CounterStat();
 
     @VisibleForTesting
     public PulsarProducer(Producer producer)
     {
+        this(Optional.empty(), requireNonNull(producer, "producer is null"), MessageKey.NONE, 1, Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * @param partitions partitions of the topic, 1 if it is not partitioned
+     */
+    @VisibleForTesting
+    PulsarProducer(Optional<Connector> connector, Producer producer, MessageKey messageKey, int partitions, Optional<PulsarOutbox> outbox, Optional<CircuitBreaker> circuitBreaker,
+            Optional<SequenceIdGenerator> sequenceIdGenerator)
+    {
+        checkArgument(partitions > 0, "partitions must be positive");
+        this.connector = requireNonNull(connector, "connector is null");
         this.producer = producer;
+        this.messageKey = requireNonNull(messageKey, "messageKey is null");
+        this.partitions = partitions;
+        this.outbox = requireNonNull(outbox, "outbox is null");
+        this.circuitBreaker = requireNonNull(circuitBreaker, "circuitBreaker is null");
+        this.sequenceIdGenerator = requireNonNull(sequenceIdGenerator, "sequenceIdGenerator is null");
     }
 
-    public void send(SerializedLog message)
+    /**
+     * Create the client and the producer. The client is closed again if the producer cannot be created,
+     * so a caller retrying this method does not leak clients. Does nothing if already connected or closed.
+     *
+     * @return false if the producer was closed, in which case a client connected meanwhile is closed again
+     */
+    public boolean connect()
+            throws PulsarClientException
     {
+        checkState(connector.isPresent(), "Producer has no connector");
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (producer != null) {
+                return true;
+            }
+        }
+        PulsarClient newClient = connector.get().createClient();
+        Producer newProducer;
         try {
-            producer.send(message.getSerializedLog().getBytes());
+            newProducer = connector.get().createProducer(newClient);
+        }
+        catch (PulsarClientException | RuntimeException e) {
+            closeClient(newClient);
+            throw e;
+        }
+        synchronized (this) {
+            if (!closed) {
+                client = newClient;
+                producer = newProducer;
+                return true;
+            }
+        }
+        // Closed while connecting
+        closeProducer(newProducer);
+        closeClient(newClient);
+        return false;
+    }
+
+    @Managed
+    public synchronized boolean isConnected()
+    {
+        return producer != null;
+    }
+
+    public boolean hasOutbox()
+    {
+        return outbox.isPresent();
+    }
+
+    /**
+     * Event time of the oldest message waiting in the outbox, or empty if there is none
+     */
+    public Optional<Instant> getOldestOutboxEventTime()
+    {
+        if (!outbox.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            return outbox.get().getHeadEventTime();
+        }
+        catch (IOException e) {
+            log.error("Failed to read Pulsar outbox. " + e);
+            return Optional.empty();
+        }
+    }
+
+    public void send(SerializedLog serializedLog)
+    {
+        sendAsync(serializedLog).join();
+    }
+
+    /**
+     * Send a copy of the message to each partition of the topic, for records every consumer must see such as heartbeats.
+     * The returned future completes once all copies completed as described in {@link #sendAsync}.
+     */
+    public CompletableFuture<Void> sendToAllPartitions(SerializedLog serializedLog)
+    {
+        if (partitions == 1) {
+            return sendAsync(serializedLog);
+        }
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[partitions];
+        for (int partition = 0; partition < partitions; partition++) {
+            SerializedLog copy = serializedLog.withContent(serializedLog.getContent(), serializedLog.getEncoding()).setPartition(partition);
+            sends[partition] = sendAsync(copy);
+        }
+        return CompletableFuture.allOf(sends);
+    }
+
+    /**
+     * Send a message without waiting for the broker. The returned future never fails;
+     * it completes once the message is acknowledged, or stored in the outbox or dropped after a failure.
+     * While not connected, messages go straight to the outbox.
+     * The client keeps the send order, so a batch can be sent before awaiting any acknowledgement.
+     */
+    public CompletableFuture<Void> sendAsync(SerializedLog serializedLog)
+    {
+        SequencedMessage message;
+        CompletableFuture<MessageId> future;
+        long start = System.nanoTime();
+        // Ids are assigned and messages enqueued under one lock, so messages reach the broker in id order.
+        // The broker discards ids lower than the last one it accepted.
+        synchronized (this) {
+            message = new SequencedMessage(
+                    sequenceIdGenerator.map(SequenceIdGenerator::next).orElse(SequencedMessage.NO_SEQUENCE_ID),
+                    serializedLog);
+
+            // Newer messages must not overtake older ones waiting in the outbox or about to be spilled there
+            if (producer == null || (message.hasSequenceId() && (!spilledMessages.isEmpty() || (outbox.isPresent() && !outbox.get().isEmpty())))) {
+                spill(message);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // Fail fast while the broker is known to be unhealthy
+            if (circuitBreaker.isPresent() && !circuitBreaker.get().allowRequest()) {
+                spill(message);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (message.hasSequenceId()) {
+                inFlightIds.add(message.getSequenceId());
+            }
+            future = producer.sendAsync(buildMessage(message));
+        }
+
+        return future.handle((messageId, e) -> {
+            if (e == null) {
+                sendTime.add(System.nanoTime() - start, NANOSECONDS);
+                circuitBreaker.ifPresent(CircuitBreaker::recordSuccess);
+            }
+            else {
+                sendFailures.update(1);
+                circuitBreaker.ifPresent(CircuitBreaker::recordFailure);
+                log.error("Failed to send message to Pulsar broker. " + e);
+            }
+            settle(message, e == null);
+            return null;
+        });
+    }
+
+    private synchronized void settle(SequencedMessage message, boolean acknowledged)
+    {
+        if (!message.hasSequenceId()) {
+            if (!acknowledged) {
+                fallback(message);
+            }
+            return;
+        }
+        inFlightIds.remove(message.getSequenceId());
+        if (acknowledged) {
+            highestSettledId = Math.max(highestSettledId, message.getSequenceId());
+            appendSpilledMessages();
+        }
+        else {
+            spill(message);
+        }
+    }
+
+    /**
+     * Store a message in the outbox. A sequenced message waits until all lower ids in flight are settled,
+     * so the outbox stays in id order whatever order the failures arrive in.
+     */
+    private void spill(SequencedMessage message)
+    {
+        if (!message.hasSequenceId()) {
+            fallback(message);
+            return;
+        }
+        spilledMessages.put(message.getSequenceId(), message);
+        appendSpilledMessages();
+    }
+
+    private void appendSpilledMessages()
+    {
+        while (!spilledMessages.isEmpty() && (inFlightIds.isEmpty() || spilledMessages.firstKey() < inFlightIds.first())) {
+            SequencedMessage message = spilledMessages.pollFirstEntry().getValue();
+            if (message.getSequenceId() <= highestSettledId) {
+                // A higher id was acknowledged first, the broker would discard this one as a duplicate
+                message = new SequencedMessage(sequenceIdGenerator.get().next(), message.getLog());
+            }
+            highestSettledId = message.getSequenceId();
+            fallback(message);
+        }
+    }
+
+    void sendDirect(SequencedMessage message)
+            throws PulsarClientException
+    {
+        CompletableFuture<MessageId> future;
+        synchronized (this) {
+            if (producer == null) {
+                throw new PulsarClientException("Not connected to the Pulsar broker");
+            }
+            future = producer.sendAsync(buildMessage(message));
+        }
+        try {
+            await(future);
         }
         catch (PulsarClientException e) {
-            log.error("Failed to send message to Pulsar broker. " + e);
-            log.error("Dropped queryID: " + message.getQueryId());
+            circuitBreaker.ifPresent(CircuitBreaker::recordFailure);
+            throw e;
+        }
+        // A replayed message is a successful probe, so new messages stop being short-circuited
+        circuitBreaker.ifPresent(CircuitBreaker::recordSuccess);
+        synchronized (this) {
+            highestSettledId = Math.max(highestSettledId, message.getSequenceId());
         }
     }
 
+    /**
+     * Return true unless the circuit breaker reports the broker as unhealthy.
+     */
+    boolean isCircuitClosed()
+    {
+        return circuitBreaker.map(breaker -> breaker.getState() == CircuitBreaker.State.CLOSED).orElse(true);
+    }
+
+    private static void await(CompletableFuture<MessageId> future)
+            throws PulsarClientException
+    {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PulsarClientException(e);
+        }
+        catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), PulsarClientException.class);
+            throw new PulsarClientException(e.getCause());
+        }
+    }
+
+    /**
+     * Start replaying the outbox into the broker, if there is an outbox
+     */
+    synchronized void startReplay(double messagesPerSecond)
+    {
+        if (outbox.isPresent() && !outboxReplayer.isPresent()) {
+            outboxReplayer = Optional.of(new OutboxReplayer(outbox.get(), this, messagesPerSecond));
+            outboxReplayer.get().start();
+        }
+    }
+
+    /**
+     * Stop the outbox replay and close the producer, its client and the outbox.
+     * Messages left in the outbox are replayed after the next start.
+     */
+    public void close()
+    {
+        Optional<OutboxReplayer> replayer;
+        synchronized (this) {
+            closed = true;
+            replayer = outboxReplayer;
+            outboxReplayer = Optional.empty();
+        }
+        // Outside the lock, the replayer may be waiting for it
+        replayer.ifPresent(OutboxReplayer::stop);
+        Producer producer;
+        PulsarClient client;
+        synchronized (this) {
+            producer = this.producer;
+            client = this.client;
+        }
+        if (producer != null) {
+            closeProducer(producer);
+        }
+        if (client != null) {
+            closeClient(client);
+        }
+        if (outbox.isPresent()) {
+            try {
+                outbox.get().close();
+            }
+            catch (IOException e) {
+                log.error("Failed to close Pulsar outbox. " + e);
+            }
+        }
+    }
+
+    private static void closeProducer(Producer producer)
+    {
+        try {
+            producer.close();
+        }
+        catch (PulsarClientException e) {
+            log.error("Failed to close Pulsar producer. " + e);
+        }
+    }
+
+    private static void closeClient(PulsarClient client)
+    {
+        try {
+            client.close();
+        }
+        catch (PulsarClientException e) {
+            log.error("Failed to close Pulsar client. " + e);
+        }
+    }
+
+    @VisibleForTesting
+    Message buildMessage(SequencedMessage sequencedMessage)
+    {
+        SerializedLog message = sequencedMessage.getLog();
+        MessageBuilder builder = MessageBuilder.create()
+                .setContent(message.getContent())
+                .setProperty("queryId", message.getQueryId());
+        if (message.getEncoding().isBinary()) {
+            builder.setProperty("contentType", message.getEncoding().getContentType());
+        }
+        message.getUser().ifPresent(user -> builder.setProperty("user", user));
+        message.getSource().ifPresent(source -> builder.setProperty("source", source));
+        message.getEventTime().ifPresent(eventTime -> builder.setEventTime(eventTime.toEpochMilli()));
+        messageKey.extract(message).ifPresent(builder::setKey);
+        message.getPartition().ifPresent(partition -> builder.setProperty(PartitionRouter.PARTITION_PROPERTY, String.valueOf(partition)));
+        if (sequencedMessage.hasSequenceId()) {
+            builder.setSequenceId(sequencedMessage.getSequenceId());
+        }
+        return builder.build();
+    }
+
+    private void fallback(SequencedMessage message)
+    {
+        if (outbox.isPresent()) {
+            try {
+                if (outbox.get().append(message)) {
+                    outboxAppends.update(1);
+                    return;
+                }
+                log.error("Pulsar outbox is full. Size in bytes: " + outbox.get().getSizeInBytes());
+            }
+            catch (IOException e) {
+                log.error("Failed to append message to Pulsar outbox. " + e);
+            }
+        }
+        droppedMessages.update(1);
+        log.error("Dropped queryID: " + message.getLog().getQueryId());
+    }
+
+    /**
+     * Time from accepting a message to its acknowledgement by the broker
+     */
+    @Managed
+    @Nested
+    public TimeStat getSendTime()
+    {
+        return sendTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSendFailures()
+    {
+        return sendFailures;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getOutboxAppends()
+    {
+        return outboxAppends;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDroppedMessages()
+    {
+        return droppedMessages;
+    }
+
+    @Managed
+    public long getOutboxSizeInBytes()
+    {
+        return outbox.map(PulsarOutbox::getSizeInBytes).orElse(0L);
+    }
+
+    /**
+     * Creates the broker connection of a built producer
+     */
+    @VisibleForTesting
+    interface Connector
+    {
+        PulsarClient createClient()
+                throws PulsarClientException;
+
+        Producer createProducer(PulsarClient client)
+                throws PulsarClientException;
+    }
+
     public static class Builder
     {
         private String topic;
@@ -57,6 +499,17 @@ public class PulsarProducer
         private boolean useTLS;
         private int sendTimeout = 3;
         private TimeUnit sendTimeoutUnit = TimeUnit.SECONDS;
+        private String outboxPath;
+        private long outboxSegmentBytes = 64L * 1024 * 1024;
+        private long outboxMaxBytes = 1024L * 1024 * 1024;
+        private double outboxReplayRate = 100;
+        private int circuitBreakerFailureThreshold = 5;
+        private long circuitBreakerOpenDuration = 30;
+        private TimeUnit circuitBreakerOpenDurationUnit = TimeUnit.SECONDS;
+        private MessageKey messageKey = MessageKey.NONE;
+        private RoutingMode routingMode = RoutingMode.ROUND_ROBIN;
+        private int partitions = 1;
+        private String producerName;
 
         public Builder setTopic(String topic)
         {
@@ -95,6 +548,55 @@ public class PulsarProducer
             return this;
         }
 
+        public Builder setOutbox(String outboxPath, long segmentBytes, long maxBytes, double replayRate)
+        {
+            this.outboxPath = outboxPath;
+            this.outboxSegmentBytes = segmentBytes;
+            this.outboxMaxBytes = maxBytes;
+            this.outboxReplayRate = replayRate;
+            return this;
+        }
+
+        public Builder setCircuitBreaker(int failureThreshold, long openDuration, TimeUnit timeUnit)
+        {
+            this.circuitBreakerFailureThreshold = failureThreshold;
+            this.circuitBreakerOpenDuration = openDuration;
+            this.circuitBreakerOpenDurationUnit = timeUnit;
+            return this;
+        }
+
+        public Builder setMessageKey(MessageKey messageKey)
+        {
+            this.messageKey = messageKey;
+            return this;
+        }
+
+        public Builder setRoutingMode(RoutingMode routingMode)
+        {
+            this.routingMode = routingMode;
+            return this;
+        }
+
+        /**
+         * Partitions of the topic, 1 if it is not partitioned. With more than one partition, messages are
+         * routed by {@link PartitionRouter}, which can address each partition.
+         */
+        public Builder setPartitions(int partitions)
+        {
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * Stable producer name. Together with an outbox path this enables persisted sequence ids,
+         * so the broker can deduplicate resent messages.
+         */
+        public Builder setProducerName(String producerName)
+        {
+            this.producerName = producerName;
+            return this;
+        }
+
         @VisibleForTesting
         ClientConfiguration buildClientConfiguration(ClientConfiguration conf)
                 throws PulsarClientException.UnsupportedAuthenticationException
@@ -110,17 +612,71 @@ public class PulsarProducer
         ProducerConfiguration buildProducerConfiguration(ProducerConfiguration prodConf)
         {
             prodConf.setSendTimeout(sendTimeout, sendTimeoutUnit);
+            if (partitions > 1) {
+                prodConf.setMessageRoutingMode(MessageRoutingMode.CustomPartition);
+                prodConf.setMessageRouter(new PartitionRouter(partitions, routingMode));
+            }
+            else {
+                prodConf.setMessageRoutingMode(routingMode.getPulsarRoutingMode());
+            }
+            if (producerName != null) {
+                prodConf.setProducerName(producerName);
+            }
             return prodConf;
         }
 
+        /**
+         * Create the producer of the topic without connecting to the broker. The outbox and sequence ids
+         * are set up once here, while {@link PulsarProducer#connect} may be retried until the broker is reachable.
+         */
         public PulsarProducer build()
                 throws PulsarClientException
         {
+            String topic = requireNonNull(this.topic, "topic is null");
+            String url = this.url;
             ClientConfiguration conf = buildClientConfiguration(new ClientConfiguration());
             ProducerConfiguration prodConf = buildProducerConfiguration(new ProducerConfiguration());
-            PulsarClient pulsarClient = PulsarClient.create(url, conf);
-            Producer producer = pulsarClient.createProducer(topic, prodConf);
-            return new PulsarProducer(producer);
+
+            // One outbox directory per topic
+            Optional<PulsarOutbox> outbox = Optional.empty();
+            Optional<SequenceIdGenerator> sequenceIdGenerator = Optional.empty();
+            if (outboxPath != null) {
+                File directory = new File(outboxPath, topic.replaceAll("[^A-Za-z0-9._-]", "_"));
+                try {
+                    outbox = Optional.of(new PulsarOutbox(directory, outboxSegmentBytes, outboxMaxBytes));
+                    if (producerName != null) {
+                        sequenceIdGenerator = Optional.of(new SequenceIdGenerator(new File(directory, SEQUENCE_ID_FILE), SEQUENCE_ID_BLOCK_SIZE));
+                        prodConf.setInitialSequenceId(sequenceIdGenerator.get().getLastSequenceId());
+                    }
+                }
+                catch (IOException e) {
+                    throw new PulsarClientException(e);
+                }
+            }
+
+            Connector connector = new Connector()
+            {
+                @Override
+                public PulsarClient createClient()
+                        throws PulsarClientException
+                {
+                    return PulsarClient.create(url, conf);
+                }
+
+                @Override
+                public Producer createProducer(PulsarClient client)
+                        throws PulsarClientException
+                {
+                    return client.createProducer(topic, prodConf);
+                }
+            };
+
+            CircuitBreaker circuitBreaker = new CircuitBreaker(topic, circuitBreakerFailureThreshold, circuitBreakerOpenDuration, circuitBreakerOpenDurationUnit);
+            AuditMBeanExporter.export(CircuitBreaker.class, topic, circuitBreaker);
+            PulsarProducer pulsarProducer = new PulsarProducer(Optional.of(connector), null, messageKey, partitions, outbox, Optional.of(circuitBreaker), sequenceIdGenerator);
+            AuditMBeanExporter.export(PulsarProducer.class, topic, pulsarProducer);
+            pulsarProducer.startReplay(outboxReplayRate);
+            return pulsarProducer;
         }
     }
 }
@@ -0,0 +1,37 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import org.apache.pulsar.client.api.ProducerConfiguration.MessageRoutingMode;
+
+/**
+ * Partition routing for messages without a key. Messages with a key are always routed by key hash.
+ */
+public enum RoutingMode
+{
+    ROUND_ROBIN(MessageRoutingMode.RoundRobinPartition),
+    SINGLE_PARTITION(MessageRoutingMode.SinglePartition);
+
+    private final MessageRoutingMode pulsarRoutingMode;
+
+    RoutingMode(MessageRoutingMode pulsarRoutingMode)
+    {
+        this.pulsarRoutingMode = pulsarRoutingMode;
+    }
+
+    public MessageRoutingMode getPulsarRoutingMode()
+    {
+        return pulsarRoutingMode;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import io.airlift.log.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Monotonic message sequence ids which survive a coordinator restart.
+ * <p>
+ * Ids are reserved in blocks and only the upper bound of the current block is persisted,
+ * so the file is written once per block instead of once per message. After a restart the
+ * generator continues after the last reserved block; ids left unused in that block are skipped,
+ * which is harmless for broker-side deduplication as it only requires ids to increase.
+ */
+public class SequenceIdGenerator
+{
+    private static final Logger log = Logger.get(SequenceIdGenerator.class);
+
+    private final File file;
+    private final long blockSize;
+    private long nextId;
+    private long reservedUntil;
+
+    public SequenceIdGenerator(File file, long blockSize)
+            throws IOException
+    {
+        this.file = requireNonNull(file, "file is null");
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.blockSize = blockSize;
+        this.nextId = readReservedUntil();
+        this.reservedUntil = nextId;
+    }
+
+    /**
+     * Return the next sequence id. If the next block cannot be persisted, ids stay monotonic
+     * within this process but may be reused after a restart.
+     */
+    public synchronized long next()
+    {
+        if (nextId >= reservedUntil) {
+            reservedUntil = nextId + blockSize;
+            try {
+                writeReservedUntil(reservedUntil);
+            }
+            catch (IOException e) {
+                log.error("Failed to persist Pulsar sequence id to " + file + ". " + e);
+            }
+        }
+        return nextId++;
+    }
+
+    /**
+     * Return the id before the next one to be handed out, -1 if no id was ever handed out
+     */
+    public synchronized long getLastSequenceId()
+    {
+        return nextId - 1;
+    }
+
+    private long readReservedUntil()
+            throws IOException
+    {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return input.readLong();
+        }
+        catch (EOFException e) {
+            throw new IOException("Truncated sequence id file: " + file, e);
+        }
+    }
+
+    private void writeReservedUntil(long value)
+            throws IOException
+    {
+        // Write and rename so a crash never leaves a truncated file behind
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary);
+                DataOutputStream output = new DataOutputStream(stream)) {
+            output.writeLong(value);
+            output.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
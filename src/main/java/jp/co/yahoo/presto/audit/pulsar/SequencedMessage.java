@@ -0,0 +1,51 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Message with the sequence id assigned on its first send attempt. Retries and outbox replays
+ * reuse the id so the broker can discard duplicates.
+ */
+public class SequencedMessage
+{
+    public static final long NO_SEQUENCE_ID = -1;
+
+    private final long sequenceId;
+    private final SerializedLog log;
+
+    public SequencedMessage(long sequenceId, SerializedLog log)
+    {
+        this.sequenceId = sequenceId;
+        this.log = requireNonNull(log, "log is null");
+    }
+
+    public long getSequenceId()
+    {
+        return sequenceId;
+    }
+
+    public boolean hasSequenceId()
+    {
+        return sequenceId != NO_SEQUENCE_ID;
+    }
+
+    public SerializedLog getLog()
+    {
+        return log;
+    }
+}
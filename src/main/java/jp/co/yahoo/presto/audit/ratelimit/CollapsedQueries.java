@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queries of one tenant which exceeded its rate during one summary interval
+ */
+class CollapsedQueries
+{
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder cpuTimeMillis = new LongAdder();
+    private final LongAccumulator firstEndTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator lastEndTime = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicReferenceArray<String> sampleQueryIds;
+
+    CollapsedQueries(int maxSamples)
+    {
+        this.sampleQueryIds = new AtomicReferenceArray<>(maxSamples);
+    }
+
+    void add(QueryCompletedEvent event)
+    {
+        queryCount.increment();
+        cpuTimeMillis.add(event.getStatistics().getCpuTime().toMillis());
+        long endTime = event.getEndTime().toEpochMilli();
+        firstEndTime.accumulate(endTime);
+        lastEndTime.accumulate(endTime);
+        // Keep the first queries of the interval as samples
+        if (sampleCount.get() < sampleQueryIds.length()) {
+            int index = sampleCount.getAndIncrement();
+            if (index < sampleQueryIds.length()) {
+                sampleQueryIds.set(index, event.getMetadata().getQueryId());
+            }
+        }
+    }
+
+    long getQueryCount()
+    {
+        return queryCount.sum();
+    }
+
+    long getCpuTimeMillis()
+    {
+        return cpuTimeMillis.sum();
+    }
+
+    long getFirstEndTime()
+    {
+        return firstEndTime.get();
+    }
+
+    long getLastEndTime()
+    {
+        return lastEndTime.get();
+    }
+
+    List<String> getSampleQueryIds()
+    {
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < sampleQueryIds.length(); i++) {
+            String queryId = sampleQueryIds.get(i);
+            if (queryId != null) {
+                samples.add(queryId);
+            }
+        }
+        return samples;
+    }
+}
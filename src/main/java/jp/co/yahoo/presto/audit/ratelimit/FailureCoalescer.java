@@ -0,0 +1,270 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.metrics.QueryFingerprint;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Coalesces repeated failures of the same query, as produced by retry storms.
+ * <p>
+ * Failures are keyed on user, source, query fingerprint and error code. The first failure of a key
+ * is logged as usual and opens a window; further failures of the key within the window are not
+ * serialized, and when the window closes one summary record lists their count and query ids.
+ * At most maxKeys windows are open; failures of further keys are logged as usual.
+ */
+public class FailureCoalescer
+{
+    public static final String EVENT_TYPE = "FailureSummary";
+    private static final int MAX_QUERY_IDS = 1000;
+
+    private static final Logger log = Logger.get(FailureCoalescer.class);
+
+    private final long windowNanos;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogFailureCoalescer").setDaemon(true).build());
+    private final CounterStat coalescedRecords = new CounterStat();
+    private final CounterStat summaryRecords = new CounterStat();
+
+    public FailureCoalescer(Duration window, int maxKeys)
+    {
+        checkArgument(maxKeys > 0, "maxKeys must be positive");
+        this.windowNanos = requireNonNull(window, "window is null").roundTo(TimeUnit.NANOSECONDS);
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Publish the summary records of closed windows periodically
+     */
+    public void start(Consumer<SerializedLog> publisher)
+    {
+        requireNonNull(publisher, "publisher is null");
+        long tickMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(windowNanos) / 4);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                closeWindows(System.nanoTime()).forEach(publisher);
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to publish failure summaries. " + e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return true if the query repeats a recent failure and its record was coalesced
+     */
+    public boolean coalesce(QueryCompletedEvent event)
+    {
+        return coalesce(event, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    boolean coalesce(QueryCompletedEvent event, long nowNanos)
+    {
+        if (!event.getFailureInfo().isPresent()) {
+            return false;
+        }
+        String user = event.getContext().getUser();
+        String source = event.getContext().getSource().orElse("");
+        String fingerprint = QueryFingerprint.fingerprint(event.getMetadata().getQuery());
+        QueryFailureInfo failureInfo = event.getFailureInfo().get();
+        String key = user + '\0' + source + '\0' + fingerprint + '\0' + failureInfo.getErrorCode().getCode();
+        while (true) {
+            Window window = windows.get(key);
+            if (window == null) {
+                if (windows.size() >= maxKeys) {
+                    return false;
+                }
+                window = new Window(user, source, fingerprint, failureInfo, event.getMetadata().getQueryId(), nowNanos);
+                if (windows.putIfAbsent(key, window) == null) {
+                    // First occurrence, logged in full
+                    return false;
+                }
+                continue;
+            }
+            if (window.add(event)) {
+                coalescedRecords.update(1);
+                return true;
+            }
+            // Closed by the flush thread, open a new window
+            windows.remove(key, window);
+        }
+    }
+
+    /**
+     * Close the windows which are older than the window length
+     *
+     * @return summary records of the closed windows with coalesced failures
+     */
+    @VisibleForTesting
+    List<SerializedLog> closeWindows(long nowNanos)
+    {
+        ImmutableList.Builder<SerializedLog> summaries = ImmutableList.builder();
+        Iterator<Map.Entry<String, Window>> iterator = windows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Window window = iterator.next().getValue();
+            if (nowNanos - window.startNanos < windowNanos) {
+                continue;
+            }
+            iterator.remove();
+            if (window.close() > 0) {
+                summaries.add(toRecord(window));
+                summaryRecords.update(1);
+            }
+        }
+        return summaries.build();
+    }
+
+    private SerializedLog toRecord(Window window)
+    {
+        SummaryRecord record = new SummaryRecord();
+        record.eventType = EVENT_TYPE;
+        record.user = window.user;
+        record.source = window.source;
+        record.fingerprint = window.fingerprint;
+        record.errorCode = window.errorCode;
+        record.errorName = window.errorName;
+        record.firstQueryId = window.firstQueryId;
+        record.queryCount = window.count;
+        record.queryIds = window.queryIds;
+        record.startTimestamp = window.firstEndTime / 1000.0;
+        record.endTimestamp = window.lastEndTime / 1000.0;
+        return new SerializedLog(window.firstQueryId, gson.toJson(record),
+                Optional.of(window.user), Optional.of(window.source), Optional.of(Instant.ofEpochMilli(window.lastEndTime)));
+    }
+
+    @Managed
+    public int getOpenWindowCount()
+    {
+        return windows.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCoalescedRecords()
+    {
+        return coalescedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSummaryRecords()
+    {
+        return summaryRecords;
+    }
+
+    private static class Window
+    {
+        private final String user;
+        private final String source;
+        private final String fingerprint;
+        private final int errorCode;
+        private final String errorName;
+        private final String firstQueryId;
+        private final long startNanos;
+        private final List<String> queryIds = new ArrayList<>();
+        private long count;
+        private long firstEndTime = Long.MAX_VALUE;
+        private long lastEndTime = Long.MIN_VALUE;
+        private boolean closed;
+
+        Window(String user, String source, String fingerprint, QueryFailureInfo failureInfo, String firstQueryId, long startNanos)
+        {
+            this.user = user;
+            this.source = source;
+            this.fingerprint = fingerprint;
+            this.errorCode = failureInfo.getErrorCode().getCode();
+            this.errorName = failureInfo.getErrorCode().getName();
+            this.firstQueryId = firstQueryId;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @return false if the window is already closed
+         */
+        synchronized boolean add(QueryCompletedEvent event)
+        {
+            if (closed) {
+                return false;
+            }
+            count++;
+            if (queryIds.size() < MAX_QUERY_IDS) {
+                queryIds.add(event.getMetadata().getQueryId());
+            }
+            long endTime = event.getEndTime().toEpochMilli();
+            firstEndTime = Math.min(firstEndTime, endTime);
+            lastEndTime = Math.max(lastEndTime, endTime);
+            return true;
+        }
+
+        /**
+         * @return the number of coalesced failures
+         */
+        synchronized long close()
+        {
+            closed = true;
+            return count;
+        }
+    }
+
+    private static class SummaryRecord
+    {
+        private String eventType;
+        private String user;
+        private String source;
+        private String fingerprint;
+        private int errorCode;
+        private String errorName;
+        private String firstQueryId;
+        private long queryCount;
+        private List<String> queryIds;
+        private double startTimestamp;
+        private double endTimestamp;
+    }
+}
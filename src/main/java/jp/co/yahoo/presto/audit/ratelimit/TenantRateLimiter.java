@@ -0,0 +1,230 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Limits the records of each tenant, a pair of user and source, with a token bucket.
+ * <p>
+ * Records of successful queries beyond the rate are not serialized; they are counted into a
+ * summary record per tenant which is published once per interval with the number of queries,
+ * their total CPU time and a few sample query ids. Failed queries take a token but are always kept.
+ * At most maxTenants tenants have buckets of their own; further tenants share the tenant {@value #OTHER_KEY}.
+ */
+public class TenantRateLimiter
+{
+    public static final String OTHER_KEY = "<other>";
+    public static final String EVENT_TYPE = "RateLimitSummary";
+    private static final int MAX_SAMPLES = 5;
+
+    private static final Logger log = Logger.get(TenantRateLimiter.class);
+
+    private final double recordsPerSecond;
+    private final int burst;
+    private final int maxTenants;
+    private final Duration summaryInterval;
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogRateLimit").setDaemon(true).build());
+    private final CounterStat collapsedRecords = new CounterStat();
+    private final CounterStat summaryRecords = new CounterStat();
+
+    public TenantRateLimiter(double recordsPerSecond, int burst, int maxTenants, Duration summaryInterval)
+    {
+        checkArgument(recordsPerSecond > 0, "recordsPerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+        checkArgument(maxTenants > 0, "maxTenants must be positive");
+        this.recordsPerSecond = recordsPerSecond;
+        this.burst = burst;
+        this.maxTenants = maxTenants;
+        this.summaryInterval = requireNonNull(summaryInterval, "summaryInterval is null");
+    }
+
+    /**
+     * Publish the summary records periodically
+     */
+    public void start(Consumer<SerializedLog> publisher)
+    {
+        requireNonNull(publisher, "publisher is null");
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                summarize(System.nanoTime()).forEach(publisher);
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to publish rate limit summaries. " + e);
+            }
+        }, summaryInterval.toMillis(), summaryInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Take a token for the query
+     *
+     * @return false if the record of the query was collapsed into the summary instead
+     */
+    public boolean tryAcquire(QueryCompletedEvent event)
+    {
+        return tryAcquire(event, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    boolean tryAcquire(QueryCompletedEvent event, long nowNanos)
+    {
+        String user = event.getContext().getUser();
+        String source = event.getContext().getSource().orElse("");
+        String key = user + '\0' + source;
+        Tenant tenant = tenants.get(key);
+        if (tenant == null) {
+            tenant = tenants.size() < maxTenants
+                    ? tenants.computeIfAbsent(key, ignored -> new Tenant(user, source, nowNanos))
+                    : tenants.computeIfAbsent(OTHER_KEY, ignored -> new Tenant(OTHER_KEY, OTHER_KEY, nowNanos));
+        }
+        if (tenant.bucket.tryAcquire(nowNanos) || event.getFailureInfo().isPresent()) {
+            return true;
+        }
+        tenant.collapsed.get().add(event);
+        collapsedRecords.update(1);
+        return false;
+    }
+
+    /**
+     * Take the summaries of the last interval and remove tenants which were idle
+     */
+    @VisibleForTesting
+    List<SerializedLog> summarize(long nowNanos)
+    {
+        ImmutableList.Builder<SerializedLog> summaries = ImmutableList.builder();
+        Iterator<Map.Entry<String, Tenant>> iterator = tenants.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Tenant tenant = iterator.next().getValue();
+            if (tenant.collapsed.get().getQueryCount() == 0) {
+                // A query collapsed between the check and the removal of an idle tenant is lost
+                if (tenant.bucket.isFull(nowNanos)) {
+                    iterator.remove();
+                }
+                continue;
+            }
+            CollapsedQueries collapsed = tenant.collapsed.getAndSet(new CollapsedQueries(MAX_SAMPLES));
+            summaries.add(toRecord(tenant, collapsed));
+            summaryRecords.update(1);
+        }
+        return summaries.build();
+    }
+
+    private SerializedLog toRecord(Tenant tenant, CollapsedQueries collapsed)
+    {
+        SummaryRecord record = new SummaryRecord();
+        record.eventType = EVENT_TYPE;
+        record.user = tenant.user;
+        record.source = tenant.source;
+        record.queryCount = collapsed.getQueryCount();
+        record.cpuTime = collapsed.getCpuTimeMillis() / 1000.0;
+        record.startTimestamp = collapsed.getFirstEndTime() / 1000.0;
+        record.endTimestamp = collapsed.getLastEndTime() / 1000.0;
+        record.sampleQueryIds = collapsed.getSampleQueryIds();
+        return new SerializedLog(record.sampleQueryIds.isEmpty() ? EVENT_TYPE : record.sampleQueryIds.get(0), gson.toJson(record),
+                Optional.of(tenant.user), Optional.of(tenant.source), Optional.of(Instant.ofEpochMilli(collapsed.getLastEndTime())));
+    }
+
+    @Managed
+    public int getTenantCount()
+    {
+        return tenants.size();
+    }
+
+    @Managed
+    public double getRecordsPerSecond()
+    {
+        return recordsPerSecond;
+    }
+
+    @Managed
+    public int getBurst()
+    {
+        return burst;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCollapsedRecords()
+    {
+        return collapsedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSummaryRecords()
+    {
+        return summaryRecords;
+    }
+
+    private class Tenant
+    {
+        private final String user;
+        private final String source;
+        private final TokenBucket bucket;
+        private final AtomicReference<CollapsedQueries> collapsed = new AtomicReference<>(new CollapsedQueries(MAX_SAMPLES));
+
+        Tenant(String user, String source, long nowNanos)
+        {
+            this.user = user;
+            this.source = source;
+            this.bucket = new TokenBucket(recordsPerSecond, burst, nowNanos);
+        }
+    }
+
+    private static class SummaryRecord
+    {
+        private String eventType;
+        private String user;
+        private String source;
+        private long queryCount;
+        private double cpuTime;
+        private double startTimestamp;
+        private double endTimestamp;
+        private List<String> sampleQueryIds;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free token bucket, kept as the theoretical arrival time of the next record
+ * (generic cell rate algorithm). A record conforms if taking a token keeps the
+ * arrival time within {@code burst} token intervals ahead of now.
+ */
+class TokenBucket
+{
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    TokenBucket(double recordsPerSecond, int burst, long nowNanos)
+    {
+        checkArgument(recordsPerSecond > 0, "recordsPerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000 / recordsPerSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    boolean tryAcquire(long nowNanos)
+    {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long next = Math.max(arrival - nowNanos, 0) + nowNanos + intervalNanos;
+            if (next - nowNanos > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whether the bucket is full again, so dropping it loses nothing
+     */
+    boolean isFull(long nowNanos)
+    {
+        return theoreticalArrival.get() - nowNanos <= 0;
+    }
+}
@@ -40,12 +40,18 @@ public class AuditRecord
     private String failureType;
     private String failureMessage;
     private String failuresJson;
+    private String failuresHash;
+    private String failureDetails;
 
     private String remoteClientAddress;
     private String clientUser;
     private String userAgent;
     private String source;
 
+    private SplitStatisticsSummary splitStatistics;
+
+    private Integer sheddingLevel;
+
     public String getEventType()
     {
         return eventType;
@@ -206,6 +212,26 @@ public class AuditRecord
         this.failuresJson = failuresJson;
     }
 
+    public String getFailuresHash()
+    {
+        return failuresHash;
+    }
+
+    public void setFailuresHash(String failuresHash)
+    {
+        this.failuresHash = failuresHash;
+    }
+
+    public String getFailureDetails()
+    {
+        return failureDetails;
+    }
+
+    public void setFailureDetails(String failureDetails)
+    {
+        this.failureDetails = failureDetails;
+    }
+
     public String getRemoteClientAddress()
     {
         return remoteClientAddress;
@@ -295,4 +321,24 @@ public class AuditRecord
     {
         this.peakTotalNonRevocableMemoryBytes = peakTotalNonRevocableMemoryBytes;
     }
+
+    public SplitStatisticsSummary getSplitStatistics()
+    {
+        return splitStatistics;
+    }
+
+    public void setSplitStatistics(SplitStatisticsSummary splitStatistics)
+    {
+        this.splitStatistics = splitStatistics;
+    }
+
+    public Integer getSheddingLevel()
+    {
+        return sheddingLevel;
+    }
+
+    public void setSheddingLevel(Integer sheddingLevel)
+    {
+        this.sheddingLevel = sheddingLevel;
+    }
 }
@@ -17,48 +17,159 @@ import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
 import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
 import com.facebook.presto.spi.eventlistener.QueryIOMetadata;
 import com.facebook.presto.spi.eventlistener.QueryStatistics;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import io.airlift.json.ObjectMapperProvider;
+import io.airlift.stats.TimeStat;
+import jp.co.yahoo.presto.audit.filter.RecordFilter;
+import jp.co.yahoo.presto.audit.filter.SinkFilter;
+import jp.co.yahoo.presto.audit.sink.LogType;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class FullLogSerializer
         implements LogSerializer
 {
     private final ObjectMapper objectMapper;
-    private Pattern filter;
+    private final ObjectWriter objectWriter;
+    private final LogEncoding encoding;
+    private final TimeStat serializationTime = new TimeStat();
+    private final SinkFilter filter;
+    private volatile Optional<SlowQueryPolicy> slowQueryPolicy;
 
     public FullLogSerializer(Optional<String> auditLogFullFilter)
     {
-        filter = auditLogFullFilter.map(Pattern::compile).orElse(null);
+        this(auditLogFullFilter, LogEncoding.JSON, Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * @param slowQueryPolicy if present, only failed and slow queries get a full log
+     * @param stackTraceStore if present, failure stack traces are replaced by a hash referencing the store
+     */
+    public FullLogSerializer(Optional<String> auditLogFullFilter, LogEncoding encoding, Optional<SlowQueryPolicy> slowQueryPolicy, Optional<StackTraceStore> stackTraceStore)
+    {
+        checkArgument(encoding.getFactory() != null, "Encoding %s is not supported for the full log", encoding);
+        this.encoding = encoding;
+        this.slowQueryPolicy = requireNonNull(slowQueryPolicy, "slowQueryPolicy is null");
+        filter = auditLogFullFilter.map(RecordFilter::dropFullLogOfSource).orElse(RecordFilter.KEEP_ALL).forAllSinks();
         // Initialize serializer and objectMapper
         SimpleModule serializerModule = new SimpleModule("presto-audit-serializer");
         serializerModule.addSerializer(QueryCompletedEvent.class, new QueryCompletedEventSerializer());
         serializerModule.addSerializer(QueryStatistics.class, new QueryStatisticsSerializer());
         serializerModule.addSerializer(QueryIOMetadata.class, new QueryIOMetadataSerializer());
-        serializerModule.addSerializer(QueryFailureInfo.class, new QueryFailureInfoSerializer());
+        serializerModule.addSerializer(QueryFailureInfo.class, new QueryFailureInfoSerializer(stackTraceStore));
         objectMapper = new ObjectMapperProvider().get().registerModule(serializerModule);
+        objectWriter = objectMapper.writer();
     }
 
     @Override
     public SerializedLog serialize(QueryCompletedEvent event) throws JsonProcessingException
     {
-        return new SerializedLog(event.getMetadata().getQueryId(), objectMapper.writeValueAsString(event));
+        return serialize(event, 0);
+    }
+
+    /**
+     * @param sheddingLevel load shedding level in effect, recorded when not 0
+     */
+    public SerializedLog serialize(QueryCompletedEvent event, int sheddingLevel) throws JsonProcessingException
+    {
+        return serialize(event, sheddingLevel, encoding, true);
+    }
+
+    /**
+     * Serialize in the given encoding instead of the configured one
+     *
+     * @param referenceStackTraces whether traces may be replaced by a hash, only for sinks which also receive the stack trace records
+     */
+    public SerializedLog serialize(QueryCompletedEvent event, int sheddingLevel, LogEncoding encoding, boolean referenceStackTraces) throws JsonProcessingException
+    {
+        checkArgument(encoding.getFactory() != null, "Encoding %s is not supported for the full log", encoding);
+        long start = System.nanoTime();
+        try {
+            ObjectWriter writer = sheddingLevel == 0
+                    ? objectWriter
+                    : objectWriter.withAttribute(QueryCompletedEventSerializer.SHEDDING_LEVEL, sheddingLevel);
+            if (!referenceStackTraces) {
+                writer = writer.withAttribute(QueryFailureInfoSerializer.REFERENCE_STACK_TRACES, Boolean.FALSE);
+            }
+            return serializeEvent(writer, event, encoding);
+        }
+        finally {
+            serializationTime.add(System.nanoTime() - start, NANOSECONDS);
+        }
+    }
+
+    private SerializedLog serializeEvent(ObjectWriter writer, QueryCompletedEvent event, LogEncoding encoding) throws JsonProcessingException
+    {
+        if (!encoding.isBinary()) {
+            return new SerializedLog(event.getMetadata().getQueryId(), writer.writeValueAsString(event),
+                    Optional.of(event.getContext().getUser()), event.getContext().getSource(), Optional.of(event.getEndTime()));
+        }
+        // Same serializers and mapper settings, only the generator differs
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (JsonGenerator generator = encoding.getFactory().createGenerator(content)) {
+            generator.setCodec(objectMapper);
+            writer.writeValue(generator, event);
+        }
+        catch (JsonProcessingException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new SerializedLog(event.getMetadata().getQueryId(), content.toByteArray(), encoding,
+                Optional.of(event.getContext().getUser()), event.getContext().getSource(), Optional.of(event.getEndTime()));
+    }
+
+    public LogEncoding getEncoding()
+    {
+        return encoding;
+    }
+
+    /**
+     * Replace the slow query policy. Takes effect for queries completing afterwards.
+     */
+    public void setSlowQueryPolicy(Optional<SlowQueryPolicy> slowQueryPolicy)
+    {
+        this.slowQueryPolicy = requireNonNull(slowQueryPolicy, "slowQueryPolicy is null");
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getSerializationTime()
+    {
+        return serializationTime;
+    }
+
+    /**
+     * Whether the query failed or exceeds the slow query thresholds, if any
+     */
+    public boolean isFailedOrSlow(QueryCompletedEvent event)
+    {
+        Optional<SlowQueryPolicy> slowQueryPolicy = this.slowQueryPolicy;
+        return event.getFailureInfo().isPresent() || (slowQueryPolicy.isPresent() && slowQueryPolicy.get().shouldCapture(event));
     }
 
     @Override
     public boolean shouldOutput(QueryCompletedEvent event)
     {
         // Don't log if regex matches source name
-        if (filter != null && event.getContext().getSource().isPresent()) {
-            String source = event.getContext().getSource().get();
-            Matcher matcher = filter.matcher(source);
-            return !matcher.find();
+        if (event.getContext().getSource().isPresent() && !filter.keep(LogType.FULL, event)) {
+            return false;
         }
-        return true;
+        Optional<SlowQueryPolicy> slowQueryPolicy = this.slowQueryPolicy;
+        return !slowQueryPolicy.isPresent() || slowQueryPolicy.get().shouldCapture(event);
     }
 }
@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.json.ObjectMapperProvider;
+import jp.co.yahoo.presto.audit.binary.BinaryRecordReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Wire encoding of a log. SMILE and CBOR carry the same document as JSON in a binary form
+ * which is smaller and cheaper to generate and parse. RECORD is a simple log record as a single
+ * segment of {@link jp.co.yahoo.presto.audit.binary.BinaryRecordWriter}; it has no Jackson factory and cannot encode the full log.
+ */
+public enum LogEncoding
+{
+    JSON(new JsonFactory(), "application/json"),
+    SMILE(new SmileFactory(), "application/x-jackson-smile"),
+    CBOR(new CBORFactory(), "application/cbor"),
+    RECORD(null, "application/x-presto-audit-record");
+
+    private static final ObjectMapper TEXT_MAPPER = new ObjectMapperProvider().get();
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final JsonFactory factory;
+    private final String contentType;
+
+    LogEncoding(JsonFactory factory, String contentType)
+    {
+        this.factory = factory;
+        this.contentType = contentType;
+    }
+
+    public JsonFactory getFactory()
+    {
+        return factory;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public boolean isBinary()
+    {
+        return this != JSON;
+    }
+
+    /**
+     * Re-encode a document of this encoding as JSON text
+     */
+    public String toJson(byte[] content)
+    {
+        try {
+            if (this == RECORD) {
+                return GSON.toJson(new BinaryRecordReader(new ByteArrayInputStream(content)).next()
+                        .orElseThrow(() -> new IOException("Empty binary record")));
+            }
+            JsonNode document = TEXT_MAPPER.readTree(factory.createParser(content));
+            return TEXT_MAPPER.writeValueAsString(document);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -22,6 +22,11 @@ import java.io.IOException;
 
 public class QueryCompletedEventSerializer extends StdSerializer<QueryCompletedEvent>
 {
+    /**
+     * Serialization attribute with the load shedding level, written when set
+     */
+    public static final String SHEDDING_LEVEL = "sheddingLevel";
+
     public QueryCompletedEventSerializer()
     {
         this(null);
@@ -42,10 +47,15 @@ public class QueryCompletedEventSerializer extends StdSerializer<QueryCompletedE
         jsonGenerator.writeObjectField("statistics", value.getStatistics());
         jsonGenerator.writeObjectField("context", value.getContext());
         jsonGenerator.writeObjectField("ioMetadata", value.getIoMetadata());
-        jsonGenerator.writeObjectField("failureInfo", value.getFailureInfo());
+        // Through the provider, so the failure info serializer sees the writer attributes
+        provider.defaultSerializeField("failureInfo", value.getFailureInfo(), jsonGenerator);
         jsonGenerator.writeObjectField("createTime", value.getCreateTime());
         jsonGenerator.writeObjectField("executionStartTime", value.getExecutionStartTime());
         jsonGenerator.writeObjectField("endTime", value.getEndTime());
+        Object sheddingLevel = provider.getAttribute(SHEDDING_LEVEL);
+        if (sheddingLevel != null) {
+            jsonGenerator.writeObjectField(SHEDDING_LEVEL, sheddingLevel);
+        }
         jsonGenerator.writeEndObject();
     }
 }
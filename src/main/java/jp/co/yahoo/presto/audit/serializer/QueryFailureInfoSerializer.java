@@ -19,17 +19,37 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import java.io.IOException;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
 
 public class QueryFailureInfoSerializer extends StdSerializer<QueryFailureInfo>
 {
+    /**
+     * Writer attribute, set to false to keep the trace inline for sinks which do not receive the stack trace records
+     */
+    public static final String REFERENCE_STACK_TRACES = "referenceStackTraces";
+
+    private final Optional<StackTraceStore> stackTraceStore;
+
     public QueryFailureInfoSerializer()
     {
-        this(null);
+        this(Optional.empty());
+    }
+
+    /**
+     * @param stackTraceStore if present, traces are written as a hash referencing the store
+     */
+    public QueryFailureInfoSerializer(Optional<StackTraceStore> stackTraceStore)
+    {
+        super(QueryFailureInfo.class);
+        this.stackTraceStore = requireNonNull(stackTraceStore, "stackTraceStore is null");
     }
 
     public QueryFailureInfoSerializer(Class<QueryFailureInfo> t)
     {
         super(t);
+        this.stackTraceStore = Optional.empty();
     }
 
     @Override
@@ -43,7 +63,16 @@ public class QueryFailureInfoSerializer extends StdSerializer<QueryFailureInfo>
         jsonGenerator.writeObjectField("failureMessage", value.getFailureMessage());
         jsonGenerator.writeObjectField("failureTask", value.getFailureTask());
         jsonGenerator.writeObjectField("failureHost", value.getFailureHost());
-        jsonGenerator.writeObjectField("failuresJson", value.getFailuresJson());
+        Optional<String> failuresHash = Boolean.FALSE.equals(provider.getAttribute(REFERENCE_STACK_TRACES))
+                ? Optional.empty()
+                : stackTraceStore.flatMap(store -> store.reference(value.getFailuresJson()));
+        if (failuresHash.isPresent()) {
+            jsonGenerator.writeObjectField("failuresHash", failuresHash.get());
+            jsonGenerator.writeObjectField("failureDetails", StackTraceStore.details(value.getFailuresJson()));
+        }
+        else {
+            jsonGenerator.writeObjectField("failuresJson", value.getFailuresJson());
+        }
         jsonGenerator.writeEndObject();
     }
 }
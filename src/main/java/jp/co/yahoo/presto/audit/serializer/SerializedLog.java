@@ -1,14 +1,52 @@
 package jp.co.yahoo.presto.audit.serializer;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
 public class SerializedLog
 {
     private String queryId;
     private String serializedLog;
+    private byte[] content;
+    private LogEncoding encoding;
+
+    // Routing metadata, not part of the serialized record
+    private Optional<String> user;
+    private Optional<String> source;
+    private Optional<Instant> eventTime;
+    private boolean priority;
+    private Optional<Integer> partition = Optional.empty();
+    private Optional<AuditRecord> record = Optional.empty();
 
     public SerializedLog(String queryId, String serializedLog)
+    {
+        this(queryId, serializedLog, Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    public SerializedLog(String queryId, String serializedLog, Optional<String> user, Optional<String> source, Optional<Instant> eventTime)
     {
         this.queryId = queryId;
         this.serializedLog = serializedLog;
+        this.encoding = LogEncoding.JSON;
+        this.user = requireNonNull(user, "user is null");
+        this.source = requireNonNull(source, "source is null");
+        this.eventTime = requireNonNull(eventTime, "eventTime is null");
+    }
+
+    public SerializedLog(String queryId, byte[] content, LogEncoding encoding, Optional<String> user, Optional<String> source, Optional<Instant> eventTime)
+    {
+        this.queryId = queryId;
+        this.content = requireNonNull(content, "content is null");
+        this.encoding = requireNonNull(encoding, "encoding is null");
+        if (encoding == LogEncoding.JSON) {
+            this.serializedLog = new String(content, StandardCharsets.UTF_8);
+        }
+        this.user = requireNonNull(user, "user is null");
+        this.source = requireNonNull(source, "source is null");
+        this.eventTime = requireNonNull(eventTime, "eventTime is null");
     }
 
     public String getQueryId()
@@ -16,8 +54,101 @@ public class SerializedLog
         return queryId;
     }
 
+    /**
+     * The record as JSON text. Binary encoded records are converted on first use,
+     * so only sinks which need text pay for it.
+     */
     public String getSerializedLog()
     {
+        if (serializedLog == null) {
+            serializedLog = encoding.toJson(content);
+        }
         return serializedLog;
     }
+
+    /**
+     * The record in its wire encoding
+     */
+    public byte[] getContent()
+    {
+        if (content == null) {
+            content = serializedLog.getBytes(StandardCharsets.UTF_8);
+        }
+        return content;
+    }
+
+    public LogEncoding getEncoding()
+    {
+        return encoding;
+    }
+
+    public Optional<String> getUser()
+    {
+        return user;
+    }
+
+    public Optional<String> getSource()
+    {
+        return source;
+    }
+
+    public Optional<Instant> getEventTime()
+    {
+        return eventTime;
+    }
+
+    /**
+     * Whether the record belongs to a failed or slow query, which sinks write first and drop last
+     */
+    public boolean isPriority()
+    {
+        return priority;
+    }
+
+    public SerializedLog setPriority(boolean priority)
+    {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * The topic partition the record must be sent to, for records every consumer of a partitioned topic must see
+     */
+    public Optional<Integer> getPartition()
+    {
+        return partition;
+    }
+
+    public SerializedLog setPartition(int partition)
+    {
+        this.partition = Optional.of(partition);
+        return this;
+    }
+
+    /**
+     * The simple log record this log was serialized from, so sinks with a format of their own
+     * do not parse the JSON back
+     */
+    public Optional<AuditRecord> getRecord()
+    {
+        return record;
+    }
+
+    public SerializedLog setRecord(AuditRecord record)
+    {
+        this.record = Optional.of(record);
+        return this;
+    }
+
+    /**
+     * Copy of this log with the same metadata and another encoding of the record
+     */
+    public SerializedLog withContent(byte[] content, LogEncoding encoding)
+    {
+        SerializedLog log = new SerializedLog(queryId, content, encoding, user, source, eventTime);
+        log.priority = priority;
+        log.partition = partition;
+        log.record = record;
+        return log;
+    }
 }
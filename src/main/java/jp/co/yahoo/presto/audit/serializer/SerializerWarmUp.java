@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.ErrorCode;
+import com.facebook.presto.spi.ErrorType;
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryContext;
+import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
+import com.facebook.presto.spi.eventlistener.QueryIOMetadata;
+import com.facebook.presto.spi.eventlistener.QueryInputMetadata;
+import com.facebook.presto.spi.eventlistener.QueryMetadata;
+import com.facebook.presto.spi.eventlistener.QueryStatistics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.log.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Serializes synthetic events in a background thread at startup, so the first real queries
+ * do not pay for class loading and JIT compilation of the serializers.
+ * Warm-up serializations are included in the serialization time metrics.
+ */
+public class SerializerWarmUp
+        implements Runnable
+{
+    private static final Logger log = Logger.get(SerializerWarmUp.class);
+    private static final URI SYNTHETIC_URI = URI.create("http://localhost:8080/v1/query/");
+
+    private final List<LogSerializer> serializers;
+    private final int iterations;
+
+    public SerializerWarmUp(List<LogSerializer> serializers, int iterations)
+    {
+        this.serializers = ImmutableList.copyOf(requireNonNull(serializers, "serializers is null"));
+        this.iterations = iterations;
+    }
+
+    public void start()
+    {
+        Thread thread = new Thread(this, "AuditLogWarmUp");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public void run()
+    {
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                QueryCompletedEvent event = syntheticEvent(i);
+                for (LogSerializer serializer : serializers) {
+                    serializer.serialize(event);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Serializer warm-up failed. " + e);
+            return;
+        }
+        log.info("Serializer warm-up of %s events took %s ms", iterations, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Event of a finished or, for odd numbers, failed query, with every optional field set
+     */
+    static QueryCompletedEvent syntheticEvent(int number)
+    {
+        String queryId = String.format("19700101_000000_%05d_warmup", number);
+        boolean failed = number % 2 == 1;
+        QueryMetadata metadata = new QueryMetadata(queryId,
+                Optional.of("warm-up"),
+                "SELECT count(*) FROM warm_up WHERE id = " + number,
+                failed ? "FAILED" : "FINISHED",
+                SYNTHETIC_URI.resolve(queryId),
+                Optional.of("plan"),
+                Optional.of("payload"));
+        QueryStatistics statistics = new QueryStatistics(
+                Duration.ofMillis(number),
+                Duration.ofMillis(2L * number),
+                Duration.ofMillis(3L * number),
+                Optional.of(Duration.ofMillis(number)),
+                Optional.of(Duration.ofMillis(number)),
+                number,
+                number,
+                number,
+                number,
+                number,
+                number,
+                number,
+                number,
+                number,
+                number,
+                true,
+                ImmutableList.of(),
+                ImmutableList.of("operatorSummary"));
+        QueryContext context = new QueryContext(
+                "presto-audit-warm-up",
+                Optional.of("principal"),
+                Optional.of("localhost"),
+                Optional.of("user-agent"),
+                Optional.of("client-info"),
+                ImmutableSet.of("tag"),
+                Optional.of("presto-audit-warm-up"),
+                Optional.of("catalog"),
+                Optional.of("schema"),
+                Optional.of("resource-group"),
+                ImmutableMap.of("session", "property"),
+                "127.0.0.1",
+                "version",
+                "environment");
+        QueryIOMetadata ioMetadata = new QueryIOMetadata(
+                ImmutableList.of(new QueryInputMetadata("catalog", "schema", "warm_up", ImmutableList.of("id"), Optional.empty())),
+                Optional.empty());
+        Optional<QueryFailureInfo> failureInfo = failed
+                ? Optional.of(new QueryFailureInfo(new ErrorCode(1, "SYNTAX_ERROR", ErrorType.USER_ERROR),
+                        Optional.of("ParsingException"),
+                        Optional.of("message"),
+                        Optional.empty(),
+                        Optional.empty(),
+                        "{}"))
+                : Optional.empty();
+        Instant endTime = Instant.ofEpochMilli(number);
+        return new QueryCompletedEvent(metadata, statistics, context, ioMetadata, failureInfo, endTime, endTime, endTime);
+    }
+}
@@ -14,30 +14,97 @@
 package jp.co.yahoo.presto.audit.serializer;
 
 import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryCreatedEvent;
 import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class SimpleLogSerializer
         implements LogSerializer
 {
     Gson gson;
+    private final TimeStat serializationTime = new TimeStat();
+    private final Optional<StackTraceStore> stackTraceStore;
+
     public SimpleLogSerializer()
+    {
+        this(Optional.empty());
+    }
+
+    /**
+     * @param stackTraceStore if present, failure stack traces are replaced by a hash referencing the store
+     */
+    public SimpleLogSerializer(Optional<StackTraceStore> stackTraceStore)
     {
         gson = new GsonBuilder().disableHtmlEscaping().create();
+        this.stackTraceStore = requireNonNull(stackTraceStore, "stackTraceStore is null");
     }
 
     @Override
     public SerializedLog serialize(QueryCompletedEvent event)
     {
-        AuditRecord record = buildAuditRecord(event);
-        return new SerializedLog(event.getMetadata().getQueryId(), gson.toJson(record));
+        return serialize(event, Optional.empty(), 0, true);
+    }
+
+    /**
+     * @param sheddingLevel load shedding level in effect, recorded when not 0
+     * @param referenceStackTraces whether traces may be replaced by a hash, only for sinks which also receive the stack trace records
+     */
+    public SerializedLog serialize(QueryCompletedEvent event, Optional<SplitStatisticsSummary> splitStatistics, int sheddingLevel, boolean referenceStackTraces)
+    {
+        long start = System.nanoTime();
+        AuditRecord record = buildAuditRecord(event, referenceStackTraces);
+        record.setSplitStatistics(splitStatistics.orElse(null));
+        record.setSheddingLevel(sheddingLevel == 0 ? null : sheddingLevel);
+        SerializedLog serializedLog = new SerializedLog(event.getMetadata().getQueryId(), gson.toJson(record),
+                Optional.of(event.getContext().getUser()), event.getContext().getSource(), Optional.of(event.getEndTime()))
+                .setRecord(record);
+        serializationTime.add(System.nanoTime() - start, NANOSECONDS);
+        return serializedLog;
+    }
+
+    /**
+     * Serialize the creation of a query. Only the fields known at creation are set.
+     */
+    public SerializedLog serialize(QueryCreatedEvent event)
+    {
+        AuditRecord record = new AuditRecord();
+        record.setEventType("QueryCreatedEvent");
+        record.setQueryId(event.getMetadata().getQueryId());
+        record.setQuery(event.getMetadata().getQuery());
+        record.setUri(event.getMetadata().getUri().toString());
+        record.setState(event.getMetadata().getQueryState());
+        record.setCreateTimestamp(event.getCreateTime().toEpochMilli() / 1000.0);
+        record.setRemoteClientAddress(event.getContext().getRemoteClientAddress().orElse(""));
+        record.setClientUser(event.getContext().getUser());
+        record.setUserAgent(event.getContext().getUserAgent().orElse(""));
+        record.setSource(event.getContext().getSource().orElse(""));
+        return new SerializedLog(event.getMetadata().getQueryId(), gson.toJson(record),
+                Optional.of(event.getContext().getUser()), event.getContext().getSource(), Optional.of(event.getCreateTime()))
+                .setRecord(record);
+    }
+
+    /**
+     * Time to serialize a completed query
+     */
+    @Managed
+    @Nested
+    public TimeStat getSerializationTime()
+    {
+        return serializationTime;
     }
 
-    AuditRecord buildAuditRecord(QueryCompletedEvent event)
+    AuditRecord buildAuditRecord(QueryCompletedEvent event, boolean referenceStackTraces)
     {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSS").withZone(ZoneId.systemDefault());
 
@@ -74,7 +141,16 @@ public class SimpleLogSerializer
             if (failureInfo.getFailureMessage().isPresent()) {
                 record.setFailureMessage(failureInfo.getFailureMessage().get());
             }
-            record.setFailuresJson(failureInfo.getFailuresJson());
+            Optional<String> failuresHash = referenceStackTraces
+                    ? stackTraceStore.flatMap(store -> store.reference(failureInfo.getFailuresJson()))
+                    : Optional.empty();
+            if (failuresHash.isPresent()) {
+                record.setFailuresHash(failuresHash.get());
+                record.setFailureDetails(StackTraceStore.details(failureInfo.getFailuresJson()));
+            }
+            else {
+                record.setFailuresJson(failureInfo.getFailuresJson());
+            }
         }
 
         record.setRemoteClientAddress(event.getContext().getRemoteClientAddress().orElse(""));
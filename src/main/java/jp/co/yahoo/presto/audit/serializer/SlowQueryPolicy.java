@@ -0,0 +1,127 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decides which completed queries get a full log: failed queries and queries exceeding their thresholds.
+ * <p>
+ * Thresholds of the query user take precedence over thresholds of the query source, which take precedence
+ * over the default thresholds.
+ */
+public class SlowQueryPolicy
+{
+    private final SlowQueryThresholds defaultThresholds;
+    private final Map<String, SlowQueryThresholds> sourceThresholds;
+    private final Map<String, SlowQueryThresholds> userThresholds;
+
+    public SlowQueryPolicy(SlowQueryThresholds defaultThresholds, Map<String, SlowQueryThresholds> sourceThresholds, Map<String, SlowQueryThresholds> userThresholds)
+    {
+        this.defaultThresholds = requireNonNull(defaultThresholds, "defaultThresholds is null");
+        this.sourceThresholds = ImmutableMap.copyOf(requireNonNull(sourceThresholds, "sourceThresholds is null"));
+        this.userThresholds = ImmutableMap.copyOf(requireNonNull(userThresholds, "userThresholds is null"));
+    }
+
+    public boolean shouldCapture(QueryCompletedEvent event)
+    {
+        if (event.getFailureInfo().isPresent()) {
+            return true;
+        }
+        return thresholdsFor(event).isExceededBy(event.getStatistics());
+    }
+
+    private SlowQueryThresholds thresholdsFor(QueryCompletedEvent event)
+    {
+        SlowQueryThresholds thresholds = userThresholds.get(event.getContext().getUser());
+        if (thresholds == null && event.getContext().getSource().isPresent()) {
+            thresholds = sourceThresholds.get(event.getContext().getSource().get());
+        }
+        return thresholds == null ? defaultThresholds : thresholds;
+    }
+
+    /**
+     * Load per source and per user overrides of the default thresholds from a JSON file:
+     * <pre>
+     * {"sources": {"etl": {"wallTime": "30m", "inputBytes": "1TB"}},
+     *  "users": {"alice": {"cpuTime": "10m", "peakMemory": "1GB"}}}
+     * </pre>
+     * Limits which are not set in an override are taken from the defaults.
+     */
+    public static SlowQueryPolicy load(File overridesFile, SlowQueryThresholds defaultThresholds)
+            throws IOException
+    {
+        Overrides overrides;
+        try (Reader reader = Files.newBufferedReader(overridesFile.toPath(), StandardCharsets.UTF_8)) {
+            overrides = new Gson().fromJson(reader, Overrides.class);
+        }
+        catch (JsonParseException e) {
+            throw new IOException("Invalid slow query thresholds file " + overridesFile + ": " + e.getMessage(), e);
+        }
+        if (overrides == null) {
+            return new SlowQueryPolicy(defaultThresholds, ImmutableMap.of(), ImmutableMap.of());
+        }
+        try {
+            return new SlowQueryPolicy(
+                    defaultThresholds,
+                    toThresholds(overrides.sources, defaultThresholds),
+                    toThresholds(overrides.users, defaultThresholds));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Invalid slow query thresholds file " + overridesFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<String, SlowQueryThresholds> toThresholds(Map<String, Limits> limits, SlowQueryThresholds defaultThresholds)
+    {
+        ImmutableMap.Builder<String, SlowQueryThresholds> thresholds = ImmutableMap.builder();
+        if (limits != null) {
+            limits.forEach((name, value) -> thresholds.put(name, defaultThresholds.withOverrides(
+                    Optional.ofNullable(value.wallTime).map(Duration::valueOf),
+                    Optional.ofNullable(value.cpuTime).map(Duration::valueOf),
+                    Optional.ofNullable(value.peakMemory).map(DataSize::valueOf),
+                    Optional.ofNullable(value.inputBytes).map(DataSize::valueOf))));
+        }
+        return thresholds.build();
+    }
+
+    private static class Overrides
+    {
+        private Map<String, Limits> sources;
+        private Map<String, Limits> users;
+    }
+
+    private static class Limits
+    {
+        private String wallTime;
+        private String cpuTime;
+        private String peakMemory;
+        private String inputBytes;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.eventlistener.QueryStatistics;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Limits above which a query is considered slow. A query is slow if any configured limit is exceeded.
+ */
+public class SlowQueryThresholds
+{
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long wallTimeMillis;
+    private final long cpuTimeMillis;
+    private final long peakMemoryBytes;
+    private final long inputBytes;
+
+    public SlowQueryThresholds(Optional<Duration> wallTime, Optional<Duration> cpuTime, Optional<DataSize> peakMemory, Optional<DataSize> inputBytes)
+    {
+        this.wallTimeMillis = requireNonNull(wallTime, "wallTime is null").map(Duration::toMillis).orElse(UNLIMITED);
+        this.cpuTimeMillis = requireNonNull(cpuTime, "cpuTime is null").map(Duration::toMillis).orElse(UNLIMITED);
+        this.peakMemoryBytes = requireNonNull(peakMemory, "peakMemory is null").map(DataSize::toBytes).orElse(UNLIMITED);
+        this.inputBytes = requireNonNull(inputBytes, "inputBytes is null").map(DataSize::toBytes).orElse(UNLIMITED);
+    }
+
+    private SlowQueryThresholds(long wallTimeMillis, long cpuTimeMillis, long peakMemoryBytes, long inputBytes)
+    {
+        this.wallTimeMillis = wallTimeMillis;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.peakMemoryBytes = peakMemoryBytes;
+        this.inputBytes = inputBytes;
+    }
+
+    public boolean isExceededBy(QueryStatistics statistics)
+    {
+        return statistics.getWallTime().toMillis() > wallTimeMillis
+                || statistics.getCpuTime().toMillis() > cpuTimeMillis
+                || statistics.getPeakUserMemoryBytes() > peakMemoryBytes
+                || statistics.getTotalBytes() > inputBytes;
+    }
+
+    /**
+     * Replace the limits which are set in the overrides
+     */
+    public SlowQueryThresholds withOverrides(Optional<Duration> wallTime, Optional<Duration> cpuTime, Optional<DataSize> peakMemory, Optional<DataSize> inputBytes)
+    {
+        return new SlowQueryThresholds(
+                wallTime.map(Duration::toMillis).orElse(wallTimeMillis),
+                cpuTime.map(Duration::toMillis).orElse(cpuTimeMillis),
+                peakMemory.map(DataSize::toBytes).orElse(peakMemoryBytes),
+                inputBytes.map(DataSize::toBytes).orElse(this.inputBytes));
+    }
+}
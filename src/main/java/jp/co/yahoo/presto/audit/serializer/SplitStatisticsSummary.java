@@ -0,0 +1,164 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+/**
+ * Aggregated statistics of the splits of a query. Times are in seconds.
+ */
+public class SplitStatisticsSummary
+{
+    private long splits;
+    private long failedSplits;
+    private double queuedTime;
+    private double maxQueuedTime;
+    private double wallTime;
+    private double maxWallTime;
+    private double wallTimeP50;
+    private double wallTimeP90;
+    private double wallTimeP99;
+    private double cpuTime;
+    private double maxCpuTime;
+    private long completedBytes;
+    private long completedRows;
+
+    public long getSplits()
+    {
+        return splits;
+    }
+
+    public void setSplits(long splits)
+    {
+        this.splits = splits;
+    }
+
+    public long getFailedSplits()
+    {
+        return failedSplits;
+    }
+
+    public void setFailedSplits(long failedSplits)
+    {
+        this.failedSplits = failedSplits;
+    }
+
+    public double getQueuedTime()
+    {
+        return queuedTime;
+    }
+
+    public void setQueuedTime(double queuedTime)
+    {
+        this.queuedTime = queuedTime;
+    }
+
+    public double getMaxQueuedTime()
+    {
+        return maxQueuedTime;
+    }
+
+    public void setMaxQueuedTime(double maxQueuedTime)
+    {
+        this.maxQueuedTime = maxQueuedTime;
+    }
+
+    public double getWallTime()
+    {
+        return wallTime;
+    }
+
+    public void setWallTime(double wallTime)
+    {
+        this.wallTime = wallTime;
+    }
+
+    public double getMaxWallTime()
+    {
+        return maxWallTime;
+    }
+
+    public void setMaxWallTime(double maxWallTime)
+    {
+        this.maxWallTime = maxWallTime;
+    }
+
+    public double getWallTimeP50()
+    {
+        return wallTimeP50;
+    }
+
+    public void setWallTimeP50(double wallTimeP50)
+    {
+        this.wallTimeP50 = wallTimeP50;
+    }
+
+    public double getWallTimeP90()
+    {
+        return wallTimeP90;
+    }
+
+    public void setWallTimeP90(double wallTimeP90)
+    {
+        this.wallTimeP90 = wallTimeP90;
+    }
+
+    public double getWallTimeP99()
+    {
+        return wallTimeP99;
+    }
+
+    public void setWallTimeP99(double wallTimeP99)
+    {
+        this.wallTimeP99 = wallTimeP99;
+    }
+
+    public double getCpuTime()
+    {
+        return cpuTime;
+    }
+
+    public void setCpuTime(double cpuTime)
+    {
+        this.cpuTime = cpuTime;
+    }
+
+    public double getMaxCpuTime()
+    {
+        return maxCpuTime;
+    }
+
+    public void setMaxCpuTime(double maxCpuTime)
+    {
+        this.maxCpuTime = maxCpuTime;
+    }
+
+    public long getCompletedBytes()
+    {
+        return completedBytes;
+    }
+
+    public void setCompletedBytes(long completedBytes)
+    {
+        this.completedBytes = completedBytes;
+    }
+
+    public long getCompletedRows()
+    {
+        return completedRows;
+    }
+
+    public void setCompletedRows(long completedRows)
+    {
+        this.completedRows = completedRows;
+    }
+}
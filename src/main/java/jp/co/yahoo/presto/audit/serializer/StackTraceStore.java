@@ -0,0 +1,167 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.stats.CounterStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replaces the failure stack traces of records with a hash of the normalized trace.
+ * <p>
+ * Each distinct trace is written once to a side store, keyed by its hash. The hashes known to be
+ * stored are kept in a bounded cache, so a trace is written again only after its hash was evicted.
+ * Messages, query IDs and error locations are removed before hashing, so the same failure of
+ * different queries shares one trace. The stored trace is the first one seen.
+ * <p>
+ * The removed parts are specific to each query, {@link #details(String)} extracts them to keep inline next to the hash.
+ * <p>
+ * Trace records are priority records, as the records referencing them are useless without them.
+ * A hash is only remembered once the store accepted its trace; until then records keep the trace inline.
+ */
+public class StackTraceStore
+{
+    public static final String EVENT_TYPE = "StackTrace";
+
+    // Shorter traces, such as an empty object, are cheaper to keep inline
+    private static final int MIN_TRACE_LENGTH = 64;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final Pattern MESSAGE = Pattern.compile("\"message\":(\"(?:[^\"\\\\]|\\\\.)*\")");
+    private static final Pattern ERROR_LOCATION = Pattern.compile("\"errorLocation\":(\\{[^}]*\\})");
+    private static final Pattern QUERY_ID = Pattern.compile("\\d{8}_\\d{6}_\\d{5}_[a-z0-9]{5}");
+
+    private final Cache<String, Boolean> knownHashes;
+    private final Predicate<SerializedLog> store;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final CounterStat storedTraces = new CounterStat();
+    private final CounterStat referencedTraces = new CounterStat();
+
+    /**
+     * @param store receives a record for every trace not known to be stored, and returns whether it accepted the record
+     */
+    public StackTraceStore(int cacheSize, Predicate<SerializedLog> store)
+    {
+        checkArgument(cacheSize > 0, "cacheSize must be positive");
+        this.knownHashes = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        this.store = requireNonNull(store, "store is null");
+    }
+
+    /**
+     * Return the hash to write in place of the trace, storing the trace first if its hash is not known.
+     * Returns empty if the trace should be kept inline, also when the store dropped it.
+     */
+    public Optional<String> reference(String failuresJson)
+    {
+        if (failuresJson == null || failuresJson.length() < MIN_TRACE_LENGTH) {
+            return Optional.empty();
+        }
+        String hash = hash(failuresJson);
+        if (knownHashes.asMap().putIfAbsent(hash, Boolean.TRUE) == null) {
+            TraceRecord record = new TraceRecord();
+            record.eventType = EVENT_TYPE;
+            record.failuresHash = hash;
+            record.failuresJson = failuresJson;
+            if (!store.test(new SerializedLog(hash, gson.toJson(record)).setPriority(true))) {
+                knownHashes.invalidate(hash);
+                return Optional.empty();
+            }
+            storedTraces.update(1);
+        }
+        referencedTraces.update(1);
+        return Optional.of(hash);
+    }
+
+    /**
+     * The parts of a trace removed before hashing: the messages in trace order and the error location if any.
+     * Returns a JSON object such as {"messages":["line 1:8: mismatched input"],"errorLocation":{"lineNumber":1,"columnNumber":8}}.
+     */
+    public static String details(String failuresJson)
+    {
+        StringJoiner messages = new StringJoiner(",", "[", "]");
+        Matcher message = MESSAGE.matcher(failuresJson);
+        while (message.find()) {
+            messages.add(message.group(1));
+        }
+        StringBuilder details = new StringBuilder("{\"messages\":").append(messages);
+        Matcher errorLocation = ERROR_LOCATION.matcher(failuresJson);
+        if (errorLocation.find()) {
+            details.append(",\"errorLocation\":").append(errorLocation.group(1));
+        }
+        return details.append('}').toString();
+    }
+
+    @VisibleForTesting
+    static String hash(String failuresJson)
+    {
+        return String.format("%016x", HASH.hashString(normalize(failuresJson), UTF_8).asLong());
+    }
+
+    @VisibleForTesting
+    static String normalize(String failuresJson)
+    {
+        String normalized = MESSAGE.matcher(failuresJson).replaceAll("\"message\":\"?\"");
+        normalized = ERROR_LOCATION.matcher(normalized).replaceAll("\"errorLocation\":null");
+        return QUERY_ID.matcher(normalized).replaceAll("?");
+    }
+
+    @Managed
+    public long getCachedHashCount()
+    {
+        return knownHashes.size();
+    }
+
+    /**
+     * Traces written to the side store
+     */
+    @Managed
+    @Nested
+    public CounterStat getStoredTraces()
+    {
+        return storedTraces;
+    }
+
+    /**
+     * Traces replaced by their hash in a record
+     */
+    @Managed
+    @Nested
+    public CounterStat getReferencedTraces()
+    {
+        return referencedTraces;
+    }
+
+    private static class TraceRecord
+    {
+        private String eventType;
+        private String failuresHash;
+        private String failuresJson;
+    }
+}
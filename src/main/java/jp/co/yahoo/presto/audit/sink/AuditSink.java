@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Destination for audit records.
+ * <p>
+ * {@link #publish} is called on the event listener thread, so implementations must hand the record
+ * off without blocking on I/O and must not throw. A record which cannot be accepted is dropped.
+ */
+public interface AuditSink
+{
+    String getName();
+
+    /**
+     * Whether this sink wants records of the given type. Full logs are only serialized
+     * when at least one sink accepts them.
+     */
+    boolean accepts(LogType type);
+
+    /**
+     * @return whether the record was accepted, false if it was dropped
+     */
+    boolean publish(LogType type, SerializedLog log);
+
+    /**
+     * Whether this sink stores a full log in its binary encoding as it is.
+     * Other sinks get the full log as JSON text.
+     */
+    default boolean acceptsBinary()
+    {
+        return false;
+    }
+
+    /**
+     * Fraction of the buffer of this sink in use, from 0 when empty to 1 when records are being dropped
+     */
+    default double getBacklog()
+    {
+        return 0;
+    }
+
+    /**
+     * Event time of the oldest record accepted but not written yet, or empty if there is none
+     */
+    default Optional<Instant> getOldestPendingEventTime()
+    {
+        return Optional.empty();
+    }
+
+    void close();
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+import jp.co.yahoo.presto.audit.filter.RecordFilter;
+import jp.co.yahoo.presto.audit.filter.SinkFilter;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes each record once to every sink which accepts its type.
+ * Records of completed queries are passed through the {@link RecordFilter} of each sink.
+ */
+public class AuditSinkDispatcher
+{
+    private static final Logger log = Logger.get(AuditSinkDispatcher.class);
+
+    private final List<AuditSink> sinks;
+    private final Map<LogType, int[]> sinksByType = new EnumMap<>(LogType.class);
+    // Whether each sink also receives stack trace records, so it can resolve failure hashes
+    private final boolean[] receivesStackTraces;
+    private volatile SinkFilter[] filters;
+
+    public AuditSinkDispatcher(List<AuditSink> sinks)
+    {
+        this(sinks, RecordFilter.KEEP_ALL);
+    }
+
+    public AuditSinkDispatcher(List<AuditSink> sinks, RecordFilter filter)
+    {
+        this.sinks = ImmutableList.copyOf(requireNonNull(sinks, "sinks is null"));
+        for (LogType type : LogType.values()) {
+            sinksByType.put(type, IntStream.range(0, this.sinks.size())
+                    .filter(index -> this.sinks.get(index).accepts(type))
+                    .toArray());
+        }
+        this.receivesStackTraces = new boolean[this.sinks.size()];
+        for (int index : sinksByType.get(LogType.STACK_TRACE)) {
+            receivesStackTraces[index] = true;
+        }
+        setFilter(filter);
+    }
+
+    /**
+     * Replace the record filter. Records being published keep the filter they started with.
+     */
+    public void setFilter(RecordFilter filter)
+    {
+        requireNonNull(filter, "filter is null");
+        this.filters = sinks.stream()
+                .map(sink -> filter.forSink(sink.getName()))
+                .toArray(SinkFilter[]::new);
+    }
+
+    public boolean accepts(LogType type)
+    {
+        return sinksByType.get(type).length > 0;
+    }
+
+    /**
+     * Whether any sink keeps the record of a completed query, so it is worth serializing
+     */
+    public boolean accepts(LogType type, QueryCompletedEvent event)
+    {
+        SinkFilter[] filters = this.filters;
+        for (int index : sinksByType.get(type)) {
+            if (filters[index].keep(type, event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether every sink accepting the type accepted the record
+     */
+    public boolean publish(LogType type, SerializedLog record)
+    {
+        boolean accepted = true;
+        for (int index : sinksByType.get(type)) {
+            accepted &= publish(sinks.get(index), type, record);
+        }
+        return accepted;
+    }
+
+    /**
+     * Encodes the record of a completed query for a sink
+     */
+    public interface RecordEncoder
+    {
+        /**
+         * @param binary whether the sink stores binary content
+         * @param referenceStackTraces whether the sink also receives stack trace records, so traces may be replaced by their hash
+         */
+        SerializedLog encode(boolean binary, boolean referenceStackTraces);
+    }
+
+    /**
+     * Publish the record of a completed query to the sinks whose filter keeps it, encoded for each sink.
+     * Each variant is serialized at most once, and only if a sink keeping the record wants it.
+     */
+    public void publish(LogType type, QueryCompletedEvent event, RecordEncoder encoder)
+    {
+        SinkFilter[] filters = this.filters;
+        SerializedLog[] variants = new SerializedLog[4];
+        for (int index : sinksByType.get(type)) {
+            if (filters[index].keep(type, event)) {
+                AuditSink sink = sinks.get(index);
+                boolean binary = sink.acceptsBinary();
+                int variant = (binary ? 2 : 0) + (receivesStackTraces[index] ? 1 : 0);
+                if (variants[variant] == null) {
+                    variants[variant] = encoder.encode(binary, receivesStackTraces[index]);
+                }
+                publish(sink, type, variants[variant]);
+            }
+        }
+    }
+
+    private static boolean publish(AuditSink sink, LogType type, SerializedLog record)
+    {
+        try {
+            return sink.publish(type, record);
+        }
+        catch (RuntimeException e) {
+            // A broken sink must not keep the record from the others
+            log.error("Audit sink " + sink.getName() + " failed to accept record. " + e);
+            log.error("Dropped queryID: " + record.getQueryId());
+            return false;
+        }
+    }
+
+    /**
+     * Backlog of the fullest sink
+     */
+    public double getBacklog()
+    {
+        double backlog = 0;
+        for (AuditSink sink : sinks) {
+            backlog = Math.max(backlog, sink.getBacklog());
+        }
+        return backlog;
+    }
+
+    /**
+     * Event time of the oldest record not written yet by the sinks which accept the given type
+     */
+    public Optional<Instant> getOldestPendingEventTime(LogType type)
+    {
+        Optional<Instant> oldest = Optional.empty();
+        for (int index : sinksByType.get(type)) {
+            Optional<Instant> pending = sinks.get(index).getOldestPendingEventTime();
+            if (pending.isPresent() && (!oldest.isPresent() || pending.get().isBefore(oldest.get()))) {
+                oldest = pending;
+            }
+        }
+        return oldest;
+    }
+
+    public List<AuditSink> getSinks()
+    {
+        return sinks;
+    }
+
+    public void close()
+    {
+        sinks.forEach(AuditSink::close);
+    }
+}
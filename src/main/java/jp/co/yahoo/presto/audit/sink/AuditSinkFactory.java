@@ -0,0 +1,27 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import jp.co.yahoo.presto.audit.AuditConfig;
+
+/**
+ * Creates a named {@link AuditSink}. Factories other than the built-in ones are discovered
+ * with {@link java.util.ServiceLoader} from the plugin class path.
+ */
+public interface AuditSinkFactory
+{
+    String getName();
+
+    AuditSink create(AuditConfig config);
+}
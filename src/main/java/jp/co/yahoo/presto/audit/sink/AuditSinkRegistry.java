@@ -0,0 +1,91 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import jp.co.yahoo.presto.audit.AuditConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * Known {@link AuditSinkFactory} instances by name
+ */
+public class AuditSinkRegistry
+{
+    private final Map<String, AuditSinkFactory> factories = new HashMap<>();
+
+    public AuditSinkRegistry()
+    {
+        register(new FileAuditSink.Factory());
+        register(new PulsarAuditSink.Factory());
+        register(new HttpAuditSink.Factory());
+        register(new JdbcAuditSink.Factory());
+        register(new BinaryFileAuditSink.Factory());
+        for (AuditSinkFactory factory : ServiceLoader.load(AuditSinkFactory.class, AuditSinkFactory.class.getClassLoader())) {
+            register(factory);
+        }
+    }
+
+    public void register(AuditSinkFactory factory)
+    {
+        checkArgument(factories.putIfAbsent(factory.getName(), factory) == null, "Audit sink %s is already registered", factory.getName());
+    }
+
+    /**
+     * Create the sinks listed in event-listener.audit-sinks. Without that property the file sink is
+     * created, plus the Pulsar, HTTP, JDBC and binary sinks when a topic, URL or path is configured for them.
+     */
+    public List<AuditSink> createSinks(AuditConfig config)
+    {
+        // Resolve all names first, so a typo fails before any sink is started
+        List<AuditSinkFactory> selected = new ArrayList<>();
+        for (String name : getSinkNames(config)) {
+            AuditSinkFactory factory = factories.get(name);
+            checkArgument(factory != null, "Unknown audit sink: %s", name);
+            selected.add(factory);
+        }
+        return selected.stream()
+                .map(factory -> factory.create(config))
+                .collect(toImmutableList());
+    }
+
+    private static List<String> getSinkNames(AuditConfig config)
+    {
+        if (config.getAuditSinks() != null) {
+            return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(config.getAuditSinks());
+        }
+        ImmutableList.Builder<String> names = ImmutableList.<String>builder().add(FileAuditSink.NAME);
+        if (config.getSimpleTopic() != null || config.getFullTopic() != null) {
+            names.add(PulsarAuditSink.NAME);
+        }
+        if (config.getHttpSimpleLogUrl() != null || config.getHttpFullLogUrl() != null) {
+            names.add(HttpAuditSink.NAME);
+        }
+        if (config.getJdbcUrl() != null) {
+            names.add(JdbcAuditSink.NAME);
+        }
+        if (config.getBinaryPath() != null) {
+            names.add(BinaryFileAuditSink.NAME);
+        }
+        return names.build();
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.jmx.AuditMBeanExporter;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Base class for sinks with their own bounded queue and worker threads.
+ * <p>
+ * {@link #publish} only enqueues, so a slow destination never delays the event listener or other sinks;
+ * records are dropped when the queue is full. Each worker takes up to {@code batchSize} records, waiting
+ * at most {@code linger} for a batch to fill, and hands them to its own {@link BatchWriter}.
+ */
+public abstract class BatchingAuditSink
+        implements AuditSink
+{
+    private static final Logger log = Logger.get(BatchingAuditSink.class);
+    private static final long IDLE_POLL_MILLIS = 500;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+    private static final double DROP_REPORTS_PER_SECOND = 0.1;
+
+    private final String name;
+    private final BlockingQueue<SinkRecord> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final List<Thread> workers = new ArrayList<>();
+    // Oldest event time of the batch each worker is writing, Long.MAX_VALUE while idle
+    private final AtomicLongArray writingEventTimes;
+    private volatile boolean isTerminate;
+
+    // A full queue drops records at the publish rate, so drops are reported at most every 10 seconds
+    private final RateLimiter dropReports = RateLimiter.create(DROP_REPORTS_PER_SECOND);
+    private final AtomicLong unreportedDrops = new AtomicLong();
+
+    private final CounterStat publishedRecords = new CounterStat();
+    private final CounterStat droppedRecords = new CounterStat();
+    private final CounterStat writtenRecords = new CounterStat();
+    private final CounterStat failedRecords = new CounterStat();
+    private final CounterStat writtenBatches = new CounterStat();
+    private final TimeStat batchWriteTime = new TimeStat();
+
+    protected BatchingAuditSink(String name, int queueCapacity, int batchSize, Duration linger, int workerCount)
+    {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        checkArgument(workerCount > 0, "workerCount must be positive");
+        this.name = requireNonNull(name, "name is null");
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.lingerNanos = linger.roundTo(TimeUnit.NANOSECONDS);
+        this.writingEventTimes = new AtomicLongArray(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            int index = i;
+            writingEventTimes.set(i, Long.MAX_VALUE);
+            Thread worker = new Thread(() -> runWorker(index), "AuditSink-" + name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Writes batches for one worker thread. Writers are never shared between threads,
+     * so they may hold a connection of their own.
+     */
+    public interface BatchWriter
+            extends Closeable
+    {
+        void write(List<SinkRecord> batch)
+                throws IOException;
+    }
+
+    /**
+     * Thrown by a {@link BatchWriter} which wrote only part of a batch. The other records are counted as written.
+     */
+    public static class PartialBatchException
+            extends IOException
+    {
+        private final List<SinkRecord> failedRecords;
+
+        public PartialBatchException(List<SinkRecord> failedRecords, IOException cause)
+        {
+            super("Failed to write " + failedRecords.size() + " records", cause);
+            this.failedRecords = requireNonNull(failedRecords, "failedRecords is null");
+        }
+
+        public List<SinkRecord> getFailedRecords()
+        {
+            return failedRecords;
+        }
+    }
+
+    /**
+     * Create the writer of the calling worker thread. A writer which failed is closed and replaced.
+     */
+    protected abstract BatchWriter createWriter()
+            throws IOException;
+
+    /**
+     * Start the worker threads and export the sink metrics
+     */
+    public void start()
+    {
+        AuditMBeanExporter.export(AuditSink.class, name, this);
+        workers.forEach(Thread::start);
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean publish(LogType type, SerializedLog record)
+    {
+        publishedRecords.update(1);
+        if (!queue.offer(new SinkRecord(type, record))) {
+            droppedRecords.update(1);
+            unreportedDrops.incrementAndGet();
+            if (dropReports.tryAcquire()) {
+                log.error("Audit sink %s queue is full. Dropped %s records since the last report, the latest is queryID: %s",
+                        name, unreportedDrops.getAndSet(0), record.getQueryId());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public double getBacklog()
+    {
+        int size = queue.size();
+        return (double) size / (size + queue.remainingCapacity());
+    }
+
+    @Override
+    public Optional<Instant> getOldestPendingEventTime()
+    {
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < writingEventTimes.length(); i++) {
+            oldest = Math.min(oldest, writingEventTimes.get(i));
+        }
+        // A record moving from the queue to a worker during the scan may be missed. With a single worker,
+        // as for Pulsar, it is still written before any record queued after the scan.
+        for (SinkRecord record : queue) {
+            oldest = Math.min(oldest, eventTimeMillis(record));
+        }
+        return oldest == Long.MAX_VALUE ? Optional.empty() : Optional.of(Instant.ofEpochMilli(oldest));
+    }
+
+    /**
+     * Stop accepting work once the queue is drained and wait for the workers to finish
+     */
+    @Override
+    public void close()
+    {
+        isTerminate = true;
+        for (Thread worker : workers) {
+            try {
+                worker.join(CLOSE_TIMEOUT_MILLIS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runWorker(int index)
+    {
+        BatchWriter writer = null;
+        List<SinkRecord> batch = new ArrayList<>(batchSize);
+        while (!isTerminate || !queue.isEmpty()) {
+            try {
+                if (!nextBatch(index, batch)) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = createWriter();
+                }
+                long start = System.nanoTime();
+                writer.write(batch);
+                batchWriteTime.add(System.nanoTime() - start, NANOSECONDS);
+                writtenRecords.update(batch.size());
+                writtenBatches.update(1);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (PartialBatchException e) {
+                writtenRecords.update(batch.size() - e.getFailedRecords().size());
+                batchFailed(e.getFailedRecords(), e.getCause());
+                closeQuietly(writer);
+                writer = null;
+            }
+            catch (IOException | RuntimeException e) {
+                batchFailed(batch, e);
+                closeQuietly(writer);
+                writer = null;
+            }
+            finally {
+                writingEventTimes.set(index, Long.MAX_VALUE);
+                batch.clear();
+            }
+        }
+        closeQuietly(writer);
+    }
+
+    private void batchFailed(List<SinkRecord> records, Throwable e)
+    {
+        log.error("Audit sink " + name + " failed to write a batch of " + records.size() + " records. " + e);
+        failedRecords.update(records.size());
+        records.forEach(record -> log.error("Dropped queryID: " + record.getLog().getQueryId()));
+    }
+
+    /**
+     * Fill the batch with queued records
+     *
+     * @return false if no record arrived before the idle timeout
+     */
+    private boolean nextBatch(int index, List<SinkRecord> batch)
+            throws InterruptedException
+    {
+        SinkRecord first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        writingEventTimes.set(index, eventTimeMillis(first));
+        batch.add(first);
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            SinkRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        writingEventTimes.set(index, batch.stream().mapToLong(BatchingAuditSink::eventTimeMillis).min().getAsLong());
+        return true;
+    }
+
+    private static long eventTimeMillis(SinkRecord record)
+    {
+        // A queued heartbeat carries a previous watermark and must not hold back the next one
+        if (record.getType() == LogType.HEARTBEAT) {
+            return Long.MAX_VALUE;
+        }
+        return record.getLog().getEventTime().map(Instant::toEpochMilli).orElse(Long.MAX_VALUE);
+    }
+
+    private void closeQuietly(BatchWriter writer)
+    {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Audit sink " + name + " failed to close writer. " + e);
+        }
+    }
+
+    @Managed
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getPublishedRecords()
+    {
+        return publishedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDroppedRecords()
+    {
+        return droppedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getWrittenRecords()
+    {
+        return writtenRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFailedRecords()
+    {
+        return failedRecords;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getWrittenBatches()
+    {
+        return writtenBatches;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getBatchWriteTime()
+    {
+        return batchWriteTime;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.gson.Gson;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.AuditConfig;
+import jp.co.yahoo.presto.audit.binary.BinaryRecordWriter;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Writes simple log records to segment files in the compact binary format of
+ * {@link BinaryRecordWriter}. Segments are named presto-audit-&lt;millis&gt;-&lt;n&gt;.bin
+ * and are rolled once they exceed the segment size; each segment has its own dictionary.
+ * Use {@link jp.co.yahoo.presto.audit.binary.BinaryToJson} to read them.
+ */
+public class BinaryFileAuditSink
+        extends BatchingAuditSink
+{
+    public static final String NAME = "binary";
+
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 1000;
+
+    private final File directory;
+    private final long segmentSize;
+    private int segmentCounter;
+
+    public BinaryFileAuditSink(File directory, long segmentSize)
+    {
+        super(NAME, QUEUE_CAPACITY, BATCH_SIZE, new Duration(0, MILLISECONDS), 1);
+        this.directory = requireNonNull(directory, "directory is null");
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public boolean accepts(LogType type)
+    {
+        return type == LogType.SIMPLE;
+    }
+
+    @Override
+    protected BatchWriter createWriter()
+            throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create binary log directory: " + directory);
+        }
+        return new SegmentWriter();
+    }
+
+    private class SegmentWriter
+            implements BatchWriter
+    {
+        private final Gson gson = new Gson();
+        private BinaryRecordWriter writer;
+
+        @Override
+        public void write(List<SinkRecord> batch)
+                throws IOException
+        {
+            for (SinkRecord record : batch) {
+                if (writer == null) {
+                    writer = new BinaryRecordWriter(new BufferedOutputStream(new FileOutputStream(nextSegmentFile())));
+                }
+                writer.write(record.getLog().getRecord().orElseGet(() -> gson.fromJson(record.getLog().getSerializedLog(), AuditRecord.class)));
+                if (writer.getSize() >= segmentSize) {
+                    writer.close();
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    // Only the single worker thread rolls segments
+    private File nextSegmentFile()
+    {
+        return new File(directory, String.format("presto-audit-%d-%d.bin", System.currentTimeMillis(), segmentCounter++));
+    }
+
+    public static class Factory
+            implements AuditSinkFactory
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public AuditSink create(AuditConfig config)
+        {
+            BinaryFileAuditSink sink = new BinaryFileAuditSink(
+                    new File(requireNonNull(config.getBinaryPath(), "binaryPath is null")),
+                    config.getBinarySegmentSize().toBytes());
+            sink.start();
+            return sink;
+        }
+    }
+}
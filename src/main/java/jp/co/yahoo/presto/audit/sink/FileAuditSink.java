@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import jp.co.yahoo.presto.audit.AuditConfig;
+import jp.co.yahoo.presto.audit.AuditLogFileWriter;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes records to local files. {@link AuditLogFileWriter} already owns a bounded queue
+ * and a writer thread, so records are handed to it directly.
+ */
+public class FileAuditSink
+        implements AuditSink
+{
+    public static final String NAME = "file";
+
+    private final AuditLogFileWriter auditLogWriter;
+    private final Map<LogType, String> filePaths = new EnumMap<>(LogType.class);
+
+    public FileAuditSink(AuditLogFileWriter auditLogWriter, String simpleLogFilePath, Optional<String> fullLogFilePath, Optional<String> createdLogFilePath, Optional<String> summaryLogFilePath,
+            Optional<String> stackTraceLogFilePath)
+    {
+        this.auditLogWriter = requireNonNull(auditLogWriter, "auditLogWriter is null");
+        filePaths.put(LogType.SIMPLE, requireNonNull(simpleLogFilePath, "simpleLogFilePath is null"));
+        requireNonNull(fullLogFilePath, "fullLogFilePath is null").ifPresent(path -> filePaths.put(LogType.FULL, path));
+        requireNonNull(createdLogFilePath, "createdLogFilePath is null").ifPresent(path -> filePaths.put(LogType.CREATED, path));
+        requireNonNull(summaryLogFilePath, "summaryLogFilePath is null").ifPresent(path -> filePaths.put(LogType.SUMMARY, path));
+        requireNonNull(stackTraceLogFilePath, "stackTraceLogFilePath is null").ifPresent(path -> filePaths.put(LogType.STACK_TRACE, path));
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public boolean accepts(LogType type)
+    {
+        return filePaths.containsKey(type);
+    }
+
+    @Override
+    public boolean publish(LogType type, SerializedLog log)
+    {
+        return auditLogWriter.write(filePaths.get(type), log);
+    }
+
+    @Override
+    public double getBacklog()
+    {
+        return auditLogWriter.getBacklog();
+    }
+
+    @Override
+    public void close()
+    {
+        // The file writer is shared by all listeners
+    }
+
+    public static class Factory
+            implements AuditSinkFactory
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public AuditSink create(AuditConfig config)
+        {
+            String auditLogPath = requireNonNull(config.getAuditLogPath(), "auditLogPath is null");
+            String simpleLogName = requireNonNull(config.getAuditSimpleLogName(), "simpleLogName is null");
+            Optional<String> fullLogName = Optional.ofNullable(config.getAuditFullLogName());
+            Optional<String> createdLogName = Optional.ofNullable(config.getAuditCreatedLogName());
+            Optional<String> summaryLogName = Optional.ofNullable(config.getAuditSummaryLogName());
+            Optional<String> stackTraceLogName = Optional.ofNullable(config.getAuditStackTraceLogName());
+            return new FileAuditSink(
+                    config.getAuditLogFileWriter(),
+                    auditLogPath + File.separator + simpleLogName,
+                    fullLogName.map(s -> auditLogPath + File.separator + s),
+                    createdLogName.map(s -> auditLogPath + File.separator + s),
+                    summaryLogName.map(s -> auditLogPath + File.separator + s),
+                    stackTraceLogName.map(s -> auditLogPath + File.separator + s));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes periodic heartbeat records, so streaming consumers can close windows by end time
+ * while no query completes.
+ * <p>
+ * The watermark of a heartbeat is a lower bound of the end time of every record published after it.
+ * It is the earliest of the end times of the queries being logged by the listener, the event times
+ * of the records still queued in the sinks or waiting in their outbox, and the current time less the
+ * allowed delay between the end of a query and its completion event.
+ * <p>
+ * Summary records of rate limiting and failure coalescing are published when their window closes,
+ * so they are not covered by the watermark.
+ */
+public class HeartbeatEmitter
+{
+    public static final String EVENT_TYPE = "Heartbeat";
+
+    private static final Logger log = Logger.get(HeartbeatEmitter.class);
+
+    private final String coordinatorId;
+    private final Duration interval;
+    private final Duration allowedDelay;
+    private final Supplier<Optional<Instant>> oldestPendingEventTime;
+    private final ConcurrentHashMap<String, Long> completingQueries = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogHeartbeat").setDaemon(true).build());
+    private final CounterStat heartbeatRecords = new CounterStat();
+    private volatile long lastWatermarkMillis;
+
+    /**
+     * @param oldestPendingEventTime event time of the oldest record queued in the sinks which receive heartbeats, including their outbox
+     */
+    public HeartbeatEmitter(String coordinatorId, Duration interval, Duration allowedDelay, Supplier<Optional<Instant>> oldestPendingEventTime)
+    {
+        this.coordinatorId = requireNonNull(coordinatorId, "coordinatorId is null");
+        this.interval = requireNonNull(interval, "interval is null");
+        this.allowedDelay = requireNonNull(allowedDelay, "allowedDelay is null");
+        this.oldestPendingEventTime = requireNonNull(oldestPendingEventTime, "oldestPendingEventTime is null");
+    }
+
+    public void start(Consumer<SerializedLog> publisher)
+    {
+        requireNonNull(publisher, "publisher is null");
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                publisher.accept(heartbeat(System.currentTimeMillis()));
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to publish heartbeat. " + e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Hold the watermark at the end time of a query until its records are published
+     */
+    public void begin(QueryCompletedEvent event)
+    {
+        completingQueries.put(event.getMetadata().getQueryId(), event.getEndTime().toEpochMilli());
+    }
+
+    public void end(QueryCompletedEvent event)
+    {
+        completingQueries.remove(event.getMetadata().getQueryId());
+    }
+
+    @VisibleForTesting
+    SerializedLog heartbeat(long nowMillis)
+    {
+        long watermarkMillis = nowMillis - allowedDelay.toMillis();
+        for (long endTimeMillis : completingQueries.values()) {
+            watermarkMillis = Math.min(watermarkMillis, endTimeMillis);
+        }
+        Optional<Instant> oldestPending = oldestPendingEventTime.get();
+        if (oldestPending.isPresent()) {
+            watermarkMillis = Math.min(watermarkMillis, oldestPending.get().toEpochMilli());
+        }
+        // Never move back, a record older than a previous watermark is late anyway
+        watermarkMillis = Math.max(watermarkMillis, lastWatermarkMillis);
+        lastWatermarkMillis = watermarkMillis;
+
+        HeartbeatRecord record = new HeartbeatRecord();
+        record.eventType = EVENT_TYPE;
+        record.coordinatorId = coordinatorId;
+        record.watermark = watermarkMillis / 1000.0;
+        record.timestamp = nowMillis / 1000.0;
+        record.completingQueries = completingQueries.size();
+        heartbeatRecords.update(1);
+        return new SerializedLog(coordinatorId, gson.toJson(record),
+                Optional.empty(), Optional.empty(), Optional.of(Instant.ofEpochMilli(watermarkMillis)));
+    }
+
+    @Managed
+    public long getLastWatermarkMillis()
+    {
+        return lastWatermarkMillis;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHeartbeatRecords()
+    {
+        return heartbeatRecords;
+    }
+
+    private static class HeartbeatRecord
+    {
+        private String eventType;
+        private String coordinatorId;
+        private double watermark;
+        private double timestamp;
+        private int completingQueries;
+    }
+}
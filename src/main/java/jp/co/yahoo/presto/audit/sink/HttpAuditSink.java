@@ -0,0 +1,288 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.io.ByteStreams;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.AuditConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * POSTs batches of records to a collector as gzip compressed newline-delimited JSON.
+ * <p>
+ * Every worker thread owns a writer and a compression buffer. Response bodies are always
+ * read to the end, so the JDK keeps the connection alive and reuses it for the next batch.
+ * Failed requests are retried with exponential backoff on I/O errors, 429 and 5xx responses.
+ * Simple and full logs go to separate endpoints, and a failure of one does not fail the records delivered to the other.
+ */
+public class HttpAuditSink
+        extends BatchingAuditSink
+{
+    public static final String NAME = "http";
+
+    private static final Logger log = Logger.get(HttpAuditSink.class);
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final Optional<URL> simpleLogUrl;
+    private final Optional<URL> fullLogUrl;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final int requestTimeoutMillis;
+
+    public HttpAuditSink(
+            Optional<URL> simpleLogUrl,
+            Optional<URL> fullLogUrl,
+            int queueCapacity,
+            int batchSize,
+            Duration linger,
+            int concurrency,
+            int maxRetries,
+            Duration retryBackoff,
+            Duration requestTimeout)
+    {
+        super(NAME, queueCapacity, batchSize, linger, concurrency);
+        this.simpleLogUrl = requireNonNull(simpleLogUrl, "simpleLogUrl is null");
+        this.fullLogUrl = requireNonNull(fullLogUrl, "fullLogUrl is null");
+        checkArgument(maxRetries >= 0, "maxRetries is negative");
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoff.toMillis();
+        this.requestTimeoutMillis = (int) requestTimeout.toMillis();
+    }
+
+    @Override
+    public boolean accepts(LogType type)
+    {
+        return urlFor(type).isPresent();
+    }
+
+    @Override
+    protected BatchWriter createWriter()
+    {
+        return new HttpBatchWriter();
+    }
+
+    private Optional<URL> urlFor(LogType type)
+    {
+        switch (type) {
+            case SIMPLE:
+                return simpleLogUrl;
+            case FULL:
+                return fullLogUrl;
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private class HttpBatchWriter
+            implements BatchWriter
+    {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final byte[] newLine = "\n".getBytes(StandardCharsets.UTF_8);
+
+        @Override
+        public void write(List<SinkRecord> batch)
+                throws IOException
+        {
+            // A batch may mix record types, which go to different endpoints
+            List<SinkRecord> failedRecords = new ArrayList<>();
+            IOException failure = null;
+            for (LogType type : LogType.values()) {
+                List<SinkRecord> records = batch.stream()
+                        .filter(record -> record.getType() == type)
+                        .collect(toImmutableList());
+                if (records.isEmpty() || !urlFor(type).isPresent()) {
+                    continue;
+                }
+                encode(records);
+                try {
+                    postWithRetry(urlFor(type).get());
+                }
+                catch (IOException e) {
+                    failedRecords.addAll(records);
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw new PartialBatchException(failedRecords, failure);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        private void encode(List<SinkRecord> records)
+                throws IOException
+        {
+            body.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+                for (SinkRecord record : records) {
+                    gzip.write(record.getLog().getSerializedLog().getBytes(StandardCharsets.UTF_8));
+                    gzip.write(newLine);
+                }
+            }
+        }
+
+        private void postWithRetry(URL url)
+                throws IOException
+        {
+            long backoffMillis = retryBackoffMillis;
+            int retries = 0;
+            while (true) {
+                try {
+                    post(url);
+                    return;
+                }
+                catch (RetryableException e) {
+                    if (retries++ >= maxRetries) {
+                        throw e;
+                    }
+                    log.debug("Retrying POST to %s after %s ms: %s", url, backoffMillis, e.getMessage());
+                    sleep(backoffMillis);
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+        }
+
+        private void post(URL url)
+                throws IOException
+        {
+            HttpURLConnection connection;
+            int status;
+            try {
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(requestTimeoutMillis);
+                connection.setReadTimeout(requestTimeoutMillis);
+                connection.setFixedLengthStreamingMode(body.size());
+                connection.setRequestProperty("Content-Type", "application/x-ndjson");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                try (OutputStream output = connection.getOutputStream()) {
+                    body.writeTo(output);
+                }
+                status = connection.getResponseCode();
+            }
+            catch (IOException e) {
+                throw new RetryableException("POST to " + url + " failed", e);
+            }
+
+            // Drain the response so the connection goes back to the keep-alive cache
+            try (InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                if (response != null) {
+                    ByteStreams.exhaust(response);
+                }
+            }
+            catch (IOException e) {
+                log.debug("Failed to read response from %s: %s", url, e.getMessage());
+            }
+
+            if (status == 429 || status >= 500) {
+                throw new RetryableException("HTTP " + status + " from " + url);
+            }
+            if (status >= 300) {
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+        }
+
+        private void sleep(long millis)
+                throws IOException
+        {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class RetryableException
+            extends IOException
+    {
+        RetryableException(String message)
+        {
+            super(message);
+        }
+
+        RetryableException(String message, Throwable cause)
+        {
+            super(message, cause);
+        }
+    }
+
+    public static class Factory
+            implements AuditSinkFactory
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public AuditSink create(AuditConfig config)
+        {
+            Optional<URL> simpleLogUrl = parseUrl(config.getHttpSimpleLogUrl());
+            Optional<URL> fullLogUrl = parseUrl(config.getHttpFullLogUrl());
+            checkArgument(simpleLogUrl.isPresent() || fullLogUrl.isPresent(), "HTTP audit sink requires a simple or full log URL");
+            HttpAuditSink sink = new HttpAuditSink(
+                    simpleLogUrl,
+                    fullLogUrl,
+                    config.getHttpQueueSize(),
+                    config.getHttpBatchSize(),
+                    config.getHttpLinger(),
+                    config.getHttpConcurrency(),
+                    config.getHttpMaxRetries(),
+                    config.getHttpRetryBackoff(),
+                    config.getHttpRequestTimeout());
+            sink.start();
+            return sink;
+        }
+
+        private static Optional<URL> parseUrl(String url)
+        {
+            if (url == null) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(new URL(url));
+            }
+            catch (MalformedURLException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.AuditConfig;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Inserts simple log records into a JDBC table with prepared batch inserts.
+ * <p>
+ * Every worker thread owns a connection and a prepared statement, and commits one transaction
+ * per batch. A batch which fails is rolled back and the connection is replaced.
+ * The table layout is in src/sql/jdbc_ddl.sql.
+ */
+public class JdbcAuditSink
+        extends BatchingAuditSink
+{
+    public static final String NAME = "jdbc";
+
+    private static final Logger log = Logger.get(JdbcAuditSink.class);
+    private static final List<String> COLUMNS = ImmutableList.of(
+            "eventType", "queryId", "query", "uri", "state",
+            "cpuTime", "wallTime", "queuedTime", "peakUserMemoryBytes", "peakTotalNonRevocableMemoryBytes",
+            "totalBytes", "totalRows", "completedSplits",
+            "createTime", "executionStartTime", "endTime",
+            "errorCode", "errorName", "failureType", "failureMessage", "failuresJson", "failuresHash",
+            "remoteClientAddress", "clientUser", "userAgent", "source",
+            "sheddingLevel");
+
+    private final String url;
+    private final Optional<String> user;
+    private final Optional<String> password;
+    private final String insertSql;
+
+    public JdbcAuditSink(String url, Optional<String> user, Optional<String> password, String table, int queueCapacity, int batchSize, Duration flushInterval, int writerThreads)
+    {
+        super(NAME, queueCapacity, batchSize, flushInterval, writerThreads);
+        this.url = requireNonNull(url, "url is null");
+        this.user = requireNonNull(user, "user is null");
+        this.password = requireNonNull(password, "password is null");
+        this.insertSql = "INSERT INTO " + requireNonNull(table, "table is null") +
+                " (" + String.join(", ", COLUMNS) + ") VALUES (" + String.join(", ", COLUMNS.stream().map(column -> "?").toArray(String[]::new)) + ")";
+    }
+
+    @Override
+    public boolean accepts(LogType type)
+    {
+        return type == LogType.SIMPLE;
+    }
+
+    @Override
+    protected BatchWriter createWriter()
+            throws IOException
+    {
+        try {
+            return new JdbcBatchWriter(user.isPresent() ? DriverManager.getConnection(url, user.get(), password.orElse(null)) : DriverManager.getConnection(url));
+        }
+        catch (SQLException e) {
+            throw new IOException("Failed to connect to " + url, e);
+        }
+    }
+
+    private class JdbcBatchWriter
+            implements BatchWriter
+    {
+        private final Gson gson = new Gson();
+        private final Connection connection;
+        private final PreparedStatement statement;
+
+        JdbcBatchWriter(Connection connection)
+                throws SQLException
+        {
+            this.connection = connection;
+            connection.setAutoCommit(false);
+            this.statement = connection.prepareStatement(insertSql);
+        }
+
+        @Override
+        public void write(List<SinkRecord> batch)
+                throws IOException
+        {
+            try {
+                for (SinkRecord record : batch) {
+                    bind(record.getLog().getRecord().orElseGet(() -> gson.fromJson(record.getLog().getSerializedLog(), AuditRecord.class)));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            }
+            catch (SQLException e) {
+                try {
+                    connection.rollback();
+                }
+                catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw new IOException("Failed to insert audit records", e);
+            }
+        }
+
+        private void bind(AuditRecord record)
+                throws SQLException
+        {
+            int index = 1;
+            statement.setString(index++, record.getEventType());
+            statement.setString(index++, record.getQueryId());
+            statement.setString(index++, record.getQuery());
+            statement.setString(index++, record.getUri());
+            statement.setString(index++, record.getState());
+            setDouble(index++, record.getCpuTime());
+            setDouble(index++, record.getWallTime());
+            setDouble(index++, record.getQueuedTime());
+            setLong(index++, record.getPeakUserMemoryBytes());
+            setLong(index++, record.getPeakTotalNonRevocableMemoryBytes());
+            setLong(index++, record.getTotalBytes());
+            setLong(index++, record.getTotalRows());
+            statement.setInt(index++, record.getCompletedSplits());
+            setTimestamp(index++, record.getCreateTimestamp());
+            setTimestamp(index++, record.getExecutionStartTimestamp());
+            setTimestamp(index++, record.getEndTimestamp());
+            statement.setInt(index++, record.getErrorCode());
+            statement.setString(index++, record.getErrorName());
+            statement.setString(index++, record.getFailureType());
+            statement.setString(index++, record.getFailureMessage());
+            statement.setString(index++, record.getFailuresJson());
+            statement.setString(index++, record.getFailuresHash());
+            statement.setString(index++, record.getRemoteClientAddress());
+            statement.setString(index++, record.getClientUser());
+            statement.setString(index++, record.getUserAgent());
+            statement.setString(index++, record.getSource());
+            setInteger(index, record.getSheddingLevel());
+        }
+
+        private void setDouble(int index, Double value)
+                throws SQLException
+        {
+            if (value == null) {
+                statement.setNull(index, Types.DOUBLE);
+            }
+            else {
+                statement.setDouble(index, value);
+            }
+        }
+
+        private void setInteger(int index, Integer value)
+                throws SQLException
+        {
+            if (value == null) {
+                statement.setNull(index, Types.INTEGER);
+            }
+            else {
+                statement.setInt(index, value);
+            }
+        }
+
+        private void setLong(int index, Long value)
+                throws SQLException
+        {
+            if (value == null) {
+                statement.setNull(index, Types.BIGINT);
+            }
+            else {
+                statement.setLong(index, value);
+            }
+        }
+
+        // Timestamps of AuditRecord are epoch seconds with millisecond fraction
+        private void setTimestamp(int index, Double epochSeconds)
+                throws SQLException
+        {
+            if (epochSeconds == null) {
+                statement.setNull(index, Types.TIMESTAMP);
+            }
+            else {
+                statement.setTimestamp(index, new Timestamp(Math.round(epochSeconds * 1000)));
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                connection.close();
+            }
+            catch (SQLException e) {
+                log.error("Failed to close JDBC connection. " + e);
+            }
+        }
+    }
+
+    public static class Factory
+            implements AuditSinkFactory
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public AuditSink create(AuditConfig config)
+        {
+            JdbcAuditSink sink = new JdbcAuditSink(
+                    requireNonNull(config.getJdbcUrl(), "jdbcUrl is null"),
+                    Optional.ofNullable(config.getJdbcUser()),
+                    Optional.ofNullable(config.getJdbcPassword()),
+                    config.getJdbcTable(),
+                    config.getJdbcQueueSize(),
+                    config.getJdbcBatchSize(),
+                    config.getJdbcFlushInterval(),
+                    config.getJdbcWriterThreads());
+            sink.start();
+            return sink;
+        }
+    }
+}
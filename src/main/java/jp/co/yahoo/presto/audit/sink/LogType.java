@@ -0,0 +1,31 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+/**
+ * Kind of audit record published to sinks
+ */
+public enum LogType
+{
+    SIMPLE,
+    FULL,
+    // Simple record of a query when it is created
+    CREATED,
+    // Periodic aggregate of the queries of a user and source beyond their rate limit
+    SUMMARY,
+    // Distinct failure stack trace, referenced by hash from the other records
+    STACK_TRACE,
+    // Periodic watermark of the end times of the records published after it
+    HEARTBEAT
+}
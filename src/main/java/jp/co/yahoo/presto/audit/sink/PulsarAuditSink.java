@@ -0,0 +1,372 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.AuditConfig;
+import jp.co.yahoo.presto.audit.CoordinatorId;
+import jp.co.yahoo.presto.audit.binary.BinaryRecordWriter;
+import jp.co.yahoo.presto.audit.pulsar.PulsarProducer;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.weakref.jmx.Managed;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Sends records to the simple and full log topics. A single worker keeps the send order,
+ * which persisted sequence ids rely on.
+ * <p>
+ * Producers connect in the background, so an unreachable broker does not delay the coordinator startup.
+ * A producer with an outbox is used right away and stores records in the outbox until it is connected.
+ * Without an outbox the worker waits for the connection and records are buffered in the bounded sink queue.
+ */
+public class PulsarAuditSink
+        extends BatchingAuditSink
+{
+    public static final String NAME = "pulsar";
+    private static final Logger log = Logger.get(PulsarAuditSink.class);
+
+    private final Optional<ProducerConnection> simpleLogConnection;
+    private final Optional<ProducerConnection> fullLogConnection;
+    private final Optional<CompletableFuture<PulsarProducer>> simpleLogProducer;
+    private final Optional<CompletableFuture<PulsarProducer>> fullLogProducer;
+    private final boolean simpleLogBinary;
+
+    /**
+     * @param simpleLogBinary send simple logs as {@link LogEncoding#RECORD} instead of JSON
+     */
+    private PulsarAuditSink(Optional<ProducerConnection> simpleLogConnection, Optional<ProducerConnection> fullLogConnection, int queueCapacity, int batchSize, Duration linger,
+            boolean simpleLogBinary)
+    {
+        super(NAME, queueCapacity, batchSize, linger, 1);
+        this.simpleLogConnection = requireNonNull(simpleLogConnection, "simpleLogConnection is null");
+        this.fullLogConnection = requireNonNull(fullLogConnection, "fullLogConnection is null");
+        this.simpleLogProducer = simpleLogConnection.map(ProducerConnection::getProducer);
+        this.fullLogProducer = fullLogConnection.map(ProducerConnection::getProducer);
+        this.simpleLogBinary = simpleLogBinary;
+    }
+
+    @Override
+    public boolean accepts(LogType type)
+    {
+        if (type == LogType.HEARTBEAT) {
+            return simpleLogProducer.isPresent() || fullLogProducer.isPresent();
+        }
+        return producerFor(type).isPresent();
+    }
+
+    @Override
+    public boolean acceptsBinary()
+    {
+        // Messages carry the encoding in their content type
+        return true;
+    }
+
+    @Override
+    protected BatchWriter createWriter()
+    {
+        return new BatchWriter()
+        {
+            @Override
+            public void write(List<SinkRecord> batch)
+                    throws IOException
+            {
+                // PulsarProducer falls back to the outbox by itself, so sends never fail here.
+                // The whole batch is in flight at once, and acknowledgements are awaited once per batch.
+                List<CompletableFuture<Void>> sends = new ArrayList<>(batch.size());
+                for (SinkRecord record : batch) {
+                    if (record.getType() == LogType.HEARTBEAT) {
+                        // Consumers of every partition of either topic need the watermark
+                        if (simpleLogProducer.isPresent()) {
+                            sends.add(awaitProducer(simpleLogProducer.get()).sendToAllPartitions(record.getLog()));
+                        }
+                        if (fullLogProducer.isPresent()) {
+                            sends.add(awaitProducer(fullLogProducer.get()).sendToAllPartitions(record.getLog()));
+                        }
+                        continue;
+                    }
+                    Optional<CompletableFuture<PulsarProducer>> producer = producerFor(record.getType());
+                    if (producer.isPresent()) {
+                        sends.add(awaitProducer(producer.get()).sendAsync(encode(record)));
+                    }
+                }
+                CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+
+    private SerializedLog encode(SinkRecord record)
+    {
+        SerializedLog log = record.getLog();
+        if (simpleLogBinary && record.getType() == LogType.SIMPLE && log.getRecord().isPresent()) {
+            return log.withContent(BinaryRecordWriter.encode(log.getRecord().get()), LogEncoding.RECORD);
+        }
+        return log;
+    }
+
+    /**
+     * Records waiting in an outbox are sent later, possibly after newer records, so they hold back the watermark as well
+     */
+    @Override
+    public Optional<Instant> getOldestPendingEventTime()
+    {
+        Optional<Instant> oldest = super.getOldestPendingEventTime();
+        for (Optional<CompletableFuture<PulsarProducer>> producer : ImmutableList.of(simpleLogProducer, fullLogProducer)) {
+            if (producer.isPresent() && producer.get().isDone() && !producer.get().isCompletedExceptionally()) {
+                Optional<Instant> outbox = producer.get().join().getOldestOutboxEventTime();
+                if (outbox.isPresent() && (!oldest.isPresent() || outbox.get().isBefore(oldest.get()))) {
+                    oldest = outbox;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Send the queued records, then stop connecting and close the producers
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+        simpleLogConnection.ifPresent(ProducerConnection::close);
+        fullLogConnection.ifPresent(ProducerConnection::close);
+    }
+
+    /**
+     * Whether the producers of all configured topics are connected
+     */
+    @Managed
+    public boolean isReady()
+    {
+        return simpleLogProducer.map(PulsarAuditSink::isConnected).orElse(true)
+                && fullLogProducer.map(PulsarAuditSink::isConnected).orElse(true);
+    }
+
+    private static boolean isConnected(CompletableFuture<PulsarProducer> producer)
+    {
+        return producer.isDone() && !producer.isCompletedExceptionally() && producer.join().isConnected();
+    }
+
+    private static PulsarProducer awaitProducer(CompletableFuture<PulsarProducer> producer)
+            throws IOException
+    {
+        try {
+            return producer.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Pulsar producer");
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        catch (CancellationException e) {
+            throw new IOException("Pulsar producer was closed before it connected");
+        }
+    }
+
+    private Optional<CompletableFuture<PulsarProducer>> producerFor(LogType type)
+    {
+        switch (type) {
+            case SIMPLE:
+                return simpleLogProducer;
+            case FULL:
+                return fullLogProducer;
+            default:
+                return Optional.empty();
+        }
+    }
+
+    public static class Factory
+            implements AuditSinkFactory
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public AuditSink create(AuditConfig config)
+        {
+            Optional<String> simpleLogTopic = Optional.ofNullable(config.getSimpleTopic());
+            Optional<String> fullLogTopic = Optional.ofNullable(config.getFullTopic());
+            checkArgument(simpleLogTopic.isPresent() || fullLogTopic.isPresent(), "Pulsar audit sink requires a simple or full log topic");
+
+            Map<String, String> authParams = new HashMap<>();
+            authParams.put("tenantDomain", requireNonNull(config.getTenantDomain()));
+            authParams.put("tenantService", requireNonNull(config.getTenantService()));
+            authParams.put("providerDomain", requireNonNull(config.getProviderDomain()));
+            authParams.put("privateKey", requireNonNull(config.getPrivateKeyPath()));
+            authParams.put("athenzConfPath", requireNonNull(config.getAthenzConfPath()));
+            authParams.put("principalHeader", requireNonNull(config.getPrincipalHeader()));
+            authParams.put("roleHeader", requireNonNull(config.getRoleHeader()));
+
+            PulsarProducer.Builder builder = new PulsarProducer.Builder()
+                    .setURL(requireNonNull(config.getPulsarUrl()))
+                    .setTrustCerts(requireNonNull(config.getTrustCertsPath()))
+                    .setAuthParams(authParams)
+                    .setUseTLS(config.getUseTLS())
+                    .setOutbox(config.getPulsarOutboxPath(),
+                            config.getPulsarOutboxSegmentSize().toBytes(),
+                            config.getPulsarOutboxMaxSize().toBytes(),
+                            config.getPulsarOutboxReplayRate())
+                    .setCircuitBreaker(config.getPulsarCircuitBreakerFailureThreshold(),
+                            config.getPulsarCircuitBreakerOpenDuration().toMillis(),
+                            TimeUnit.MILLISECONDS)
+                    .setMessageKey(config.getPulsarMessageKey())
+                    .setRoutingMode(config.getPulsarRoutingMode())
+                    .setProducerName("presto-audit-" + CoordinatorId.resolve(config));
+
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("AuditLogPulsarConnect").setDaemon(true).build());
+            Optional<ProducerConnection> simpleLogConnection = simpleLogTopic.map(topic ->
+                    new ProducerConnection(executor, build(builder, topic, config.getSimpleTopicPartitions()), topic));
+            Optional<ProducerConnection> fullLogConnection = fullLogTopic.map(topic ->
+                    new ProducerConnection(executor, build(builder, topic, config.getFullTopicPartitions()), topic));
+            List<CompletableFuture<PulsarProducer>> connections = new ArrayList<>();
+            simpleLogConnection.ifPresent(connection -> connections.add(connection.start()));
+            fullLogConnection.ifPresent(connection -> connections.add(connection.start()));
+            // Connections end once connected, or cancelled when the sink is closed
+            CompletableFuture.allOf(connections.toArray(new CompletableFuture[0])).whenComplete((ignored, e) -> executor.shutdown());
+
+            PulsarAuditSink sink = new PulsarAuditSink(
+                    simpleLogConnection,
+                    fullLogConnection,
+                    config.getPulsarQueueSize(),
+                    config.getPulsarBatchSize(),
+                    config.getPulsarLinger(),
+                    config.isPulsarSimpleLogBinary());
+            sink.start();
+            return sink;
+        }
+
+        private static PulsarProducer build(PulsarProducer.Builder builder, String topic, int partitions)
+        {
+            try {
+                return builder.setTopic(topic).setPartitions(partitions).build();
+            }
+            catch (PulsarClientException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Connects the producer of a topic, retrying with exponential backoff until the broker accepts it.
+     * A producer with an outbox is handed out right away, as it stores records in the outbox until connected.
+     * Closing stops the retries and closes the producer, also when it connects afterwards.
+     */
+    private static class ProducerConnection
+    {
+        private static final long MIN_CONNECT_BACKOFF_MILLIS = 1000;
+        private static final long MAX_CONNECT_BACKOFF_MILLIS = 60_000;
+
+        private final ScheduledExecutorService executor;
+        private final PulsarProducer producer;
+        private final String topic;
+        private final CompletableFuture<PulsarProducer> connected = new CompletableFuture<>();
+        // Guarded by this
+        private ScheduledFuture<?> attempt;
+        private long backoffMillis = MIN_CONNECT_BACKOFF_MILLIS;
+        private boolean closed;
+
+        ProducerConnection(ScheduledExecutorService executor, PulsarProducer producer, String topic)
+        {
+            this.executor = requireNonNull(executor, "executor is null");
+            this.producer = requireNonNull(producer, "producer is null");
+            this.topic = requireNonNull(topic, "topic is null");
+        }
+
+        /**
+         * @return future completed once the producer is connected
+         */
+        synchronized CompletableFuture<PulsarProducer> start()
+        {
+            attempt = executor.schedule(this::connect, 0, TimeUnit.MILLISECONDS);
+            return connected;
+        }
+
+        CompletableFuture<PulsarProducer> getProducer()
+        {
+            if (producer.hasOutbox()) {
+                return CompletableFuture.completedFuture(producer);
+            }
+            return connected;
+        }
+
+        private void connect()
+        {
+            try {
+                if (producer.connect()) {
+                    connected.complete(producer);
+                    log.info("Connected Pulsar producer for topic " + topic);
+                }
+            }
+            catch (PulsarClientException | RuntimeException e) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    log.error("Failed to connect Pulsar producer for topic " + topic + ", retrying in " + backoffMillis + " ms. " + e);
+                    attempt = executor.schedule(this::connect, backoffMillis, TimeUnit.MILLISECONDS);
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_CONNECT_BACKOFF_MILLIS);
+                }
+            }
+        }
+
+        void close()
+        {
+            synchronized (this) {
+                closed = true;
+                if (attempt != null) {
+                    attempt.cancel(false);
+                }
+            }
+            // A writer still waiting for the connection gives up
+            connected.cancel(false);
+            // A producer connecting concurrently is closed again by connect()
+            producer.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Record waiting in the queue of a {@link BatchingAuditSink}
+ */
+public class SinkRecord
+{
+    private final LogType type;
+    private final SerializedLog log;
+
+    public SinkRecord(LogType type, SerializedLog log)
+    {
+        this.type = requireNonNull(type, "type is null");
+        this.log = requireNonNull(log, "log is null");
+    }
+
+    public LogType getType()
+    {
+        return type;
+    }
+
+    public SerializedLog getLog()
+    {
+        return log;
+    }
+}
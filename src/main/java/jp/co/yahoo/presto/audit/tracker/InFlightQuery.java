@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import com.facebook.presto.spi.eventlistener.QueryCreatedEvent;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A query which was created and has not completed yet. Only identifying fields are kept,
+ * not the query text, so each entry stays small.
+ */
+public class InFlightQuery
+{
+    private final String queryId;
+    private final String user;
+    private final String source;
+    private final long createTimeMillis;
+    private final Optional<SplitStatisticsAccumulator> splitStatistics;
+
+    public InFlightQuery(String queryId, String user, String source, long createTimeMillis)
+    {
+        this(queryId, user, source, createTimeMillis, Optional.empty());
+    }
+
+    public InFlightQuery(String queryId, String user, String source, long createTimeMillis, Optional<SplitStatisticsAccumulator> splitStatistics)
+    {
+        this.splitStatistics = requireNonNull(splitStatistics, "splitStatistics is null");
+        this.queryId = requireNonNull(queryId, "queryId is null");
+        this.user = requireNonNull(user, "user is null");
+        this.source = source;
+        this.createTimeMillis = createTimeMillis;
+    }
+
+    public static InFlightQuery from(QueryCreatedEvent event, boolean trackSplits)
+    {
+        return new InFlightQuery(
+                event.getMetadata().getQueryId(),
+                event.getContext().getUser(),
+                event.getContext().getSource().orElse(null),
+                event.getCreateTime().toEpochMilli(),
+                trackSplits ? Optional.of(new SplitStatisticsAccumulator()) : Optional.empty());
+    }
+
+    public String getQueryId()
+    {
+        return queryId;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public String getSource()
+    {
+        return source;
+    }
+
+    public long getCreateTimeMillis()
+    {
+        return createTimeMillis;
+    }
+
+    public Optional<SplitStatisticsAccumulator> getSplitStatistics()
+    {
+        return splitStatistics;
+    }
+}
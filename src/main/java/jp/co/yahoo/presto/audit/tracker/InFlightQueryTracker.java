@@ -0,0 +1,161 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import com.facebook.presto.spi.eventlistener.QueryCreatedEvent;
+import com.facebook.presto.spi.eventlistener.SplitCompletedEvent;
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * Queries which were created and have not completed yet, keyed by queryId.
+ * <p>
+ * The map holds at most about maxQueries entries; queries created while it is full are
+ * counted but not tracked. Updates are a single concurrent map operation.
+ * <p>
+ * A query whose completion is never reported would hold its entry forever, so entries older
+ * than maxAge are dropped. The sweep runs on query creation at most once a minute.
+ * <p>
+ * With split tracking, each entry also aggregates the splits of its query. The aggregate is
+ * dropped with the entry, so splits reported after completion are ignored and never leak state.
+ */
+public class InFlightQueryTracker
+{
+    private static final long EXPIRY_INTERVAL_MILLIS = 60_000;
+
+    private final int maxQueries;
+    private final boolean trackSplits;
+    private final long maxAgeMillis;
+    private final ConcurrentHashMap<String, InFlightQuery> queries;
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong untrackedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong nextExpiryMillis = new AtomicLong();
+
+    public InFlightQueryTracker(int maxQueries, boolean trackSplits, Duration maxAge)
+    {
+        checkArgument(maxQueries > 0, "maxQueries must be positive");
+        checkArgument(maxAge.toMillis() > 0, "maxAge must be positive");
+        this.maxQueries = maxQueries;
+        this.trackSplits = trackSplits;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.queries = new ConcurrentHashMap<>(Math.min(maxQueries, 1024));
+    }
+
+    public void created(QueryCreatedEvent event)
+    {
+        createdCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long nextExpiry = nextExpiryMillis.get();
+        if (now >= nextExpiry && nextExpiryMillis.compareAndSet(nextExpiry, now + EXPIRY_INTERVAL_MILLIS)) {
+            expire(now);
+        }
+        // The size check and insert are not atomic, so concurrent creations may overshoot by a few entries
+        if (queries.size() >= maxQueries) {
+            untrackedCount.incrementAndGet();
+            return;
+        }
+        InFlightQuery query = InFlightQuery.from(event, trackSplits);
+        queries.put(query.getQueryId(), query);
+    }
+
+    public void splitCompleted(SplitCompletedEvent event)
+    {
+        InFlightQuery query = queries.get(event.getQueryId());
+        if (query != null && query.getSplitStatistics().isPresent()) {
+            query.getSplitStatistics().get().add(event);
+        }
+    }
+
+    /**
+     * Stop tracking a query
+     *
+     * @return the query, or empty if it was not tracked
+     */
+    public Optional<InFlightQuery> completed(String queryId)
+    {
+        return Optional.ofNullable(queries.remove(queryId));
+    }
+
+    /**
+     * Drop queries created more than maxAge before the given time
+     */
+    @VisibleForTesting
+    void expire(long nowMillis)
+    {
+        long createdBefore = nowMillis - maxAgeMillis;
+        queries.values().removeIf(query -> {
+            if (query.getCreateTimeMillis() >= createdBefore) {
+                return false;
+            }
+            expiredCount.incrementAndGet();
+            return true;
+        });
+    }
+
+    /**
+     * Queries created at or before the given time, oldest first
+     */
+    public List<InFlightQuery> getCreatedBefore(long createTimeMillis)
+    {
+        return queries.values().stream()
+                .filter(query -> query.getCreateTimeMillis() <= createTimeMillis)
+                .sorted(Comparator.comparingLong(InFlightQuery::getCreateTimeMillis))
+                .collect(toImmutableList());
+    }
+
+    @Managed
+    public int getInFlightCount()
+    {
+        return queries.size();
+    }
+
+    @Managed
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    @Managed
+    public long getUntrackedCount()
+    {
+        return untrackedCount.get();
+    }
+
+    @Managed
+    public long getExpiredCount()
+    {
+        return expiredCount.get();
+    }
+
+    @Managed
+    public long getLongestRunningMillis()
+    {
+        long now = System.currentTimeMillis();
+        return queries.values().stream()
+                .mapToLong(query -> now - query.getCreateTimeMillis())
+                .max()
+                .orElse(0);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Periodically replaces a snapshot file with the in-flight queries which have been running
+ * longer than a threshold, one JSON object per line, oldest first. After a coordinator crash
+ * the last snapshot shows which long queries were lost.
+ */
+public class LongRunningQuerySnapshotWriter
+{
+    private static final Logger log = Logger.get(LongRunningQuerySnapshotWriter.class);
+
+    private final InFlightQueryTracker tracker;
+    private final Path snapshotFile;
+    private final Duration threshold;
+    private final Duration interval;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("AuditLogSnapshotWriter").setDaemon(true).build());
+
+    public LongRunningQuerySnapshotWriter(InFlightQueryTracker tracker, File snapshotFile, Duration threshold, Duration interval)
+    {
+        this.tracker = requireNonNull(tracker, "tracker is null");
+        this.snapshotFile = requireNonNull(snapshotFile, "snapshotFile is null").toPath();
+        this.threshold = requireNonNull(threshold, "threshold is null");
+        this.interval = requireNonNull(interval, "interval is null");
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                writeSnapshot(System.currentTimeMillis());
+            }
+            catch (IOException | RuntimeException e) {
+                log.error("Failed to write long running query snapshot. " + e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    void writeSnapshot(long now)
+            throws IOException
+    {
+        Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            for (InFlightQuery query : tracker.getCreatedBefore(now - threshold.toMillis())) {
+                writer.write(gson.toJson(new SnapshotEntry(query, now)));
+                writer.write(System.lineSeparator());
+            }
+        }
+        Files.move(tmpFile, snapshotFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    // Field names and time units follow the simple log
+    @SuppressWarnings("unused")
+    private static class SnapshotEntry
+    {
+        private final String queryId;
+        private final String clientUser;
+        private final String source;
+        private final double createTimestamp;
+        private final double runningTime;
+
+        SnapshotEntry(InFlightQuery query, long now)
+        {
+            this.queryId = query.getQueryId();
+            this.clientUser = query.getUser();
+            this.source = query.getSource();
+            this.createTimestamp = query.getCreateTimeMillis() / 1000.0;
+            this.runningTime = (now - query.getCreateTimeMillis()) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size concurrent histogram of non-negative longs with log-linear buckets:
+ * four buckets per power of two, so quantile estimates are within about 12% of the true value.
+ * Values of 2^32 and above fall into the last bucket. Recording does not allocate.
+ */
+class QuantileSketch
+{
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    void add(long value)
+    {
+        counts.incrementAndGet(bucketIndex(value));
+    }
+
+    /**
+     * Estimate the value at the given quantile, or 0 without values
+     */
+    long quantile(double quantile)
+    {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + upperBound(i) - 1) / 2;
+            }
+        }
+        return lowerBound(BUCKET_COUNT - 1);
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 2);
+    }
+
+    private static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = index / SUB_BUCKETS + 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << (exponent - 2);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import com.facebook.presto.spi.eventlistener.SplitCompletedEvent;
+import com.facebook.presto.spi.eventlistener.SplitStatistics;
+import jp.co.yahoo.presto.audit.serializer.SplitStatisticsSummary;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the splits of one query. Splits complete concurrently on many threads, so the
+ * counters are striped {@link LongAdder}s, which only allocate cells under contention.
+ * Times are kept in microseconds.
+ */
+public class SplitStatisticsAccumulator
+{
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder failedSplits = new LongAdder();
+    private final LongAdder queuedTime = new LongAdder();
+    private final LongAccumulator maxQueuedTime = new LongAccumulator(Long::max, 0);
+    private final LongAdder wallTime = new LongAdder();
+    private final LongAccumulator maxWallTime = new LongAccumulator(Long::max, 0);
+    private final LongAdder cpuTime = new LongAdder();
+    private final LongAccumulator maxCpuTime = new LongAccumulator(Long::max, 0);
+    private final LongAdder completedBytes = new LongAdder();
+    private final LongAdder completedRows = new LongAdder();
+    private final QuantileSketch wallTimeSketch = new QuantileSketch();
+
+    public void add(SplitCompletedEvent event)
+    {
+        SplitStatistics statistics = event.getStatistics();
+        long queued = statistics.getQueuedTime().toNanos() / 1000;
+        long wall = statistics.getWallTime().toNanos() / 1000;
+        long cpu = statistics.getCpuTime().toNanos() / 1000;
+
+        splits.increment();
+        if (event.getFailureInfo().isPresent()) {
+            failedSplits.increment();
+        }
+        queuedTime.add(queued);
+        maxQueuedTime.accumulate(queued);
+        wallTime.add(wall);
+        maxWallTime.accumulate(wall);
+        cpuTime.add(cpu);
+        maxCpuTime.accumulate(cpu);
+        completedBytes.add(statistics.getCompletedDataSizeBytes());
+        completedRows.add(statistics.getCompletedPositions());
+        wallTimeSketch.add(wall);
+    }
+
+    public SplitStatisticsSummary summarize()
+    {
+        SplitStatisticsSummary summary = new SplitStatisticsSummary();
+        summary.setSplits(splits.sum());
+        summary.setFailedSplits(failedSplits.sum());
+        summary.setQueuedTime(seconds(queuedTime.sum()));
+        summary.setMaxQueuedTime(seconds(maxQueuedTime.get()));
+        summary.setWallTime(seconds(wallTime.sum()));
+        summary.setMaxWallTime(seconds(maxWallTime.get()));
+        summary.setWallTimeP50(seconds(wallTimeSketch.quantile(0.5)));
+        summary.setWallTimeP90(seconds(wallTimeSketch.quantile(0.9)));
+        summary.setWallTimeP99(seconds(wallTimeSketch.quantile(0.99)));
+        summary.setCpuTime(seconds(cpuTime.sum()));
+        summary.setMaxCpuTime(seconds(maxCpuTime.get()));
+        summary.setCompletedBytes(completedBytes.sum());
+        summary.setCompletedRows(completedRows.sum());
+        return summary;
+    }
+
+    // Same unit as the times of the simple log
+    private static double seconds(long micros)
+    {
+        return micros / 1_000_000.0;
+    }
+}
@@ -21,11 +21,28 @@ CREATE TABLE presto_audit_1 (
   failureType STRING,
   failureMessage STRING,
   failuresJson STRING,
+  failuresHash STRING,
 
   remoteClientAddress STRING,
   clientUser STRING,
   userAgent STRING ,
-  source STRING
+  source STRING,
+
+  splitStatistics STRUCT<
+    splits: BIGINT,
+    failedSplits: BIGINT,
+    queuedTime: DOUBLE,
+    maxQueuedTime: DOUBLE,
+    wallTime: DOUBLE,
+    maxWallTime: DOUBLE,
+    wallTimeP50: DOUBLE,
+    wallTimeP90: DOUBLE,
+    wallTimeP99: DOUBLE,
+    cpuTime: DOUBLE,
+    maxCpuTime: DOUBLE,
+    completedBytes: BIGINT,
+    completedRows: BIGINT>,
+  sheddingLevel INTEGER
   )
 PARTITIONED BY (
   `ymd` string
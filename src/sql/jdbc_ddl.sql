@@ -0,0 +1,34 @@
+CREATE TABLE presto_audit (
+  eventType VARCHAR(64),
+  queryId VARCHAR(128) NOT NULL,
+  query TEXT,
+  uri VARCHAR(1024),
+  state VARCHAR(32),
+
+  cpuTime DOUBLE PRECISION,
+  wallTime DOUBLE PRECISION,
+  queuedTime DOUBLE PRECISION,
+  peakUserMemoryBytes BIGINT,
+  peakTotalNonRevocableMemoryBytes BIGINT,
+  totalBytes BIGINT,
+  totalRows BIGINT,
+  completedSplits INTEGER,
+
+  createTime TIMESTAMP,
+  executionStartTime TIMESTAMP,
+  endTime TIMESTAMP,
+
+  errorCode INTEGER,
+  errorName VARCHAR(256),
+  failureType VARCHAR(256),
+  failureMessage TEXT,
+  failuresJson TEXT,
+  failuresHash VARCHAR(32),
+
+  remoteClientAddress VARCHAR(256),
+  clientUser VARCHAR(256),
+  userAgent VARCHAR(1024),
+  source VARCHAR(256),
+
+  sheddingLevel INTEGER
+);
@@ -14,9 +14,15 @@
 package jp.co.yahoo.presto.audit;
 
 import com.google.common.collect.ImmutableMap;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.pulsar.MessageKey;
+import jp.co.yahoo.presto.audit.pulsar.RoutingMode;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
 import org.testng.annotations.Test;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
@@ -43,7 +49,90 @@ public class TestAuditConfig
                 .setAthenzConfPath(null)
                 .setPrincipalHeader(null)
                 .setRoleHeader(null)
-                .setUseTLS(true));
+                .setUseTLS(true)
+                .setPulsarOutboxPath(null)
+                .setPulsarOutboxSegmentSize(new DataSize(64, DataSize.Unit.MEGABYTE))
+                .setPulsarOutboxMaxSize(new DataSize(1, DataSize.Unit.GIGABYTE))
+                .setPulsarOutboxReplayRate(100)
+                .setPulsarCircuitBreakerFailureThreshold(5)
+                .setPulsarCircuitBreakerOpenDuration(new Duration(30, TimeUnit.SECONDS))
+                .setPulsarMessageKey(MessageKey.NONE)
+                .setPulsarRoutingMode(RoutingMode.ROUND_ROBIN)
+                .setSimpleTopicPartitions(1)
+                .setFullTopicPartitions(1)
+                .setCoordinatorId(null)
+                .setAuditSinks(null)
+                .setPulsarQueueSize(10000)
+                .setPulsarBatchSize(100)
+                .setPulsarLinger(new Duration(0, TimeUnit.MILLISECONDS))
+                .setHttpSimpleLogUrl(null)
+                .setHttpFullLogUrl(null)
+                .setHttpQueueSize(10000)
+                .setHttpBatchSize(500)
+                .setHttpLinger(new Duration(100, TimeUnit.MILLISECONDS))
+                .setHttpConcurrency(2)
+                .setHttpMaxRetries(3)
+                .setHttpRetryBackoff(new Duration(100, TimeUnit.MILLISECONDS))
+                .setHttpRequestTimeout(new Duration(10, TimeUnit.SECONDS))
+                .setJdbcUrl(null)
+                .setJdbcUser(null)
+                .setJdbcPassword(null)
+                .setJdbcTable("presto_audit")
+                .setJdbcQueueSize(10000)
+                .setJdbcBatchSize(1000)
+                .setJdbcFlushInterval(new Duration(1, TimeUnit.SECONDS))
+                .setJdbcWriterThreads(1)
+                .setBinaryPath(null)
+                .setBinarySegmentSize(new DataSize(64, DataSize.Unit.MEGABYTE))
+                .setFullLogEncoding(LogEncoding.JSON)
+                .setAuditCreatedLogName(null)
+                .setAuditSummaryLogName(null)
+                .setAuditStackTraceLogName(null)
+                .setInFlightMaxQueries(10000)
+                .setInFlightSnapshotPath(null)
+                .setInFlightSnapshotInterval(new Duration(1, TimeUnit.MINUTES))
+                .setLongRunningThreshold(new Duration(10, TimeUnit.MINUTES))
+                .setInFlightMaxAge(new Duration(1, TimeUnit.DAYS))
+                .setSplitStatisticsEnabled(false)
+                .setMetricsEnabled(false)
+                .setMetricsMaxKeys(100)
+                .setHeavyHittersEnabled(false)
+                .setHeavyHittersCapacity(1000)
+                .setHeavyHittersTop(20)
+                .setHeavyHittersWindow(new Duration(5, TimeUnit.MINUTES))
+                .setHeavyHittersPath(null)
+                .setAccessIndexEnabled(false)
+                .setAccessIndexMaxEntries(100000)
+                .setAccessIndexPath(null)
+                .setAccessIndexFlushInterval(new Duration(1, TimeUnit.MINUTES))
+                .setSlowQueryEnabled(false)
+                .setSlowQueryWallTime(null)
+                .setSlowQueryCpuTime(null)
+                .setSlowQueryPeakMemory(null)
+                .setSlowQueryInputBytes(null)
+                .setSlowQueryThresholdsPath(null)
+                .setFilterRulesPath(null)
+                .setConfigReloadInterval(null)
+                .setWarmUpIterations(1000)
+                .setSheddingEnabled(false)
+                .setSheddingFullLogWatermark(0.5)
+                .setSheddingSampleWatermark(0.8)
+                .setSheddingHysteresis(0.2)
+                .setSheddingSampleRate(0.1)
+                .setRateLimitEnabled(false)
+                .setRateLimitRate(10)
+                .setRateLimitBurst(100)
+                .setRateLimitMaxTenants(10000)
+                .setRateLimitSummaryInterval(new Duration(1, TimeUnit.MINUTES))
+                .setFailureCoalescingEnabled(false)
+                .setFailureCoalescingWindow(new Duration(10, TimeUnit.SECONDS))
+                .setFailureCoalescingMaxKeys(10000)
+                .setStackTraceDedupEnabled(false)
+                .setStackTraceDedupCacheSize(10000)
+                .setHeartbeatEnabled(false)
+                .setHeartbeatInterval(new Duration(10, TimeUnit.SECONDS))
+                .setHeartbeatAllowedDelay(new Duration(5, TimeUnit.SECONDS))
+                .setPulsarSimpleLogBinary(false));
     }
 
     @Test
@@ -66,6 +155,89 @@ public class TestAuditConfig
                 .put("event-listener.athenz.config-path", "/usr/local/etc/pulsar-athenz-config/athenz.conf")
                 .put("event-listener.athenz.principal-header", "Athenz-Principal-Auth")
                 .put("event-listener.athenz.role-header", "Athenz-Role-Auth")
+                .put("event-listener.pulsar.outbox-path", "/var/lib/presto/audit-outbox")
+                .put("event-listener.pulsar.outbox-segment-size", "16MB")
+                .put("event-listener.pulsar.outbox-max-size", "10GB")
+                .put("event-listener.pulsar.outbox-replay-rate", "500")
+                .put("event-listener.pulsar.circuit-breaker-failure-threshold", "10")
+                .put("event-listener.pulsar.circuit-breaker-open-duration", "1m")
+                .put("event-listener.pulsar.message-key", "USER_SOURCE_HASH")
+                .put("event-listener.pulsar.routing-mode", "SINGLE_PARTITION")
+                .put("event-listener.pulsar.simple-log-topic-partitions", "4")
+                .put("event-listener.pulsar.full-log-topic-partitions", "8")
+                .put("event-listener.coordinator-id", "coordinator-1")
+                .put("event-listener.audit-sinks", "file,pulsar")
+                .put("event-listener.pulsar.queue-size", "500")
+                .put("event-listener.pulsar.batch-size", "10")
+                .put("event-listener.pulsar.linger", "5ms")
+                .put("event-listener.http.simple-log-url", "http://collector.example.com/simple")
+                .put("event-listener.http.full-log-url", "http://collector.example.com/full")
+                .put("event-listener.http.queue-size", "2000")
+                .put("event-listener.http.batch-size", "50")
+                .put("event-listener.http.linger", "1s")
+                .put("event-listener.http.concurrency", "4")
+                .put("event-listener.http.max-retries", "5")
+                .put("event-listener.http.retry-backoff", "1s")
+                .put("event-listener.http.request-timeout", "30s")
+                .put("event-listener.jdbc.url", "jdbc:postgresql://db.example.com/audit")
+                .put("event-listener.jdbc.user", "audit")
+                .put("event-listener.jdbc.password", "secret")
+                .put("event-listener.jdbc.table", "audit_log")
+                .put("event-listener.jdbc.queue-size", "3000")
+                .put("event-listener.jdbc.batch-size", "200")
+                .put("event-listener.jdbc.flush-interval", "5s")
+                .put("event-listener.jdbc.writer-threads", "2")
+                .put("event-listener.binary.path", "/var/log/presto/audit-binary")
+                .put("event-listener.binary.segment-size", "16MB")
+                .put("event-listener.audit-log-full-encoding", "SMILE")
+                .put("event-listener.audit-log-created-filename", "presto-auditlog-created.log")
+                .put("event-listener.audit-log-summary-filename", "presto-auditlog-summary.log")
+                .put("event-listener.audit-log-stack-trace-filename", "presto-auditlog-stack-trace.log")
+                .put("event-listener.in-flight.max-queries", "500")
+                .put("event-listener.in-flight.snapshot-path", "/var/log/presto/long-running.json")
+                .put("event-listener.in-flight.snapshot-interval", "30s")
+                .put("event-listener.in-flight.long-running-threshold", "1h")
+                .put("event-listener.in-flight.max-age", "12h")
+                .put("event-listener.split-statistics.enabled", "true")
+                .put("event-listener.metrics.enabled", "true")
+                .put("event-listener.metrics.max-keys", "20")
+                .put("event-listener.heavy-hitters.enabled", "true")
+                .put("event-listener.heavy-hitters.capacity", "500")
+                .put("event-listener.heavy-hitters.top", "5")
+                .put("event-listener.heavy-hitters.window", "1m")
+                .put("event-listener.heavy-hitters.path", "/var/log/presto/heavy-hitters.json")
+                .put("event-listener.access-index.enabled", "true")
+                .put("event-listener.access-index.max-entries", "5000")
+                .put("event-listener.access-index.path", "/var/lib/presto/access-index.json")
+                .put("event-listener.access-index.flush-interval", "10s")
+                .put("event-listener.slow-query.enabled", "true")
+                .put("event-listener.slow-query.wall-time", "5m")
+                .put("event-listener.slow-query.cpu-time", "1h")
+                .put("event-listener.slow-query.peak-memory", "10GB")
+                .put("event-listener.slow-query.input-bytes", "1TB")
+                .put("event-listener.slow-query.thresholds-path", "/etc/presto/slow-query-thresholds.json")
+                .put("event-listener.filter.rules-path", "/etc/presto/audit-filter.json")
+                .put("event-listener.config-reload-interval", "10s")
+                .put("event-listener.warm-up-iterations", "0")
+                .put("event-listener.shedding.enabled", "true")
+                .put("event-listener.shedding.full-log-watermark", "0.6")
+                .put("event-listener.shedding.sample-watermark", "0.9")
+                .put("event-listener.shedding.hysteresis", "0.1")
+                .put("event-listener.shedding.sample-rate", "0.05")
+                .put("event-listener.rate-limit.enabled", "true")
+                .put("event-listener.rate-limit.rate", "2.5")
+                .put("event-listener.rate-limit.burst", "20")
+                .put("event-listener.rate-limit.max-tenants", "500")
+                .put("event-listener.rate-limit.summary-interval", "30s")
+                .put("event-listener.failure-coalescing.enabled", "true")
+                .put("event-listener.failure-coalescing.window", "1m")
+                .put("event-listener.failure-coalescing.max-keys", "100")
+                .put("event-listener.stack-trace-dedup.enabled", "true")
+                .put("event-listener.stack-trace-dedup.cache-size", "100")
+                .put("event-listener.heartbeat.enabled", "true")
+                .put("event-listener.heartbeat.interval", "1s")
+                .put("event-listener.heartbeat.allowed-delay", "2s")
+                .put("event-listener.pulsar.simple-log-binary", "true")
                 .build();
 
         AuditConfig expected = new AuditConfig()
@@ -84,7 +256,90 @@ public class TestAuditConfig
                 .setProviderDomain("provider.plusar.tenant")
                 .setAthenzConfPath("/usr/local/etc/pulsar-athenz-config/athenz.conf")
                 .setPrincipalHeader("Athenz-Principal-Auth")
-                .setRoleHeader("Athenz-Role-Auth");
+                .setRoleHeader("Athenz-Role-Auth")
+                .setPulsarOutboxPath("/var/lib/presto/audit-outbox")
+                .setPulsarOutboxSegmentSize(new DataSize(16, DataSize.Unit.MEGABYTE))
+                .setPulsarOutboxMaxSize(new DataSize(10, DataSize.Unit.GIGABYTE))
+                .setPulsarOutboxReplayRate(500)
+                .setPulsarCircuitBreakerFailureThreshold(10)
+                .setPulsarCircuitBreakerOpenDuration(new Duration(1, TimeUnit.MINUTES))
+                .setPulsarMessageKey(MessageKey.USER_SOURCE_HASH)
+                .setPulsarRoutingMode(RoutingMode.SINGLE_PARTITION)
+                .setSimpleTopicPartitions(4)
+                .setFullTopicPartitions(8)
+                .setCoordinatorId("coordinator-1")
+                .setAuditSinks("file,pulsar")
+                .setPulsarQueueSize(500)
+                .setPulsarBatchSize(10)
+                .setPulsarLinger(new Duration(5, TimeUnit.MILLISECONDS))
+                .setHttpSimpleLogUrl("http://collector.example.com/simple")
+                .setHttpFullLogUrl("http://collector.example.com/full")
+                .setHttpQueueSize(2000)
+                .setHttpBatchSize(50)
+                .setHttpLinger(new Duration(1, TimeUnit.SECONDS))
+                .setHttpConcurrency(4)
+                .setHttpMaxRetries(5)
+                .setHttpRetryBackoff(new Duration(1, TimeUnit.SECONDS))
+                .setHttpRequestTimeout(new Duration(30, TimeUnit.SECONDS))
+                .setJdbcUrl("jdbc:postgresql://db.example.com/audit")
+                .setJdbcUser("audit")
+                .setJdbcPassword("secret")
+                .setJdbcTable("audit_log")
+                .setJdbcQueueSize(3000)
+                .setJdbcBatchSize(200)
+                .setJdbcFlushInterval(new Duration(5, TimeUnit.SECONDS))
+                .setJdbcWriterThreads(2)
+                .setBinaryPath("/var/log/presto/audit-binary")
+                .setBinarySegmentSize(new DataSize(16, DataSize.Unit.MEGABYTE))
+                .setFullLogEncoding(LogEncoding.SMILE)
+                .setAuditCreatedLogName("presto-auditlog-created.log")
+                .setAuditSummaryLogName("presto-auditlog-summary.log")
+                .setAuditStackTraceLogName("presto-auditlog-stack-trace.log")
+                .setInFlightMaxQueries(500)
+                .setInFlightSnapshotPath("/var/log/presto/long-running.json")
+                .setInFlightSnapshotInterval(new Duration(30, TimeUnit.SECONDS))
+                .setLongRunningThreshold(new Duration(1, TimeUnit.HOURS))
+                .setInFlightMaxAge(new Duration(12, TimeUnit.HOURS))
+                .setSplitStatisticsEnabled(true)
+                .setMetricsEnabled(true)
+                .setMetricsMaxKeys(20)
+                .setHeavyHittersEnabled(true)
+                .setHeavyHittersCapacity(500)
+                .setHeavyHittersTop(5)
+                .setHeavyHittersWindow(new Duration(1, TimeUnit.MINUTES))
+                .setHeavyHittersPath("/var/log/presto/heavy-hitters.json")
+                .setAccessIndexEnabled(true)
+                .setAccessIndexMaxEntries(5000)
+                .setAccessIndexPath("/var/lib/presto/access-index.json")
+                .setAccessIndexFlushInterval(new Duration(10, TimeUnit.SECONDS))
+                .setSlowQueryEnabled(true)
+                .setSlowQueryWallTime(new Duration(5, TimeUnit.MINUTES))
+                .setSlowQueryCpuTime(new Duration(1, TimeUnit.HOURS))
+                .setSlowQueryPeakMemory(new DataSize(10, DataSize.Unit.GIGABYTE))
+                .setSlowQueryInputBytes(new DataSize(1, DataSize.Unit.TERABYTE))
+                .setSlowQueryThresholdsPath("/etc/presto/slow-query-thresholds.json")
+                .setFilterRulesPath("/etc/presto/audit-filter.json")
+                .setConfigReloadInterval(new Duration(10, TimeUnit.SECONDS))
+                .setWarmUpIterations(0)
+                .setSheddingEnabled(true)
+                .setSheddingFullLogWatermark(0.6)
+                .setSheddingSampleWatermark(0.9)
+                .setSheddingHysteresis(0.1)
+                .setSheddingSampleRate(0.05)
+                .setRateLimitEnabled(true)
+                .setRateLimitRate(2.5)
+                .setRateLimitBurst(20)
+                .setRateLimitMaxTenants(500)
+                .setRateLimitSummaryInterval(new Duration(30, TimeUnit.SECONDS))
+                .setFailureCoalescingEnabled(true)
+                .setFailureCoalescingWindow(new Duration(1, TimeUnit.MINUTES))
+                .setFailureCoalescingMaxKeys(100)
+                .setStackTraceDedupEnabled(true)
+                .setStackTraceDedupCacheSize(100)
+                .setHeartbeatEnabled(true)
+                .setHeartbeatInterval(new Duration(1, TimeUnit.SECONDS))
+                .setHeartbeatAllowedDelay(new Duration(2, TimeUnit.SECONDS))
+                .setPulsarSimpleLogBinary(true);
 
         assertFullMapping(properties, expected);
     }
@@ -16,6 +16,7 @@ package jp.co.yahoo.presto.audit;
 import io.airlift.log.Logger;
 import jp.co.yahoo.presto.audit.serializer.SerializedLog;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
@@ -32,11 +33,13 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 
 @Test(singleThreaded = true, threadPoolSize = 1)
 public class TestAuditLogFileWriter
@@ -367,4 +370,54 @@ public class TestAuditLogFileWriter
         verify(spyFileWriter[1], times(1)).write(DATA_B2);
         verify(spyFileWriter[1], times(1)).close();
     }
+
+    @Test
+    public void testPriorityLane() throws Exception
+    {
+        initTest();
+        final String FILE_NAME = "/tmp/file1";
+        final String NORMAL = "{\"state\":\"FINISHED\"}";
+        final String PRIORITY = "{\"state\":\"FAILED\"}";
+
+        WriterFactory writerFactoryMock = mock(WriterFactory.class);
+        final FileWriter[] spyFileWriter = new FileWriter[10];
+        when(writerFactoryMock.getFileWriter(any(String .class))).thenAnswer(i -> {
+            FileWriter fileWriter = new FileWriter((String) i.getArgument(0), true);
+            spyFileWriter[0] = spy(fileWriter);
+            doAnswer((Answer<String>) var1 -> "").when(spyFileWriter[0]).write(anyString());
+            return spyFileWriter[0];
+        });
+
+        // Queue before the writer thread starts, so the lanes decide the order
+        Constructor<AuditLogFileWriter> constructor = AuditLogFileWriter.class.getDeclaredConstructor(WriterFactory.class, Logger.class);
+        constructor.setAccessible(true);
+        AuditLogFileWriter auditLogFileWriter = constructor.newInstance(writerFactoryMock, Logger.get("testPriorityLane"));
+        auditLogFileWriter.write(FILE_NAME, new SerializedLog(QUERY_ID, NORMAL));
+        auditLogFileWriter.write(FILE_NAME, new SerializedLog(QUERY_ID, PRIORITY).setPriority(true));
+        assertEquals(auditLogFileWriter.getPriorityQueueSize(), 1);
+        auditLogFileWriter.start();
+
+        pause();
+        InOrder inOrder = inOrder(spyFileWriter[0]);
+        inOrder.verify(spyFileWriter[0]).write(PRIORITY);
+        inOrder.verify(spyFileWriter[0]).write(NORMAL);
+        assertEquals(auditLogFileWriter.getPriorityQueueingTime().getAllTime().getCount(), 1.0);
+        assertEquals(auditLogFileWriter.getNormalQueueingTime().getAllTime().getCount(), 1.0);
+    }
+
+    @Test
+    public void testFullNormalLaneKeepsPriority() throws Exception
+    {
+        Constructor<AuditLogFileWriter> constructor = AuditLogFileWriter.class.getDeclaredConstructor(WriterFactory.class, Logger.class);
+        constructor.setAccessible(true);
+        AuditLogFileWriter auditLogFileWriter = constructor.newInstance(mock(WriterFactory.class), Logger.get("testFullNormalLaneKeepsPriority"));
+        for (int i = 0; i < 10001; i++) {
+            auditLogFileWriter.write("/tmp/file1", new SerializedLog(QUERY_ID, "data1"));
+        }
+        auditLogFileWriter.write("/tmp/file1", new SerializedLog(QUERY_ID, "failed").setPriority(true));
+        assertEquals(auditLogFileWriter.getDroppedRecords().getTotalCount(), 1);
+        assertEquals(auditLogFileWriter.getDroppedPriorityRecords().getTotalCount(), 0);
+        assertEquals(auditLogFileWriter.getPriorityQueueSize(), 1);
+        assertEquals(auditLogFileWriter.getBacklog(), 1.0);
+    }
 }
@@ -13,16 +13,22 @@
  */
 package jp.co.yahoo.presto.audit;
 
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
 import org.apache.pulsar.client.api.PulsarClientException;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
 
+import java.time.Instant;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
 
 @Test(singleThreaded = true)
 public class TestAuditLogListener
@@ -160,4 +166,61 @@ public class TestAuditLogListener
         verify(auditLogFileWriterMock, times(3)).write(eq("/test/path_full/test-filename.log"), any());
         verify(auditLogFileWriterMock, times(1)).write(eq("/test/path_full/test-filename-full.log"), any());
     }
+
+    @Test
+    public void testQueryCreated()
+            throws PulsarClientException
+    {
+        AuditLogFileWriter auditLogFileWriterMock = mock(AuditLogFileWriter.class);
+        AuditConfig config = new AuditConfig()
+                .setAuditLogFileWriter(auditLogFileWriterMock)
+                .setAuditLogPath("/test/path")
+                .setAuditSimpleLogName("test-filename.log")
+                .setAuditCreatedLogName("test-filename-created.log");
+        AuditLogListener auditLogListener = new AuditLogListener(config);
+
+        auditLogListener.queryCreated(testHelper.createQueryCreatedEvent("20170606_044544_00024_nfhe3", Instant.now()));
+        verify(auditLogFileWriterMock, times(1)).write(eq("/test/path/test-filename-created.log"), any());
+        assertEquals(auditLogListener.getInFlightQueryTracker().getInFlightCount(), 1);
+
+        auditLogListener.queryCompleted(testHelper.createNormalEvent());
+        assertEquals(auditLogListener.getInFlightQueryTracker().getInFlightCount(), 0);
+        verify(auditLogFileWriterMock, times(1)).write(eq("/test/path/test-filename-created.log"), any());
+    }
+
+    @Test
+    public void testQueryCreatedWithoutCreatedLog()
+            throws PulsarClientException
+    {
+        AuditLogFileWriter auditLogFileWriterMock = mock(AuditLogFileWriter.class);
+        AuditLogListener auditLogListener = createSimpleAuditLogListener(auditLogFileWriterMock);
+
+        auditLogListener.queryCreated(testHelper.createQueryCreatedEvent("20170606_044544_00024_nfhe3", Instant.now()));
+        verify(auditLogFileWriterMock, never()).write(any(), any());
+        assertEquals(auditLogListener.getInFlightQueryTracker().getInFlightCount(), 1);
+    }
+
+    @Test
+    public void testSplitStatistics()
+            throws PulsarClientException
+    {
+        AuditLogFileWriter auditLogFileWriterMock = mock(AuditLogFileWriter.class);
+        AuditConfig config = new AuditConfig()
+                .setAuditLogFileWriter(auditLogFileWriterMock)
+                .setAuditLogPath("/test/path")
+                .setAuditSimpleLogName("test-filename.log")
+                .setSplitStatisticsEnabled(true);
+        AuditLogListener auditLogListener = new AuditLogListener(config);
+
+        auditLogListener.queryCreated(testHelper.createQueryCreatedEvent("20170606_044544_00024_nfhe3", Instant.now()));
+        auditLogListener.splitCompleted(testHelper.createSplitCompletedEvent("20170606_044544_00024_nfhe3", 5, 100, 50, false));
+        auditLogListener.splitCompleted(testHelper.createSplitCompletedEvent("20170606_044544_00024_nfhe3", 5, 300, 50, false));
+        auditLogListener.queryCompleted(testHelper.createNormalEvent());
+
+        ArgumentCaptor<SerializedLog> captor = ArgumentCaptor.forClass(SerializedLog.class);
+        verify(auditLogFileWriterMock, times(1)).write(eq("/test/path/test-filename.log"), captor.capture());
+        assertThat(captor.getValue().getSerializedLog())
+                .contains("\"splitStatistics\":{\"splits\":2,\"failedSplits\":0")
+                .contains("\"maxWallTime\":0.3");
+    }
 }
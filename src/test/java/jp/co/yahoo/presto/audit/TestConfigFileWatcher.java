@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.filter.RecordFilter;
+import jp.co.yahoo.presto.audit.sink.LogType;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestConfigFileWatcher
+{
+    private final TestHelper testHelper = new TestHelper();
+    private File directory;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("presto-audit-config").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws IOException
+    {
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testReloadOnChange()
+            throws IOException
+    {
+        File file = new File(directory, "audit-filter.json");
+        write(file, "{\"rules\": []}", 1_000_000);
+        AtomicReference<RecordFilter> filter = new AtomicReference<>(RecordFilter.load(file));
+        AtomicInteger loads = new AtomicInteger();
+        ConfigFileWatcher watcher = new ConfigFileWatcher(new Duration(1, TimeUnit.SECONDS));
+        watcher.watch(file, changed -> {
+            filter.set(RecordFilter.load(changed));
+            loads.incrementAndGet();
+        });
+
+        watcher.poll();
+        assertEquals(loads.get(), 0);
+        assertTrue(filter.get().forSink("file").keep(LogType.FULL, testHelper.createNormalEvent()));
+
+        write(file, "{\"rules\": [{\"user\": \"^test-user$\", \"logTypes\": [\"FULL\"], \"action\": \"DROP\"}]}", 2_000_000);
+        watcher.poll();
+        watcher.poll();
+        assertEquals(loads.get(), 1);
+        assertFalse(filter.get().forSink("file").keep(LogType.FULL, testHelper.createNormalEvent()));
+    }
+
+    @Test
+    public void testInvalidFileKeepsPreviousConfiguration()
+            throws IOException
+    {
+        File file = new File(directory, "audit-filter.json");
+        write(file, "{\"rules\": [{\"action\": \"DROP\"}]}", 1_000_000);
+        AtomicReference<RecordFilter> filter = new AtomicReference<>(RecordFilter.load(file));
+        ConfigFileWatcher watcher = new ConfigFileWatcher(new Duration(1, TimeUnit.SECONDS));
+        watcher.watch(file, changed -> filter.set(RecordFilter.load(changed)));
+
+        write(file, "{\"rules\": [{\"action\": \"SAMPLE\"", 2_000_000);
+        watcher.poll();
+        assertFalse(filter.get().forSink("file").keep(LogType.SIMPLE, testHelper.createNormalEvent()));
+
+        file.delete();
+        watcher.poll();
+        assertFalse(filter.get().forSink("file").keep(LogType.SIMPLE, testHelper.createNormalEvent()));
+    }
+
+    private static void write(File file, String content, long lastModified)
+            throws IOException
+    {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+    }
+}
@@ -17,11 +17,15 @@ import com.facebook.presto.spi.ErrorCode;
 import com.facebook.presto.spi.ErrorType;
 import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
 import com.facebook.presto.spi.eventlistener.QueryContext;
+import com.facebook.presto.spi.eventlistener.QueryCreatedEvent;
 import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
 import com.facebook.presto.spi.eventlistener.QueryIOMetadata;
 import com.facebook.presto.spi.eventlistener.QueryInputMetadata;
 import com.facebook.presto.spi.eventlistener.QueryMetadata;
 import com.facebook.presto.spi.eventlistener.QueryStatistics;
+import com.facebook.presto.spi.eventlistener.SplitCompletedEvent;
+import com.facebook.presto.spi.eventlistener.SplitFailureInfo;
+import com.facebook.presto.spi.eventlistener.SplitStatistics;
 import com.facebook.presto.spi.eventlistener.StageCpuDistribution;
 
 import java.net.URI;
@@ -32,6 +36,7 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 
 public class TestHelper
@@ -144,6 +149,42 @@ public class TestHelper
                 endTime);
     }
 
+    public QueryCreatedEvent createQueryCreatedEvent(String queryId, Instant createTime)
+    {
+        setUp();
+        QueryMetadata metadata = new QueryMetadata(queryId,
+                Optional.of("4c52973c-14c6-4534-837f-238e21d9b061"),
+                "select * from airdelays_s3_csv WHERE kw = 'presto-kw-example' limit 5",
+                "QUEUED",
+                uri,
+                Optional.empty(),
+                Optional.empty());
+        return new QueryCreatedEvent(createTime, context, metadata);
+    }
+
+    public SplitCompletedEvent createSplitCompletedEvent(String queryId, long queuedMillis, long wallMillis, long cpuMillis, boolean failed)
+    {
+        SplitStatistics statistics = new SplitStatistics(
+                Duration.ofMillis(cpuMillis),
+                Duration.ofMillis(wallMillis),
+                Duration.ofMillis(queuedMillis),
+                Duration.ofMillis(cpuMillis),
+                Duration.ofMillis(wallMillis),
+                100,
+                1000,
+                Optional.empty(),
+                Optional.empty());
+        return new SplitCompletedEvent(queryId,
+                "stage",
+                "task",
+                Instant.now(),
+                Optional.empty(),
+                Optional.empty(),
+                statistics,
+                failed ? Optional.of(new SplitFailureInfo("failure", "message")) : Optional.empty(),
+                "payload");
+    }
+
     public QueryCompletedEvent createQueryWithSource(Optional<String> source)
     {
         setUp();
@@ -178,4 +219,39 @@ public class TestHelper
                 executionStartTime,
                 endTime);
     }
+
+    public QueryCompletedEvent createQueryWithInputs(String user, List<QueryInputMetadata> inputs)
+    {
+        setUp();
+        QueryMetadata metadata = new QueryMetadata("20170606_044544_00024_nfhe3",
+                Optional.of("4c52973c-14c6-4534-837f-238e21d9b061"),
+                "select * from airdelays_s3_csv WHERE kw = 'presto-kw-example' limit 5",
+                "FINISHED",
+                uri,
+                Optional.empty(),
+                Optional.empty());
+        QueryContext context = new QueryContext(
+                user,
+                Optional.of("principal"),
+                Optional.of("example.com"),
+                Optional.of("StatementClient 0.167"),
+                Optional.of("clientInfo"),
+                new HashSet<>(),
+                Optional.of("presto-cli"),
+                Optional.of("catalog"),
+                Optional.of("schema"),
+                Optional.of(""),
+                new HashMap<>(),
+                "127.0.0.1",
+                "0.175",
+                "environment");
+        return new QueryCompletedEvent(metadata,
+                statistics,
+                context,
+                new QueryIOMetadata(inputs, Optional.empty()),
+                Optional.empty(),
+                createTime,
+                executionStartTime,
+                endTime);
+    }
 }
@@ -0,0 +1,118 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.access;
+
+import com.facebook.presto.spi.eventlistener.QueryInputMetadata;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAccessIndex
+{
+    private static final QueryInputMetadata ORDERS = new QueryInputMetadata("hive", "sales", "orders", ImmutableList.of("id", "price"), Optional.empty());
+    private static final QueryInputMetadata USERS = new QueryInputMetadata("hive", "sales", "users", ImmutableList.of("id"), Optional.empty());
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testRecord()
+    {
+        AccessIndex index = new AccessIndex(100);
+        index.record(testHelper.createQueryWithInputs("alice", ImmutableList.of(ORDERS, USERS)));
+        index.record(testHelper.createQueryWithInputs("bob", ImmutableList.of(ORDERS)));
+        index.record(testHelper.createQueryWithInputs("alice", ImmutableList.of(ORDERS)));
+
+        AccessStatistics orders = index.getTable("hive.sales.orders").get();
+        assertEquals(orders.getAccessCount(), 3);
+        assertEquals(orders.getDistinctUsers(), 2);
+        assertEquals(orders.getBytes(), 3 * testHelper.createNormalEvent().getStatistics().getTotalBytes());
+        assertEquals(orders.getLastAccessMillis(), testHelper.createNormalEvent().getEndTime().toEpochMilli());
+        assertEquals(index.getColumn("hive.sales.orders", "price").get().getAccessCount(), 3);
+        assertEquals(index.getColumn("hive.sales.users", "id").get().getDistinctUsers(), 1);
+        assertFalse(index.getColumn("hive.sales.users", "price").isPresent());
+        assertEquals(index.getTableCount(), 2);
+        assertEquals(index.getColumnCount(), 3);
+    }
+
+    @Test
+    public void testMaxEntries()
+    {
+        AccessIndex index = new AccessIndex(3);
+        index.record(testHelper.createQueryWithInputs("alice", ImmutableList.of(ORDERS, USERS)));
+        assertEquals(index.getTableCount() + index.getColumnCount(), 3);
+        assertEquals(index.getUntrackedCount(), 2);
+    }
+
+    @Test
+    public void testDistinctCounter()
+    {
+        DistinctCounter counter = new DistinctCounter();
+        for (int i = 0; i < 10_000; i++) {
+            counter.add(Hashing.murmur3_128().hashInt(i).asLong());
+        }
+        assertThat(counter.estimate()).isBetween(8_000L, 12_000L);
+        assertEquals(DistinctCounter.fromBytes(counter.toBytes()).estimate(), counter.estimate());
+    }
+
+    @Test
+    public void testSnapshot()
+            throws IOException
+    {
+        File file = File.createTempFile("access-index", ".json");
+        assertTrue(file.delete());
+        AccessIndex index = new AccessIndex(100);
+        AccessIndexSnapshot snapshot = new AccessIndexSnapshot(index, file, new Duration(1, TimeUnit.MINUTES));
+        snapshot.load();
+
+        index.record(testHelper.createQueryWithInputs("alice", ImmutableList.of(ORDERS, USERS)));
+        snapshot.flush();
+        assertEquals(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size(), 5);
+
+        // Only changed entries are appended
+        index.record(testHelper.createQueryWithInputs("bob", ImmutableList.of(USERS)));
+        snapshot.flush();
+        assertEquals(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size(), 7);
+        snapshot.flush();
+        assertEquals(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size(), 7);
+
+        AccessIndex restored = new AccessIndex(100);
+        new AccessIndexSnapshot(restored, file, new Duration(1, TimeUnit.MINUTES)).load();
+        assertEquals(restored.getTable("hive.sales.users").get().getAccessCount(), 2);
+        assertEquals(restored.getTable("hive.sales.users").get().getDistinctUsers(), 2);
+        assertEquals(restored.getColumn("hive.sales.orders", "price").get().getAccessCount(), 1);
+
+        // Compaction rewrites one line per entry
+        for (int i = 0; i < 3; i++) {
+            index.record(testHelper.createQueryWithInputs("carol", ImmutableList.of(USERS)));
+            snapshot.flush();
+        }
+        snapshot.flush();
+        assertEquals(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size(), 5);
+        assertTrue(file.delete());
+    }
+}
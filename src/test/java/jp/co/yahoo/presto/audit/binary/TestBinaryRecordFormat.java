@@ -0,0 +1,209 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.binary;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import jp.co.yahoo.presto.audit.serializer.SimpleLogSerializer;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestBinaryRecordFormat
+{
+    private final TestHelper testHelper = new TestHelper();
+    private final SimpleLogSerializer simpleLogSerializer = new SimpleLogSerializer();
+    private final Gson gson = new Gson();
+
+    @Test
+    public void testRoundTrip()
+            throws IOException
+    {
+        String normal = simpleLogSerializer.serialize(testHelper.createNormalEvent()).getSerializedLog();
+        String failure = simpleLogSerializer.serialize(testHelper.createFailureEvent()).getSerializedLog();
+        byte[] segment = encode(normal, failure, normal);
+
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(segment))) {
+            assertEquals(toJson(reader.next()), normal);
+            assertEquals(toJson(reader.next()), failure);
+            assertEquals(toJson(reader.next()), normal);
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    @Test
+    public void testSheddingLevel()
+            throws IOException
+    {
+        String shed = simpleLogSerializer.serialize(testHelper.createNormalEvent(), Optional.empty(), 2, true).getSerializedLog();
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(encode(shed)))) {
+            AuditRecord record = reader.next().get();
+            assertEquals(record.getSheddingLevel(), Integer.valueOf(2));
+            assertEquals(toJson(Optional.of(record)), shed);
+        }
+    }
+
+    @Test
+    public void testFailuresHash()
+            throws IOException
+    {
+        AuditRecord record = gson.fromJson(simpleLogSerializer.serialize(testHelper.createFailureEvent()).getSerializedLog(), AuditRecord.class);
+        record.setFailuresJson(null);
+        record.setFailuresHash("5d41402abc4b2a76");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(output)) {
+            writer.write(record);
+        }
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(output.toByteArray()))) {
+            AuditRecord read = reader.next().get();
+            assertEquals(read.getFailuresHash(), "5d41402abc4b2a76");
+            assertEquals(read.getFailuresJson(), null);
+        }
+    }
+
+    @Test
+    public void testReadVersion1()
+            throws IOException
+    {
+        AuditRecord record = gson.fromJson(simpleLogSerializer.serialize(testHelper.createNormalEvent(), Optional.empty(), 2, true).getSerializedLog(), AuditRecord.class);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(output, BinaryRecordFormat.DEFAULT_DICTIONARY_CAPACITY, 1)) {
+            writer.write(record);
+        }
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(output.toByteArray()))) {
+            AuditRecord read = reader.next().get();
+            assertEquals(read.getQueryId(), record.getQueryId());
+            assertEquals(read.getSheddingLevel(), null);
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    @Test
+    public void testSingleRecordEncoding()
+    {
+        SerializedLog log = simpleLogSerializer.serialize(testHelper.createFailureEvent());
+        assertTrue(log.getRecord().isPresent());
+
+        SerializedLog binary = log.withContent(BinaryRecordWriter.encode(log.getRecord().get()), LogEncoding.RECORD);
+        assertEquals(binary.getQueryId(), log.getQueryId());
+        assertEquals(binary.getEventTime(), log.getEventTime());
+        assertTrue(binary.getContent().length < log.getContent().length);
+        assertEquals(binary.getSerializedLog(), log.getSerializedLog());
+    }
+
+    @Test
+    public void testDictionaryShrinksRepeatedRecords()
+            throws IOException
+    {
+        String normal = simpleLogSerializer.serialize(testHelper.createNormalEvent()).getSerializedLog();
+        int first = encode(normal).length;
+        int second = encode(normal, normal).length - first;
+        assertTrue(second < first, "repeated record " + second + " should be smaller than first " + first);
+        assertTrue(first < normal.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void testDictionaryCapacity()
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AuditRecord record = gson.fromJson(simpleLogSerializer.serialize(testHelper.createNormalEvent()).getSerializedLog(), AuditRecord.class);
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(output, 1)) {
+            for (int i = 0; i < 3; i++) {
+                record.setClientUser("user" + i);
+                writer.write(record);
+            }
+        }
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(output.toByteArray()))) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(reader.next().get().getClientUser(), "user" + i);
+            }
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch()
+            throws IOException
+    {
+        String normal = simpleLogSerializer.serialize(testHelper.createNormalEvent()).getSerializedLog();
+        byte[] segment = encode(normal);
+        segment[segment.length - 10] ^= 0x01;
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(segment))) {
+            reader.next();
+            fail("Expected checksum mismatch");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+    }
+
+    @Test
+    public void testBinaryToJson()
+            throws IOException
+    {
+        String normal = simpleLogSerializer.serialize(testHelper.createNormalEvent()).getSerializedLog();
+        String failure = simpleLogSerializer.serialize(testHelper.createFailureEvent()).getSerializedLog();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryToJson.convert(new ByteArrayInputStream(encode(normal, failure)), new PrintStream(output, true, "UTF-8"));
+        assertEquals(new String(output.toByteArray(), StandardCharsets.UTF_8), normal + System.lineSeparator() + failure + System.lineSeparator());
+    }
+
+    @Test
+    public void testVarints()
+            throws IOException
+    {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (long value : values) {
+            Varints.writeVarLong(output, Varints.zigZag(value));
+        }
+        ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+        for (long value : values) {
+            assertEquals(Varints.unZigZag(Varints.readVarLong(input)), value);
+        }
+    }
+
+    private byte[] encode(String... jsons)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(output)) {
+            for (String json : jsons) {
+                writer.write(gson.fromJson(json, AuditRecord.class));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private String toJson(Optional<AuditRecord> record)
+    {
+        assertTrue(record.isPresent());
+        return new GsonBuilder().disableHtmlEscaping().create().toJson(record.get());
+    }
+}
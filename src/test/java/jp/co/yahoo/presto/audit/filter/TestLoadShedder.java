@@ -0,0 +1,115 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.FullLogSerializer;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SlowQueryPolicy;
+import jp.co.yahoo.presto.audit.serializer.SlowQueryThresholds;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static jp.co.yahoo.presto.audit.filter.LoadShedder.NONE;
+import static jp.co.yahoo.presto.audit.filter.LoadShedder.NO_FULL_LOGS;
+import static jp.co.yahoo.presto.audit.filter.LoadShedder.SAMPLED_SIMPLE_LOGS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLoadShedder
+{
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testHysteresis()
+    {
+        LoadShedder shedder = new LoadShedder(0.5, 0.8, 0.2, 0.1);
+        assertEquals(shedder.update(0.4), NONE);
+        assertEquals(shedder.update(0.5), NO_FULL_LOGS);
+        assertEquals(shedder.update(0.4), NO_FULL_LOGS);
+        assertEquals(shedder.update(0.9), SAMPLED_SIMPLE_LOGS);
+        assertEquals(shedder.update(0.7), SAMPLED_SIMPLE_LOGS);
+        assertEquals(shedder.update(0.5), NO_FULL_LOGS);
+        assertEquals(shedder.update(0.6), NO_FULL_LOGS);
+        assertEquals(shedder.update(0.29), NONE);
+        assertEquals(shedder.update(0.95), SAMPLED_SIMPLE_LOGS);
+        assertEquals(shedder.update(0.0), NONE);
+        assertEquals(shedder.getLevel(), NONE);
+    }
+
+    @Test
+    public void testFailuresAreNeverShed()
+    {
+        LoadShedder shedder = new LoadShedder(0.5, 0.8, 0.2, 0.0);
+        assertTrue(shedder.keepFullLog(SAMPLED_SIMPLE_LOGS, true));
+        assertTrue(shedder.keepSimpleLog(testHelper.createFailureEvent(), SAMPLED_SIMPLE_LOGS, true));
+
+        assertTrue(shedder.keepFullLog(NONE, false));
+        assertFalse(shedder.keepFullLog(NO_FULL_LOGS, false));
+        assertTrue(shedder.keepSimpleLog(testHelper.createNormalEvent(), NO_FULL_LOGS, false));
+        assertFalse(shedder.keepSimpleLog(testHelper.createNormalEvent(), SAMPLED_SIMPLE_LOGS, false));
+        assertEquals(shedder.getShedFullLogs().getTotalCount(), 1);
+        assertEquals(shedder.getShedSimpleLogs().getTotalCount(), 1);
+
+        LoadShedder keepAll = new LoadShedder(0.5, 0.8, 0.2, 1.0);
+        assertTrue(keepAll.keepSimpleLog(testHelper.createNormalEvent(), SAMPLED_SIMPLE_LOGS, false));
+    }
+
+    @Test
+    public void testSlowQueriesAreNeverShed()
+    {
+        LoadShedder shedder = new LoadShedder(0.5, 0.8, 0.2, 0.0);
+        SlowQueryThresholds thresholds = new SlowQueryThresholds(Optional.of(new Duration(1, TimeUnit.MILLISECONDS)), Optional.empty(), Optional.empty(), Optional.empty());
+        SlowQueryPolicy slowQueryPolicy = new SlowQueryPolicy(thresholds, ImmutableMap.of(), ImmutableMap.of());
+        FullLogSerializer serializer = new FullLogSerializer(Optional.empty(), LogEncoding.JSON, Optional.of(slowQueryPolicy), Optional.empty());
+        QueryCompletedEvent slowQuery = testHelper.createNormalEvent();
+        boolean priority = serializer.isFailedOrSlow(slowQuery);
+        assertTrue(priority);
+        assertTrue(shedder.keepFullLog(SAMPLED_SIMPLE_LOGS, priority));
+        assertTrue(shedder.keepSimpleLog(slowQuery, SAMPLED_SIMPLE_LOGS, priority));
+        assertEquals(shedder.getShedFullLogs().getTotalCount(), 0);
+        assertEquals(shedder.getShedSimpleLogs().getTotalCount(), 0);
+    }
+
+    @Test
+    public void testSampleIsIndependentOfFilterSample()
+    {
+        int filterSampled = 0;
+        int bothSampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String queryId = String.format("20180101_000000_%05d_abcde", i);
+            if (Sampling.isSampled(queryId, 0.5)) {
+                filterSampled++;
+                if (Sampling.isSampled(queryId, LoadShedder.SAMPLING_SALT, 0.5)) {
+                    bothSampled++;
+                }
+            }
+        }
+        // Nested samples would keep every query of the filter sample
+        assertThat((double) bothSampled / filterSampled).isBetween(0.48, 0.52);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidWatermarks()
+    {
+        new LoadShedder(0.8, 0.5, 0.2, 0.1);
+    }
+}
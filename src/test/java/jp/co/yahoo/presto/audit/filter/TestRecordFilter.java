@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.filter;
+
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.sink.LogType;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRecordFilter
+{
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testFirstMatchingRuleDecides()
+            throws IOException
+    {
+        RecordFilter filter = RecordFilter.parse("{\"rules\": ["
+                + "{\"source\": \"^health\", \"failed\": true, \"action\": \"KEEP\"},"
+                + "{\"source\": \"^health\", \"action\": \"DROP\"}]}");
+        SinkFilter sinkFilter = filter.forSink("file");
+        assertFalse(sinkFilter.keep(LogType.SIMPLE, testHelper.createQueryWithSource(Optional.of("health-check"))));
+        assertTrue(sinkFilter.keep(LogType.SIMPLE, testHelper.createQueryWithSource(Optional.of("presto-cli"))));
+        assertTrue(sinkFilter.keep(LogType.SIMPLE, testHelper.createQueryWithSource(Optional.empty())));
+    }
+
+    @Test
+    public void testConditions()
+            throws IOException
+    {
+        assertTrue(keepsNormal("{\"user\": \"^test-user$\", \"state\": \"FINISHED\", \"catalog\": \"catalog\", \"action\": \"DROP\"}", false));
+        assertTrue(keepsNormal("{\"user\": \"^alice$\", \"action\": \"DROP\"}", true));
+        assertTrue(keepsNormal("{\"minWallTime\": \"100ms\", \"maxWallTime\": \"1s\", \"action\": \"DROP\"}", false));
+        assertTrue(keepsNormal("{\"minWallTime\": \"1s\", \"action\": \"DROP\"}", true));
+        assertTrue(keepsNormal("{\"maxInputBytes\": \"1kB\", \"action\": \"DROP\"}", true));
+        assertTrue(keepsNormal("{\"minCpuTime\": \"50ms\", \"action\": \"DROP\"}", false));
+
+        RecordFilter filter = RecordFilter.parse("{\"rules\": [{\"errorCodes\": [1, 2], \"action\": \"DROP\"}]}");
+        assertFalse(filter.forSink("file").keep(LogType.SIMPLE, testHelper.createFailureEvent()));
+        assertTrue(filter.forSink("file").keep(LogType.SIMPLE, testHelper.createNormalEvent()));
+    }
+
+    @Test
+    public void testSinksAndLogTypes()
+            throws IOException
+    {
+        RecordFilter filter = RecordFilter.parse("{\"rules\": [{\"sinks\": [\"pulsar\"], \"logTypes\": [\"full\"], \"action\": \"DROP\"}]}");
+        assertFalse(filter.forSink("pulsar").keep(LogType.FULL, testHelper.createNormalEvent()));
+        assertTrue(filter.forSink("pulsar").keep(LogType.SIMPLE, testHelper.createNormalEvent()));
+        assertTrue(filter.forSink("file").keep(LogType.FULL, testHelper.createNormalEvent()));
+        assertTrue(filter.forAllSinks().keep(LogType.FULL, testHelper.createNormalEvent()));
+    }
+
+    @Test
+    public void testSampling()
+    {
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String queryId = String.format("20180101_000000_%05d_abcde", i);
+            if (Sampling.isSampled(queryId, 0.01)) {
+                sampled++;
+                // Kept at a lower rate implies kept at any higher rate
+                assertTrue(Sampling.isSampled(queryId, 0.5));
+            }
+        }
+        assertThat(sampled).isBetween(800, 1200);
+        assertEquals(Sampling.isSampled("20180101_000000_00001_abcde", 0.3), Sampling.isSampled("20180101_000000_00001_abcde", 0.3));
+        assertFalse(Sampling.isSampled("20180101_000000_00001_abcde", 0.0));
+        assertTrue(Sampling.isSampled("20180101_000000_00001_abcde", 1.0));
+    }
+
+    @Test
+    public void testSampleRuleAgreesAcrossSinks()
+            throws IOException
+    {
+        RecordFilter filter = RecordFilter.parse("{\"rules\": [{\"action\": \"SAMPLE\", \"rate\": 0.5}]}");
+        boolean expected = Sampling.isSampled(testHelper.createNormalEvent().getMetadata().getQueryId(), 0.5);
+        assertEquals(filter.forSink("file").keep(LogType.SIMPLE, testHelper.createNormalEvent()), expected);
+        assertEquals(filter.forSink("pulsar").keep(LogType.SIMPLE, testHelper.createNormalEvent()), expected);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidRule()
+            throws IOException
+    {
+        RecordFilter.parse("{\"rules\": [{\"action\": \"DROP\", \"rate\": 0.5}]}");
+    }
+
+    private boolean keepsNormal(String rule, boolean expected)
+            throws IOException
+    {
+        RecordFilter filter = RecordFilter.parse("{\"rules\": [" + rule + "]}");
+        return filter.forSink("file").keep(LogType.SIMPLE, testHelper.createNormalEvent()) == expected;
+    }
+}
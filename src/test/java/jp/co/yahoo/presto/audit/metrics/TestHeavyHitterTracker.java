@@ -0,0 +1,104 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.metrics.HeavyHitterTracker.Resource;
+import jp.co.yahoo.presto.audit.metrics.HeavyHitterTracker.Subject;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHeavyHitterTracker
+{
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testSpaceSaving()
+    {
+        SpaceSaving sketch = new SpaceSaving(5);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("heavy", 10, null);
+            sketch.add("medium", 3, null);
+            sketch.add("light-" + i, 1, null);
+        }
+        List<HeavyHitter> top = sketch.top(2);
+        assertEquals(top.get(0).getKey(), "heavy");
+        assertTrue(top.get(0).getValue() - top.get(0).getError() <= 10_000);
+        assertTrue(top.get(0).getValue() >= 10_000);
+        assertEquals(top.get(1).getKey(), "medium");
+    }
+
+    @Test
+    public void testSpaceSavingTakesOverSmallest()
+    {
+        SpaceSaving sketch = new SpaceSaving(3);
+        sketch.add("a", 5, null);
+        sketch.add("b", 1, null);
+        sketch.add("c", 3, null);
+        sketch.add("d", 1, null);
+        sketch.add("e", 1, null);
+
+        List<HeavyHitter> top = sketch.top(3);
+        assertEquals(top.get(0).getKey(), "a");
+        assertEquals(top.get(0).getValue(), 5);
+        // d took over b, then e took over d
+        HeavyHitter e = top.stream().filter(hitter -> hitter.getKey().equals("e")).findFirst().get();
+        assertEquals(e.getValue(), 3);
+        assertEquals(e.getError(), 2);
+        assertTrue(top.stream().anyMatch(hitter -> hitter.getKey().equals("c")));
+    }
+
+    @Test
+    public void testRotate()
+            throws IOException
+    {
+        File file = File.createTempFile("heavy-hitters", ".json");
+        HeavyHitterTracker tracker = new HeavyHitterTracker(10, 2, new Duration(1, TimeUnit.MINUTES), Optional.of(file));
+        tracker.record(testHelper.createQueryWithSource(Optional.of("source-1")));
+        tracker.record(testHelper.createQueryWithSource(Optional.of("source-2")));
+        tracker.record(testHelper.createQueryWithSource(Optional.of("source-2")));
+        assertTrue(tracker.getRanking(Resource.CPU_TIME).getLastWindow(Subject.SOURCE).isEmpty());
+
+        tracker.rotate(60_000);
+        List<HeavyHitter> sources = tracker.getRanking(Resource.CPU_TIME).getLastWindow(Subject.SOURCE);
+        assertEquals(sources.get(0).getKey(), "source-2");
+        assertEquals(sources.get(0).getValue(), 2 * sources.get(1).getValue());
+        assertEquals(tracker.getCpuTime().getUsers(), "test-user=" + 3 * sources.get(1).getValue());
+
+        HeavyHitter fingerprint = tracker.getRanking(Resource.PEAK_MEMORY).getLastWindow(Subject.FINGERPRINT).get(0);
+        assertEquals(fingerprint.getSample(), "select * from airdelays_s3_csv where kw = ? limit ?");
+
+        JsonObject dump = new JsonParser().parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(dump.get("windowEnd").getAsDouble(), 60.0);
+        assertEquals(dump.getAsJsonObject("cpuTime").getAsJsonArray("sources").get(0).getAsJsonObject().get("key").getAsString(), "source-2");
+
+        // Next window starts empty
+        tracker.rotate(120_000);
+        assertTrue(tracker.getRanking(Resource.CPU_TIME).getLastWindow(Subject.SOURCE).isEmpty());
+        assertTrue(file.delete());
+    }
+}
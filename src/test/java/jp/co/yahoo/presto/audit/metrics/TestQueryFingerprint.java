@@ -0,0 +1,43 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import org.testng.annotations.Test;
+
+import static jp.co.yahoo.presto.audit.metrics.QueryFingerprint.fingerprint;
+import static jp.co.yahoo.presto.audit.metrics.QueryFingerprint.normalize;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+public class TestQueryFingerprint
+{
+    @Test
+    public void testNormalize()
+    {
+        assertEquals(normalize("SELECT *  FROM t1\n WHERE kw = 'presto' AND id > 10.5"),
+                "select * from t1 where kw = ? and id > ?");
+        assertEquals(normalize("select a from t where id in (1, 2,3) -- comment\nlimit 5"),
+                "select a from t where id in (?) limit ?");
+        assertEquals(normalize("select /* hint */ \"Col1\" from t where s = 'it''s'"),
+                "select \"col1\" from t where s = ?");
+    }
+
+    @Test
+    public void testFingerprint()
+    {
+        assertEquals(fingerprint("select * from t where id = 1"), fingerprint("SELECT * FROM t WHERE id = 42"));
+        assertNotEquals(fingerprint("select * from t1 where id = 1"), fingerprint("select * from t2 where id = 1"));
+        assertEquals(fingerprint("select 1").length(), 16);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.metrics;
+
+import jp.co.yahoo.presto.audit.TestHelper;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestQueryMetricsCollector
+{
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testRecord()
+    {
+        QueryMetricsCollector collector = new QueryMetricsCollector(10);
+        collector.record(testHelper.createNormalEvent());
+        collector.record(testHelper.createNormalEvent());
+        collector.record(testHelper.createFailureEvent());
+        collector.tick();
+
+        assertEquals(collector.getMetrics(Dimension.ALL, "all").get().getWallTime().getOneMinute().getCount(), 3);
+        assertEquals(collector.getMetrics(Dimension.USER, "test-user").get().getCpuTime().getOneHour().getCount(), 3);
+        assertEquals(collector.getMetrics(Dimension.SOURCE, "presto-cli").get().getQueuedTime().getFiveMinutes().getCount(), 3);
+        assertEquals(collector.getMetrics(Dimension.STATE, "FINISHED").get().getPeakMemory().getOneMinute().getCount(), 2);
+        assertEquals(collector.getMetrics(Dimension.STATE, "FAILED").get().getPeakMemory().getOneMinute().getCount(), 1);
+
+        WindowStatistics wallTime = collector.getMetrics(Dimension.ALL, "all").get().getWallTime().getOneMinute();
+        assertThat(wallTime.getP50()).isBetween(180L, 220L);
+        assertThat(wallTime.getP99()).isBetween(180L, 220L);
+    }
+
+    @Test
+    public void testMaxKeys()
+    {
+        QueryMetricsCollector collector = new QueryMetricsCollector(1);
+        collector.record(testHelper.createQueryWithSource(Optional.of("source-1")));
+        collector.record(testHelper.createQueryWithSource(Optional.of("source-2")));
+        collector.record(testHelper.createQueryWithSource(Optional.of("source-3")));
+        collector.tick();
+
+        assertTrue(collector.getMetrics(Dimension.SOURCE, "source-1").isPresent());
+        assertFalse(collector.getMetrics(Dimension.SOURCE, "source-2").isPresent());
+        assertEquals(collector.getMetrics(Dimension.SOURCE, QueryMetricsCollector.OTHER_KEY).get().getWallTime().getOneMinute().getCount(), 2);
+    }
+
+    @Test
+    public void testWindows()
+    {
+        RollingHistogram histogram = new RollingHistogram();
+        histogram.record(100);
+        for (int i = 0; i < 4; i++) {
+            histogram.tick();
+        }
+        assertEquals(histogram.getOneMinute().getCount(), 1);
+
+        histogram.tick();
+        assertEquals(histogram.getOneMinute().getCount(), 0);
+        assertEquals(histogram.getFiveMinutes().getCount(), 1);
+        assertEquals(histogram.getOneHour().getCount(), 1);
+
+        for (int i = 5; i < 20; i++) {
+            histogram.tick();
+        }
+        assertEquals(histogram.getFiveMinutes().getCount(), 1);
+        histogram.tick();
+        assertEquals(histogram.getFiveMinutes().getCount(), 0);
+        assertEquals(histogram.getOneHour().getCount(), 1);
+    }
+
+    @Test
+    public void testIdleKeysRemoved()
+    {
+        QueryMetricsCollector collector = new QueryMetricsCollector(10);
+        collector.record(testHelper.createNormalEvent());
+        for (int i = 0; i < 240; i++) {
+            collector.tick();
+        }
+        assertTrue(collector.getMetrics(Dimension.USER, "test-user").isPresent());
+
+        collector.tick();
+        assertFalse(collector.getMetrics(Dimension.USER, "test-user").isPresent());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.stream.Collectors.toList;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * In-memory stand-in for a Pulsar producer. Sends fail while the broker is marked unavailable.
+ */
+public class LocalPulsarProducer
+{
+    private final Producer producer = mock(Producer.class);
+    private final List<Message> messages = new CopyOnWriteArrayList<>();
+    private volatile boolean available = true;
+
+    public LocalPulsarProducer()
+    {
+        when(producer.sendAsync(any(Message.class))).thenAnswer(invocation -> {
+            CompletableFuture<MessageId> future = new CompletableFuture<>();
+            if (!available) {
+                future.completeExceptionally(new PulsarClientException("Mock broker unavailable"));
+                return future;
+            }
+            messages.add(invocation.getArgument(0));
+            future.complete(mock(MessageId.class));
+            return future;
+        });
+    }
+
+    public Producer getProducer()
+    {
+        return producer;
+    }
+
+    public void setAvailable(boolean available)
+    {
+        this.available = available;
+    }
+
+    public List<String> getMessages()
+    {
+        return messages.stream()
+                .map(message -> new String(message.getData(), StandardCharsets.UTF_8))
+                .collect(toList());
+    }
+
+    public List<Message> getRawMessages()
+    {
+        return messages;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static jp.co.yahoo.presto.audit.pulsar.CircuitBreaker.State.CLOSED;
+import static jp.co.yahoo.presto.audit.pulsar.CircuitBreaker.State.HALF_OPEN;
+import static jp.co.yahoo.presto.audit.pulsar.CircuitBreaker.State.OPEN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCircuitBreaker
+{
+    @Test
+    public void testOpensAfterConsecutiveFailures()
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, 10, TimeUnit.SECONDS, new TestingTicker());
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertEquals(circuitBreaker.getState(), CLOSED);
+        assertTrue(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordFailure();
+        assertEquals(circuitBreaker.getState(), OPEN);
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(circuitBreaker.getOpenedCount(), 1);
+        assertEquals(circuitBreaker.getShortCircuitedCount(), 1);
+    }
+
+    @Test
+    public void testHalfOpenProbe()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 10, TimeUnit.SECONDS, ticker);
+        circuitBreaker.recordFailure();
+        assertFalse(circuitBreaker.allowRequest());
+
+        // Only one probe is let through after the open duration
+        ticker.increment(10, TimeUnit.SECONDS);
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(circuitBreaker.getState(), HALF_OPEN);
+        assertFalse(circuitBreaker.allowRequest());
+
+        // Failed probe opens the breaker again
+        circuitBreaker.recordFailure();
+        assertEquals(circuitBreaker.getState(), OPEN);
+        ticker.increment(5, TimeUnit.SECONDS);
+        assertFalse(circuitBreaker.allowRequest());
+
+        // Successful probe closes the breaker
+        ticker.increment(5, TimeUnit.SECONDS);
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertEquals(circuitBreaker.getState(), CLOSED);
+        assertTrue(circuitBreaker.allowRequest());
+
+        assertEquals(circuitBreaker.getOpenedCount(), 2);
+        assertEquals(circuitBreaker.getHalfOpenedCount(), 2);
+        assertEquals(circuitBreaker.getClosedCount(), 1);
+    }
+}
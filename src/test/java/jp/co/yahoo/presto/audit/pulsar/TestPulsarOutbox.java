@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestPulsarOutbox
+{
+    private File directory;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws IOException
+    {
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testAppendPeekAcknowledge()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        assertTrue(outbox.isEmpty());
+        assertFalse(outbox.peek().isPresent());
+
+        assertTrue(outbox.append(message("query_1", "{\"a\":\"1\"}")));
+        assertTrue(outbox.append(message("query_2", "{\"a\":\"2\"}")));
+        assertFalse(outbox.isEmpty());
+
+        // peek is idempotent until acknowledged
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "query_1");
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "query_1");
+        outbox.acknowledge();
+
+        SerializedLog second = outbox.peek().get().getLog();
+        assertEquals(second.getQueryId(), "query_2");
+        assertEquals(second.getSerializedLog(), "{\"a\":\"2\"}");
+        outbox.acknowledge();
+
+        assertFalse(outbox.peek().isPresent());
+        assertTrue(outbox.isEmpty());
+        outbox.close();
+    }
+
+    @Test
+    public void testSequenceIdAndRoutingMetadata()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        Instant endTime = Instant.ofEpochMilli(1500000000000L);
+        assertTrue(outbox.append(new SequencedMessage(42, new SerializedLog("query_1", "{}", Optional.of("alice"), Optional.empty(), Optional.of(endTime)))));
+
+        assertEquals(outbox.peek().get().getSequenceId(), 42);
+        SerializedLog message = outbox.peek().get().getLog();
+        assertEquals(message.getUser(), Optional.of("alice"));
+        assertEquals(message.getSource(), Optional.empty());
+        assertEquals(message.getEventTime(), Optional.of(endTime));
+        assertEquals(message.getEncoding(), LogEncoding.JSON);
+        assertEquals(message.getPartition(), Optional.empty());
+
+        outbox.acknowledge();
+        assertTrue(outbox.append(new SequencedMessage(43, new SerializedLog("heartbeat", "{}").setPartition(2))));
+        assertEquals(outbox.peek().get().getLog().getPartition(), Optional.of(2));
+        outbox.close();
+    }
+
+    @Test
+    public void testHeadEventTime()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        assertEquals(outbox.getHeadEventTime(), Optional.empty());
+        Instant first = Instant.ofEpochMilli(1500000000000L);
+        Instant second = Instant.ofEpochMilli(1500000001000L);
+        assertTrue(outbox.append(new SequencedMessage(1, new SerializedLog("query_1", "{}", Optional.empty(), Optional.empty(), Optional.of(first)))));
+        assertTrue(outbox.append(new SequencedMessage(2, new SerializedLog("query_2", "{}", Optional.empty(), Optional.empty(), Optional.of(second)))));
+        assertEquals(outbox.getHeadEventTime(), Optional.of(first));
+
+        // Reading the head does not disturb the replay
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "query_1");
+        assertEquals(outbox.getHeadEventTime(), Optional.of(first));
+        outbox.acknowledge();
+        assertEquals(outbox.getHeadEventTime(), Optional.of(second));
+        outbox.close();
+    }
+
+    @Test
+    public void testBinaryContent()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        byte[] content = {':', ')', '\n', 0x05, (byte) 0xfa};
+        assertTrue(outbox.append(new SequencedMessage(1, new SerializedLog("query_1", content, LogEncoding.SMILE, Optional.empty(), Optional.empty(), Optional.empty()))));
+
+        SerializedLog message = outbox.peek().get().getLog();
+        assertEquals(message.getEncoding(), LogEncoding.SMILE);
+        assertEquals(message.getContent(), content);
+        outbox.close();
+    }
+
+    @Test
+    public void testSegmentRollAndDelete()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 100, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            outbox.append(message("query_" + i, "{\"data\":\"0123456789012345678901234567890123456789\"}"));
+        }
+        assertEquals(outbox.getSegmentCount(), 10);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(outbox.peek().get().getLog().getQueryId(), "query_" + i);
+            outbox.acknowledge();
+        }
+        assertFalse(outbox.peek().isPresent());
+        assertEquals(outbox.getSegmentCount(), 1);
+        outbox.close();
+    }
+
+    @Test
+    public void testRecoverAfterRestart()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 100, 1024 * 1024);
+        for (int i = 0; i < 5; i++) {
+            outbox.append(message("query_" + i, "{\"data\":\"0123456789012345678901234567890123456789\"}"));
+        }
+        outbox.peek();
+        outbox.acknowledge();
+        outbox.peek();
+        outbox.acknowledge();
+        outbox.close();
+
+        PulsarOutbox recovered = new PulsarOutbox(directory, 100, 1024 * 1024);
+        recovered.append(message("query_5", "{}"));
+        for (int i = 2; i < 6; i++) {
+            Optional<SequencedMessage> record = recovered.peek();
+            assertEquals(record.get().getLog().getQueryId(), "query_" + i);
+            recovered.acknowledge();
+        }
+        assertFalse(recovered.peek().isPresent());
+        assertTrue(recovered.isEmpty());
+        recovered.close();
+    }
+
+    @Test
+    public void testMaxSize()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024, 150);
+        assertTrue(outbox.append(message("query_1", "{\"data\":\"0123456789\"}")));
+        assertTrue(outbox.append(message("query_2", "{\"data\":\"0123456789\"}")));
+        assertFalse(outbox.append(message("query_3", "{\"data\":\"0123456789\"}")));
+
+        // Space is released on acknowledgement
+        outbox.peek();
+        outbox.acknowledge();
+        assertTrue(outbox.append(message("query_3", "{\"data\":\"0123456789\"}")));
+        outbox.close();
+    }
+
+    @Test
+    public void testNegativeLengthIsCorruption()
+            throws IOException
+    {
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        assertTrue(outbox.append(message("query_1", "{}")));
+        outbox.close();
+
+        // Torn header with a negative length
+        File segment = new File(directory, String.format("%020d.segment", 0));
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(segment, true))) {
+            output.writeInt(-5);
+            output.writeLong(0);
+        }
+
+        outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        assertTrue(outbox.append(message("query_2", "{}")));
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "query_1");
+        outbox.acknowledge();
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "query_2");
+        outbox.acknowledge();
+        assertTrue(outbox.isEmpty());
+        outbox.close();
+    }
+
+    private static SequencedMessage message(String queryId, String json)
+    {
+        return new SequencedMessage(SequencedMessage.NO_SEQUENCE_ID, new SerializedLog(queryId, json));
+    }
+}
@@ -1,21 +1,39 @@
 package jp.co.yahoo.presto.audit.pulsar;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
 import jp.co.yahoo.presto.audit.serializer.SerializedLog;
 import org.apache.pulsar.client.api.ClientConfiguration;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.ProducerConfiguration;
+import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.impl.auth.AuthenticationAthenz;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.stream.Collectors.toList;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class TestPulsarProducer
 {
@@ -46,6 +64,7 @@ public class TestPulsarProducer
 
         assert(mockConf == conf);
         verify(mockConf).setSendTimeout(3, TimeUnit.SECONDS);
+        verify(mockConf).setMessageRoutingMode(ProducerConfiguration.MessageRoutingMode.RoundRobinPartition);
     }
 
     @Test
@@ -54,10 +73,43 @@ public class TestPulsarProducer
         ProducerConfiguration mockConf = mock(ProducerConfiguration.class);
         ProducerConfiguration conf = new PulsarProducer.Builder()
                 .setSendTimeout(30, TimeUnit.MILLISECONDS)
+                .setRoutingMode(RoutingMode.SINGLE_PARTITION)
                 .buildProducerConfiguration(mockConf);
 
         assert(mockConf == conf);
         verify(mockConf).setSendTimeout(30, TimeUnit.MILLISECONDS);
+        verify(mockConf).setMessageRoutingMode(ProducerConfiguration.MessageRoutingMode.SinglePartition);
+    }
+
+    @Test
+    public void TestProducerConfigurationBuilderPartitions()
+    {
+        ProducerConfiguration mockConf = mock(ProducerConfiguration.class);
+        new PulsarProducer.Builder()
+                .setPartitions(4)
+                .buildProducerConfiguration(mockConf);
+
+        verify(mockConf).setMessageRoutingMode(ProducerConfiguration.MessageRoutingMode.CustomPartition);
+        verify(mockConf).setMessageRouter(any(PartitionRouter.class));
+    }
+
+    @Test
+    public void TestPulsarProducerSendToAllPartitions()
+            throws PulsarClientException
+    {
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.USER, 3, Optional.empty(), Optional.empty(), Optional.empty());
+        pulsarProducer.sendToAllPartitions(new SerializedLog("heartbeat", "{\"eventType\":\"Heartbeat\"}", Optional.of("alice"), Optional.empty(), Optional.empty())).join();
+
+        // Each partition receives one heartbeat, keys and the routing mode notwithstanding
+        PartitionRouter router = new PartitionRouter(3, RoutingMode.SINGLE_PARTITION);
+        assertEquals(localProducer.getRawMessages().stream().map(router::choosePartition).sorted().collect(toList()), ImmutableList.of(0, 1, 2));
+
+        // Other messages are routed as before
+        pulsarProducer.send(new SerializedLog("queryID", "{}", Optional.of("alice"), Optional.empty(), Optional.empty()));
+        Message message = localProducer.getRawMessages().get(3);
+        assertFalse(message.hasProperty(PartitionRouter.PARTITION_PROPERTY));
+        assertEquals(router.choosePartition(message), Math.floorMod("alice".hashCode(), 3));
     }
 
     @Test(expectedExceptions = PulsarClientException.class)
@@ -66,25 +118,358 @@ public class TestPulsarProducer
     {
         new PulsarProducer.Builder()
                 .setURL("pulsar+ssl://pulsar.cluster.com:6651")
-                .setTopic("persistent://namespace/global/test/topic1").build();
+                .setTopic("persistent://namespace/global/test/topic1").build()
+                .connect();
+    }
+
+    @Test
+    public void TestPulsarProducerConnectFailureClosesClient()
+            throws Exception
+    {
+        PulsarClient client = mock(PulsarClient.class);
+        PulsarProducer.Connector connector = mock(PulsarProducer.Connector.class);
+        when(connector.createClient()).thenReturn(client);
+        when(connector.createProducer(client)).thenThrow(new PulsarClientException("Mock lookup failure"));
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.of(connector), null, MessageKey.NONE, 1, Optional.empty(), Optional.empty(), Optional.empty());
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                pulsarProducer.connect();
+                fail("Expected connect to fail");
+            }
+            catch (PulsarClientException expected) {
+            }
+        }
+        verify(client, times(3)).close();
+        assertFalse(pulsarProducer.isConnected());
+    }
+
+    @Test
+    public void TestPulsarProducerConnectAfterClose()
+            throws Exception
+    {
+        PulsarProducer.Connector connector = mock(PulsarProducer.Connector.class);
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.of(connector), null, MessageKey.NONE, 1, Optional.empty(), Optional.empty(), Optional.empty());
+        pulsarProducer.close();
+
+        assertFalse(pulsarProducer.connect());
+        verify(connector, times(0)).createClient();
+        assertFalse(pulsarProducer.isConnected());
+    }
+
+    @Test
+    public void TestPulsarProducerSpillsToOutboxUntilConnected()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarClient client = mock(PulsarClient.class);
+        PulsarProducer.Connector connector = mock(PulsarProducer.Connector.class);
+        when(connector.createClient()).thenReturn(client);
+        when(connector.createProducer(client)).thenReturn(localProducer.getProducer());
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.of(connector), null, MessageKey.NONE, 1, Optional.of(outbox), Optional.empty(), Optional.empty());
+
+        pulsarProducer.send(new SerializedLog("queryID_1", "{\"a\":\"1\"}"));
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "queryID_1");
+        assertEquals(pulsarProducer.getDroppedMessages().getTotalCount(), 0);
+        assertEquals(pulsarProducer.getSendFailures().getTotalCount(), 0);
+
+        assertTrue(pulsarProducer.connect());
+        assertTrue(pulsarProducer.isConnected());
+        pulsarProducer.sendDirect(outbox.peek().get());
+        outbox.acknowledge();
+        pulsarProducer.send(new SerializedLog("queryID_2", "{\"a\":\"2\"}"));
+        assertEquals(localProducer.getMessages().get(0), "{\"a\":\"1\"}");
+        assertEquals(localProducer.getMessages().get(1), "{\"a\":\"2\"}");
+
+        pulsarProducer.close();
+        verify(client).close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
     }
 
     @Test
     public void TestPulsarProducer()
     {
         Producer producer = mock(Producer.class);
+        when(producer.sendAsync(any(Message.class)))
+                .thenReturn(CompletableFuture.completedFuture(mock(MessageId.class)));
         PulsarProducer pulsarProducer = new PulsarProducer(producer);
         pulsarProducer.send(new SerializedLog("queryID", "{\"a\":\"b\"}"));
     }
 
+    @Test
+    public void TestPulsarProducerMessageKeyAndProperties()
+            throws PulsarClientException
+    {
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.USER, 1, Optional.empty(), Optional.empty(), Optional.empty());
+        Instant endTime = Instant.ofEpochMilli(1500000000000L);
+        pulsarProducer.send(new SerializedLog("queryID", "{\"a\":\"b\"}", Optional.of("alice"), Optional.of("presto-cli"), Optional.of(endTime)));
+
+        Message message = localProducer.getRawMessages().get(0);
+        assertEquals(message.getKey(), "alice");
+        assertEquals(message.getEventTime(), 1500000000000L);
+        assertEquals(message.getProperty("queryId"), "queryID");
+        assertEquals(message.getProperty("user"), "alice");
+        assertEquals(message.getProperty("source"), "presto-cli");
+        assertFalse(message.hasProperty("contentType"));
+    }
+
+    @Test
+    public void TestPulsarProducerBinaryContent()
+            throws PulsarClientException
+    {
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.NONE, 1, Optional.empty(), Optional.empty(), Optional.empty());
+        byte[] content = {':', ')', '\n', 0x05};
+        pulsarProducer.send(new SerializedLog("queryID", content, LogEncoding.SMILE, Optional.empty(), Optional.empty(), Optional.empty()));
+
+        Message message = localProducer.getRawMessages().get(0);
+        assertEquals(message.getData(), content);
+        assertEquals(message.getProperty("contentType"), "application/x-jackson-smile");
+    }
+
+    @Test
+    public void TestMessageKeyExtract()
+    {
+        SerializedLog log = new SerializedLog("queryID", "{}", Optional.of("alice"), Optional.of("presto-cli"), Optional.empty());
+        SerializedLog anonymous = new SerializedLog("queryID", "{}");
+
+        assertFalse(MessageKey.NONE.extract(log).isPresent());
+        assertEquals(MessageKey.QUERY_ID.extract(log).get(), "queryID");
+        assertEquals(MessageKey.USER.extract(log).get(), "alice");
+        assertEquals(MessageKey.SOURCE.extract(log).get(), "presto-cli");
+        assertFalse(MessageKey.SOURCE.extract(anonymous).isPresent());
+        assertEquals(MessageKey.USER_SOURCE_HASH.extract(log), MessageKey.USER_SOURCE_HASH.extract(
+                new SerializedLog("otherQueryID", "{}", Optional.of("alice"), Optional.of("presto-cli"), Optional.empty())));
+        assertFalse(MessageKey.USER_SOURCE_HASH.extract(log).equals(MessageKey.USER_SOURCE_HASH.extract(
+                new SerializedLog("queryID", "{}", Optional.of("alicepresto"), Optional.of("-cli"), Optional.empty()))));
+    }
+
     @Test
     public void TestPulsarProducerSendError()
             throws PulsarClientException
     {
         Producer producer = mock(Producer.class);
-        when(producer.send(any(byte[].class)))
-                .thenThrow(new PulsarClientException("Mock IO Exception"));
+        when(producer.sendAsync(any(Message.class)))
+                .thenReturn(failedFuture(new PulsarClientException("Mock IO Exception")));
         PulsarProducer pulsarProducer = new PulsarProducer(producer);
         pulsarProducer.send(new SerializedLog("being_dropped_queryID", "{\"a\":\"b\"}"));
+        assertEquals(pulsarProducer.getSendFailures().getTotalCount(), 1);
+        assertEquals(pulsarProducer.getDroppedMessages().getTotalCount(), 1);
+    }
+
+    @Test
+    public void TestPulsarProducerSendAsync()
+    {
+        Producer producer = mock(Producer.class);
+        CompletableFuture<MessageId> first = new CompletableFuture<>();
+        CompletableFuture<MessageId> second = new CompletableFuture<>();
+        when(producer.sendAsync(any(Message.class))).thenReturn(first, second);
+        PulsarProducer pulsarProducer = new PulsarProducer(producer);
+
+        // Both messages are in flight before any acknowledgement
+        CompletableFuture<Void> firstSend = pulsarProducer.sendAsync(new SerializedLog("queryID_1", "{}"));
+        CompletableFuture<Void> secondSend = pulsarProducer.sendAsync(new SerializedLog("queryID_2", "{}"));
+        verify(producer, times(2)).sendAsync(any(Message.class));
+        assertFalse(firstSend.isDone());
+
+        first.complete(mock(MessageId.class));
+        second.completeExceptionally(new PulsarClientException("Mock IO Exception"));
+        firstSend.join();
+        secondSend.join();
+        assertEquals(pulsarProducer.getSendFailures().getTotalCount(), 1);
+        assertEquals(pulsarProducer.getDroppedMessages().getTotalCount(), 1);
+    }
+
+    @Test
+    public void TestPulsarProducerSendErrorToOutbox()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.NONE, 1, Optional.of(outbox), Optional.empty(), Optional.empty());
+
+        localProducer.setAvailable(false);
+        pulsarProducer.send(new SerializedLog("queryID_1", "{\"a\":\"1\"}"));
+        pulsarProducer.send(new SerializedLog("queryID_2", "{\"a\":\"2\"}"));
+        assertTrue(localProducer.getMessages().isEmpty());
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "queryID_1");
+        assertEquals(pulsarProducer.getOutboxAppends().getTotalCount(), 2);
+        assertEquals(pulsarProducer.getDroppedMessages().getTotalCount(), 0);
+
+        // Broker is back: replayer drains outbox in order
+        localProducer.setAvailable(true);
+        OutboxReplayer replayer = new OutboxReplayer(outbox, pulsarProducer, 1000);
+        replayer.start();
+        for (int i = 0; i < 100 && !outbox.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        replayer.stop();
+
+        assertTrue(outbox.isEmpty());
+        assertFalse(outbox.peek().isPresent());
+        assertEquals(localProducer.getMessages().get(0), "{\"a\":\"1\"}");
+        assertEquals(localProducer.getMessages().get(1), "{\"a\":\"2\"}");
+        outbox.close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void TestOutboxReplayerDrainsAtFullSpeedWhileHealthy()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        CircuitBreaker circuitBreaker = new CircuitBreaker("topic", 1, 1, TimeUnit.HOURS);
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.NONE, 1, Optional.of(outbox), Optional.of(circuitBreaker), Optional.empty());
+
+        localProducer.setAvailable(false);
+        for (int i = 0; i < 20; i++) {
+            pulsarProducer.send(new SerializedLog("queryID_" + i, "{}"));
+        }
+        assertEquals(circuitBreaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(pulsarProducer.getOutboxAppends().getTotalCount(), 20);
+
+        // The first replayed message closes the breaker, the rest is not held to one message per second
+        localProducer.setAvailable(true);
+        OutboxReplayer replayer = new OutboxReplayer(outbox, pulsarProducer, 1);
+        replayer.start();
+        for (int i = 0; i < 50 && !outbox.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        replayer.stop();
+
+        assertTrue(outbox.isEmpty());
+        assertEquals(circuitBreaker.getState(), CircuitBreaker.State.CLOSED);
+        assertEquals(localProducer.getMessages().size(), 20);
+        outbox.close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void TestPulsarProducerSequenceIdsSurviveReplay()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        SequenceIdGenerator sequenceIdGenerator = new SequenceIdGenerator(new File(directory, "sequence-id"), 10);
+        LocalPulsarProducer localProducer = new LocalPulsarProducer();
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), localProducer.getProducer(), MessageKey.NONE, 1, Optional.of(outbox), Optional.empty(), Optional.of(sequenceIdGenerator));
+
+        pulsarProducer.send(new SerializedLog("queryID_0", "{\"a\":\"0\"}"));
+        localProducer.setAvailable(false);
+        pulsarProducer.send(new SerializedLog("queryID_1", "{\"a\":\"1\"}"));
+        localProducer.setAvailable(true);
+        // Outbox is not drained yet: the newer message queues behind the older one
+        pulsarProducer.send(new SerializedLog("queryID_2", "{\"a\":\"2\"}"));
+        assertEquals(localProducer.getRawMessages().size(), 1);
+        assertEquals(outbox.peek().get().getSequenceId(), 1);
+
+        while (outbox.peek().isPresent()) {
+            pulsarProducer.sendDirect(outbox.peek().get());
+            outbox.acknowledge();
+        }
+        assertEquals(localProducer.getRawMessages().size(), 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(localProducer.getRawMessages().get(i).getSequenceId(), i);
+            assertEquals(localProducer.getRawMessages().get(i).getProperty("queryId"), "queryID_" + i);
+        }
+        outbox.close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void TestPulsarProducerInterleavedFailuresKeepOutboxOrder()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        SequenceIdGenerator sequenceIdGenerator = new SequenceIdGenerator(new File(directory, "sequence-id"), 10);
+        Producer producer = mock(Producer.class);
+        CompletableFuture<MessageId> first = new CompletableFuture<>();
+        CompletableFuture<MessageId> second = new CompletableFuture<>();
+        CompletableFuture<MessageId> third = new CompletableFuture<>();
+        when(producer.sendAsync(any(Message.class))).thenReturn(first, second, third);
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), producer, MessageKey.NONE, 1, Optional.of(outbox), Optional.empty(), Optional.of(sequenceIdGenerator));
+
+        pulsarProducer.sendAsync(new SerializedLog("queryID_0", "{}"));
+        pulsarProducer.sendAsync(new SerializedLog("queryID_1", "{}"));
+        pulsarProducer.sendAsync(new SerializedLog("queryID_2", "{}"));
+
+        // 2 fails before 1 is settled: it waits so the outbox stays in id order
+        third.completeExceptionally(new PulsarClientException("Mock IO Exception"));
+        assertTrue(outbox.isEmpty());
+        second.completeExceptionally(new PulsarClientException("Mock IO Exception"));
+        assertTrue(outbox.isEmpty());
+
+        // Newer messages queue behind the failed ones instead of overtaking them
+        pulsarProducer.sendAsync(new SerializedLog("queryID_3", "{}"));
+        verify(producer, times(3)).sendAsync(any(Message.class));
+
+        first.completeExceptionally(new PulsarClientException("Mock IO Exception"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(outbox.peek().get().getSequenceId(), i);
+            assertEquals(outbox.peek().get().getLog().getQueryId(), "queryID_" + i);
+            outbox.acknowledge();
+        }
+        assertTrue(outbox.isEmpty());
+        outbox.close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void TestPulsarProducerFailureAfterHigherAcknowledgementGetsNewSequenceId()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("presto-audit-outbox").toFile();
+        PulsarOutbox outbox = new PulsarOutbox(directory, 1024 * 1024, 1024 * 1024);
+        SequenceIdGenerator sequenceIdGenerator = new SequenceIdGenerator(new File(directory, "sequence-id"), 10);
+        Producer producer = mock(Producer.class);
+        CompletableFuture<MessageId> first = new CompletableFuture<>();
+        CompletableFuture<MessageId> second = new CompletableFuture<>();
+        when(producer.sendAsync(any(Message.class))).thenReturn(first, second);
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), producer, MessageKey.NONE, 1, Optional.of(outbox), Optional.empty(), Optional.of(sequenceIdGenerator));
+
+        pulsarProducer.sendAsync(new SerializedLog("queryID_0", "{}"));
+        pulsarProducer.sendAsync(new SerializedLog("queryID_1", "{}"));
+        second.complete(mock(MessageId.class));
+        first.completeExceptionally(new PulsarClientException("Mock IO Exception"));
+
+        // The broker already accepted id 1, so id 0 would be discarded as a duplicate on replay
+        assertEquals(outbox.peek().get().getLog().getQueryId(), "queryID_0");
+        assertEquals(outbox.peek().get().getSequenceId(), 2);
+        outbox.close();
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void TestPulsarProducerCircuitBreakerShortCircuits()
+            throws PulsarClientException
+    {
+        Producer producer = mock(Producer.class);
+        when(producer.sendAsync(any(Message.class)))
+                .thenAnswer(invocation -> failedFuture(new PulsarClientException("Mock timeout")));
+        CircuitBreaker circuitBreaker = new CircuitBreaker("topic", 3, 1, TimeUnit.HOURS);
+        PulsarProducer pulsarProducer = new PulsarProducer(Optional.empty(), producer, MessageKey.NONE, 1, Optional.empty(), Optional.of(circuitBreaker), Optional.empty());
+
+        for (int i = 0; i < 10; i++) {
+            pulsarProducer.send(new SerializedLog("queryID_" + i, "{\"a\":\"b\"}"));
+        }
+
+        // Only the sends before the breaker opened reached the broker
+        verify(producer, times(3)).sendAsync(any(Message.class));
+        assertEquals(circuitBreaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(circuitBreaker.getShortCircuitedCount(), 7);
+    }
+
+    private static CompletableFuture<MessageId> failedFuture(Throwable throwable)
+    {
+        CompletableFuture<MessageId> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
     }
 }
@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.pulsar;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestSequenceIdGenerator
+{
+    private File directory;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("presto-audit-sequence").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws IOException
+    {
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testMonotonic()
+            throws IOException
+    {
+        SequenceIdGenerator generator = new SequenceIdGenerator(new File(directory, "sequence-id"), 3);
+        assertEquals(generator.getLastSequenceId(), -1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(generator.next(), i);
+        }
+        assertEquals(generator.getLastSequenceId(), 9);
+    }
+
+    @Test
+    public void testResumeAfterRestart()
+            throws IOException
+    {
+        File file = new File(directory, "sequence-id");
+        SequenceIdGenerator generator = new SequenceIdGenerator(file, 100);
+        long last = 0;
+        for (int i = 0; i < 150; i++) {
+            last = generator.next();
+        }
+
+        // Unused ids of the reserved block are skipped, never reused
+        SequenceIdGenerator restarted = new SequenceIdGenerator(file, 100);
+        assertEquals(restarted.getLastSequenceId(), 199);
+        assertTrue(restarted.next() > last);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.metrics.QueryFingerprint;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestFailureCoalescer
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testCoalesceRepeatedFailures()
+    {
+        FailureCoalescer coalescer = new FailureCoalescer(new Duration(10, TimeUnit.SECONDS), 100);
+        assertFalse(coalescer.coalesce(testHelper.createNormalEvent(), 0));
+        assertFalse(coalescer.coalesce(testHelper.createFailureEvent(), 0));
+        assertTrue(coalescer.coalesce(testHelper.createFailureEvent(), SECOND));
+        assertTrue(coalescer.coalesce(testHelper.createFailureEvent(), 2 * SECOND));
+        assertEquals(coalescer.getCoalescedRecords().getTotalCount(), 2);
+
+        // The window is still open
+        assertEquals(coalescer.closeWindows(5 * SECOND).size(), 0);
+
+        List<SerializedLog> summaries = coalescer.closeWindows(10 * SECOND);
+        assertEquals(summaries.size(), 1);
+        assertThat(summaries.get(0).getSerializedLog())
+                .contains("\"eventType\":\"FailureSummary\"")
+                .contains("\"user\":\"test-user\"")
+                .contains("\"fingerprint\":\"" + QueryFingerprint.fingerprint("select 2a") + "\"")
+                .contains("\"errorCode\":1")
+                .contains("\"errorName\":\"SYNTAX_ERROR\"")
+                .contains("\"queryCount\":2")
+                .contains("\"queryIds\":[\"20170606_044544_00024_nfhe3\",\"20170606_044544_00024_nfhe3\"]");
+        assertEquals(coalescer.getOpenWindowCount(), 0);
+
+        // The next failure opens a new window and is logged in full
+        assertFalse(coalescer.coalesce(testHelper.createFailureEvent(), 11 * SECOND));
+    }
+
+    @Test
+    public void testSingleFailureHasNoSummary()
+    {
+        FailureCoalescer coalescer = new FailureCoalescer(new Duration(10, TimeUnit.SECONDS), 100);
+        assertFalse(coalescer.coalesce(testHelper.createFailureEvent(), 0));
+        assertEquals(coalescer.closeWindows(10 * SECOND).size(), 0);
+    }
+
+    @Test
+    public void testMaxKeys()
+    {
+        FailureCoalescer coalescer = new FailureCoalescer(new Duration(10, TimeUnit.SECONDS), 1);
+        assertFalse(coalescer.coalesce(testHelper.createFailureEvent(), 0));
+        assertFalse(coalescer.coalesce(testHelper.createQueryWithSource(java.util.Optional.of("other")), 0));
+        assertTrue(coalescer.coalesce(testHelper.createFailureEvent(), 0));
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.ratelimit;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTenantRateLimiter
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testTokenBucket()
+    {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertFalse(bucket.isFull(0));
+        // One token every half second
+        assertTrue(bucket.tryAcquire(SECOND / 2));
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+        assertTrue(bucket.isFull(2 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+    }
+
+    @Test
+    public void testCollapseIntoSummary()
+    {
+        TenantRateLimiter limiter = new TenantRateLimiter(1, 2, 100, new Duration(1, TimeUnit.MINUTES));
+        QueryCompletedEvent event = testHelper.createNormalEvent();
+        assertTrue(limiter.tryAcquire(event, 0));
+        assertTrue(limiter.tryAcquire(event, 0));
+        for (int i = 0; i < 8; i++) {
+            assertFalse(limiter.tryAcquire(event, 0));
+        }
+        // Failures are never collapsed
+        assertTrue(limiter.tryAcquire(testHelper.createFailureEvent(), 0));
+        // Another source is another tenant
+        assertTrue(limiter.tryAcquire(testHelper.createQueryWithSource(Optional.of("dashboard")), 0));
+        assertEquals(limiter.getCollapsedRecords().getTotalCount(), 8);
+
+        List<SerializedLog> summaries = limiter.summarize(0);
+        assertEquals(summaries.size(), 1);
+        SerializedLog summary = summaries.get(0);
+        assertEquals(summary.getQueryId(), "20170606_044544_00024_nfhe3");
+        assertEquals(summary.getUser(), Optional.of("test-user"));
+        assertEquals(summary.getSource(), Optional.of("presto-cli"));
+        assertThat(summary.getSerializedLog())
+                .contains("\"eventType\":\"RateLimitSummary\"")
+                .contains("\"queryCount\":8")
+                .contains("\"cpuTime\":0.8")
+                .contains("\"endTimestamp\":1.500080403E9");
+
+        // The interval starts over, and idle tenants are removed once their buckets are full
+        assertEquals(limiter.summarize(0).size(), 0);
+        assertEquals(limiter.getTenantCount(), 2);
+        limiter.summarize(10 * SECOND);
+        assertEquals(limiter.getTenantCount(), 0);
+    }
+
+    @Test
+    public void testMaxTenants()
+    {
+        TenantRateLimiter limiter = new TenantRateLimiter(1, 1, 1, new Duration(1, TimeUnit.MINUTES));
+        assertTrue(limiter.tryAcquire(testHelper.createQueryWithSource(Optional.of("a")), 0));
+        assertTrue(limiter.tryAcquire(testHelper.createQueryWithSource(Optional.of("b")), 0));
+        assertFalse(limiter.tryAcquire(testHelper.createQueryWithSource(Optional.of("c")), 0));
+        List<SerializedLog> summaries = limiter.summarize(0);
+        assertEquals(summaries.size(), 1);
+        assertEquals(summaries.get(0).getUser(), Optional.of(TenantRateLimiter.OTHER_KEY));
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.airlift.json.ObjectMapperProvider;
+import jp.co.yahoo.presto.audit.TestHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Compares encode and decode time of the full log encodings.
+ * Run the main method; results are per record averages after warm-up.
+ */
+public final class BenchmarkFullLogEncoding
+{
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private BenchmarkFullLogEncoding()
+    {
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        QueryCompletedEvent event = new TestHelper().createFailureEvent();
+        System.out.println(String.format("%-6s %8s %12s %12s", "format", "bytes", "encode(ns)", "decode(ns)"));
+        for (LogEncoding encoding : LogEncoding.values()) {
+            FullLogSerializer serializer = new FullLogSerializer(Optional.empty(), encoding, Optional.empty(), Optional.empty());
+            ObjectReader reader = new ObjectMapperProvider().get().reader().with(encoding.getFactory());
+            byte[] content = serializer.serialize(event).getContent();
+
+            long sink = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                sink += serializer.serialize(event).getContent().length;
+                sink += reader.readTree(new ByteArrayInputStream(content)).size();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += serializer.serialize(event).getContent().length;
+            }
+            long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += reader.readTree(new ByteArrayInputStream(content)).size();
+            }
+            long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            System.out.println(String.format("%-6s %8d %12d %12d", encoding, content.length, encodeNanos, decodeNanos));
+            if (sink == 0) {
+                System.out.println();
+            }
+        }
+    }
+}
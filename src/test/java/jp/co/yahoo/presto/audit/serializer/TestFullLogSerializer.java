@@ -72,6 +72,36 @@ public class TestFullLogSerializer
                 .contains("\"failureType\":\"com.facebook.presto.sql.parser.ParsingException\"");
     }
 
+    @DataProvider(name = "binary-encodings")
+    public Object[][] binaryEncodings()
+    {
+        return new Object[][] {{LogEncoding.SMILE}, {LogEncoding.CBOR}};
+    }
+
+    @Test
+    public void testSerializeSheddingLevel() throws JsonProcessingException
+    {
+        assertThat(fullLogSerializer.serialize(testHelper.createFailureEvent(), 1).getSerializedLog())
+                .contains("\"sheddingLevel\":1");
+        assertThat(fullLogSerializer.serialize(testHelper.createFailureEvent()).getSerializedLog())
+                .doesNotContain("sheddingLevel");
+    }
+
+    @Test(dataProvider = "binary-encodings")
+    public void testSerializeBinary(LogEncoding encoding) throws JsonProcessingException
+    {
+        FullLogSerializer binarySerializer = new FullLogSerializer(Optional.empty(), encoding, Optional.empty(), Optional.empty());
+        for (QueryCompletedEvent event : new QueryCompletedEvent[] {testHelper.createNormalEvent(), testHelper.createFailureEvent()}) {
+            SerializedLog text = fullLogSerializer.serialize(event);
+            SerializedLog binary = binarySerializer.serialize(event);
+            assertEquals(binary.getEncoding(), encoding);
+            assertEquals(binary.getQueryId(), text.getQueryId());
+            assertThat(binary.getContent().length).isLessThan(text.getContent().length);
+            // Same logical document
+            assertEquals(binary.getSerializedLog(), text.getSerializedLog());
+        }
+    }
+
     @DataProvider(name="filter-provider")
     public Object[][] testData(){
         String filter1 = "sre_system";
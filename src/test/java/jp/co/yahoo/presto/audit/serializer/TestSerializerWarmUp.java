@@ -0,0 +1,47 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestSerializerWarmUp
+{
+    @Test
+    public void testSyntheticEvents()
+    {
+        QueryCompletedEvent finished = SerializerWarmUp.syntheticEvent(2);
+        QueryCompletedEvent failed = SerializerWarmUp.syntheticEvent(3);
+        assertThat(finished.getMetadata().getQueryState()).isEqualTo("FINISHED");
+        assertThat(finished.getFailureInfo().isPresent()).isFalse();
+        assertThat(failed.getMetadata().getQueryState()).isEqualTo("FAILED");
+        assertThat(failed.getFailureInfo().isPresent()).isTrue();
+        assertThat(finished.getMetadata().getQueryId()).isNotEqualTo(failed.getMetadata().getQueryId());
+    }
+
+    @Test
+    public void testRun()
+    {
+        SimpleLogSerializer simpleLogSerializer = new SimpleLogSerializer();
+        FullLogSerializer fullLogSerializer = new FullLogSerializer(Optional.empty());
+        new SerializerWarmUp(ImmutableList.of(simpleLogSerializer, fullLogSerializer), 10).run();
+        assertThat(simpleLogSerializer.getSerializationTime().getAllTime().getCount()).isEqualTo(10.0);
+        assertThat(fullLogSerializer.getSerializationTime().getAllTime().getCount()).isEqualTo(10.0);
+    }
+}
@@ -16,6 +16,8 @@ package jp.co.yahoo.presto.audit.serializer;
 import jp.co.yahoo.presto.audit.TestHelper;
 import org.testng.annotations.Test;
 
+import java.util.Optional;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Test(singleThreaded = true)
@@ -54,4 +56,22 @@ public class TestSimpleLogSerializer
                 .contains("\"failureMessage\":\"line 1:15: mismatched input '0' expecting ')'\"")
                 .contains("\"failureType\":\"com.facebook.presto.sql.parser.ParsingException\"");
     }
+
+    @Test
+    public void testSerializeSheddingLevel()
+    {
+        assertThat(simpleLogSerializer.serialize(testHelper.createNormalEvent(), Optional.empty(), 2, true).getSerializedLog())
+                .contains("\"sheddingLevel\":2");
+        assertThat(simpleLogSerializer.serialize(testHelper.createNormalEvent(), Optional.empty(), 0, true).getSerializedLog())
+                .doesNotContain("sheddingLevel");
+    }
+
+    @Test
+    public void testSerializationTime()
+    {
+        SimpleLogSerializer serializer = new SimpleLogSerializer();
+        serializer.serialize(testHelper.createNormalEvent());
+        serializer.serialize(testHelper.createFailureEvent());
+        assertThat(serializer.getSerializationTime().getAllTime().getCount()).isEqualTo(2.0);
+    }
 }
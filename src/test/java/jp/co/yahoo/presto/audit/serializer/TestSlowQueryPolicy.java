@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestSlowQueryPolicy
+{
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testDefaultThresholds()
+    {
+        assertFalse(policy(new Duration(1, TimeUnit.SECONDS), null).shouldCapture(testHelper.createNormalEvent()));
+        assertTrue(policy(new Duration(1, TimeUnit.SECONDS), null).shouldCapture(testHelper.createFailureEvent()));
+        assertTrue(policy(new Duration(100, TimeUnit.MILLISECONDS), null).shouldCapture(testHelper.createNormalEvent()));
+        assertFalse(policy(null, new DataSize(10, DataSize.Unit.KILOBYTE)).shouldCapture(testHelper.createNormalEvent()));
+        assertTrue(policy(null, new DataSize(9, DataSize.Unit.KILOBYTE)).shouldCapture(testHelper.createNormalEvent()));
+        // Without limits only failed queries are captured
+        assertFalse(policy(null, null).shouldCapture(testHelper.createNormalEvent()));
+    }
+
+    @Test
+    public void testOverrides()
+            throws IOException
+    {
+        SlowQueryThresholds defaults = new SlowQueryThresholds(Optional.of(new Duration(1, TimeUnit.HOURS)), Optional.empty(), Optional.empty(), Optional.empty());
+        File file = File.createTempFile("slow-query", ".json");
+        write(file, "{\"sources\": {\"presto-cli\": {\"wallTime\": \"100ms\"}}}");
+        SlowQueryPolicy policy = SlowQueryPolicy.load(file, defaults);
+        assertTrue(policy.shouldCapture(testHelper.createQueryWithSource(Optional.of("presto-cli"))));
+        assertFalse(policy.shouldCapture(testHelper.createQueryWithSource(Optional.of("etl"))));
+        assertFalse(policy.shouldCapture(testHelper.createQueryWithSource(Optional.empty())));
+
+        // User thresholds take precedence over source thresholds
+        write(file, "{\"sources\": {\"presto-cli\": {\"wallTime\": \"100ms\"}}, \"users\": {\"test-user\": {\"peakMemory\": \"1MB\"}}}");
+        policy = SlowQueryPolicy.load(file, defaults);
+        assertFalse(policy.shouldCapture(testHelper.createQueryWithSource(Optional.of("presto-cli"))));
+        assertTrue(file.delete());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidOverrides()
+            throws IOException
+    {
+        File file = File.createTempFile("slow-query", ".json");
+        file.deleteOnExit();
+        write(file, "{\"users\": {\"test-user\": {\"wallTime\": \"ten minutes\"}}}");
+        SlowQueryPolicy.load(file, new SlowQueryThresholds(Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+    }
+
+    @Test
+    public void testFullLogSerializer()
+    {
+        FullLogSerializer serializer = new FullLogSerializer(Optional.of("sre_system"), LogEncoding.JSON,
+                Optional.of(policy(new Duration(1, TimeUnit.SECONDS), null)), Optional.empty());
+        assertFalse(serializer.shouldOutput(testHelper.createNormalEvent()));
+        assertTrue(serializer.shouldOutput(testHelper.createFailureEvent()));
+
+        serializer = new FullLogSerializer(Optional.of("sre_system"), LogEncoding.JSON,
+                Optional.of(policy(new Duration(100, TimeUnit.MILLISECONDS), null)), Optional.empty());
+        assertTrue(serializer.shouldOutput(testHelper.createQueryWithSource(Optional.of("presto-cli"))));
+        assertFalse(serializer.shouldOutput(testHelper.createQueryWithSource(Optional.of("sre_system"))));
+    }
+
+    private static SlowQueryPolicy policy(Duration wallTime, DataSize inputBytes)
+    {
+        SlowQueryThresholds thresholds = new SlowQueryThresholds(Optional.ofNullable(wallTime), Optional.empty(), Optional.empty(), Optional.ofNullable(inputBytes));
+        return new SlowQueryPolicy(thresholds, ImmutableMap.of(), ImmutableMap.of());
+    }
+
+    private static void write(File file, String content)
+            throws IOException
+    {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.serializer;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.facebook.presto.spi.eventlistener.QueryFailureInfo;
+import jp.co.yahoo.presto.audit.TestHelper;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestStackTraceStore
+{
+    private static final String TRACE = "{\"type\":\"com.facebook.presto.sql.parser.ParsingException\",\"message\":\"line 1:8: mismatched input '2a'\","
+            + "\"suppressed\":[],\"stack\":[\"com.facebook.presto.sql.parser.SqlParser.invokeParser(SqlParser.java:108)\"],"
+            + "\"errorLocation\":{\"lineNumber\":1,\"columnNumber\":8}}";
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testNormalize()
+    {
+        String other = TRACE.replace("'2a'", "'3b'").replace("\"columnNumber\":8", "\"columnNumber\":9");
+        assertEquals(StackTraceStore.hash(TRACE), StackTraceStore.hash(other));
+        assertEquals(StackTraceStore.hash(TRACE.replace("'2a'", "20170606_044544_00024_nfhe3")), StackTraceStore.hash(TRACE.replace("'2a'", "20170606_044544_00025_nfhe3")));
+        assertNotEquals(StackTraceStore.hash(TRACE), StackTraceStore.hash(TRACE.replace("SqlParser.java:108", "SqlParser.java:109")));
+    }
+
+    @Test
+    public void testDetails()
+    {
+        String nested = TRACE.replace("\"suppressed\"", "\"cause\":{\"type\":\"java.lang.IllegalStateException\",\"message\":\"bad \\\"token\\\"\"},\"suppressed\"");
+        assertEquals(StackTraceStore.details(nested),
+                "{\"messages\":[\"line 1:8: mismatched input '2a'\",\"bad \\\"token\\\"\"],\"errorLocation\":{\"lineNumber\":1,\"columnNumber\":8}}");
+        assertEquals(StackTraceStore.details("{\"type\":\"java.lang.RuntimeException\"}"), "{\"messages\":[]}");
+    }
+
+    @Test
+    public void testStoreOnce()
+    {
+        List<SerializedLog> stored = new ArrayList<>();
+        StackTraceStore store = new StackTraceStore(10, stored::add);
+        Optional<String> hash = store.reference(TRACE);
+        assertEquals(hash, Optional.of(StackTraceStore.hash(TRACE)));
+        assertEquals(store.reference(TRACE.replace("'2a'", "'3b'")), hash);
+        assertEquals(stored.size(), 1);
+        assertThat(stored.get(0).getSerializedLog())
+                .contains("\"eventType\":\"StackTrace\"")
+                .contains("\"failuresHash\":\"" + hash.get() + "\"")
+                .contains("mismatched input '2a'");
+        assertEquals(store.getStoredTraces().getTotalCount(), 1);
+        assertEquals(store.getReferencedTraces().getTotalCount(), 2);
+
+        // Short traces stay inline
+        assertFalse(store.reference("{json-error}").isPresent());
+        assertFalse(store.reference(null).isPresent());
+    }
+
+    @Test
+    public void testDroppedTraceStaysInline()
+    {
+        List<SerializedLog> stored = new ArrayList<>();
+        AtomicBoolean accepting = new AtomicBoolean(false);
+        StackTraceStore store = new StackTraceStore(10, trace -> accepting.get() && stored.add(trace));
+        assertFalse(store.reference(TRACE).isPresent());
+        assertEquals(store.getCachedHashCount(), 0);
+
+        accepting.set(true);
+        assertEquals(store.reference(TRACE), Optional.of(StackTraceStore.hash(TRACE)));
+        assertEquals(stored.size(), 1);
+        assertTrue(stored.get(0).isPriority());
+    }
+
+    @Test
+    public void testStoreAgainAfterEviction()
+    {
+        List<SerializedLog> stored = new ArrayList<>();
+        StackTraceStore store = new StackTraceStore(1, stored::add);
+        store.reference(TRACE);
+        store.reference(TRACE.replace("SqlParser.java:108", "SqlParser.java:109"));
+        store.reference(TRACE);
+        assertEquals(stored.size(), 3);
+    }
+
+    @Test
+    public void testSerializers()
+            throws Exception
+    {
+        List<SerializedLog> stored = new ArrayList<>();
+        StackTraceStore store = new StackTraceStore(10, stored::add);
+        QueryCompletedEvent event = withTrace(testHelper.createFailureEvent(), TRACE);
+        String hash = StackTraceStore.hash(TRACE);
+
+        SimpleLogSerializer simpleLogSerializer = new SimpleLogSerializer(Optional.of(store));
+        String simpleLog = simpleLogSerializer.serialize(event).getSerializedLog();
+        assertThat(simpleLog).contains("\"failuresHash\":\"" + hash + "\"").doesNotContain("failuresJson");
+        assertEquals(simpleLogSerializer.serialize(event).getRecord().get().getFailureDetails(), StackTraceStore.details(TRACE));
+
+        FullLogSerializer fullLogSerializer = new FullLogSerializer(Optional.empty(), LogEncoding.JSON, Optional.empty(), Optional.of(store));
+        String fullLog = fullLogSerializer.serialize(event).getSerializedLog();
+        assertThat(fullLog).contains("\"failuresHash\":\"" + hash + "\"").contains("failureDetails").contains("columnNumber").doesNotContain("failuresJson");
+        assertEquals(stored.size(), 1);
+
+        // Sinks which do not receive the stack trace records get the trace inline
+        assertThat(simpleLogSerializer.serialize(event, Optional.empty(), 0, false).getSerializedLog())
+                .contains("failuresJson").doesNotContain("failuresHash").doesNotContain("failureDetails");
+        assertThat(fullLogSerializer.serialize(event, 0, LogEncoding.JSON, false).getSerializedLog())
+                .contains("failuresJson").doesNotContain("failuresHash").doesNotContain("failureDetails");
+
+        assertThat(new SimpleLogSerializer().serialize(event).getSerializedLog()).contains("failuresJson").doesNotContain("failuresHash");
+    }
+
+    private static QueryCompletedEvent withTrace(QueryCompletedEvent event, String failuresJson)
+    {
+        QueryFailureInfo failureInfo = event.getFailureInfo().get();
+        return new QueryCompletedEvent(event.getMetadata(), event.getStatistics(), event.getContext(), event.getIoMetadata(),
+                Optional.of(new QueryFailureInfo(failureInfo.getErrorCode(), failureInfo.getFailureType(), failureInfo.getFailureMessage(),
+                        failureInfo.getFailureTask(), failureInfo.getFailureHost(), failuresJson)),
+                event.getCreateTime(), event.getExecutionStartTime(), event.getEndTime());
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import com.google.common.collect.ImmutableList;
+import jp.co.yahoo.presto.audit.AuditConfig;
+import jp.co.yahoo.presto.audit.AuditLogFileWriter;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.filter.RecordFilter;
+import jp.co.yahoo.presto.audit.serializer.LogEncoding;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAuditSinkDispatcher
+{
+    @Test
+    public void testPublishByType()
+    {
+        AuditSink simpleOnly = mockSink("simple", false);
+        AuditSink all = mockSink("all", true);
+        AuditSinkDispatcher dispatcher = new AuditSinkDispatcher(ImmutableList.of(simpleOnly, all));
+        assertTrue(dispatcher.accepts(LogType.FULL));
+
+        SerializedLog simpleLog = new SerializedLog("query_1", "{}");
+        SerializedLog fullLog = new SerializedLog("query_1", "{\"full\":true}");
+        dispatcher.publish(LogType.SIMPLE, simpleLog);
+        dispatcher.publish(LogType.FULL, fullLog);
+
+        verify(simpleOnly).publish(LogType.SIMPLE, simpleLog);
+        verify(simpleOnly, never()).publish(eq(LogType.FULL), any());
+        verify(all).publish(LogType.SIMPLE, simpleLog);
+        verify(all).publish(LogType.FULL, fullLog);
+    }
+
+    @Test
+    public void testPublishWithFilter()
+            throws IOException
+    {
+        AuditSink file = mockSink("file", true);
+        AuditSink pulsar = mockSink("pulsar", true);
+        AuditSinkDispatcher dispatcher = new AuditSinkDispatcher(ImmutableList.of(file, pulsar),
+                RecordFilter.parse("{\"rules\": [{\"sinks\": [\"pulsar\"], \"logTypes\": [\"FULL\"], \"action\": \"DROP\"}]}"));
+        QueryCompletedEvent event = new TestHelper().createNormalEvent();
+        assertTrue(dispatcher.accepts(LogType.FULL, event));
+
+        SerializedLog fullLog = new SerializedLog("query_1", "{\"full\":true}");
+        dispatcher.publish(LogType.FULL, event, (binary, referenceStackTraces) -> fullLog);
+        verify(file).publish(LogType.FULL, fullLog);
+        verify(pulsar, never()).publish(eq(LogType.FULL), any());
+
+        dispatcher.setFilter(RecordFilter.parse("{\"rules\": [{\"action\": \"DROP\"}]}"));
+        assertFalse(dispatcher.accepts(LogType.FULL, event));
+    }
+
+    @Test
+    public void testPublishByEncoding()
+    {
+        AuditSink file = mockSink("file", true);
+        AuditSink http = mockSink("http", true);
+        AuditSink pulsar = mockSink("pulsar", true);
+        when(pulsar.acceptsBinary()).thenReturn(true);
+        AuditSinkDispatcher dispatcher = new AuditSinkDispatcher(ImmutableList.of(file, http, pulsar));
+        QueryCompletedEvent event = new TestHelper().createNormalEvent();
+
+        SerializedLog text = new SerializedLog("query_1", "{\"full\":true}");
+        SerializedLog binary = new SerializedLog("query_1", new byte[] {1}, LogEncoding.SMILE, Optional.empty(), Optional.empty(), Optional.empty());
+        AtomicInteger serialized = new AtomicInteger();
+        dispatcher.publish(LogType.FULL, event, (isBinary, referenceStackTraces) -> {
+            serialized.incrementAndGet();
+            return isBinary ? binary : text;
+        });
+        verify(file).publish(LogType.FULL, text);
+        verify(http).publish(LogType.FULL, text);
+        verify(pulsar).publish(LogType.FULL, binary);
+        assertEquals(serialized.get(), 2);
+
+        // No sink wants the binary record, so it is not serialized
+        new AuditSinkDispatcher(ImmutableList.of(file)).publish(LogType.FULL, event, (isBinary, referenceStackTraces) -> {
+            assertFalse(isBinary, "Binary record serialized");
+            return text;
+        });
+    }
+
+    @Test
+    public void testStackTracesReferencedOnlyForSinksReceivingThem()
+    {
+        AuditSink file = mockSink("file", true);
+        when(file.accepts(LogType.STACK_TRACE)).thenReturn(true);
+        AuditSink http = mockSink("http", true);
+        AuditSink pulsar = mockSink("pulsar", true);
+        AuditSinkDispatcher dispatcher = new AuditSinkDispatcher(ImmutableList.of(file, http, pulsar));
+        QueryCompletedEvent event = new TestHelper().createFailureEvent();
+
+        SerializedLog referenced = new SerializedLog("query_1", "{\"failuresHash\":\"8c1f0e5a7b3d2c41\"}");
+        SerializedLog inline = new SerializedLog("query_1", "{\"failuresJson\":\"{}\"}");
+        AtomicInteger serialized = new AtomicInteger();
+        dispatcher.publish(LogType.FULL, event, (binary, referenceStackTraces) -> {
+            serialized.incrementAndGet();
+            return referenceStackTraces ? referenced : inline;
+        });
+        verify(file).publish(LogType.FULL, referenced);
+        verify(http).publish(LogType.FULL, inline);
+        verify(pulsar).publish(LogType.FULL, inline);
+        assertEquals(serialized.get(), 2);
+    }
+
+    @Test
+    public void testFailingSinkIsIsolated()
+    {
+        AuditSink broken = mockSink("broken", true);
+        AuditSink healthy = mockSink("healthy", true);
+        doThrow(new IllegalStateException("Mock failure")).when(broken).publish(any(), any());
+        AuditSinkDispatcher dispatcher = new AuditSinkDispatcher(ImmutableList.of(broken, healthy));
+
+        SerializedLog log = new SerializedLog("query_1", "{}");
+        dispatcher.publish(LogType.SIMPLE, log);
+        verify(healthy).publish(LogType.SIMPLE, log);
+    }
+
+    @Test
+    public void testRegistryDefaultSinks()
+    {
+        AuditConfig config = new AuditConfig()
+                .setAuditLogFileWriter(mock(AuditLogFileWriter.class))
+                .setAuditLogPath("/test/path")
+                .setAuditSimpleLogName("test-filename.log");
+        List<AuditSink> sinks = new AuditSinkRegistry().createSinks(config);
+        assertEquals(sinks.size(), 1);
+        assertEquals(sinks.get(0).getName(), FileAuditSink.NAME);
+        assertFalse(new AuditSinkDispatcher(sinks).accepts(LogType.FULL));
+    }
+
+    @Test
+    public void testRegistryCustomSink()
+    {
+        AuditSink custom = mockSink("custom", true);
+        AuditSinkRegistry registry = new AuditSinkRegistry();
+        registry.register(new AuditSinkFactory()
+        {
+            @Override
+            public String getName()
+            {
+                return "custom";
+            }
+
+            @Override
+            public AuditSink create(AuditConfig config)
+            {
+                return custom;
+            }
+        });
+
+        List<AuditSink> sinks = registry.createSinks(new AuditConfig().setAuditSinks("custom"));
+        assertEquals(sinks, ImmutableList.of(custom));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRegistryUnknownSink()
+    {
+        new AuditSinkRegistry().createSinks(new AuditConfig().setAuditSinks("file,unknown"));
+    }
+
+    private static AuditSink mockSink(String name, boolean acceptsFull)
+    {
+        AuditSink sink = mock(AuditSink.class);
+        when(sink.getName()).thenReturn(name);
+        when(sink.accepts(LogType.SIMPLE)).thenReturn(true);
+        when(sink.accepts(LogType.FULL)).thenReturn(acceptsFull);
+        return sink;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestBatchingAuditSink
+{
+    @Test
+    public void testBatchSize()
+            throws Exception
+    {
+        CollectingSink sink = new CollectingSink(100, 5, new Duration(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            sink.publish(LogType.SIMPLE, new SerializedLog("query_" + i, "{}"));
+        }
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 10);
+        assertEquals(sink.getWrittenBatches().getTotalCount(), 2);
+        assertEquals(sink.getBatchWriteTime().getAllTime().getCount(), 2.0);
+        assertEquals(sink.batches.get(0).size(), 5);
+        assertEquals(sink.batches.get(0).get(0).getLog().getQueryId(), "query_0");
+    }
+
+    @Test
+    public void testLinger()
+            throws Exception
+    {
+        CollectingSink sink = new CollectingSink(100, 100, new Duration(10, TimeUnit.MILLISECONDS));
+        sink.start();
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_1", "{}"));
+        for (int i = 0; i < 100 && sink.getWrittenRecords().getTotalCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+
+        // A partial batch is written once the linger time has passed
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 1);
+        sink.close();
+    }
+
+    @Test
+    public void testDropWhenQueueFull()
+    {
+        CollectingSink sink = new CollectingSink(2, 10, new Duration(0, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 5; i++) {
+            sink.publish(LogType.SIMPLE, new SerializedLog("query_" + i, "{}"));
+        }
+        assertEquals(sink.getPublishedRecords().getTotalCount(), 5);
+        assertEquals(sink.getDroppedRecords().getTotalCount(), 3);
+        assertEquals(sink.getQueueSize(), 2);
+    }
+
+    @Test
+    public void testOldestPendingEventTime()
+    {
+        CollectingSink sink = new CollectingSink(10, 10, new Duration(0, TimeUnit.MILLISECONDS));
+        assertEquals(sink.getOldestPendingEventTime(), Optional.empty());
+        sink.publish(LogType.SIMPLE, logAt("query_1", 2000));
+        sink.publish(LogType.SIMPLE, logAt("query_2", 1000));
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_3", "{}"));
+        // Queued heartbeats do not hold back the watermark
+        sink.publish(LogType.HEARTBEAT, logAt("coordinator", 500));
+        assertEquals(sink.getOldestPendingEventTime(), Optional.of(Instant.ofEpochMilli(1000)));
+    }
+
+    @Test
+    public void testFailedWriterIsReplaced()
+            throws Exception
+    {
+        CollectingSink sink = new CollectingSink(100, 1, new Duration(0, TimeUnit.MILLISECONDS));
+        sink.failNextWrite = true;
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_1", "{}"));
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_2", "{}"));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getFailedRecords().getTotalCount(), 1);
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 1);
+        assertEquals(sink.writersCreated, 2);
+    }
+
+    @Test
+    public void testPublishDoesNotWaitForWriter()
+            throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingSink sink = new CollectingSink(100, 1, new Duration(0, TimeUnit.MILLISECONDS));
+        sink.blockWrites = release;
+        sink.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            sink.publish(LogType.SIMPLE, new SerializedLog("query_" + i, "{}"));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        sink.close();
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 50);
+    }
+
+    private static SerializedLog logAt(String queryId, long eventTimeMillis)
+    {
+        return new SerializedLog(queryId, "{}", Optional.empty(), Optional.empty(), Optional.of(Instant.ofEpochMilli(eventTimeMillis)));
+    }
+
+    private static class CollectingSink
+            extends BatchingAuditSink
+    {
+        private final List<List<SinkRecord>> batches = new CopyOnWriteArrayList<>();
+        private volatile boolean failNextWrite;
+        private volatile CountDownLatch blockWrites = new CountDownLatch(0);
+        private volatile int writersCreated;
+
+        CollectingSink(int queueCapacity, int batchSize, Duration linger)
+        {
+            super("test", queueCapacity, batchSize, linger, 1);
+        }
+
+        @Override
+        public boolean accepts(LogType type)
+        {
+            return true;
+        }
+
+        @Override
+        protected BatchWriter createWriter()
+        {
+            writersCreated++;
+            return new BatchWriter()
+            {
+                @Override
+                public void write(List<SinkRecord> batch)
+                        throws IOException
+                {
+                    try {
+                        blockWrites.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (failNextWrite) {
+                        failNextWrite = false;
+                        throw new IOException("Mock write failure");
+                    }
+                    batches.add(new ArrayList<>(batch));
+                }
+
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.binary.BinaryRecordReader;
+import jp.co.yahoo.presto.audit.serializer.AuditRecord;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import jp.co.yahoo.presto.audit.serializer.SimpleLogSerializer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestBinaryFileAuditSink
+{
+    private final TestHelper testHelper = new TestHelper();
+    private final SimpleLogSerializer simpleLogSerializer = new SimpleLogSerializer();
+    private File directory;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("binary-audit").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws IOException
+    {
+        MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testSegmentsRoll()
+            throws IOException
+    {
+        BinaryFileAuditSink sink = new BinaryFileAuditSink(directory, 1000);
+        SerializedLog normal = simpleLogSerializer.serialize(testHelper.createNormalEvent());
+        for (int i = 0; i < 20; i++) {
+            sink.publish(LogType.SIMPLE, normal);
+        }
+        sink.start();
+        sink.close();
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 20);
+        assertFalse(sink.accepts(LogType.FULL));
+
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".bin"));
+        assertTrue(segments.length > 1);
+        Arrays.sort(segments);
+        int records = 0;
+        for (File segment : segments) {
+            try (BinaryRecordReader reader = new BinaryRecordReader(new FileInputStream(segment))) {
+                Optional<AuditRecord> record = reader.next();
+                while (record.isPresent()) {
+                    assertEquals(record.get().getQueryId(), "20170606_044544_00024_nfhe3");
+                    assertEquals(record.get().getSource(), "presto-cli");
+                    records++;
+                    record = reader.next();
+                }
+            }
+        }
+        assertEquals(records, 20);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.facebook.presto.spi.eventlistener.QueryCompletedEvent;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+
+public class TestHeartbeatEmitter
+{
+    private static final long NOW = 1_500_080_500_000L;
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testWatermark()
+    {
+        AtomicReference<Optional<Instant>> pending = new AtomicReference<>(Optional.empty());
+        HeartbeatEmitter emitter = createEmitter(pending);
+
+        SerializedLog heartbeat = emitter.heartbeat(NOW);
+        assertThat(heartbeat.getSerializedLog())
+                .contains("\"eventType\":\"Heartbeat\"")
+                .contains("\"coordinatorId\":\"coordinator-1\"")
+                .contains("\"watermark\":1.500080495E9")
+                .contains("\"timestamp\":1.5000805E9");
+        assertEquals(heartbeat.getEventTime(), Optional.of(Instant.ofEpochMilli(NOW - 5000)));
+
+        // Records queued in the sinks hold the watermark
+        pending.set(Optional.of(Instant.ofEpochMilli(NOW - 3000)));
+        assertEquals(emitter.heartbeat(NOW + 10_000).getEventTime(), Optional.of(Instant.ofEpochMilli(NOW - 3000)));
+    }
+
+    @Test
+    public void testCompletingQueryHoldsWatermark()
+    {
+        HeartbeatEmitter emitter = createEmitter(new AtomicReference<>(Optional.empty()));
+        QueryCompletedEvent event = testHelper.createNormalEvent();
+        long endTime = event.getEndTime().toEpochMilli();
+
+        emitter.begin(event);
+        SerializedLog heartbeat = emitter.heartbeat(endTime + 60_000);
+        assertEquals(heartbeat.getEventTime(), Optional.of(event.getEndTime()));
+        assertThat(heartbeat.getSerializedLog()).contains("\"completingQueries\":1");
+
+        emitter.end(event);
+        assertEquals(emitter.heartbeat(endTime + 60_000).getEventTime(), Optional.of(Instant.ofEpochMilli(endTime + 55_000)));
+    }
+
+    @Test
+    public void testWatermarkNeverMovesBack()
+    {
+        AtomicReference<Optional<Instant>> pending = new AtomicReference<>(Optional.empty());
+        HeartbeatEmitter emitter = createEmitter(pending);
+        emitter.heartbeat(NOW);
+
+        pending.set(Optional.of(Instant.ofEpochMilli(NOW - 60_000)));
+        assertEquals(emitter.heartbeat(NOW + 1000).getEventTime(), Optional.of(Instant.ofEpochMilli(NOW - 5000)));
+        assertEquals(emitter.getLastWatermarkMillis(), NOW - 5000);
+    }
+
+    private static HeartbeatEmitter createEmitter(AtomicReference<Optional<Instant>> pending)
+    {
+        return new HeartbeatEmitter("coordinator-1", new Duration(10, TimeUnit.SECONDS), new Duration(5, TimeUnit.SECONDS), pending::get);
+    }
+}
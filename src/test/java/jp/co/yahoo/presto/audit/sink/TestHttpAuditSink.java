@@ -0,0 +1,188 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharStreams;
+import io.airlift.http.server.HttpServerConfig;
+import io.airlift.http.server.HttpServerInfo;
+import io.airlift.http.server.testing.TestingHttpServer;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestHttpAuditSink
+{
+    private CollectorServlet collector;
+    private TestingHttpServer server;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        collector = new CollectorServlet();
+        NodeInfo nodeInfo = new NodeInfo("test");
+        HttpServerConfig config = new HttpServerConfig().setHttpPort(0);
+        HttpServerInfo httpServerInfo = new HttpServerInfo(config, nodeInfo);
+        server = new TestingHttpServer(httpServerInfo, nodeInfo, config, collector, ImmutableMap.of());
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void testBatchedNdjson()
+            throws Exception
+    {
+        HttpAuditSink sink = createSink(10, 1, 0);
+        for (int i = 0; i < 25; i++) {
+            sink.publish(LogType.SIMPLE, new SerializedLog("query_" + i, "{\"queryId\":\"query_" + i + "\"}"));
+        }
+        sink.publish(LogType.FULL, new SerializedLog("query_0", "{\"full\":true}"));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 26);
+        assertEquals(collector.lines.get("/simple").size(), 25);
+        assertEquals(collector.lines.get("/simple").get(0), "{\"queryId\":\"query_0\"}");
+        assertEquals(collector.lines.get("/full").size(), 1);
+        assertEquals(collector.contentEncodings, ImmutableSet.of("gzip"));
+        assertTrue(collector.requests.get() >= 3);
+
+        // One worker posting in sequence reuses a single keep-alive connection
+        assertEquals(collector.remotePorts.size(), 1);
+    }
+
+    @Test
+    public void testRetryOnServerError()
+            throws Exception
+    {
+        collector.failures.set(2);
+        HttpAuditSink sink = createSink(10, 1, 2);
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_1", "{}"));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 1);
+        assertEquals(sink.getFailedRecords().getTotalCount(), 0);
+        assertEquals(collector.requests.get(), 3);
+    }
+
+    @Test
+    public void testGiveUpAfterMaxRetries()
+            throws Exception
+    {
+        collector.failures.set(10);
+        HttpAuditSink sink = createSink(10, 1, 1);
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_1", "{}"));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 0);
+        assertEquals(sink.getFailedRecords().getTotalCount(), 1);
+        assertEquals(collector.requests.get(), 2);
+    }
+
+    @Test
+    public void testFailedEndpointDoesNotFailOtherRecords()
+            throws Exception
+    {
+        collector.failingUris.add("/full");
+        HttpAuditSink sink = createSink(10, 1, 1);
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_1", "{\"queryId\":\"query_1\"}"));
+        sink.publish(LogType.FULL, new SerializedLog("query_1", "{\"full\":true}"));
+        sink.publish(LogType.SIMPLE, new SerializedLog("query_2", "{\"queryId\":\"query_2\"}"));
+        sink.start();
+        sink.close();
+
+        assertEquals(collector.lines.get("/simple").size(), 2);
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 2);
+        assertEquals(sink.getFailedRecords().getTotalCount(), 1);
+    }
+
+    private HttpAuditSink createSink(int batchSize, int concurrency, int maxRetries)
+            throws IOException
+    {
+        return new HttpAuditSink(
+                Optional.of(new URL(server.getBaseUrl() + "/simple")),
+                Optional.of(new URL(server.getBaseUrl() + "/full")),
+                100,
+                batchSize,
+                new Duration(0, TimeUnit.MILLISECONDS),
+                concurrency,
+                maxRetries,
+                new Duration(1, TimeUnit.MILLISECONDS),
+                new Duration(5, TimeUnit.SECONDS));
+    }
+
+    private static class CollectorServlet
+            extends HttpServlet
+    {
+        private final Map<String, List<String>> lines = new ConcurrentHashMap<>();
+        private final Set<String> contentEncodings = ConcurrentHashMap.newKeySet();
+        private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final Set<String> failingUris = ConcurrentHashMap.newKeySet();
+
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                throws IOException
+        {
+            requests.incrementAndGet();
+            remotePorts.add(request.getRemotePort());
+            if (failures.getAndDecrement() > 0 || failingUris.contains(request.getRequestURI())) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            contentEncodings.add(request.getHeader("Content-Encoding"));
+            try (InputStreamReader reader = new InputStreamReader(new GZIPInputStream(request.getInputStream()), StandardCharsets.UTF_8)) {
+                lines.computeIfAbsent(request.getRequestURI(), uri -> new CopyOnWriteArrayList<>())
+                        .addAll(CharStreams.readLines(reader));
+            }
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+}
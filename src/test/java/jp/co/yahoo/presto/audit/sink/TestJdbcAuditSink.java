@@ -0,0 +1,166 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.sink;
+
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.SerializedLog;
+import jp.co.yahoo.presto.audit.serializer.SimpleLogSerializer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestJdbcAuditSink
+{
+    private final TestHelper testHelper = new TestHelper();
+    private final SimpleLogSerializer simpleLogSerializer = new SimpleLogSerializer();
+    private String url;
+    private Connection connection;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        // Keep the in-memory database alive for the whole test
+        url = "jdbc:h2:mem:audit_" + UUID.randomUUID().toString().replace("-", "");
+        connection = DriverManager.getConnection(url);
+        String ddl = new String(Files.readAllBytes(new File("src/sql/jdbc_ddl.sql").toPath()), StandardCharsets.UTF_8);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ddl);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws SQLException
+    {
+        connection.close();
+    }
+
+    @Test
+    public void testBatchInsert()
+            throws Exception
+    {
+        JdbcAuditSink sink = createSink("presto_audit", 10);
+        SerializedLog normal = simpleLogSerializer.serialize(testHelper.createNormalEvent());
+        for (int i = 0; i < 24; i++) {
+            sink.publish(LogType.SIMPLE, normal);
+        }
+        sink.publish(LogType.SIMPLE, simpleLogSerializer.serialize(testHelper.createFailureEvent()));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 25);
+        assertEquals(sink.getWrittenBatches().getTotalCount(), 3);
+        try (Statement statement = connection.createStatement()) {
+            ResultSet count = statement.executeQuery("SELECT count(*) FROM presto_audit");
+            assertTrue(count.next());
+            assertEquals(count.getLong(1), 25);
+
+            ResultSet row = statement.executeQuery("SELECT queryId, source, endTime, errorName FROM presto_audit WHERE errorCode = 0 LIMIT 1");
+            assertTrue(row.next());
+            assertEquals(row.getString("queryId"), "20170606_044544_00024_nfhe3");
+            assertEquals(row.getString("source"), "presto-cli");
+            assertEquals(row.getTimestamp("endTime"), new Timestamp(1500080403000L));
+
+            ResultSet failure = statement.executeQuery("SELECT errorName FROM presto_audit WHERE errorCode = 1");
+            assertTrue(failure.next());
+            assertEquals(failure.getString("errorName"), "SYNTAX_ERROR");
+            assertFalse(failure.next());
+        }
+    }
+
+    @Test
+    public void testFailuresHash()
+            throws Exception
+    {
+        JdbcAuditSink sink = createSink("presto_audit", 10);
+        SerializedLog failure = simpleLogSerializer.serialize(testHelper.createFailureEvent());
+        failure.getRecord().get().setFailuresJson(null);
+        failure.getRecord().get().setFailuresHash("5d41402abc4b2a76");
+        sink.publish(LogType.SIMPLE, failure);
+        sink.start();
+        sink.close();
+
+        try (Statement statement = connection.createStatement()) {
+            ResultSet row = statement.executeQuery("SELECT failuresJson, failuresHash FROM presto_audit");
+            assertTrue(row.next());
+            assertEquals(row.getString("failuresJson"), null);
+            assertEquals(row.getString("failuresHash"), "5d41402abc4b2a76");
+        }
+    }
+
+    @Test
+    public void testSheddingLevel()
+            throws Exception
+    {
+        JdbcAuditSink sink = createSink("presto_audit", 10);
+        sink.publish(LogType.SIMPLE, simpleLogSerializer.serialize(testHelper.createNormalEvent(), Optional.empty(), 2, true));
+        sink.publish(LogType.SIMPLE, simpleLogSerializer.serialize(testHelper.createNormalEvent()));
+        sink.start();
+        sink.close();
+
+        try (Statement statement = connection.createStatement()) {
+            ResultSet row = statement.executeQuery("SELECT sheddingLevel FROM presto_audit ORDER BY sheddingLevel");
+            assertTrue(row.next());
+            assertEquals(row.getObject("sheddingLevel"), null);
+            assertTrue(row.next());
+            assertEquals(row.getInt("sheddingLevel"), 2);
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsRolledBack()
+            throws Exception
+    {
+        JdbcAuditSink sink = createSink("missing_table", 10);
+        sink.publish(LogType.SIMPLE, simpleLogSerializer.serialize(testHelper.createNormalEvent()));
+        sink.start();
+        sink.close();
+
+        assertEquals(sink.getWrittenRecords().getTotalCount(), 0);
+        assertEquals(sink.getFailedRecords().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testAcceptsSimpleLogOnly()
+    {
+        JdbcAuditSink sink = createSink("presto_audit", 10);
+        assertTrue(sink.accepts(LogType.SIMPLE));
+        assertFalse(sink.accepts(LogType.FULL));
+    }
+
+    private JdbcAuditSink createSink(String table, int batchSize)
+    {
+        return new JdbcAuditSink(url, Optional.empty(), Optional.empty(), table, 100, batchSize, new Duration(0, TimeUnit.MILLISECONDS), 1);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestInFlightQueryTracker
+{
+    private static final Duration MAX_AGE = new Duration(1, TimeUnit.DAYS);
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testCreatedAndCompleted()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(10, false, MAX_AGE);
+        tracker.created(testHelper.createQueryCreatedEvent("query_1", Instant.ofEpochMilli(1000)));
+        tracker.created(testHelper.createQueryCreatedEvent("query_2", Instant.ofEpochMilli(2000)));
+        assertEquals(tracker.getInFlightCount(), 2);
+
+        tracker.completed("query_1");
+        tracker.completed("unknown");
+        assertEquals(tracker.getInFlightCount(), 1);
+        assertEquals(tracker.getCreatedBefore(Long.MAX_VALUE).get(0).getQueryId(), "query_2");
+        assertEquals(tracker.getCreatedCount(), 2);
+    }
+
+    @Test
+    public void testBounded()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(3, false, MAX_AGE);
+        for (int i = 0; i < 5; i++) {
+            tracker.created(testHelper.createQueryCreatedEvent("query_" + i, Instant.ofEpochMilli(i)));
+        }
+        assertEquals(tracker.getInFlightCount(), 3);
+        assertEquals(tracker.getUntrackedCount(), 2);
+
+        tracker.completed("query_0");
+        tracker.created(testHelper.createQueryCreatedEvent("query_5", Instant.ofEpochMilli(5)));
+        assertEquals(tracker.getInFlightCount(), 3);
+    }
+
+    @Test
+    public void testExpired()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(2, false, new Duration(1, TimeUnit.MINUTES));
+        tracker.created(testHelper.createQueryCreatedEvent("query_lost", Instant.ofEpochMilli(1_000)));
+        tracker.created(testHelper.createQueryCreatedEvent("query_new", Instant.ofEpochMilli(100_000)));
+
+        tracker.expire(120_000);
+        assertEquals(tracker.getInFlightCount(), 1);
+        assertEquals(tracker.getExpiredCount(), 1);
+        assertEquals(tracker.getCreatedBefore(Long.MAX_VALUE).get(0).getQueryId(), "query_new");
+
+        // The entry of the lost query is free again
+        tracker.created(testHelper.createQueryCreatedEvent("query_next", Instant.ofEpochMilli(110_000)));
+        assertEquals(tracker.getInFlightCount(), 2);
+        assertEquals(tracker.getUntrackedCount(), 0);
+    }
+
+    @Test
+    public void testCreatedBefore()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(10, false, MAX_AGE);
+        tracker.created(testHelper.createQueryCreatedEvent("query_3", Instant.ofEpochMilli(3000)));
+        tracker.created(testHelper.createQueryCreatedEvent("query_1", Instant.ofEpochMilli(1000)));
+        tracker.created(testHelper.createQueryCreatedEvent("query_2", Instant.ofEpochMilli(2000)));
+
+        List<InFlightQuery> queries = tracker.getCreatedBefore(2000);
+        assertEquals(queries.size(), 2);
+        assertEquals(queries.get(0).getQueryId(), "query_1");
+        assertEquals(queries.get(1).getQueryId(), "query_2");
+    }
+
+    @Test
+    public void testSnapshot()
+            throws IOException
+    {
+        File directory = Files.createTempDirectory("snapshot").toFile();
+        try {
+            InFlightQueryTracker tracker = new InFlightQueryTracker(10, false, MAX_AGE);
+            tracker.created(testHelper.createQueryCreatedEvent("query_old", Instant.ofEpochMilli(1_000)));
+            tracker.created(testHelper.createQueryCreatedEvent("query_new", Instant.ofEpochMilli(590_000)));
+            File snapshot = new File(directory, "long-running.json");
+            LongRunningQuerySnapshotWriter writer = new LongRunningQuerySnapshotWriter(tracker, snapshot, new Duration(5, TimeUnit.MINUTES), new Duration(1, TimeUnit.MINUTES));
+
+            writer.writeSnapshot(601_000);
+            List<String> lines = Files.readAllLines(snapshot.toPath(), StandardCharsets.UTF_8);
+            assertEquals(lines.size(), 1);
+            JsonObject entry = new Gson().fromJson(lines.get(0), JsonObject.class);
+            assertEquals(entry.get("queryId").getAsString(), "query_old");
+            assertEquals(entry.get("clientUser").getAsString(), "test-user");
+            assertEquals(entry.get("source").getAsString(), "presto-cli");
+            assertEquals(entry.get("runningTime").getAsDouble(), 600.0);
+
+            tracker.completed("query_old");
+            writer.writeSnapshot(601_000);
+            assertEquals(Files.readAllLines(snapshot.toPath(), StandardCharsets.UTF_8).size(), 0);
+            assertFalse(new File(directory, "long-running.json.tmp").exists());
+        }
+        finally {
+            MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+    }
+}
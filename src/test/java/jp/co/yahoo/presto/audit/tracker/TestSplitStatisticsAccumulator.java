@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.yahoo.presto.audit.tracker;
+
+import io.airlift.units.Duration;
+import jp.co.yahoo.presto.audit.TestHelper;
+import jp.co.yahoo.presto.audit.serializer.SplitStatisticsSummary;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestSplitStatisticsAccumulator
+{
+    private static final Duration MAX_AGE = new Duration(1, TimeUnit.DAYS);
+
+    private final TestHelper testHelper = new TestHelper();
+
+    @Test
+    public void testSummary()
+    {
+        SplitStatisticsAccumulator accumulator = new SplitStatisticsAccumulator();
+        for (int i = 1; i <= 100; i++) {
+            accumulator.add(testHelper.createSplitCompletedEvent("query", 10, i * 10, i, i == 100));
+        }
+        SplitStatisticsSummary summary = accumulator.summarize();
+        assertEquals(summary.getSplits(), 100);
+        assertEquals(summary.getFailedSplits(), 1);
+        assertEquals(summary.getQueuedTime(), 1.0, 1e-9);
+        assertEquals(summary.getMaxQueuedTime(), 0.01, 1e-9);
+        assertEquals(summary.getWallTime(), 50.5, 1e-9);
+        assertEquals(summary.getMaxWallTime(), 1.0, 1e-9);
+        assertEquals(summary.getCpuTime(), 5.05, 1e-9);
+        assertEquals(summary.getMaxCpuTime(), 0.1, 1e-9);
+        assertEquals(summary.getCompletedBytes(), 100_000);
+        assertEquals(summary.getCompletedRows(), 10_000);
+        assertThat(summary.getWallTimeP50()).isCloseTo(0.5, within(0.5 * 0.125));
+        assertThat(summary.getWallTimeP90()).isCloseTo(0.9, within(0.9 * 0.125));
+        assertThat(summary.getWallTimeP99()).isCloseTo(0.99, within(0.99 * 0.125));
+    }
+
+    @Test
+    public void testEmptySummary()
+    {
+        SplitStatisticsSummary summary = new SplitStatisticsAccumulator().summarize();
+        assertEquals(summary.getSplits(), 0);
+        assertEquals(summary.getWallTimeP99(), 0.0);
+    }
+
+    @Test
+    public void testQuantileSketchBuckets()
+    {
+        int previousIndex = 0;
+        for (long value = 0; value < 100_000; value++) {
+            int index = QuantileSketch.bucketIndex(value);
+            long lowerBound = QuantileSketch.lowerBound(index);
+            assertTrue(index >= previousIndex, "value " + value);
+            assertTrue(lowerBound <= value && value - lowerBound <= value / 4, "value " + value);
+            previousIndex = index;
+        }
+        assertEquals(QuantileSketch.bucketIndex(Long.MAX_VALUE), QuantileSketch.bucketIndex(1L << 40));
+    }
+
+    @Test
+    public void testTrackerAttachesAndDropsSplits()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(10, true, MAX_AGE);
+        tracker.created(testHelper.createQueryCreatedEvent("query_1", Instant.ofEpochMilli(1000)));
+        tracker.splitCompleted(testHelper.createSplitCompletedEvent("query_1", 1, 20, 10, false));
+        tracker.splitCompleted(testHelper.createSplitCompletedEvent("query_1", 1, 40, 10, false));
+        tracker.splitCompleted(testHelper.createSplitCompletedEvent("unknown", 1, 40, 10, false));
+
+        Optional<InFlightQuery> query = tracker.completed("query_1");
+        assertTrue(query.isPresent());
+        assertEquals(query.get().getSplitStatistics().get().summarize().getSplits(), 2);
+
+        // Splits reported after completion are ignored
+        tracker.splitCompleted(testHelper.createSplitCompletedEvent("query_1", 1, 40, 10, false));
+        assertFalse(tracker.completed("query_1").isPresent());
+        assertEquals(tracker.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testTrackerWithoutSplits()
+    {
+        InFlightQueryTracker tracker = new InFlightQueryTracker(10, false, MAX_AGE);
+        tracker.created(testHelper.createQueryCreatedEvent("query_1", Instant.ofEpochMilli(1000)));
+        tracker.splitCompleted(testHelper.createSplitCompletedEvent("query_1", 1, 20, 10, false));
+        assertFalse(tracker.completed("query_1").get().getSplitStatistics().isPresent());
+    }
+}